@@ -27,8 +27,10 @@ import org.datavec.api.records.metadata.RecordMetaData;
 import org.datavec.api.records.metadata.RecordMetaDataLine;
 import org.datavec.api.records.reader.impl.LineRecordReader;
 import org.datavec.api.split.InputSplit;
+import org.datavec.api.transform.schema.Schema;
 import org.datavec.api.writable.Text;
 import org.datavec.api.writable.Writable;
+import org.datavec.api.writable.batch.ColumnarRecordBatch;
 import org.nd4j.common.base.Preconditions;
 
 import java.io.BufferedReader;
@@ -51,6 +53,7 @@ public class CSVRecordReader extends LineRecordReader {
     public final static String QUOTE = NAME_SPACE + ".quote";
 
     private SerializableCSVParser csvParser;
+    protected Schema columnarSchema;
 
     /**
      * Skip first n lines
@@ -121,6 +124,22 @@ public class CSVRecordReader extends LineRecordReader {
         this(skipNumLines, stringDelimToChar(delimiter), stringDelimToChar(quote));
     }
 
+    /**
+     * Create a CSVRecordReader that returns columnar batches: {@link #next(int)} parses the values directly into a
+     * {@link ColumnarRecordBatch} with the specified schema, without creating a {@link Text} writable for each value.
+     * This is much more efficient when the batches are converted to INDArrays - for example, by
+     * RecordReaderDataSetIterator. Note that {@link #next()} is not affected, and still returns Text writables.
+     *
+     * @param skipNumLines Number of lines to skip
+     * @param delimiter    Delimiter to use
+     * @param quote        The quote to strip
+     * @param schema       Schema for the CSV columns, used to parse values in {@link #next(int)}
+     */
+    public CSVRecordReader(int skipNumLines, char delimiter, char quote, Schema schema) {
+        this(skipNumLines, delimiter, quote);
+        this.columnarSchema = schema;
+    }
+
     public CSVRecordReader() {
         this(0, DEFAULT_DELIMITER);
     }
@@ -157,6 +176,9 @@ public class CSVRecordReader extends LineRecordReader {
 
     @Override
     public List<List<Writable>> next(int num) {
+        if (columnarSchema != null) {
+            return nextColumnar(num);
+        }
         List<List<Writable>> ret = new ArrayList<>(Math.min(num, 10000));
         int recordsRead = 0;
         while(hasNext() && recordsRead++ < num) {
@@ -174,13 +196,35 @@ public class CSVRecordReader extends LineRecordReader {
         return parseLine(val);
     }
 
-    protected List<Writable> parseLine(String line) {
-        String[] split;
+    protected ColumnarRecordBatch nextColumnar(int num) {
+        int nColumns = columnarSchema.numColumns();
+        ColumnarRecordBatch ret = new ColumnarRecordBatch(columnarSchema, Math.min(num, 10000));
+        int recordsRead = 0;
+        while(hasNext() && recordsRead++ < num) {
+            String[] split = parse(readStringLine());
+            if(split.length != nColumns) {
+                throw new IllegalStateException("Invalid CSV line " + (lineIndex - 1) + ": expected " + nColumns +
+                        " values (as per schema) but got " + split.length);
+            }
+            int row = ret.appendRow();
+            for( int j = 0; j < nColumns; j++) {
+                ret.setFromString(row, j, split[j]);
+            }
+        }
+
+        return ret;
+    }
+
+    protected String[] parse(String line) {
         try {
-            split = csvParser.parseLine(line);
+            return csvParser.parseLine(line);
         } catch(IOException e) {
             throw new RuntimeException(e);
         }
+    }
+
+    protected List<Writable> parseLine(String line) {
+        String[] split = parse(line);
         List<Writable> ret = new ArrayList<>();
         for (String s : split) {
             ret.add(new Text(s));
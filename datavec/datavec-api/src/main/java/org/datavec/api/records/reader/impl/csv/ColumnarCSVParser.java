@@ -0,0 +1,558 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.datavec.api.records.reader.impl.csv;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.datavec.api.transform.ColumnType;
+import org.datavec.api.transform.schema.Schema;
+import org.datavec.api.writable.batch.ColumnarRecordBatch;
+import org.nd4j.common.base.Preconditions;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * A byte-level CSV parser that parses values directly from {@link ByteBuffer}s into a {@link ColumnarRecordBatch}.<br>
+ * Unlike {@link CSVRecordReader}, no intermediate String or Text objects are created for numeric columns: integer
+ * values are parsed directly from the bytes, as are decimal values with up to 18 significant digits and small
+ * exponents (these are exactly representable, so the result is identical to {@link Double#parseDouble(String)}).
+ * Other decimal values fall back to the standard (String based) parsing.<br>
+ * <br>
+ * Limitations compared to {@link SerializableCSVParser}:<br>
+ * - The delimiter and quote characters must be single byte (ASCII) characters<br>
+ * - Quoted values may not contain line breaks. Quotes within quoted values must be escaped by doubling them<br>
+ * - Values are parsed according to the schema; columns of type Bytes and NDArray are not supported<br>
+ * <br>
+ * Instances are stateless and thread safe. See also {@link #parseFile(File, int, int)} for parsing a single large file
+ * in parallel, and {@link ColumnarCSVRecordReader} for a record reader based on this parser.
+ */
+public class ColumnarCSVParser implements Serializable {
+
+    /**
+     * Maximum size of each chunk of a file for {@link #parseFile(File, int, int)}
+     */
+    public static final long MAX_CHUNK_BYTES = 256L * 1024 * 1024;
+
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POW10 = new double[23];
+    private static final float[] POW10_F = new float[11];
+
+    static {
+        double d = 1.0;
+        for (int i = 0; i < POW10.length; i++) {
+            POW10[i] = d;
+            d *= 10;
+        }
+        float f = 1.0f;
+        for (int i = 0; i < POW10_F.length; i++) {
+            POW10_F[i] = f;
+            f *= 10;
+        }
+    }
+
+    @Getter
+    private final Schema schema;
+    private final ColumnType[] types;
+    private final byte delimiter;
+    private final byte quote;
+
+    public ColumnarCSVParser(@NonNull Schema schema) {
+        this(schema, CSVRecordReader.DEFAULT_DELIMITER, CSVRecordReader.DEFAULT_QUOTE);
+    }
+
+    /**
+     * @param schema    Schema for the CSV columns
+     * @param delimiter Delimiter character. Must be an ASCII character
+     * @param quote     Quote character. Must be an ASCII character
+     */
+    public ColumnarCSVParser(@NonNull Schema schema, char delimiter, char quote) {
+        Preconditions.checkArgument(delimiter < 128 && quote < 128 && delimiter != quote, "Delimiter and quote must be " +
+                "different ASCII characters, got delimiter '%s' and quote '%s'", delimiter, quote);
+        Preconditions.checkArgument(delimiter != '\n' && delimiter != '\r', "Delimiter must not be a line break character");
+        this.schema = schema;
+        this.types = new ColumnType[schema.numColumns()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = schema.getType(i);
+            if (types[i] == ColumnType.Bytes || types[i] == ColumnType.NDArray) {
+                throw new UnsupportedOperationException("Column \"" + schema.getName(i) + "\" has type " + types[i] +
+                        ": only numerical, boolean, string and categorical columns are supported");
+            }
+        }
+        this.delimiter = (byte) delimiter;
+        this.quote = (byte) quote;
+    }
+
+    /**
+     * Parse lines from the buffer (from the buffer's position to its limit) and append them to the batch. Empty lines
+     * are skipped. After this method returns, the buffer's position is the start of the first line that was not parsed.
+     *
+     * @param buffer     Buffer to parse
+     * @param endOfInput If true: the buffer contains the end of the input, hence a final line without a line break is
+     *                   parsed. If false: a final line without a line break is assumed to be incomplete, and is not
+     *                   parsed
+     * @param out        Batch to append the records to
+     * @param maxRecords Maximum number of records to parse
+     * @return Number of records parsed
+     */
+    public int parse(@NonNull ByteBuffer buffer, boolean endOfInput, @NonNull ColumnarRecordBatch out, int maxRecords) {
+        Preconditions.checkArgument(out.numColumns() == types.length, "Batch has %s columns, schema has %s columns",
+                out.numColumns(), types.length);
+        int pos = buffer.position();
+        int limit = buffer.limit();
+        int count = 0;
+        while (count < maxRecords && pos < limit) {
+            byte b = buffer.get(pos);
+            if (b == '\n' || b == '\r') {
+                //Empty line, or \n of \r\n line ending
+                pos++;
+                continue;
+            }
+            int eol = pos;
+            while (eol < limit && buffer.get(eol) != '\n') {
+                eol++;
+            }
+            if (eol == limit && !endOfInput) {
+                break;
+            }
+            int lineEnd = eol;
+            if (buffer.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            parseLine(buffer, pos, lineEnd, out);
+            pos = Math.min(eol + 1, limit);
+            count++;
+        }
+        buffer.position(pos);
+        return count;
+    }
+
+    /**
+     * Skip lines at the start of the buffer
+     *
+     * @param buffer   Buffer. The position is advanced past the skipped lines
+     * @param numLines Number of lines to skip
+     * @return Number of lines skipped - less than numLines if the end of the buffer was reached first. A final line
+     * without a line break is not counted, and not skipped
+     */
+    public static int skipLines(@NonNull ByteBuffer buffer, int numLines) {
+        int pos = buffer.position();
+        int limit = buffer.limit();
+        int skipped = 0;
+        while (skipped < numLines) {
+            int eol = pos;
+            while (eol < limit && buffer.get(eol) != '\n') {
+                eol++;
+            }
+            if (eol == limit) {
+                break;
+            }
+            pos = eol + 1;
+            skipped++;
+        }
+        buffer.position(pos);
+        return skipped;
+    }
+
+    /**
+     * Parse an entire file in parallel. The file is split into chunks (at least one per thread, and at most
+     * {@link #MAX_CHUNK_BYTES} each) on line boundaries; each chunk is memory mapped and parsed independently.
+     *
+     * @param file         File to parse
+     * @param skipNumLines Number of lines to skip at the start of the file
+     * @param numThreads   Number of threads to use
+     * @return One batch per chunk, in the order of the file
+     */
+    public List<ColumnarRecordBatch> parseFile(@NonNull File file, int skipNumLines, int numThreads) throws IOException {
+        Preconditions.checkArgument(numThreads > 0, "Number of threads must be positive, got %s", numThreads);
+        try (final FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = ch.size();
+            long start = skipLines(ch, skipNumLines);
+            int nChunks = (int) Math.max(numThreads, (size - start + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+            long[] bounds = new long[nChunks + 1];
+            bounds[0] = start;
+            bounds[nChunks] = size;
+            for (int i = 1; i < nChunks; i++) {
+                long nominal = start + (size - start) * i / nChunks;
+                bounds[i] = Math.max(bounds[i - 1], nextLineStart(ch, nominal));
+            }
+
+            ExecutorService exec = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = Executors.defaultThreadFactory().newThread(r);
+                    t.setDaemon(true);
+                    t.setName("ColumnarCSVParser-" + t.getName());
+                    return t;
+                }
+            });
+            try {
+                List<Future<ColumnarRecordBatch>> futures = new ArrayList<>(nChunks);
+                for (int i = 0; i < nChunks; i++) {
+                    final long chunkStart = bounds[i];
+                    final long chunkLength = bounds[i + 1] - bounds[i];
+                    futures.add(exec.submit(new Callable<ColumnarRecordBatch>() {
+                        @Override
+                        public ColumnarRecordBatch call() throws Exception {
+                            ColumnarRecordBatch b = new ColumnarRecordBatch(schema, 1024);
+                            if (chunkLength > 0) {
+                                ByteBuffer bb = ch.map(FileChannel.MapMode.READ_ONLY, chunkStart, chunkLength);
+                                parse(bb, true, b, Integer.MAX_VALUE);
+                            }
+                            return b;
+                        }
+                    }));
+                }
+
+                List<ColumnarRecordBatch> out = new ArrayList<>(nChunks);
+                for (Future<ColumnarRecordBatch> f : futures) {
+                    try {
+                        out.add(f.get());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while parsing file " + file, e);
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof IOException) {
+                            throw (IOException) cause;
+                        } else if (cause instanceof RuntimeException) {
+                            throw (RuntimeException) cause;
+                        }
+                        throw new RuntimeException("Error parsing file " + file, cause);
+                    }
+                }
+                return out;
+            } finally {
+                exec.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * @return Offset of the first byte after the first numLines lines of the channel
+     */
+    private static long skipLines(FileChannel ch, int numLines) throws IOException {
+        long pos = 0;
+        int remaining = numLines;
+        ByteBuffer bb = ByteBuffer.allocate(64 * 1024);
+        while (remaining > 0) {
+            bb.clear();
+            int n = ch.read(bb, pos);
+            if (n <= 0) {
+                return ch.size();
+            }
+            for (int i = 0; i < n; i++) {
+                if (bb.get(i) == '\n' && --remaining == 0) {
+                    return pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+        return pos;
+    }
+
+    /**
+     * @return Offset of the start of the first line starting at or after the specified position
+     */
+    private static long nextLineStart(FileChannel ch, long position) throws IOException {
+        if (position == 0) {
+            return 0;
+        }
+        ByteBuffer bb = ByteBuffer.allocate(64 * 1024);
+        long pos = position - 1;
+        long size = ch.size();
+        while (pos < size) {
+            bb.clear();
+            int n = ch.read(bb, pos);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (bb.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    private void parseLine(ByteBuffer buf, int start, int end, ColumnarRecordBatch out) {
+        int row = out.appendRow();
+        int col = 0;
+        int p = start;
+        while (true) {
+            if (col >= types.length) {
+                throw new IllegalStateException("Invalid CSV line: expected " + types.length + " values (as per " +
+                        "schema) but got more: \"" + toString(buf, start, end) + "\"");
+            }
+            if (p < end && buf.get(p) == quote) {
+                int q = p + 1;
+                boolean escaped = false;
+                while (q < end) {
+                    if (buf.get(q) == quote) {
+                        if (q + 1 < end && buf.get(q + 1) == quote) {
+                            escaped = true;
+                            q += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    q++;
+                }
+                setValue(buf, p + 1, Math.min(q, end), escaped, row, col, out);
+                p = q + 1;
+                while (p < end && buf.get(p) != delimiter) {
+                    p++;
+                }
+            } else {
+                int q = p;
+                while (q < end && buf.get(q) != delimiter) {
+                    q++;
+                }
+                setValue(buf, p, q, false, row, col, out);
+                p = q;
+            }
+            col++;
+            if (p >= end) {
+                break;
+            }
+            p++;    //Skip delimiter
+        }
+        if (col != types.length) {
+            throw new IllegalStateException("Invalid CSV line: expected " + types.length + " values (as per schema) " +
+                    "but got " + col + ": \"" + toString(buf, start, end) + "\"");
+        }
+    }
+
+    private void setValue(ByteBuffer buf, int start, int end, boolean escapedQuotes, int row, int col,
+                          ColumnarRecordBatch out) {
+        switch (types[col]) {
+            case Double:
+                out.setDouble(row, col, parseDouble(buf, start, end));
+                break;
+            case Float:
+                out.setFloat(row, col, parseFloat(buf, start, end));
+                break;
+            case Integer:
+            case Long:
+            case Time:
+                out.setLong(row, col, parseLong(buf, start, end));
+                break;
+            case Boolean:
+                out.setBoolean(row, col, isTrue(buf, start, end));
+                break;
+            default:
+                String s = toString(buf, start, end);
+                if (escapedQuotes) {
+                    String q = String.valueOf((char) quote);
+                    s = s.replace(q + q, q);
+                }
+                out.setString(row, col, s);
+        }
+    }
+
+    /**
+     * Parse a long value from the specified bytes - equivalent to {@link Long#parseLong(String)}
+     */
+    public static long parseLong(ByteBuffer buf, int start, int end) {
+        int p = start;
+        boolean neg = false;
+        if (p < end && (buf.get(p) == '-' || buf.get(p) == '+')) {
+            neg = buf.get(p) == '-';
+            p++;
+        }
+        if (p == end) {
+            throw invalidNumber(buf, start, end);
+        }
+        //Accumulate negatively, to handle Long.MIN_VALUE
+        long v = 0;
+        for (; p < end; p++) {
+            int d = buf.get(p) - '0';
+            if (d < 0 || d > 9 || v < (Long.MIN_VALUE + d) / 10) {
+                throw invalidNumber(buf, start, end);
+            }
+            v = v * 10 - d;
+        }
+        if (!neg) {
+            if (v == Long.MIN_VALUE) {
+                throw invalidNumber(buf, start, end);
+            }
+            v = -v;
+        }
+        return v;
+    }
+
+    /**
+     * Parse a double value from the specified bytes - equivalent to {@link Double#parseDouble(String)}
+     */
+    public static double parseDouble(ByteBuffer buf, int start, int end) {
+        int p = start;
+        boolean neg = false;
+        if (p < end && (buf.get(p) == '-' || buf.get(p) == '+')) {
+            neg = buf.get(p) == '-';
+            p++;
+        }
+        long mantissa = 0;
+        int sigDigits = 0;
+        int exp10 = 0;
+        int nDigits = 0;
+        boolean fraction = false;
+        for (; p < end; p++) {
+            byte b = buf.get(p);
+            if (b == '.' && !fraction) {
+                fraction = true;
+                continue;
+            }
+            int d = b - '0';
+            if (d < 0 || d > 9) {
+                break;
+            }
+            nDigits++;
+            if (mantissa != 0 || d != 0) {
+                if (++sigDigits > 18) {
+                    return slowParseDouble(buf, start, end);
+                }
+                mantissa = mantissa * 10 + d;
+            }
+            if (fraction) {
+                exp10--;
+            }
+        }
+        if (nDigits == 0) {
+            //"NaN", "Infinity", invalid values, etc
+            return slowParseDouble(buf, start, end);
+        }
+        if (p < end) {
+            byte b = buf.get(p);
+            if (b != 'e' && b != 'E') {
+                return slowParseDouble(buf, start, end);
+            }
+            p++;
+            boolean negExp = false;
+            if (p < end && (buf.get(p) == '-' || buf.get(p) == '+')) {
+                negExp = buf.get(p) == '-';
+                p++;
+            }
+            if (p == end || end - p > 3) {
+                return slowParseDouble(buf, start, end);
+            }
+            int e = 0;
+            for (; p < end; p++) {
+                int d = buf.get(p) - '0';
+                if (d < 0 || d > 9) {
+                    return slowParseDouble(buf, start, end);
+                }
+                e = e * 10 + d;
+            }
+            exp10 += negExp ? -e : e;
+        }
+
+        double v;
+        if (mantissa == 0) {
+            v = 0.0;
+        } else if (mantissa <= MAX_EXACT_MANTISSA && exp10 >= -22 && exp10 <= 22) {
+            //Both mantissa and power of 10 are exactly representable: result is correctly rounded
+            v = exp10 >= 0 ? mantissa * POW10[exp10] : mantissa / POW10[-exp10];
+        } else {
+            return slowParseDouble(buf, start, end);
+        }
+        return neg ? -v : v;
+    }
+
+    /**
+     * Parse a float value from the specified bytes - equivalent to {@link Float#parseFloat(String)}
+     */
+    public static float parseFloat(ByteBuffer buf, int start, int end) {
+        int p = start;
+        boolean neg = false;
+        if (p < end && (buf.get(p) == '-' || buf.get(p) == '+')) {
+            neg = buf.get(p) == '-';
+            p++;
+        }
+        int mantissa = 0;
+        int exp10 = 0;
+        int nDigits = 0;
+        boolean fraction = false;
+        for (; p < end; p++) {
+            byte b = buf.get(p);
+            if (b == '.' && !fraction) {
+                fraction = true;
+                continue;
+            }
+            int d = b - '0';
+            if (d < 0 || d > 9) {
+                //Exponents, "NaN", invalid values, etc
+                return Float.parseFloat(toString(buf, start, end));
+            }
+            nDigits++;
+            mantissa = mantissa * 10 + d;
+            if (mantissa >= (1 << 24)) {
+                //Further digits may not be exactly representable
+                return Float.parseFloat(toString(buf, start, end));
+            }
+            if (fraction) {
+                exp10--;
+            }
+        }
+        if (nDigits == 0 || exp10 < -10) {
+            return Float.parseFloat(toString(buf, start, end));
+        }
+        float v = mantissa / POW10_F[-exp10];
+        return neg ? -v : v;
+    }
+
+    private static double slowParseDouble(ByteBuffer buf, int start, int end) {
+        return Double.parseDouble(toString(buf, start, end));
+    }
+
+    private static boolean isTrue(ByteBuffer buf, int start, int end) {
+        //Equivalent to Boolean.parseBoolean(String)
+        if (end - start != 4) {
+            return false;
+        }
+        return (buf.get(start) | 0x20) == 't' && (buf.get(start + 1) | 0x20) == 'r'
+                && (buf.get(start + 2) | 0x20) == 'u' && (buf.get(start + 3) | 0x20) == 'e';
+    }
+
+    private static NumberFormatException invalidNumber(ByteBuffer buf, int start, int end) {
+        return new NumberFormatException("For input string: \"" + toString(buf, start, end) + "\"");
+    }
+
+    private static String toString(ByteBuffer buf, int start, int end) {
+        if (buf.hasArray()) {
+            return new String(buf.array(), buf.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buf.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
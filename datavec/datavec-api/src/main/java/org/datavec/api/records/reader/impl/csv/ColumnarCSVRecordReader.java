@@ -0,0 +1,349 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.datavec.api.records.reader.impl.csv;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.apache.commons.io.IOUtils;
+import org.datavec.api.conf.Configuration;
+import org.datavec.api.records.Record;
+import org.datavec.api.records.metadata.RecordMetaData;
+import org.datavec.api.records.metadata.RecordMetaDataIndex;
+import org.datavec.api.records.reader.BaseRecordReader;
+import org.datavec.api.split.InputSplit;
+import org.datavec.api.split.InputStreamInputSplit;
+import org.datavec.api.split.StringSplit;
+import org.datavec.api.transform.schema.Schema;
+import org.datavec.api.writable.Writable;
+import org.datavec.api.writable.batch.ColumnarRecordBatch;
+import org.nd4j.common.base.Preconditions;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A CSV record reader that reads the input in large blocks of bytes and parses them directly into
+ * {@link ColumnarRecordBatch}es using a {@link ColumnarCSVParser}, according to a {@link Schema}.<br>
+ * This is much faster than {@link CSVRecordReader} for large (mostly numerical) CSV files, as no String or Text
+ * objects are created for numerical values. {@link #next(int)} should be used for best performance;
+ * {@link #next()} returns writables of the column types (DoubleWritable, IntWritable, etc) rather than Text.<br>
+ * See {@link ColumnarCSVParser} for the supported CSV format. To parse a single large file using multiple threads,
+ * use {@link ColumnarCSVParser#parseFile(java.io.File, int, int)} directly.<br>
+ * Note that {@link #loadFromMetaData(RecordMetaData)} is not supported.
+ */
+public class ColumnarCSVRecordReader extends BaseRecordReader {
+
+    public static final int DEFAULT_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    @Getter
+    private final Schema schema;
+    private final ColumnarCSVParser parser;
+    private final int skipNumLines;
+    private final int bufferSize;
+
+    private Configuration conf;
+    private URI[] locations;
+    private int nextLocation;
+    private URI currentLocation;
+    private long recordIndex;
+
+    private transient ReadableByteChannel channel;
+    private transient ByteBuffer buffer;
+    private boolean eof;
+    private int linesToSkip;
+
+    public ColumnarCSVRecordReader(@NonNull Schema schema) {
+        this(schema, 0, CSVRecordReader.DEFAULT_DELIMITER, CSVRecordReader.DEFAULT_QUOTE);
+    }
+
+    /**
+     * @param schema       Schema for the CSV columns
+     * @param skipNumLines Number of lines to skip at the start of each file
+     * @param delimiter    Delimiter character. Must be an ASCII character
+     * @param quote        Quote character. Must be an ASCII character
+     */
+    public ColumnarCSVRecordReader(@NonNull Schema schema, int skipNumLines, char delimiter, char quote) {
+        this(schema, skipNumLines, delimiter, quote, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param schema       Schema for the CSV columns
+     * @param skipNumLines Number of lines to skip at the start of each file
+     * @param delimiter    Delimiter character. Must be an ASCII character
+     * @param quote        Quote character. Must be an ASCII character
+     * @param bufferSize   Size of the read buffer, in bytes. The buffer is expanded if a line is longer than this
+     */
+    public ColumnarCSVRecordReader(@NonNull Schema schema, int skipNumLines, char delimiter, char quote, int bufferSize) {
+        Preconditions.checkArgument(skipNumLines >= 0, "Number of lines to skip must be >= 0, got %s", skipNumLines);
+        Preconditions.checkArgument(bufferSize > 0, "Buffer size must be positive, got %s", bufferSize);
+        this.schema = schema;
+        this.parser = new ColumnarCSVParser(schema, delimiter, quote);
+        this.skipNumLines = skipNumLines;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public void initialize(InputSplit split) throws IOException, InterruptedException {
+        super.initialize(split);
+        if (split instanceof StringSplit || split instanceof InputStreamInputSplit) {
+            locations = null;
+        } else {
+            locations = split.locations();
+        }
+        doReset();
+    }
+
+    @Override
+    public void initialize(Configuration conf, InputSplit split) throws IOException, InterruptedException {
+        this.conf = conf;
+        initialize(split);
+    }
+
+    @Override
+    public boolean batchesSupported() {
+        return true;
+    }
+
+    @Override
+    public ColumnarRecordBatch next(int num) {
+        ColumnarRecordBatch out = new ColumnarRecordBatch(schema, Math.min(num, 10000));
+        try {
+            while (out.size() < num && ensureData()) {
+                int n = parser.parse(buffer, eof, out, num - out.size());
+                if (n == 0) {
+                    //Incomplete line at the end of the buffer
+                    readMore();
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading CSV data from " + currentLocation, e);
+        }
+        recordIndex += out.size();
+        return out;
+    }
+
+    @Override
+    public List<Writable> next() {
+        ColumnarRecordBatch b = next(1);
+        if (b.isEmpty()) {
+            throw new NoSuchElementException("No next element");
+        }
+        List<Writable> record = b.get(0);
+        invokeListeners(record);
+        return record;
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            return ensureData();
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading CSV data from " + currentLocation, e);
+        }
+    }
+
+    /**
+     * Ensure that the buffer contains unparsed data, opening the next location if required
+     *
+     * @return False if there is no more data
+     */
+    private boolean ensureData() throws IOException {
+        Preconditions.checkState(inputSplit != null, "Record reader has not been initialized");
+        while (true) {
+            if (channel != null) {
+                if (linesToSkip > 0) {
+                    linesToSkip -= ColumnarCSVParser.skipLines(buffer, linesToSkip);
+                    if (linesToSkip > 0) {
+                        if (eof) {
+                            //Skip final line without line break
+                            buffer.position(buffer.limit());
+                            linesToSkip = 0;
+                        } else {
+                            readMore();
+                        }
+                        continue;
+                    }
+                }
+
+                //Skip empty lines
+                while (buffer.hasRemaining() && (buffer.get(buffer.position()) == '\n' || buffer.get(buffer.position()) == '\r')) {
+                    buffer.position(buffer.position() + 1);
+                }
+                if (buffer.hasRemaining()) {
+                    return true;
+                }
+                if (!eof) {
+                    readMore();
+                    continue;
+                }
+                closeChannel();
+            }
+            if (!openNext()) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Read more data into the buffer, keeping any unparsed data. The buffer is expanded if it is full
+     */
+    private void readMore() throws IOException {
+        buffer.compact();
+        if (!buffer.hasRemaining()) {
+            ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+        int n = 0;
+        while (n == 0) {
+            n = channel.read(buffer);
+        }
+        if (n < 0) {
+            eof = true;
+        }
+        buffer.flip();
+    }
+
+    private boolean openNext() throws IOException {
+        if (locations == null) {
+            if (nextLocation > 0) {
+                return false;
+            }
+            if (inputSplit instanceof StringSplit) {
+                byte[] bytes = ((StringSplit) inputSplit).getData().getBytes(StandardCharsets.UTF_8);
+                channel = Channels.newChannel(new ByteArrayInputStream(bytes));
+            } else {
+                channel = Channels.newChannel(((InputStreamInputSplit) inputSplit).getIs());
+            }
+            currentLocation = null;
+        } else {
+            if (nextLocation >= locations.length) {
+                return false;
+            }
+            currentLocation = locations[nextLocation];
+            if ("file".equals(currentLocation.getScheme())) {
+                channel = FileChannel.open(Paths.get(currentLocation), StandardOpenOption.READ);
+            } else {
+                channel = Channels.newChannel(streamCreatorFn.apply(currentLocation));
+            }
+        }
+        nextLocation++;
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(bufferSize);
+        }
+        buffer.clear();
+        buffer.flip();
+        eof = false;
+        linesToSkip = skipNumLines;
+        return true;
+    }
+
+    private void closeChannel() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void doReset() throws IOException {
+        closeChannel();
+        nextLocation = 0;
+        currentLocation = null;
+        recordIndex = 0;
+        eof = false;
+    }
+
+    @Override
+    public void reset() {
+        Preconditions.checkState(resetSupported(), "Reset is not supported when reading from an InputStreamInputSplit");
+        try {
+            doReset();
+        } catch (IOException e) {
+            throw new RuntimeException("Error resetting record reader", e);
+        }
+    }
+
+    @Override
+    public boolean resetSupported() {
+        return !(inputSplit instanceof InputStreamInputSplit);
+    }
+
+    @Override
+    public Record nextRecord() {
+        List<Writable> next = next();
+        return new org.datavec.api.records.impl.Record(next,
+                new RecordMetaDataIndex(recordIndex - 1, currentLocation, ColumnarCSVRecordReader.class));
+    }
+
+    @Override
+    public List<Writable> record(URI uri, DataInputStream dataInputStream) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(IOUtils.toByteArray(dataInputStream));
+        ColumnarCSVParser.skipLines(bb, skipNumLines);
+        ColumnarRecordBatch b = new ColumnarRecordBatch(schema, 1);
+        parser.parse(bb, true, b, 1);
+        Preconditions.checkState(!b.isEmpty(), "No record found in stream for URI %s", uri);
+        return b.get(0);
+    }
+
+    @Override
+    public Record loadFromMetaData(RecordMetaData recordMetaData) throws IOException {
+        return loadFromMetaData(Collections.singletonList(recordMetaData)).get(0);
+    }
+
+    @Override
+    public List<Record> loadFromMetaData(List<RecordMetaData> recordMetaDatas) throws IOException {
+        throw new UnsupportedOperationException("Loading from metadata is not supported by ColumnarCSVRecordReader: " +
+                "use CSVRecordReader instead");
+    }
+
+    @Override
+    public List<String> getLabels() {
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeChannel();
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+}
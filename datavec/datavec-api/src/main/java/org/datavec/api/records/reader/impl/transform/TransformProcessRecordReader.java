@@ -28,6 +28,7 @@ import org.datavec.api.records.reader.RecordReader;
 import org.datavec.api.split.InputSplit;
 import org.datavec.api.transform.TransformProcess;
 import org.datavec.api.writable.Writable;
+import org.datavec.api.writable.batch.ColumnarRecordBatch;
 
 import java.io.DataInputStream;
 import java.io.IOException;
@@ -40,13 +41,26 @@ import java.util.NoSuchElementException;
 public class TransformProcessRecordReader implements RecordReader {
     protected RecordReader recordReader;
     protected TransformProcess transformProcess;
+    protected boolean columnarBatches;
 
     //Cached/prefetched values, in case of filtering
     protected Record next;
 
     public TransformProcessRecordReader(RecordReader recordReader, TransformProcess transformProcess){
+        this(recordReader, transformProcess, false);
+    }
+
+    /**
+     * @param recordReader     Underlying record reader
+     * @param transformProcess Transform process to apply to each record
+     * @param columnarBatches  If true: {@link #next(int)} returns the transformed records as a
+     *                         {@link ColumnarRecordBatch} with the final schema of the transform process, which can be
+     *                         converted to INDArrays without per-value writable conversion
+     */
+    public TransformProcessRecordReader(RecordReader recordReader, TransformProcess transformProcess, boolean columnarBatches){
         this.recordReader = recordReader;
         this.transformProcess = transformProcess;
+        this.columnarBatches = columnarBatches;
     }
 
     /**
@@ -84,6 +98,14 @@ public class TransformProcessRecordReader implements RecordReader {
         if(!hasNext())
             throw new NoSuchElementException("No next element");
 
+        if(columnarBatches){
+            ColumnarRecordBatch out = new ColumnarRecordBatch(transformProcess.getFinalSchema(), Math.min(num, 10000));
+            for( int i=0; i<num && hasNext(); i++ ){
+                out.appendRecord(next());
+            }
+            return out;
+        }
+
         List<List<Writable>> out = new ArrayList<>();
         for( int i=0; i<num && hasNext(); i++ ){
             out.add(next());
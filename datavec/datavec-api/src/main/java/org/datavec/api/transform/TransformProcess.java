@@ -66,6 +66,7 @@ import org.datavec.api.transform.transform.string.*;
 import org.datavec.api.transform.transform.time.StringToTimeTransform;
 import org.datavec.api.transform.transform.time.TimeMathOpTransform;
 import org.datavec.api.writable.*;
+import org.datavec.api.writable.batch.ColumnarRecordBatch;
 import org.datavec.api.writable.comparator.WritableComparator;
 import org.joda.time.DateTimeZone;
 import org.nd4j.common.primitives.Pair;
@@ -241,6 +242,26 @@ public class TransformProcess implements Serializable {
         return currValues;
     }
 
+    /**
+     * Execute the full sequence of transformations for a batch of examples, and store the results (excluding any
+     * filtered examples) in a {@link ColumnarRecordBatch} with the final schema.<br>
+     * As with {@link #execute(List)}, operations that require the full data set (ConvertToSequence etc) are not
+     * supported.
+     *
+     * @param input Examples to transform
+     * @return Transformed examples, in columnar format
+     */
+    public ColumnarRecordBatch executeColumnar(List<List<Writable>> input) {
+        ColumnarRecordBatch out = new ColumnarRecordBatch(getFinalSchema(), input.size());
+        for (List<Writable> record : input) {
+            List<Writable> transformed = execute(record);
+            if (transformed != null) {
+                out.appendRecord(transformed);
+            }
+        }
+        return out;
+    }
+
     /**
      *
      * @param input
@@ -0,0 +1,528 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.datavec.api.writable.batch;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.datavec.api.transform.ColumnType;
+import org.datavec.api.transform.schema.Schema;
+import org.datavec.api.writable.*;
+import org.nd4j.common.base.Preconditions;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A batch of records stored column-wise in primitive arrays, according to a {@link Schema}, instead of as one
+ * {@code List<Writable>} of boxed writables per record.<br>
+ * Storage by column type:<br>
+ * - Double: double[], Float: float[], Integer: int[], Long and Time: long[], Boolean: boolean[]<br>
+ * - String and Categorical: String[]<br>
+ * - Bytes and NDArray: Writable[]<br>
+ * <br>
+ * Numeric columns can be converted directly to INDArrays via {@link #getColumnAsArray(int, DataType)} and
+ * {@link #toArray(DataType, int, int)}, without creating any writables.<br>
+ * For compatibility, this class is also a (read only) {@code List<List<Writable>>}: {@link #get(int)} creates the
+ * writables for a single record on demand.
+ */
+public class ColumnarRecordBatch extends AbstractWritableRecordBatch {
+
+    @Getter
+    private final Schema schema;
+    private final ColumnType[] types;
+    private final Object[] columns;
+    private int size;
+    private int capacity;
+
+    /**
+     * @param schema          Schema for the records
+     * @param initialCapacity Initial number of records to allocate storage for. Storage is expanded as required by
+     *                        {@link #appendRow()}
+     */
+    public ColumnarRecordBatch(@NonNull Schema schema, int initialCapacity) {
+        Preconditions.checkArgument(initialCapacity >= 0, "Initial capacity must be >= 0, got %s", initialCapacity);
+        this.schema = schema;
+        this.types = new ColumnType[schema.numColumns()];
+        this.columns = new Object[types.length];
+        this.capacity = initialCapacity;
+        for (int i = 0; i < types.length; i++) {
+            types[i] = schema.getType(i);
+            columns[i] = allocate(types[i], initialCapacity);
+        }
+    }
+
+    /**
+     * Create a columnar batch from a list of records
+     *
+     * @param schema  Schema for the records
+     * @param records Records to convert
+     * @return Columnar batch
+     */
+    public static ColumnarRecordBatch fromRecords(@NonNull Schema schema, @NonNull List<List<Writable>> records) {
+        if (records instanceof ColumnarRecordBatch && schema.equals(((ColumnarRecordBatch) records).getSchema())) {
+            return (ColumnarRecordBatch) records;
+        }
+        ColumnarRecordBatch out = new ColumnarRecordBatch(schema, records.size());
+        for (List<Writable> record : records) {
+            out.appendRecord(record);
+        }
+        return out;
+    }
+
+    private static Object allocate(ColumnType type, int capacity) {
+        switch (type) {
+            case Double:
+                return new double[capacity];
+            case Float:
+                return new float[capacity];
+            case Integer:
+                return new int[capacity];
+            case Long:
+            case Time:
+                return new long[capacity];
+            case Boolean:
+                return new boolean[capacity];
+            case String:
+            case Categorical:
+                return new String[capacity];
+            default:
+                return new Writable[capacity];
+        }
+    }
+
+    private static Object grow(Object column, int newCapacity) {
+        if (column instanceof double[]) {
+            return Arrays.copyOf((double[]) column, newCapacity);
+        } else if (column instanceof float[]) {
+            return Arrays.copyOf((float[]) column, newCapacity);
+        } else if (column instanceof int[]) {
+            return Arrays.copyOf((int[]) column, newCapacity);
+        } else if (column instanceof long[]) {
+            return Arrays.copyOf((long[]) column, newCapacity);
+        } else if (column instanceof boolean[]) {
+            return Arrays.copyOf((boolean[]) column, newCapacity);
+        } else {
+            return Arrays.copyOf((Object[]) column, newCapacity);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Number of columns in each record
+     */
+    public int numColumns() {
+        return types.length;
+    }
+
+    /**
+     * @param column Index of the column
+     * @return Type of the column
+     */
+    public ColumnType getColumnType(int column) {
+        return types[column];
+    }
+
+    /**
+     * @param column Index of the column
+     * @return True if the column can be converted to an INDArray via {@link #getColumnAsArray(int, DataType)}
+     */
+    public boolean isNumeric(int column) {
+        switch (types[column]) {
+            case Double:
+            case Float:
+            case Integer:
+            case Long:
+            case Time:
+            case Boolean:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Add a new (uninitialized) record to the end of the batch, expanding the storage if required. Values for the
+     * record should be set using {@link #set(int, int, Writable)} or {@link #setFromString(int, int, String)}
+     *
+     * @return Index of the new record
+     */
+    public int appendRow() {
+        if (size == capacity) {
+            int newCapacity = Math.max(16, capacity + (capacity >> 1));
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = grow(columns[i], newCapacity);
+            }
+            capacity = newCapacity;
+        }
+        return size++;
+    }
+
+    /**
+     * Add a record to the end of the batch
+     *
+     * @param record Record to add. Must have one writable per column of the schema
+     */
+    public void appendRecord(@NonNull List<Writable> record) {
+        Preconditions.checkArgument(record.size() == types.length, "Invalid record: expected %s values (columns) " +
+                "but got %s", types.length, record.size());
+        int row = appendRow();
+        for (int j = 0; j < types.length; j++) {
+            set(row, j, record.get(j));
+        }
+    }
+
+    /**
+     * Set a value, converting the writable to the column type if necessary
+     */
+    public void set(int row, int column, @NonNull Writable value) {
+        checkIndex(row, column);
+        Object c = columns[column];
+        switch (types[column]) {
+            case Double:
+                ((double[]) c)[row] = value.toDouble();
+                break;
+            case Float:
+                ((float[]) c)[row] = value.toFloat();
+                break;
+            case Integer:
+                ((int[]) c)[row] = value.toInt();
+                break;
+            case Long:
+            case Time:
+                ((long[]) c)[row] = value.toLong();
+                break;
+            case Boolean:
+                ((boolean[]) c)[row] = value instanceof BooleanWritable ? ((BooleanWritable) value).get()
+                        : Boolean.parseBoolean(value.toString());
+                break;
+            case String:
+            case Categorical:
+                ((String[]) c)[row] = value.toString();
+                break;
+            default:
+                ((Writable[]) c)[row] = value;
+        }
+    }
+
+    /**
+     * Set a value for a Double or Float column
+     */
+    public void setDouble(int row, int column, double value) {
+        checkIndex(row, column);
+        switch (types[column]) {
+            case Double:
+                ((double[]) columns[column])[row] = value;
+                break;
+            case Float:
+                ((float[]) columns[column])[row] = (float) value;
+                break;
+            default:
+                throw wrongType(column, "double");
+        }
+    }
+
+    /**
+     * Set a value for a Float column
+     */
+    public void setFloat(int row, int column, float value) {
+        checkIndex(row, column);
+        if (types[column] != ColumnType.Float) {
+            throw wrongType(column, "float");
+        }
+        ((float[]) columns[column])[row] = value;
+    }
+
+    /**
+     * Set a value for an Integer, Long or Time column
+     */
+    public void setLong(int row, int column, long value) {
+        checkIndex(row, column);
+        switch (types[column]) {
+            case Integer:
+                if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                    throw new NumberFormatException("Value " + value + " is out of range for Integer column \""
+                            + schema.getName(column) + "\"");
+                }
+                ((int[]) columns[column])[row] = (int) value;
+                break;
+            case Long:
+            case Time:
+                ((long[]) columns[column])[row] = value;
+                break;
+            default:
+                throw wrongType(column, "long");
+        }
+    }
+
+    /**
+     * Set a value for a Boolean column
+     */
+    public void setBoolean(int row, int column, boolean value) {
+        checkIndex(row, column);
+        if (types[column] != ColumnType.Boolean) {
+            throw wrongType(column, "boolean");
+        }
+        ((boolean[]) columns[column])[row] = value;
+    }
+
+    /**
+     * Set a value for a String or Categorical column
+     */
+    public void setString(int row, int column, @NonNull String value) {
+        checkIndex(row, column);
+        if (types[column] != ColumnType.String && types[column] != ColumnType.Categorical) {
+            throw wrongType(column, "String");
+        }
+        ((String[]) columns[column])[row] = value;
+    }
+
+    private IllegalArgumentException wrongType(int column, String valueType) {
+        return new IllegalArgumentException("Cannot set " + valueType + " value for column \"" + schema.getName(column)
+                + "\" of type " + types[column]);
+    }
+
+    /**
+     * Set a value by parsing the specified String according to the column type - for example, when reading text
+     * formats such as CSV
+     *
+     * @throws NumberFormatException If the value cannot be parsed as the (numerical) column type
+     */
+    public void setFromString(int row, int column, @NonNull String value) {
+        checkIndex(row, column);
+        Object c = columns[column];
+        try {
+            switch (types[column]) {
+                case Double:
+                    ((double[]) c)[row] = Double.parseDouble(value);
+                    break;
+                case Float:
+                    ((float[]) c)[row] = Float.parseFloat(value);
+                    break;
+                case Integer:
+                    ((int[]) c)[row] = Integer.parseInt(value);
+                    break;
+                case Long:
+                case Time:
+                    ((long[]) c)[row] = Long.parseLong(value);
+                    break;
+                case Boolean:
+                    ((boolean[]) c)[row] = Boolean.parseBoolean(value);
+                    break;
+                case String:
+                case Categorical:
+                    ((String[]) c)[row] = value;
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Cannot parse value for column \"" + schema.getName(column)
+                            + "\" of type " + types[column] + " from a String");
+            }
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException("Invalid value for column \"" + schema.getName(column) + "\" of type "
+                    + types[column] + " at record " + row + ": \"" + value + "\"");
+        }
+    }
+
+    /**
+     * Get the value for the specified record and column as a double. Only supported for numeric columns
+     */
+    public double getDouble(int row, int column) {
+        checkIndex(row, column);
+        Object c = columns[column];
+        switch (types[column]) {
+            case Double:
+                return ((double[]) c)[row];
+            case Float:
+                return ((float[]) c)[row];
+            case Integer:
+                return ((int[]) c)[row];
+            case Long:
+            case Time:
+                return ((long[]) c)[row];
+            case Boolean:
+                return ((boolean[]) c)[row] ? 1.0 : 0.0;
+            default:
+                throw new UnsupportedOperationException("Cannot get double value for non-numeric column \""
+                        + schema.getName(column) + "\" of type " + types[column]);
+        }
+    }
+
+    /**
+     * Get the value for the specified record and column as a writable of the column's type
+     */
+    public Writable getWritable(int row, int column) {
+        checkIndex(row, column);
+        Object c = columns[column];
+        switch (types[column]) {
+            case Double:
+                return new DoubleWritable(((double[]) c)[row]);
+            case Float:
+                return new FloatWritable(((float[]) c)[row]);
+            case Integer:
+                return new IntWritable(((int[]) c)[row]);
+            case Long:
+            case Time:
+                return new LongWritable(((long[]) c)[row]);
+            case Boolean:
+                return new BooleanWritable(((boolean[]) c)[row]);
+            case String:
+            case Categorical:
+                return new Text(((String[]) c)[row]);
+            default:
+                return ((Writable[]) c)[row];
+        }
+    }
+
+    @Override
+    public List<Writable> get(int index) {
+        Preconditions.checkArgument(index >= 0 && index < size, "Invalid index: %s, size = %s", index, size);
+        List<Writable> out = new ArrayList<>(types.length);
+        for (int j = 0; j < types.length; j++) {
+            out.add(getWritable(index, j));
+        }
+        return out;
+    }
+
+    /**
+     * Get a single numeric column as an INDArray with shape [size, 1]
+     *
+     * @param column   Index of the column
+     * @param dataType Data type for the returned array
+     */
+    public INDArray getColumnAsArray(int column, DataType dataType) {
+        return toArray(dataType, column, column);
+    }
+
+    /**
+     * Convert a range of numeric columns to an INDArray with shape [size, toColumnInclusive-fromColumn+1]
+     *
+     * @param dataType          Data type for the returned array
+     * @param fromColumn        First column to convert
+     * @param toColumnInclusive Last column to convert (inclusive)
+     */
+    public INDArray toArray(DataType dataType, int fromColumn, int toColumnInclusive) {
+        Preconditions.checkArgument(fromColumn >= 0 && fromColumn <= toColumnInclusive && toColumnInclusive < types.length,
+                "Invalid column range: %s to %s for batch with %s columns", fromColumn, toColumnInclusive, types.length);
+        for (int j = fromColumn; j <= toColumnInclusive; j++) {
+            if (!isNumeric(j)) {
+                throw new UnsupportedOperationException("Cannot convert column \"" + schema.getName(j) + "\" of type "
+                        + types[j] + " to an INDArray: only numeric columns can be converted");
+            }
+        }
+
+        int nCols = toColumnInclusive - fromColumn + 1;
+        double[] buffer = new double[size * nCols];
+        for (int j = 0; j < nCols; j++) {
+            copyColumn(fromColumn + j, buffer, j, nCols);
+        }
+        INDArray out = Nd4j.createFromArray(buffer);
+        if (dataType != DataType.DOUBLE) {
+            out = out.castTo(dataType);
+        }
+        return out.reshape('c', size, nCols);
+    }
+
+    /**
+     * Copy the values of a numeric column to buffer[offset], buffer[offset + stride], ...
+     */
+    private void copyColumn(int column, double[] buffer, int offset, int stride) {
+        Object c = columns[column];
+        switch (types[column]) {
+            case Double:
+                double[] d = (double[]) c;
+                for (int i = 0; i < size; i++) {
+                    buffer[offset + i * stride] = d[i];
+                }
+                break;
+            case Float:
+                float[] f = (float[]) c;
+                for (int i = 0; i < size; i++) {
+                    buffer[offset + i * stride] = f[i];
+                }
+                break;
+            case Integer:
+                int[] n = (int[]) c;
+                for (int i = 0; i < size; i++) {
+                    buffer[offset + i * stride] = n[i];
+                }
+                break;
+            case Long:
+            case Time:
+                long[] l = (long[]) c;
+                for (int i = 0; i < size; i++) {
+                    buffer[offset + i * stride] = l[i];
+                }
+                break;
+            case Boolean:
+                boolean[] b = (boolean[]) c;
+                for (int i = 0; i < size; i++) {
+                    buffer[offset + i * stride] = b[i] ? 1.0 : 0.0;
+                }
+                break;
+            default:
+                throw new IllegalStateException("Non-numeric column type: " + types[column]);
+        }
+    }
+
+    private void checkIndex(int row, int column) {
+        if (row < 0 || row >= size || column < 0 || column >= types.length) {
+            throw new IndexOutOfBoundsException("Invalid index: record " + row + ", column " + column + " for batch with "
+                    + size + " records and " + types.length + " columns");
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        //As per the List contract: equal to any list with equal elements in the same order
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof List)) {
+            return false;
+        }
+        List<?> other = (List<?>) o;
+        if (other.size() != size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (!get(i).equals(other.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hashCode = 1;
+        for (int i = 0; i < size; i++) {
+            hashCode = 31 * hashCode + get(i).hashCode();
+        }
+        return hashCode;
+    }
+}
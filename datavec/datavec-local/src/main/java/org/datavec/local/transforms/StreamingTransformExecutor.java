@@ -0,0 +1,549 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.datavec.local.transforms;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.datavec.api.records.reader.RecordReader;
+import org.datavec.api.records.writer.RecordWriter;
+import org.datavec.api.transform.DataAction;
+import org.datavec.api.transform.Transform;
+import org.datavec.api.transform.TransformProcess;
+import org.datavec.api.transform.join.Join;
+import org.datavec.api.transform.rank.CalculateSortedRank;
+import org.datavec.api.transform.schema.Schema;
+import org.datavec.api.transform.schema.SequenceSchema;
+import org.datavec.api.writable.LongWritable;
+import org.datavec.api.writable.Writable;
+import org.datavec.local.transforms.spill.*;
+import org.nd4j.common.base.Preconditions;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A multi-threaded executor for {@link TransformProcess}es that streams records from a {@link RecordReader}, instead
+ * of requiring the full data set in memory as per {@link LocalTransformExecutor}.<br>
+ * <br>
+ * Consecutive {@link Transform} and {@link org.datavec.api.transform.filter.Filter} steps (including condition based
+ * transforms and filters) are fused into a single per-record function. Records are read in minibatches, and each
+ * minibatch is passed through the fused function by a pool of worker threads. The number of minibatches that have been
+ * read but not yet consumed is limited (see {@link Builder#maxBatchesInFlight(int)}): when the consumer of the output
+ * falls behind, reading from the RecordReader blocks until it catches up. The order of the records is preserved.<br>
+ * <br>
+ * Reductions and CalculateSortedRank steps need to see all of the data at once. These are executed with a bounded
+ * memory budget (see {@link Builder#spillConfig(SpillConfig)}) using {@link ExternalReducer} and {@link ExternalSorter},
+ * which spill to temporary files on disk when required; the steps after them are streamed again. For other steps that
+ * need all of the data (conversion to/from sequences, etc), the output of the preceding steps is collected in memory,
+ * and all remaining steps are executed using {@link LocalTransformExecutor}.<br>
+ * Joins can be executed with {@link #executeJoin(Join, RecordReader, RecordReader)}, using {@link ExternalJoin}.<br>
+ * <br>
+ * Notes:<br>
+ * - Only TransformProcesses with non-sequence input and output are supported<br>
+ * - Transforms and filters are called concurrently from multiple threads, and hence must be thread safe<br>
+ * - Input records with the wrong number of columns are removed (with a warning), as per {@link LocalTransformExecutor}<br>
+ * - If {@link LocalTransformExecutor#LOG_ERROR_PROPERTY} is set, records that cause an exception in a transform are
+ * logged and removed, instead of the exception being thrown
+ */
+@Slf4j
+public class StreamingTransformExecutor {
+
+    private static final Future<List<List<Writable>>> END = CompletableFuture.completedFuture(null);
+
+    private final int numWorkers;
+    private final int batchSize;
+    private final int maxBatchesInFlight;
+    private final SpillConfig spillConfig;
+
+    private StreamingTransformExecutor(Builder builder) {
+        this.numWorkers = builder.numWorkers;
+        this.batchSize = builder.batchSize;
+        this.maxBatchesInFlight = builder.maxBatchesInFlight > 0 ? builder.maxBatchesInFlight : 2 * builder.numWorkers;
+        this.spillConfig = builder.spillConfig;
+    }
+
+    /**
+     * Execute the TransformProcess on all records from the specified RecordReader. Output records are produced lazily
+     * as the returned iterator is consumed, except that all records before a step that needs all of the data (see
+     * class Javadoc) are processed before this method returns.<br>
+     * The returned iterator should be closed if it is not fully consumed, to stop the reading and worker threads and to
+     * delete any temporary files.
+     *
+     * @param recordReader     Record reader to read the input records from. Must be initialized
+     * @param transformProcess TransformProcess to execute
+     * @return Iterator over the output records
+     */
+    public CloseableRecordIterator execute(@NonNull RecordReader recordReader, @NonNull TransformProcess transformProcess) {
+        Schema schema = transformProcess.getInitialSchema();
+        if (schema instanceof SequenceSchema || transformProcess.getFinalSchema() instanceof SequenceSchema) {
+            throw new IllegalStateException("Cannot execute TransformProcess with sequence input or output data with" +
+                    " this executor");
+        }
+
+        List<DataAction> actions = transformProcess.getActionList();
+        int end = endOfStreamingSteps(actions, 0);
+        CloseableRecordIterator current = new ResultIterator(new RecordReaderBatches(recordReader), null,
+                new FusedPipeline(actions.subList(0, end), schema.numColumns()));
+        schema = schemaAfter(schema, actions.subList(0, end));
+
+        int i = end;
+        while (i < actions.size()) {
+            DataAction d = actions.get(i);
+            CloseableRecordIterator out;
+            try {
+                if (d.getReducer() != null) {
+                    out = new ExternalReducer(d.getReducer(), spillConfig).reduce(current);
+                } else if (d.getCalculateSortedRank() != null) {
+                    out = sortedRank(d.getCalculateSortedRank(), current);
+                } else {
+                    //Not supported for streaming: collect in memory and execute the remaining steps all at once
+                    List<List<Writable>> collected = new ArrayList<>();
+                    while (current.hasNext()) {
+                        collected.add(current.next());
+                    }
+                    if (collected.isEmpty()) {
+                        return CloseableRecordIterator.wrap(collected.iterator());
+                    }
+                    TransformProcess remaining = new TransformProcess(schema,
+                            new ArrayList<>(actions.subList(i, actions.size())));
+                    return CloseableRecordIterator.wrap(LocalTransformExecutor.execute(collected, remaining).iterator());
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Error executing step " + i + " of TransformProcess: " + d, e);
+            } finally {
+                current.close();
+            }
+            schema = schemaAfter(schema, actions.subList(i, i + 1));
+
+            end = endOfStreamingSteps(actions, i + 1);
+            if (end > i + 1) {
+                current = new ResultIterator(new IteratorBatches(out), out,
+                        new FusedPipeline(actions.subList(i + 1, end), schema.numColumns()));
+                schema = schemaAfter(schema, actions.subList(i + 1, end));
+            } else {
+                current = out;
+            }
+            i = end;
+        }
+        return current;
+    }
+
+    /**
+     * Execute a join on the records from the specified record readers. See {@link ExternalJoin} for details.<br>
+     * The returned iterator should be closed if it is not fully consumed, to delete any temporary files.
+     *
+     * @param join  Join to execute
+     * @param left  Record reader for the left data. Must be initialized
+     * @param right Record reader for the right data. Must be initialized
+     * @return Iterator over the joined records
+     */
+    public CloseableRecordIterator executeJoin(@NonNull Join join, @NonNull RecordReader left,
+                                               @NonNull RecordReader right) throws IOException {
+        return new ExternalJoin(join, spillConfig).join(new RecordReaderIterator(left), new RecordReaderIterator(right));
+    }
+
+    /**
+     * Execute the TransformProcess on all records from the specified RecordReader, writing the output records to the
+     * specified RecordWriter
+     *
+     * @param recordReader     Record reader to read the input records from. Must be initialized
+     * @param transformProcess TransformProcess to execute
+     * @param recordWriter     Record writer to write the output records to. Must be initialized. Is not closed by
+     *                         this method
+     * @return Number of records written
+     */
+    public long execute(@NonNull RecordReader recordReader, @NonNull TransformProcess transformProcess,
+                        @NonNull RecordWriter recordWriter) throws IOException {
+        long count = 0;
+        try (CloseableRecordIterator iter = execute(recordReader, transformProcess)) {
+            while (iter.hasNext()) {
+                recordWriter.write(iter.next());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int endOfStreamingSteps(List<DataAction> actions, int start) {
+        int i = start;
+        while (i < actions.size() && (actions.get(i).getTransform() != null || actions.get(i).getFilter() != null)) {
+            i++;
+        }
+        return i;
+    }
+
+    private static Schema schemaAfter(Schema schema, List<DataAction> actions) {
+        for (DataAction d : actions) {
+            if (d.getTransform() != null) {
+                schema = d.getTransform().transform(schema);
+            } else if (d.getReducer() != null) {
+                schema = d.getReducer().transform(schema);
+            } else if (d.getCalculateSortedRank() != null) {
+                schema = d.getCalculateSortedRank().transform(schema);
+            }
+        }
+        return schema;
+    }
+
+    private CloseableRecordIterator sortedRank(CalculateSortedRank csr, Iterator<List<Writable>> input) throws IOException {
+        final int column = csr.getInputSchema().getIndexOfColumn(csr.getSortOnColumn());
+        final Comparator<Writable> comparator = csr.getComparator();
+        final boolean ascending = csr.isAscending();
+        final CloseableRecordIterator sorted = new ExternalSorter(new Comparator<List<Writable>>() {
+            @Override
+            public int compare(List<Writable> o1, List<Writable> o2) {
+                int c = comparator.compare(o1.get(column), o2.get(column));
+                return ascending ? c : -c;
+            }
+        }, spillConfig).sort(input);
+
+        return new CloseableRecordIterator() {
+            private long rank;
+
+            @Override
+            public boolean hasNext() {
+                return sorted.hasNext();
+            }
+
+            @Override
+            public List<Writable> next() {
+                List<Writable> out = new ArrayList<>(sorted.next());
+                out.add(new LongWritable(rank++));
+                return out;
+            }
+
+            @Override
+            public void close() {
+                sorted.close();
+            }
+        };
+    }
+
+    /**
+     * Fused sequence of Transform and Filter steps, applied to one minibatch of records at a time
+     */
+    private static class FusedPipeline {
+        private final List<DataAction> actions;
+        private final int numColumns;
+        private final boolean tryCatch = LocalTransformExecutor.isTryCatch();
+        private final AtomicLong numInvalid = new AtomicLong();
+
+        private FusedPipeline(List<DataAction> actions, int numColumns) {
+            this.actions = actions;
+            this.numColumns = numColumns;
+        }
+
+        private List<List<Writable>> applyBatch(List<List<Writable>> batch) {
+            List<List<Writable>> out = new ArrayList<>(batch.size());
+            for (List<Writable> record : batch) {
+                List<Writable> r = apply(record);
+                if (r != null) {
+                    out.add(r);
+                }
+            }
+            return out;
+        }
+
+        private List<Writable> apply(List<Writable> record) {
+            if (record.size() != numColumns) {
+                numInvalid.incrementAndGet();
+                return null;
+            }
+            for (DataAction d : actions) {
+                if (d.getTransform() != null) {
+                    if (tryCatch) {
+                        try {
+                            record = d.getTransform().map(record);
+                        } catch (Exception e) {
+                            log.warn("Error occurred " + e + " on record " + record);
+                            return null;
+                        }
+                    } else {
+                        record = d.getTransform().map(record);
+                    }
+                } else if (d.getFilter().removeExample(record)) {
+                    return null;
+                }
+            }
+            return record;
+        }
+    }
+
+    /**
+     * Reads batches of records from a RecordReader, using {@link RecordReader#next(int)} if batches are supported
+     */
+    private class RecordReaderBatches implements Iterator<List<List<Writable>>> {
+        private final RecordReader recordReader;
+
+        private RecordReaderBatches(RecordReader recordReader) {
+            this.recordReader = recordReader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return recordReader.hasNext();
+        }
+
+        @Override
+        public List<List<Writable>> next() {
+            if (recordReader.batchesSupported()) {
+                return recordReader.next(batchSize);
+            }
+            List<List<Writable>> batch = new ArrayList<>(batchSize);
+            while (batch.size() < batchSize && recordReader.hasNext()) {
+                batch.add(recordReader.next());
+            }
+            return batch;
+        }
+    }
+
+    private class IteratorBatches implements Iterator<List<List<Writable>>> {
+        private final Iterator<List<Writable>> iterator;
+
+        private IteratorBatches(Iterator<List<Writable>> iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public List<List<Writable>> next() {
+            List<List<Writable>> batch = new ArrayList<>(batchSize);
+            while (batch.size() < batchSize && iterator.hasNext()) {
+                batch.add(iterator.next());
+            }
+            return batch;
+        }
+    }
+
+    private static class RecordReaderIterator implements Iterator<List<Writable>> {
+        private final RecordReader recordReader;
+
+        private RecordReaderIterator(RecordReader recordReader) {
+            this.recordReader = recordReader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return recordReader.hasNext();
+        }
+
+        @Override
+        public List<Writable> next() {
+            return recordReader.next();
+        }
+    }
+
+    /**
+     * Iterator over the output records of a sequence of streaming (transform and filter) steps. Batches of input
+     * records are read by a separate thread, and processed by the worker threads.<br>
+     * Exceptions thrown while reading or transforming records are rethrown (wrapped in a RuntimeException) by
+     * {@link #hasNext()}.
+     */
+    private class ResultIterator implements CloseableRecordIterator {
+        private final BlockingQueue<Future<List<List<Writable>>>> queue;
+        private final FusedPipeline pipeline;
+        private final ExecutorService workers;
+        private final Thread readerThread;
+        private volatile Throwable readerError;
+        private volatile boolean closed;
+        private Iterator<List<Writable>> current;
+
+        /**
+         * @param source   Source of the input batches
+         * @param upstream Iterator to close once reading has finished (may be null)
+         * @param pipeline Steps to execute
+         */
+        private ResultIterator(final Iterator<List<List<Writable>>> source, final CloseableRecordIterator upstream,
+                               final FusedPipeline pipeline) {
+            this.queue = new ArrayBlockingQueue<>(maxBatchesInFlight);
+            this.pipeline = pipeline;
+            this.workers = Executors.newFixedThreadPool(numWorkers, daemonThreadFactory("StreamingTransformExecutor-worker"));
+            this.readerThread = daemonThreadFactory("StreamingTransformExecutor-reader").newThread(new Runnable() {
+                @Override
+                public void run() {
+                    read(source, upstream);
+                }
+            });
+            readerThread.start();
+        }
+
+        private void read(Iterator<List<List<Writable>>> source, CloseableRecordIterator upstream) {
+            try {
+                while (!closed && source.hasNext()) {
+                    final List<List<Writable>> batch = source.next();
+                    //Blocks when maxBatchesInFlight batches have not yet been consumed
+                    queue.put(workers.submit(new Callable<List<List<Writable>>>() {
+                        @Override
+                        public List<List<Writable>> call() {
+                            return pipeline.applyBatch(batch);
+                        }
+                    }));
+                }
+            } catch (InterruptedException e) {
+                //Iterator was closed
+                return;
+            } catch (Throwable t) {
+                readerError = t;
+            } finally {
+                if (upstream != null) {
+                    upstream.close();
+                }
+            }
+            try {
+                if (!closed) {
+                    queue.put(END);
+                }
+            } catch (InterruptedException e) {
+                //Iterator was closed
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (current == null || !current.hasNext()) {
+                if (closed) {
+                    return false;
+                }
+                Future<List<List<Writable>>> f;
+                try {
+                    f = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    close();
+                    throw new RuntimeException("Interrupted while waiting for records", e);
+                }
+                if (f == END) {
+                    close();
+                    if (readerError != null) {
+                        throw new RuntimeException("Error reading records", readerError);
+                    }
+                    return false;
+                }
+                try {
+                    current = f.get().iterator();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    close();
+                    throw new RuntimeException("Interrupted while waiting for records", e);
+                } catch (ExecutionException e) {
+                    close();
+                    throw new RuntimeException("Error executing TransformProcess", e.getCause());
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public List<Writable> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No next element");
+            }
+            return current.next();
+        }
+
+        /**
+         * Stop reading and processing records, and release the worker threads. Records that have already been
+         * processed are discarded.
+         */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            readerThread.interrupt();
+            workers.shutdownNow();
+            queue.clear();
+            long numInvalid = pipeline.numInvalid.get();
+            if (numInvalid > 0) {
+                log.warn("Filtered out " + numInvalid + " values");
+            }
+        }
+    }
+
+    private static ThreadFactory daemonThreadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = Executors.defaultThreadFactory().newThread(r);
+                t.setDaemon(true);
+                t.setName(name + "-" + t.getName());
+                return t;
+            }
+        };
+    }
+
+    public static class Builder {
+        private int numWorkers = Runtime.getRuntime().availableProcessors();
+        private int batchSize = 1024;
+        private int maxBatchesInFlight = -1;
+        private SpillConfig spillConfig = new SpillConfig();
+
+        /**
+         * @param numWorkers Number of worker threads used to execute the transforms and filters. Defaults to the
+         *                   number of available processors
+         */
+        public Builder numWorkers(int numWorkers) {
+            Preconditions.checkArgument(numWorkers > 0, "Number of workers must be positive, got %s", numWorkers);
+            this.numWorkers = numWorkers;
+            return this;
+        }
+
+        /**
+         * @param batchSize Number of records read and processed together by one worker. Default: 1024
+         */
+        public Builder batchSize(int batchSize) {
+            Preconditions.checkArgument(batchSize > 0, "Batch size must be positive, got %s", batchSize);
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param maxBatchesInFlight Maximum number of batches that have been read, but not yet consumed. This bounds
+         *                           the memory used for buffering records. Defaults to 2 * numWorkers
+         */
+        public Builder maxBatchesInFlight(int maxBatchesInFlight) {
+            Preconditions.checkArgument(maxBatchesInFlight > 0, "Max batches in flight must be positive, got %s",
+                    maxBatchesInFlight);
+            this.maxBatchesInFlight = maxBatchesInFlight;
+            return this;
+        }
+
+        /**
+         * @param spillConfig Configuration (memory budget, temporary directory) for the steps that may need to spill
+         *                    data to disk: reductions, CalculateSortedRank and joins. Default: {@link SpillConfig#SpillConfig()}
+         */
+        public Builder spillConfig(@NonNull SpillConfig spillConfig) {
+            this.spillConfig = spillConfig;
+            return this;
+        }
+
+        public StreamingTransformExecutor build() {
+            return new StreamingTransformExecutor(this);
+        }
+    }
+}
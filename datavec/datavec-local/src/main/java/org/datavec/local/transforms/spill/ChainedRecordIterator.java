@@ -0,0 +1,94 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.datavec.local.transforms.spill;
+
+import org.datavec.api.writable.Writable;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator that returns the records of an initial iterator, followed by the records of a number of partitions that
+ * are opened (processed) lazily, one at a time, as the iterator is consumed
+ */
+abstract class ChainedRecordIterator implements CloseableRecordIterator {
+    private final int numPartitions;
+    private CloseableRecordIterator current;
+    private int nextPartition;
+    private boolean closed;
+
+    protected ChainedRecordIterator(CloseableRecordIterator first, int numPartitions) {
+        this.current = first;
+        this.numPartitions = numPartitions;
+    }
+
+    /**
+     * Open (process) the specified partition, returning an iterator over the output records
+     */
+    protected abstract CloseableRecordIterator open(int partition) throws IOException;
+
+    /**
+     * Discard the specified partition without processing it - for example, delete any temporary files
+     */
+    protected abstract void discard(int partition);
+
+    @Override
+    public boolean hasNext() {
+        while (!closed && !current.hasNext()) {
+            current.close();
+            if (nextPartition >= numPartitions) {
+                closed = true;
+                return false;
+            }
+            try {
+                current = open(nextPartition++);
+            } catch (IOException e) {
+                close();
+                throw new RuntimeException("Error processing partition " + (nextPartition - 1), e);
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+        return !closed;
+    }
+
+    @Override
+    public List<Writable> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No next element");
+        }
+        return current.next();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        current.close();
+        while (nextPartition < numPartitions) {
+            discard(nextPartition++);
+        }
+    }
+}
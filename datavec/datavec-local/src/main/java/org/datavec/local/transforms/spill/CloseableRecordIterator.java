@@ -0,0 +1,64 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.datavec.local.transforms.spill;
+
+import org.datavec.api.writable.Writable;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An iterator over records that may hold resources such as temporary files or threads. These are released when the
+ * iterator is closed, or (for the implementations in this package) when the iterator has been fully consumed.
+ */
+public interface CloseableRecordIterator extends Iterator<List<Writable>>, Closeable {
+
+    @Override
+    void close();
+
+    /**
+     * @param iterator Iterator to wrap
+     * @return A CloseableRecordIterator for the given iterator. Closing it has no effect, unless the wrapped
+     * iterator is itself a CloseableRecordIterator
+     */
+    static CloseableRecordIterator wrap(final Iterator<List<Writable>> iterator) {
+        if (iterator instanceof CloseableRecordIterator) {
+            return (CloseableRecordIterator) iterator;
+        }
+        return new CloseableRecordIterator() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public List<Writable> next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+                //No op
+            }
+        };
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.datavec.local.transforms.spill;
+
+import lombok.NonNull;
+import org.datavec.api.transform.join.Join;
+import org.datavec.api.writable.Writable;
+import org.datavec.local.transforms.join.ExecuteJoinFromCoGroupFlatMapFunction;
+import org.nd4j.common.primitives.Pair;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * {@link Join} execution with a bounded memory budget, using a grace hash join.<br>
+ * The left input is read into an in-memory hash table (by key), and the right input is then streamed through it. If
+ * the left input exceeds the memory budget, both inputs are instead hash partitioned (by key) to temporary files on
+ * disk, and each pair of partitions is joined in the same way, recursively.<br>
+ * As repartitioning cannot split the records for a single key, partitioning stops after {@link #MAX_PARTITION_LEVELS}
+ * levels: the left records for any one key must fit in memory.<br>
+ * For best performance, the smaller of the two data sets should be used as the left input. The order of the output
+ * records is not defined.
+ */
+public class ExternalJoin {
+    public static final int MAX_PARTITION_LEVELS = 4;
+
+    private final Join join;
+    private final SpillConfig config;
+    private final int[] leftKeyColumns;
+    private final int[] rightKeyColumns;
+    private final ExecuteJoinFromCoGroupFlatMapFunction joinFunction;
+
+    /**
+     * @param join   Join to execute
+     * @param config Spill configuration
+     */
+    public ExternalJoin(@NonNull Join join, @NonNull SpillConfig config) {
+        this.join = join;
+        this.config = config;
+        this.leftKeyColumns = join.getLeftSchema().getIndexOfColumns(join.getJoinColumnsLeft());
+        this.rightKeyColumns = join.getRightSchema().getIndexOfColumns(join.getJoinColumnsRight());
+        this.joinFunction = new ExecuteJoinFromCoGroupFlatMapFunction(join);
+    }
+
+    /**
+     * Join the specified data
+     *
+     * @param left  Left data for the join
+     * @param right Right data for the join
+     * @return Iterator over the joined records. Temporary files are deleted once the iterator is closed or fully
+     * consumed
+     */
+    public CloseableRecordIterator join(@NonNull Iterator<List<Writable>> left, @NonNull Iterator<List<Writable>> right)
+            throws IOException {
+        return join(left, right, 0);
+    }
+
+    private CloseableRecordIterator join(Iterator<List<Writable>> left, Iterator<List<Writable>> right, final int level)
+            throws IOException {
+        Map<List<Writable>, LeftGroup> table = new HashMap<>();
+        long bytes = 0;
+        while (left.hasNext()) {
+            List<Writable> record = left.next();
+            List<Writable> key = key(record, leftKeyColumns);
+            LeftGroup g = table.get(key);
+            if (g == null) {
+                g = new LeftGroup();
+                table.put(key, g);
+            }
+            g.records.add(record);
+            bytes += SpillConfig.estimateSizeBytes(record);
+            if (bytes > config.getMemoryBudgetBytes() && level < MAX_PARTITION_LEVELS && left.hasNext()) {
+                return partitionAndJoin(table, left, right, level);
+            }
+        }
+        return new ProbeIterator(table, right);
+    }
+
+    private CloseableRecordIterator partitionAndJoin(Map<List<Writable>, LeftGroup> table, Iterator<List<Writable>> left,
+                                                     Iterator<List<Writable>> right, final int level) throws IOException {
+        final SpillFile[] leftPartitions = new SpillFile[config.getNumPartitions()];
+        final SpillFile[] rightPartitions = new SpillFile[config.getNumPartitions()];
+        try {
+            for (Map.Entry<List<Writable>, LeftGroup> e : table.entrySet()) {
+                for (List<Writable> record : e.getValue().records) {
+                    write(leftPartitions, e.getKey(), record, level);
+                }
+            }
+            table.clear();
+            while (left.hasNext()) {
+                List<Writable> record = left.next();
+                write(leftPartitions, key(record, leftKeyColumns), record, level);
+            }
+            while (right.hasNext()) {
+                List<Writable> record = right.next();
+                write(rightPartitions, key(record, rightKeyColumns), record, level);
+            }
+        } catch (IOException | RuntimeException e) {
+            delete(leftPartitions);
+            delete(rightPartitions);
+            throw e;
+        }
+
+        return new ChainedRecordIterator(CloseableRecordIterator.wrap(Collections.<List<Writable>>emptyIterator()),
+                leftPartitions.length) {
+            @Override
+            protected CloseableRecordIterator open(int partition) throws IOException {
+                CloseableRecordIterator l = read(leftPartitions, partition);
+                CloseableRecordIterator r = read(rightPartitions, partition);
+                try {
+                    return join(l, r, level + 1);
+                } catch (IOException | RuntimeException e) {
+                    r.close();
+                    throw e;
+                } finally {
+                    //Left side has been fully read. The right side is streamed, and closed by the probe iterator
+                    l.close();
+                }
+            }
+
+            @Override
+            protected void discard(int partition) {
+                if (leftPartitions[partition] != null) {
+                    leftPartitions[partition].delete();
+                }
+                if (rightPartitions[partition] != null) {
+                    rightPartitions[partition].delete();
+                }
+            }
+        };
+    }
+
+    private void write(SpillFile[] partitions, List<Writable> key, List<Writable> record, int level) throws IOException {
+        int p = SpillUtils.partition(key.hashCode(), level, partitions.length);
+        if (partitions[p] == null) {
+            partitions[p] = SpillFile.create(config);
+        }
+        partitions[p].write(record);
+    }
+
+    private static CloseableRecordIterator read(SpillFile[] partitions, int partition) throws IOException {
+        SpillFile f = partitions[partition];
+        partitions[partition] = null;
+        if (f == null) {
+            return CloseableRecordIterator.wrap(Collections.<List<Writable>>emptyIterator());
+        }
+        return f.read(true);
+    }
+
+    private static void delete(SpillFile[] files) {
+        for (SpillFile f : files) {
+            if (f != null) {
+                f.delete();
+            }
+        }
+    }
+
+    private static List<Writable> key(List<Writable> record, int[] keyColumns) {
+        List<Writable> key = new ArrayList<>(keyColumns.length);
+        for (int i : keyColumns) {
+            key.add(record.get(i));
+        }
+        return key;
+    }
+
+    private static class LeftGroup {
+        private final List<List<Writable>> records = new ArrayList<>();
+        private boolean matched;
+    }
+
+    /**
+     * Streams the right records through the in-memory hash table of left records. For left/full outer joins, the
+     * left records without any matching right records are returned at the end
+     */
+    private class ProbeIterator implements CloseableRecordIterator {
+        private final Map<List<Writable>, LeftGroup> table;
+        private final Iterator<List<Writable>> right;
+        private final boolean emitUnmatchedLeft;
+        private final boolean emitUnmatchedRight;
+        private Iterator<List<Writable>> current = Collections.emptyIterator();
+        private Iterator<Map.Entry<List<Writable>, LeftGroup>> unmatched;
+        private boolean closed;
+
+        private ProbeIterator(Map<List<Writable>, LeftGroup> table, Iterator<List<Writable>> right) {
+            this.table = table;
+            this.right = right;
+            Join.JoinType t = join.getJoinType();
+            this.emitUnmatchedLeft = t == Join.JoinType.LeftOuter || t == Join.JoinType.FullOuter;
+            this.emitUnmatchedRight = t == Join.JoinType.RightOuter || t == Join.JoinType.FullOuter;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!closed && !current.hasNext()) {
+                if (right.hasNext()) {
+                    List<Writable> record = right.next();
+                    List<Writable> key = key(record, rightKeyColumns);
+                    LeftGroup g = table.get(key);
+                    if (g == null && !emitUnmatchedRight) {
+                        continue;
+                    }
+                    List<List<Writable>> leftRecords;
+                    if (g == null) {
+                        leftRecords = Collections.emptyList();
+                    } else {
+                        g.matched = true;
+                        leftRecords = g.records;
+                    }
+                    current = joinFunction.call(Pair.of(key,
+                            Pair.of(leftRecords, Collections.singletonList(record)))).iterator();
+                } else if (emitUnmatchedLeft) {
+                    if (unmatched == null) {
+                        unmatched = table.entrySet().iterator();
+                    }
+                    if (!unmatched.hasNext()) {
+                        close();
+                        return false;
+                    }
+                    Map.Entry<List<Writable>, LeftGroup> e = unmatched.next();
+                    if (!e.getValue().matched) {
+                        current = joinFunction.call(Pair.of(e.getKey(),
+                                Pair.of(e.getValue().records, Collections.<List<Writable>>emptyList()))).iterator();
+                    }
+                } else {
+                    close();
+                    return false;
+                }
+            }
+            return !closed;
+        }
+
+        @Override
+        public List<Writable> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No next element");
+            }
+            return current.next();
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            table.clear();
+            if (right instanceof CloseableRecordIterator) {
+                ((CloseableRecordIterator) right).close();
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.datavec.local.transforms.spill;
+
+import lombok.NonNull;
+import org.datavec.api.transform.ops.IAggregableReduceOp;
+import org.datavec.api.transform.reduce.IAssociativeReducer;
+import org.datavec.api.writable.Writable;
+import org.datavec.local.transforms.reduce.MapToPairForReducerFunction;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Grouped reduction ({@link IAssociativeReducer}) with a bounded memory budget, using hybrid hash aggregation.<br>
+ * Records are aggregated in memory, with one reduce op per key, until the (estimated) memory used by the reduce ops
+ * reaches the memory budget. After that point, records for keys that are already in memory are still aggregated in
+ * memory, but records for any new keys are hash partitioned (by key) to temporary files on disk. Each of these
+ * partitions is then reduced in the same way, recursively, once the in-memory results have been returned.<br>
+ * Keys are defined as per {@link MapToPairForReducerFunction}. The order of the output records is not defined.
+ */
+public class ExternalReducer {
+
+    private final IAssociativeReducer reducer;
+    private final SpillConfig config;
+    private final MapToPairForReducerFunction keyFunction;
+
+    /**
+     * @param reducer Reducer to execute. Its input schema must be set
+     * @param config  Spill configuration
+     */
+    public ExternalReducer(@NonNull IAssociativeReducer reducer, @NonNull SpillConfig config) {
+        this.reducer = reducer;
+        this.config = config;
+        this.keyFunction = new MapToPairForReducerFunction(reducer);
+    }
+
+    /**
+     * Reduce the specified records
+     *
+     * @param input Records to reduce
+     * @return Iterator over the reduced records, one per key. Temporary files are deleted once the iterator is closed
+     * or fully consumed
+     */
+    public CloseableRecordIterator reduce(@NonNull Iterator<List<Writable>> input) throws IOException {
+        return reduce(input, 0);
+    }
+
+    private CloseableRecordIterator reduce(Iterator<List<Writable>> input, final int level) throws IOException {
+        Map<String, IAggregableReduceOp<List<Writable>, List<Writable>>> ops = new HashMap<>();
+        long bytes = 0;
+        final SpillFile[] partitions = new SpillFile[config.getNumPartitions()];
+        boolean spilling = false;
+        try {
+            while (input.hasNext()) {
+                List<Writable> record = input.next();
+                String key = keyFunction.apply(record).getFirst();
+                IAggregableReduceOp<List<Writable>, List<Writable>> op = ops.get(key);
+                if (op == null) {
+                    //Rough estimate for the key, the reduce op and its state
+                    long estimate = 64 + 2L * key.length() + 2 * SpillConfig.estimateSizeBytes(record);
+                    if (!spilling && (ops.isEmpty() || bytes + estimate <= config.getMemoryBudgetBytes())) {
+                        op = reducer.aggregableReducer();
+                        ops.put(key, op);
+                        bytes += estimate;
+                    } else {
+                        spilling = true;
+                        int p = SpillUtils.partition(key.hashCode(), level, partitions.length);
+                        if (partitions[p] == null) {
+                            partitions[p] = SpillFile.create(config);
+                        }
+                        partitions[p].write(record);
+                        continue;
+                    }
+                }
+                op.accept(record);
+            }
+        } catch (IOException | RuntimeException e) {
+            delete(partitions);
+            throw e;
+        }
+
+        List<List<Writable>> results = new ArrayList<>(ops.size());
+        for (IAggregableReduceOp<List<Writable>, List<Writable>> op : ops.values()) {
+            results.add(op.get());
+        }
+        if (!spilling) {
+            return CloseableRecordIterator.wrap(results.iterator());
+        }
+
+        return new ChainedRecordIterator(CloseableRecordIterator.wrap(results.iterator()), partitions.length) {
+            @Override
+            protected CloseableRecordIterator open(int partition) throws IOException {
+                SpillFile f = partitions[partition];
+                partitions[partition] = null;
+                if (f == null) {
+                    return CloseableRecordIterator.wrap(Collections.<List<Writable>>emptyIterator());
+                }
+                CloseableRecordIterator records = f.read(true);
+                try {
+                    return reduce(records, level + 1);
+                } finally {
+                    records.close();
+                }
+            }
+
+            @Override
+            protected void discard(int partition) {
+                if (partitions[partition] != null) {
+                    partitions[partition].delete();
+                    partitions[partition] = null;
+                }
+            }
+        };
+    }
+
+    private static void delete(SpillFile[] files) {
+        for (SpillFile f : files) {
+            if (f != null) {
+                f.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.datavec.local.transforms.spill;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.datavec.api.writable.Writable;
+import org.nd4j.common.base.Preconditions;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * External merge sort for records.<br>
+ * Records are buffered in memory until the memory budget (see {@link SpillConfig}) is reached; the buffer is then
+ * sorted and written to disk as a sorted run. Once all records have been read, the runs and the records remaining in
+ * memory are merged. If there are more than {@link SpillConfig#getMaxMergeFanIn()} runs, the runs are first merged in
+ * multiple passes.<br>
+ * The sort is stable: records that are equal according to the comparator are returned in input order.
+ */
+@Slf4j
+public class ExternalSorter {
+
+    private final Comparator<List<Writable>> comparator;
+    private final SpillConfig config;
+
+    /**
+     * @param comparator Comparator defining the sort order
+     * @param config     Spill configuration
+     */
+    public ExternalSorter(@NonNull Comparator<List<Writable>> comparator, @NonNull SpillConfig config) {
+        Preconditions.checkArgument(config.getMaxMergeFanIn() >= 2, "Max merge fan in must be at least 2, got %s",
+                config.getMaxMergeFanIn());
+        this.comparator = comparator;
+        this.config = config;
+    }
+
+    /**
+     * Sort the specified records
+     *
+     * @param input Records to sort
+     * @return Iterator over the sorted records. Temporary files are deleted once the iterator is closed or fully
+     * consumed
+     */
+    public CloseableRecordIterator sort(@NonNull Iterator<List<Writable>> input) throws IOException {
+        List<SpillFile> runs = new ArrayList<>();
+        try {
+            List<List<Writable>> buffer = new ArrayList<>();
+            long bufferBytes = 0;
+            while (input.hasNext()) {
+                List<Writable> record = input.next();
+                buffer.add(record);
+                bufferBytes += SpillConfig.estimateSizeBytes(record);
+                if (bufferBytes >= config.getMemoryBudgetBytes()) {
+                    Collections.sort(buffer, comparator);
+                    runs.add(write(CloseableRecordIterator.wrap(buffer.iterator())));
+                    buffer = new ArrayList<>();
+                    bufferBytes = 0;
+                }
+            }
+
+            Collections.sort(buffer, comparator);
+            if (runs.isEmpty()) {
+                return CloseableRecordIterator.wrap(buffer.iterator());
+            }
+
+            //Leave one input of the final merge for the in-memory records
+            while (runs.size() >= config.getMaxMergeFanIn()) {
+                log.debug("Merging {} sorted runs with max fan in {}", runs.size(), config.getMaxMergeFanIn());
+                List<SpillFile> merged = new ArrayList<>();
+                for (int i = 0; i < runs.size(); i += config.getMaxMergeFanIn()) {
+                    List<SpillFile> group = runs.subList(i, Math.min(runs.size(), i + config.getMaxMergeFanIn()));
+                    if (group.size() == 1) {
+                        merged.add(group.get(0));
+                    } else {
+                        merged.add(write(merge(group, null)));
+                    }
+                }
+                runs = merged;
+            }
+            return merge(runs, buffer);
+        } catch (IOException | RuntimeException e) {
+            for (SpillFile f : runs) {
+                f.delete();
+            }
+            throw e;
+        }
+    }
+
+    private SpillFile write(CloseableRecordIterator records) throws IOException {
+        SpillFile f = SpillFile.create(config);
+        try {
+            while (records.hasNext()) {
+                f.write(records.next());
+            }
+            f.finishWriting();
+        } catch (IOException | RuntimeException e) {
+            f.delete();
+            throw e;
+        } finally {
+            records.close();
+        }
+        return f;
+    }
+
+    private CloseableRecordIterator merge(List<SpillFile> runs, List<List<Writable>> inMemory) throws IOException {
+        List<CloseableRecordIterator> sources = new ArrayList<>();
+        try {
+            for (SpillFile f : runs) {
+                sources.add(f.read(true));
+            }
+        } catch (IOException e) {
+            for (CloseableRecordIterator s : sources) {
+                s.close();
+            }
+            throw e;
+        }
+        if (inMemory != null) {
+            sources.add(CloseableRecordIterator.wrap(inMemory.iterator()));
+        }
+        return new MergeIterator(sources);
+    }
+
+    private static class Head {
+        private final List<Writable> record;
+        private final int source;
+
+        private Head(List<Writable> record, int source) {
+            this.record = record;
+            this.source = source;
+        }
+    }
+
+    /**
+     * k-way merge of sorted iterators. Ties are broken by source index, so that the merge is stable if the sources are
+     * in input order
+     */
+    private class MergeIterator implements CloseableRecordIterator {
+        private final List<CloseableRecordIterator> sources;
+        private final PriorityQueue<Head> queue;
+
+        private MergeIterator(List<CloseableRecordIterator> sources) {
+            this.sources = sources;
+            this.queue = new PriorityQueue<>(Math.max(1, sources.size()), new Comparator<Head>() {
+                @Override
+                public int compare(Head h1, Head h2) {
+                    int c = comparator.compare(h1.record, h2.record);
+                    return c != 0 ? c : Integer.compare(h1.source, h2.source);
+                }
+            });
+            for (int i = 0; i < sources.size(); i++) {
+                advance(i);
+            }
+        }
+
+        private void advance(int source) {
+            CloseableRecordIterator iter = sources.get(source);
+            if (iter.hasNext()) {
+                queue.add(new Head(iter.next(), source));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public List<Writable> next() {
+            Head h = queue.poll();
+            if (h == null) {
+                throw new NoSuchElementException("No next element");
+            }
+            advance(h.source);
+            return h.record;
+        }
+
+        @Override
+        public void close() {
+            queue.clear();
+            for (CloseableRecordIterator s : sources) {
+                s.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.datavec.local.transforms.spill;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import org.datavec.api.writable.NDArrayWritable;
+import org.datavec.api.writable.Text;
+import org.datavec.api.writable.Writable;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Configuration for the disk spilling (external memory) operations: {@link ExternalSorter}, {@link ExternalReducer}
+ * and {@link ExternalJoin}.<br>
+ * The memory budget is compared against an <i>estimate</i> of the heap memory used by the records buffered by an
+ * operation (see {@link #estimateSizeBytes(List)}). The actual memory used may differ, hence the budget should be set
+ * well below the maximum heap size.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+public class SpillConfig implements Serializable {
+    public static final long DEFAULT_MEMORY_BUDGET_BYTES = 256L * 1024 * 1024;
+    public static final int DEFAULT_NUM_PARTITIONS = 64;
+    public static final int DEFAULT_MAX_MERGE_FAN_IN = 128;
+
+    /**
+     * Maximum (estimated) number of bytes of records that an operation may hold in memory before spilling to disk
+     */
+    @Builder.Default
+    private long memoryBudgetBytes = DEFAULT_MEMORY_BUDGET_BYTES;
+    /**
+     * Directory for the temporary files. If null: the default temporary directory (java.io.tmpdir) is used
+     */
+    private File tempDirectory;
+    /**
+     * Number of partitions for hash partitioning (used by {@link ExternalReducer} and {@link ExternalJoin})
+     */
+    @Builder.Default
+    private int numPartitions = DEFAULT_NUM_PARTITIONS;
+    /**
+     * Maximum number of sorted runs that are merged at once by {@link ExternalSorter}. When there are more runs than
+     * this, they are merged in multiple passes
+     */
+    @Builder.Default
+    private int maxMergeFanIn = DEFAULT_MAX_MERGE_FAN_IN;
+
+    public SpillConfig() {
+        this(DEFAULT_MEMORY_BUDGET_BYTES, null, DEFAULT_NUM_PARTITIONS, DEFAULT_MAX_MERGE_FAN_IN);
+    }
+
+    /**
+     * Estimate the heap memory used by a record: the list, the Writable objects and their contents
+     *
+     * @param record Record to estimate the size of
+     * @return Estimated size in bytes
+     */
+    public static long estimateSizeBytes(List<Writable> record) {
+        long bytes = 40 + 8L * record.size();
+        for (Writable w : record) {
+            if (w instanceof Text) {
+                bytes += 56 + ((Text) w).getLength();
+            } else if (w instanceof NDArrayWritable && ((NDArrayWritable) w).get() != null) {
+                bytes += 128 + ((NDArrayWritable) w).get().length() * ((NDArrayWritable) w).get().dataType().width();
+            } else {
+                bytes += 24;
+            }
+        }
+        return bytes;
+    }
+}
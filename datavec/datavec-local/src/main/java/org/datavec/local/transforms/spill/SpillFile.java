@@ -0,0 +1,170 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.datavec.local.transforms.spill;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.datavec.api.writable.Writable;
+import org.datavec.api.writable.WritableFactory;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A temporary file of records, used by the external memory operations in this package.<br>
+ * Records are written sequentially with {@link #write(List)}, using {@link WritableFactory#writeWithType(Writable, DataOutput)}
+ * for each value, and can then be read back (in the same order) with {@link #read(boolean)}.
+ */
+public class SpillFile {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Getter
+    private final File file;
+    @Getter
+    private long numRecords;
+    private DataOutputStream out;
+
+    protected SpillFile(@NonNull File file) {
+        this.file = file;
+    }
+
+    /**
+     * Create a new, empty spill file in the temporary directory specified by the configuration
+     *
+     * @param config Spill configuration
+     * @return The new spill file
+     */
+    public static SpillFile create(@NonNull SpillConfig config) throws IOException {
+        File f = File.createTempFile("datavec_spill_", ".bin", config.getTempDirectory());
+        f.deleteOnExit();
+        return new SpillFile(f);
+    }
+
+    /**
+     * Append a record to the file
+     */
+    public void write(List<Writable> record) throws IOException {
+        if (out == null) {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, numRecords > 0), BUFFER_SIZE));
+        }
+        out.writeInt(record.size());
+        WritableFactory wf = WritableFactory.getInstance();
+        for (Writable w : record) {
+            wf.writeWithType(w, out);
+        }
+        numRecords++;
+    }
+
+    /**
+     * Flush and close the output stream, if open. Must be called after the last {@link #write(List)} call
+     */
+    public void finishWriting() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * Read the records in the file. {@link #finishWriting()} is called first, if necessary
+     *
+     * @param deleteOnClose If true: delete the file once the returned iterator is closed or fully consumed
+     * @return Iterator over the records in the file
+     */
+    public CloseableRecordIterator read(boolean deleteOnClose) throws IOException {
+        finishWriting();
+        return new Reader(deleteOnClose);
+    }
+
+    /**
+     * Delete the file, closing the output stream first if necessary
+     */
+    public void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                //Ignore - file is being deleted
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    private class Reader implements CloseableRecordIterator {
+        private final boolean deleteOnClose;
+        private DataInputStream in;
+        private long read;
+
+        private Reader(boolean deleteOnClose) throws IOException {
+            this.deleteOnClose = deleteOnClose;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (read < numRecords) {
+                return true;
+            }
+            close();
+            return false;
+        }
+
+        @Override
+        public List<Writable> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No next element");
+            }
+            try {
+                int n = in.readInt();
+                List<Writable> record = new ArrayList<>(n);
+                WritableFactory wf = WritableFactory.getInstance();
+                for (int i = 0; i < n; i++) {
+                    record.add(wf.readWithType(in));
+                }
+                read++;
+                return record;
+            } catch (IOException e) {
+                close();
+                throw new RuntimeException("Error reading records from spill file " + file, e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (in == null) {
+                return;
+            }
+            try {
+                in.close();
+            } catch (IOException e) {
+                //Ignore
+            }
+            in = null;
+            read = numRecords;
+            if (deleteOnClose) {
+                file.delete();
+            }
+        }
+    }
+}
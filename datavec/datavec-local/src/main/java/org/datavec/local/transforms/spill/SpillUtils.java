@@ -0,0 +1,50 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.datavec.local.transforms.spill;
+
+/**
+ * Utilities for the external memory operations in this package
+ */
+class SpillUtils {
+
+    private SpillUtils() {
+    }
+
+    /**
+     * Assign a hash code to a partition. The level (recursion depth) is mixed into the hash, so that a partition that
+     * is too large can be split again by re-partitioning at the next level.
+     *
+     * @param hashCode      Hash code of the key
+     * @param level         Partitioning level
+     * @param numPartitions Number of partitions
+     * @return Partition index, in range 0 to numPartitions-1
+     */
+    static int partition(int hashCode, int level, int numPartitions) {
+        //Murmur3 finalizer, seeded with the level
+        int h = hashCode ^ (level * 0x9E3779B9);
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (h & Integer.MAX_VALUE) % numPartitions;
+    }
+}
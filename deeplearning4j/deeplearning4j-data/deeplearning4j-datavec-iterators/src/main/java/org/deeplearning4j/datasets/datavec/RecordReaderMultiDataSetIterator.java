@@ -35,9 +35,11 @@ import org.datavec.api.util.ndarray.RecordConverter;
 import org.datavec.api.writable.IntWritable;
 import org.datavec.api.writable.NDArrayWritable;
 import org.datavec.api.writable.Writable;
+import org.datavec.api.writable.batch.ColumnarRecordBatch;
 import org.datavec.api.writable.batch.NDArrayRecordBatch;
 import org.deeplearning4j.datasets.datavec.exception.ZeroLengthSequenceException;
 import org.nd4j.common.base.Preconditions;
+import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.api.MultiDataSet;
 import org.nd4j.linalg.dataset.api.MultiDataSetPreProcessor;
@@ -140,6 +142,14 @@ public class RecordReaderMultiDataSetIterator implements MultiDataSetIterator, S
                 if(batchWritables instanceof NDArrayRecordBatch) {
                     //ImageRecordReader etc case
                     batch = ((NDArrayRecordBatch)batchWritables).getArrays();
+                } else if(batchWritables instanceof ColumnarRecordBatch) {
+                    //CSVRecordReader with schema etc case: convert directly from primitive columns (as FLOAT, like toMinibatchArray)
+                    //Non-numeric columns can't be converted; these are null, and must not be used for features/labels
+                    ColumnarRecordBatch cb = (ColumnarRecordBatch) batchWritables;
+                    batch = new ArrayList<>(cb.numColumns());
+                    for( int i = 0; i < cb.numColumns(); i++) {
+                        batch.add(cb.isNumeric(i) ? cb.getColumnAsArray(i, DataType.FLOAT) : null);
+                    }
                 } else {
                     batchWritables = filterRequiredColumns(entry.getKey(), batchWritables);
                     batch = new ArrayList<>();
@@ -278,6 +288,8 @@ public class RecordReaderMultiDataSetIterator implements MultiDataSetIterator, S
             for (List<INDArray> exampleData : nextRRValsBatched.values()) {
                 //Assume all NDArrayWritables here
                 for (INDArray w : exampleData) {
+                    if (w == null)
+                        continue;   //Non-numeric column from ColumnarRecordBatch
                     val n = w.size(0);
 
                     if (Math.min(minExamples, n) < Integer.MAX_VALUE)
@@ -373,6 +385,15 @@ public class RecordReaderMultiDataSetIterator implements MultiDataSetIterator, S
     }
 
     private INDArray convertWritablesBatched(List<INDArray> list, SubsetDetails details) {
+        int from = details.entireReader ? 0 : details.subsetStart;
+        int to = details.entireReader ? list.size() - 1 : (details.oneHot ? details.subsetStart : details.subsetEndInclusive);
+        for (int i = from; i <= to; i++) {
+            if (list.get(i) == null) {
+                throw new IllegalStateException("Cannot convert column " + i + " of reader \"" + details.readerName
+                        + "\" to an INDArray: column is non-numeric");
+            }
+        }
+
         INDArray arr;
         if (details.entireReader) {
             if (list.size() == 1) {
@@ -0,0 +1,127 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.deeplearning4j.datasets.iterator.columnar;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import org.nd4j.common.base.Preconditions;
+import org.nd4j.common.util.MathUtils;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Base class for iterators over a {@link ColumnarDataSetFile}.<br>
+ * If an RNG is provided, the order of examples is shuffled (at the example level, not the minibatch level) at the
+ * start of each epoch. Within each minibatch, examples are sorted by index: this has no impact on training (the
+ * examples in each minibatch are still a random sample), but allows consecutive examples to be copied together.
+ *
+ * @param <T> Type of the iterator output
+ * @param <P> Type of the preprocessor
+ */
+public abstract class BaseColumnarIterator<T, P> {
+
+    @Getter
+    protected final ColumnarDataSetFile file;
+    protected final int batchSize;
+    protected final Random rng;
+    protected final int[] order;
+    protected int position;
+
+    @Getter
+    @Setter
+    protected P preProcessor;
+
+    protected BaseColumnarIterator(@NonNull ColumnarDataSetFile file, int batchSize, Random rng) {
+        Preconditions.checkArgument(batchSize > 0, "Batch size must be positive, got %s", batchSize);
+        this.file = file;
+        this.batchSize = batchSize;
+        this.rng = rng;
+        if (rng != null) {
+            order = new int[file.getNumExamples()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            MathUtils.shuffleArray(order, rng);
+        } else {
+            order = null;
+        }
+    }
+
+    public boolean hasNext() {
+        return position < file.getNumExamples();
+    }
+
+    public T next() {
+        return next(batchSize);
+    }
+
+    public T next(int num) {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No next element");
+        }
+        int n = Math.min(num, file.getNumExamples() - position);
+        int[] examples = new int[n];
+        if (order != null) {
+            System.arraycopy(order, position, examples, 0, n);
+            Arrays.sort(examples);
+        } else {
+            for (int i = 0; i < n; i++) {
+                examples[i] = position + i;
+            }
+        }
+        position += n;
+
+        T out = convert(file.get(examples));
+        applyPreprocessor(out);
+        return out;
+    }
+
+    public void reset() {
+        position = 0;
+        if (rng != null) {
+            MathUtils.shuffleArray(order, rng);
+        }
+    }
+
+    public boolean resetSupported() {
+        return true;
+    }
+
+    public boolean asyncSupported() {
+        return true;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException("Not supported");
+    }
+
+    public int batch() {
+        return batchSize;
+    }
+
+    protected abstract T convert(MultiDataSet mds);
+
+    protected abstract void applyPreprocessor(T toPreProcess);
+}
@@ -0,0 +1,445 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.deeplearning4j.datasets.iterator.columnar;
+
+import lombok.Data;
+import lombok.Getter;
+import lombok.NonNull;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.concurrency.AffinityManager;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A read-only, memory-mapped view of a dataset file written by {@link ColumnarDataSetWriter}, providing random access
+ * to individual examples.<br>
+ * Unlike {@link org.nd4j.linalg.dataset.DataSet#save(File)} (one serialized minibatch per file), examples are stored
+ * column-wise: for each chunk of examples, the features, labels and mask arrays are each stored as one contiguous block
+ * of raw (native byte order, 'c' order) values. As all examples in a file have the same per-example shape for a given
+ * array, the location of example i within a chunk is simply {@code offset + i * bytesPerExample}. A minibatch of any
+ * set of examples can therefore be assembled by copying byte ranges from the mapped file directly into the output
+ * arrays, without any deserialization - consecutive examples are copied with a single bulk copy.<br>
+ * <br>
+ * File format (header values are big endian; array data is in the byte order recorded in the file header):<br>
+ * - File header: magic number (long), format version (int), byte order (byte: 0 = little endian, 1 = big endian),
+ * number of features arrays (int), number of labels arrays (int), padded to {@link #ALIGNMENT} bytes<br>
+ * - Zero or more chunks, each consisting of:<br>
+ * &nbsp;&nbsp;- Chunk marker (int), header length (int), chunk length in bytes (long), followed by the chunk header:
+ * number of examples (long), then for each column - features, labels, features masks, labels masks - a presence flag
+ * (byte), and if present: data type name (UTF), per-example rank (int), per-example shape (long[]), and the offset of
+ * the column data relative to the start of the chunk (long)<br>
+ * &nbsp;&nbsp;- The data for each present column, with each column starting at a multiple of {@link #ALIGNMENT} bytes<br>
+ * <br>
+ * Mask arrays are optional, and may be present for some chunks only. When a minibatch contains examples from chunks
+ * with and without a given mask array, the mask is filled with ones for the examples without a mask; if none of the
+ * examples in the minibatch have a mask, the mask is null.<br>
+ * <br>
+ * Instances are immutable after construction, and are safe to use from multiple threads. The file is closed after
+ * opening; the mappings remain valid until the instance is garbage collected.
+ */
+public class ColumnarDataSetFile {
+
+    public static final long MAGIC = 0x444C344A434F4C31L;     //"DL4JCOL1"
+    public static final int VERSION = 1;
+    public static final int CHUNK_MARKER = 0x43484E4B;        //"CHNK"
+    public static final int ALIGNMENT = 64;
+    protected static final int FILE_HEADER_BYTES = 8 + 4 + 1 + 4 + 4;
+    protected static final int CHUNK_PREFIX_BYTES = 4 + 4 + 8;
+
+    @Getter
+    private final File file;
+    @Getter
+    private final int numFeatureArrays;
+    @Getter
+    private final int numLabelArrays;
+    @Getter
+    private final int numExamples;
+
+    private final Column[] columns;
+    private final long[] chunkStart;
+    private final List<Chunk> chunks = new ArrayList<>();
+
+    /**
+     * Open the specified file, and map its contents into memory
+     *
+     * @param file File written by {@link ColumnarDataSetWriter}
+     * @throws IOException If the file cannot be read, or is not a valid columnar dataset file
+     */
+    public ColumnarDataSetFile(@NonNull File file) throws IOException {
+        this.file = file;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            ByteBuffer header = read(channel, 0, FILE_HEADER_BYTES);
+            if (header.getLong() != MAGIC) {
+                throw new IOException("Not a columnar dataset file (invalid magic number): " + file);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported columnar dataset file version " + version + " (supported: " +
+                        VERSION + "): " + file);
+            }
+            ByteOrder order = header.get() == 0 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+            if (order != ByteOrder.nativeOrder()) {
+                throw new IOException("File " + file + " was written with byte order " + order + ", which does not" +
+                        " match the byte order of this platform (" + ByteOrder.nativeOrder() + ")");
+            }
+            numFeatureArrays = header.getInt();
+            numLabelArrays = header.getInt();
+            columns = new Column[numColumns(numFeatureArrays, numLabelArrays)];
+
+            List<Long> starts = new ArrayList<>();
+            long totalExamples = 0;
+            long pos = align(FILE_HEADER_BYTES);
+            while (pos < size) {
+                ByteBuffer prefix = read(channel, pos, CHUNK_PREFIX_BYTES);
+                if (prefix.getInt() != CHUNK_MARKER) {
+                    throw new IOException("Invalid or corrupt columnar dataset file: no chunk marker at position " +
+                            pos + " of file " + file);
+                }
+                int headerLength = prefix.getInt();
+                long chunkLength = prefix.getLong();
+                if (chunkLength > Integer.MAX_VALUE || pos + chunkLength > size) {
+                    throw new IOException("Invalid or corrupt columnar dataset file: chunk at position " + pos +
+                            " has length " + chunkLength + ", file size is " + size + ": " + file);
+                }
+
+                ByteBuffer hb = read(channel, pos + CHUNK_PREFIX_BYTES, headerLength);
+                DataInputStream dis = new DataInputStream(new ByteArrayInputStream(hb.array()));
+                long n = dis.readLong();
+                long[] offsets = new long[columns.length];
+                for (int c = 0; c < columns.length; c++) {
+                    if (!dis.readBoolean()) {
+                        offsets[c] = -1;
+                        continue;
+                    }
+                    Column col = Column.read(dis);
+                    if (columns[c] == null) {
+                        columns[c] = col;
+                    } else if (!columns[c].equals(col)) {
+                        throw new IllegalStateException("Invalid columnar dataset file: " + columnName(c) +
+                                " has data type/per-example shape " + col + " in chunk at position " + pos +
+                                " but " + columns[c] + " in an earlier chunk: " + file);
+                    }
+                    offsets[c] = dis.readLong();
+                    if (offsets[c] + n * col.getBytesPerExample() > chunkLength) {
+                        throw new IOException("Invalid or corrupt columnar dataset file: data for " + columnName(c) +
+                                " exceeds chunk length for chunk at position " + pos + ": " + file);
+                    }
+                }
+
+                if (n > 0) {
+                    MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, pos, chunkLength);
+                    data.order(ByteOrder.nativeOrder());
+                    chunks.add(new Chunk(data, offsets));
+                    starts.add(totalExamples);
+                    totalExamples += n;
+                }
+                pos += chunkLength;
+            }
+
+            if (totalExamples > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Files with more than Integer.MAX_VALUE examples are not supported." +
+                        " Got " + totalExamples + " examples in file " + file);
+            }
+            numExamples = (int) totalExamples;
+            chunkStart = new long[starts.size() + 1];
+            for (int i = 0; i < starts.size(); i++) {
+                chunkStart[i] = starts.get(i);
+            }
+            chunkStart[starts.size()] = totalExamples;
+        }
+        if (numFeatureArrays > 0 && numExamples > 0 && columns[0] == null) {
+            throw new IllegalStateException("Invalid columnar dataset file: no features data found in file " + file);
+        }
+    }
+
+    /**
+     * @param idx Index of the features array
+     * @return Per-example shape of the features array, excluding the minibatch dimension. For example, [nIn] for
+     * 2d features of shape [minibatch, nIn]. Null if the file contains no examples
+     */
+    public long[] getFeaturesShape(int idx) {
+        Column c = columns[idx];
+        return c == null ? null : c.getShape().clone();
+    }
+
+    /**
+     * @param idx Index of the labels array
+     * @return Per-example shape of the labels array, excluding the minibatch dimension. Null if the file contains no
+     * examples
+     */
+    public long[] getLabelsShape(int idx) {
+        Column c = columns[numFeatureArrays + idx];
+        return c == null ? null : c.getShape().clone();
+    }
+
+    /**
+     * @param idx Index of the features array
+     * @return Data type of the features array, or null if the file contains no examples
+     */
+    public DataType getFeaturesDataType(int idx) {
+        Column c = columns[idx];
+        return c == null ? null : c.getDataType();
+    }
+
+    /**
+     * @param idx Index of the labels array
+     * @return Data type of the labels array, or null if the file contains no examples
+     */
+    public DataType getLabelsDataType(int idx) {
+        Column c = columns[numFeatureArrays + idx];
+        return c == null ? null : c.getDataType();
+    }
+
+    /**
+     * Assemble a minibatch containing the specified examples, in the specified order.<br>
+     * Runs of consecutive example indices are copied with a single bulk copy per array, hence sorted (or mostly
+     * sorted) indices are faster to assemble than randomly ordered ones.
+     *
+     * @param examples Indices of the examples, in range 0 to {@link #getNumExamples()} (exclusive)
+     * @return MultiDataSet containing the specified examples
+     */
+    public MultiDataSet get(@NonNull int[] examples) {
+        if (examples.length == 0) {
+            throw new IllegalArgumentException("Cannot get minibatch of 0 examples");
+        }
+        int[] chunkIdx = new int[examples.length];
+        for (int i = 0; i < examples.length; i++) {
+            if (examples[i] < 0 || examples[i] >= numExamples) {
+                throw new IllegalArgumentException("Invalid example index " + examples[i] + ": file " + file +
+                        " contains " + numExamples + " examples");
+            }
+            int c = Arrays.binarySearch(chunkStart, examples[i]);
+            chunkIdx[i] = c >= 0 ? c : -c - 2;
+        }
+
+        INDArray[] features = new INDArray[numFeatureArrays];
+        INDArray[] labels = new INDArray[numLabelArrays];
+        INDArray[] featuresMasks = new INDArray[numFeatureArrays];
+        INDArray[] labelsMasks = new INDArray[numLabelArrays];
+        for (int i = 0; i < numFeatureArrays; i++) {
+            features[i] = assemble(i, examples, chunkIdx);
+            featuresMasks[i] = assemble(numFeatureArrays + numLabelArrays + i, examples, chunkIdx);
+        }
+        for (int i = 0; i < numLabelArrays; i++) {
+            labels[i] = assemble(numFeatureArrays + i, examples, chunkIdx);
+            labelsMasks[i] = assemble(2 * numFeatureArrays + numLabelArrays + i, examples, chunkIdx);
+        }
+
+        return new org.nd4j.linalg.dataset.MultiDataSet(features, labels,
+                allNull(featuresMasks) ? null : featuresMasks, allNull(labelsMasks) ? null : labelsMasks);
+    }
+
+    private INDArray assemble(int column, int[] examples, int[] chunkIdx) {
+        Column col = columns[column];
+        if (col == null) {
+            return null;
+        }
+        boolean anyPresent = false;
+        for (int c : chunkIdx) {
+            if (chunks.get(c).offsets[column] >= 0) {
+                anyPresent = true;
+                break;
+            }
+        }
+        if (!anyPresent) {
+            return null;
+        }
+
+        long[] shape = new long[col.getShape().length + 1];
+        shape[0] = examples.length;
+        System.arraycopy(col.getShape(), 0, shape, 1, col.getShape().length);
+        INDArray out = Nd4j.createUninitialized(col.getDataType(), shape, 'c');
+        int stride = col.getBytesPerExample();
+        if (stride == 0) {
+            return out;
+        }
+
+        ByteBuffer target = out.data().asNio().duplicate();
+        target.position(0);
+        byte[] ones = null;
+        int i = 0;
+        while (i < examples.length) {
+            Chunk chunk = chunks.get(chunkIdx[i]);
+            //Find the run of consecutive examples within the same chunk, and copy them as a single block
+            int end = i + 1;
+            while (end < examples.length && chunkIdx[end] == chunkIdx[i] && examples[end] == examples[end - 1] + 1) {
+                end++;
+            }
+            long offset = chunk.offsets[column];
+            if (offset >= 0) {
+                ByteBuffer src = chunk.data.duplicate();
+                int from = (int) (offset + (examples[i] - chunkStart[chunkIdx[i]]) * (long) stride);
+                src.position(from);
+                src.limit(from + (end - i) * stride);
+                target.put(src);
+            } else {
+                //Mask not present for this chunk, but present for other examples in the minibatch: fill with ones
+                if (ones == null) {
+                    ones = col.getOnes();
+                }
+                for (int j = i; j < end; j++) {
+                    target.put(ones);
+                }
+            }
+            i = end;
+        }
+        //Data was written via the host pointer
+        Nd4j.getAffinityManager().tagLocation(out, AffinityManager.Location.HOST);
+        return out;
+    }
+
+    private String columnName(int column) {
+        int f = numFeatureArrays;
+        int l = numLabelArrays;
+        if (column < f) {
+            return "features array " + column;
+        } else if (column < f + l) {
+            return "labels array " + (column - f);
+        } else if (column < 2 * f + l) {
+            return "features mask array " + (column - f - l);
+        }
+        return "labels mask array " + (column - 2 * f - l);
+    }
+
+    private static boolean allNull(INDArray[] arrays) {
+        for (INDArray a : arrays) {
+            if (a != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(length);
+        while (bb.hasRemaining()) {
+            if (channel.read(bb, position + bb.position()) < 0) {
+                throw new EOFException("Unexpected end of file reading columnar dataset file at position " + position);
+            }
+        }
+        bb.flip();
+        return bb;
+    }
+
+    protected static int numColumns(int numFeatureArrays, int numLabelArrays) {
+        //Features, labels, features masks, labels masks
+        return 2 * (numFeatureArrays + numLabelArrays);
+    }
+
+    protected static long align(long position) {
+        return (position + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /**
+     * Get the raw contents of the specified array (which must be 'c' order, and not a view) as a ByteBuffer
+     */
+    protected static ByteBuffer bytes(INDArray arr) {
+        ByteBuffer bb = arr.data().asNio().duplicate();
+        bb.position(0);
+        bb.limit((int) (arr.length() * arr.dataType().width()));
+        return bb;
+    }
+
+    private static class Chunk {
+        private final ByteBuffer data;
+        private final long[] offsets;   //-1 if column is not present in this chunk
+
+        private Chunk(ByteBuffer data, long[] offsets) {
+            this.data = data;
+            this.offsets = offsets;
+        }
+    }
+
+    /**
+     * Data type and per-example shape for one array (column) in the file
+     */
+    @Data
+    protected static class Column {
+        private final DataType dataType;
+        private final long[] shape;
+
+        protected Column(@NonNull DataType dataType, @NonNull long[] shape) {
+            if (dataType == DataType.UTF8 || dataType == DataType.COMPRESSED || dataType == DataType.UNKNOWN) {
+                throw new IllegalStateException("Data type " + dataType + " is not supported by the columnar dataset format");
+            }
+            long bytes = dataType.width();
+            for (long s : shape) {
+                bytes *= s;
+            }
+            if (bytes > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Examples larger than Integer.MAX_VALUE bytes are not supported. " +
+                        "Got per-example shape " + Arrays.toString(shape) + " with data type " + dataType);
+            }
+            this.dataType = dataType;
+            this.shape = shape;
+        }
+
+        protected int getBytesPerExample() {
+            long bytes = dataType.width();
+            for (long s : shape) {
+                bytes *= s;
+            }
+            return (int) bytes;
+        }
+
+        /**
+         * @return The raw bytes for a single example with all values set to 1.0 - used for absent mask arrays
+         */
+        protected byte[] getOnes() {
+            byte[] out = new byte[getBytesPerExample()];
+            bytes(Nd4j.ones(dataType, shape).dup('c')).get(out);
+            return out;
+        }
+
+        protected void write(DataOutputStream dos) throws IOException {
+            dos.writeUTF(dataType.name());
+            dos.writeInt(shape.length);
+            for (long s : shape) {
+                dos.writeLong(s);
+            }
+        }
+
+        protected static Column read(DataInputStream dis) throws IOException {
+            DataType dt = DataType.valueOf(dis.readUTF());
+            long[] shape = new long[dis.readInt()];
+            for (int i = 0; i < shape.length; i++) {
+                shape[i] = dis.readLong();
+            }
+            return new Column(dt, shape);
+        }
+
+        @Override
+        public String toString() {
+            return dataType + " " + Arrays.toString(shape);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.deeplearning4j.datasets.iterator.columnar;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A DataSetIterator over a columnar dataset file, as written by {@link ColumnarDataSetWriter} from DataSets (i.e.,
+ * a file with one features array and at most one labels array).<br>
+ * Minibatches are assembled by copying the selected examples directly from the memory-mapped file, hence the order of
+ * examples can be shuffled at the example level each epoch, at negligible cost compared to re-running ETL or
+ * deserializing saved DataSets. See {@link BaseColumnarIterator} for details on shuffling.<br>
+ * Typical usage:
+ * <pre>
+ * {@code
+ * ColumnarDataSetWriter.write(new RecordReaderDataSetIterator(...), file);   //Once
+ * DataSetIterator iter = new ColumnarDataSetIterator(file, 32, new Random(12345));
+ * }
+ * </pre>
+ */
+public class ColumnarDataSetIterator extends BaseColumnarIterator<DataSet, DataSetPreProcessor>
+        implements DataSetIterator {
+
+    @Getter
+    @Setter
+    private List<String> labels;
+
+    /**
+     * Create an iterator with no shuffling: examples are returned in the order they were written
+     *
+     * @param file      Columnar dataset file
+     * @param batchSize Minibatch size
+     */
+    public ColumnarDataSetIterator(File file, int batchSize) throws IOException {
+        this(new ColumnarDataSetFile(file), batchSize, null);
+    }
+
+    /**
+     * @param file      Columnar dataset file
+     * @param batchSize Minibatch size
+     * @param rng       May be null. If non-null, use this to shuffle the order of examples at the start of each epoch
+     */
+    public ColumnarDataSetIterator(File file, int batchSize, Random rng) throws IOException {
+        this(new ColumnarDataSetFile(file), batchSize, rng);
+    }
+
+    /**
+     * @param file      Columnar dataset file. May be shared between multiple iterators
+     * @param batchSize Minibatch size
+     * @param rng       May be null. If non-null, use this to shuffle the order of examples at the start of each epoch
+     */
+    public ColumnarDataSetIterator(ColumnarDataSetFile file, int batchSize, Random rng) {
+        super(file, batchSize, rng);
+        if (file.getNumExamples() > 0 && (file.getNumFeatureArrays() != 1 || file.getNumLabelArrays() > 1)) {
+            throw new IllegalStateException("Cannot create DataSetIterator for file " + file.getFile() + ": file has " +
+                    file.getNumFeatureArrays() + " features arrays and " + file.getNumLabelArrays() + " labels arrays." +
+                    " Use ColumnarMultiDataSetIterator for files with multiple features or labels arrays");
+        }
+    }
+
+    /**
+     * @return Size of dimension 1 of the features arrays, or -1 if the file is empty
+     */
+    @Override
+    public int inputColumns() {
+        long[] shape = file.getNumFeatureArrays() == 0 ? null : file.getFeaturesShape(0);
+        return shape == null || shape.length == 0 ? -1 : (int) shape[0];
+    }
+
+    /**
+     * @return Size of dimension 1 of the labels arrays, or -1 if the file is empty or has no labels
+     */
+    @Override
+    public int totalOutcomes() {
+        long[] shape = file.getNumLabelArrays() == 0 ? null : file.getLabelsShape(0);
+        return shape == null || shape.length == 0 ? -1 : (int) shape[0];
+    }
+
+    @Override
+    protected DataSet convert(MultiDataSet mds) {
+        boolean hasLabels = mds.numLabelsArrays() > 0;
+        return new DataSet(mds.getFeatures(0), hasLabels ? mds.getLabels(0) : null,
+                mds.getFeaturesMaskArray(0), hasLabels ? mds.getLabelsMaskArray(0) : null);
+    }
+
+    @Override
+    protected void applyPreprocessor(DataSet toPreProcess) {
+        if (preProcessor != null) {
+            preProcessor.preProcess(toPreProcess);
+        }
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.deeplearning4j.datasets.iterator.columnar;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.nd4j.common.base.Preconditions;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes DataSets or MultiDataSets to a single file in the columnar dataset format - see {@link ColumnarDataSetFile}
+ * for details of the format. Written files can be read using {@link ColumnarDataSetIterator} or
+ * {@link ColumnarMultiDataSetIterator}.<br>
+ * The written minibatches may be of any size: examples are buffered and written in chunks of approximately
+ * {@link #getChunkSizeBytes()} bytes. However, the number of features/labels arrays, and the data type and per-example
+ * shape (i.e., the shape excluding the minibatch dimension) of each array, must be the same for all examples. For
+ * example, variable length time series must be padded to a fixed length (with a mask array) before writing.<br>
+ * Mask arrays are optional for each written minibatch. If a chunk contains examples both with and without a given
+ * mask array, the mask is stored as all ones for the examples without one.<br>
+ * <br>
+ * The simplest way to convert an existing iterator (such as a RecordReaderDataSetIterator) is via
+ * {@link #write(DataSetIterator, File)}: the iterator's ETL (record reading, parsing, preprocessing, etc) is then
+ * performed only once, instead of once per epoch.
+ */
+public class ColumnarDataSetWriter implements Closeable {
+
+    public static final long DEFAULT_CHUNK_SIZE_BYTES = 64 * 1024 * 1024;
+    public static final long MAX_CHUNK_SIZE_BYTES = 1024 * 1024 * 1024;
+
+    @Getter
+    private final File file;
+    @Getter
+    private final long chunkSizeBytes;
+    private final FileOutputStream fileOutputStream;
+    private final FileChannel channel;
+
+    private int numFeatureArrays = -1;
+    private int numLabelArrays = -1;
+    private ColumnarDataSetFile.Column[] columns;
+    private final List<INDArray[]> pending = new ArrayList<>();
+    private long pendingBytes;
+    @Getter
+    private long numExamples;
+    private boolean closed;
+
+    /**
+     * Create a writer with the default chunk size of {@link #DEFAULT_CHUNK_SIZE_BYTES}
+     *
+     * @param file File to write to. Will be overwritten if it already exists
+     */
+    public ColumnarDataSetWriter(@NonNull File file) throws IOException {
+        this(file, DEFAULT_CHUNK_SIZE_BYTES);
+    }
+
+    /**
+     * @param file           File to write to. Will be overwritten if it already exists
+     * @param chunkSizeBytes Approximate size of each chunk, in bytes. Each chunk is memory mapped separately when
+     *                       reading. Must be at most {@link #MAX_CHUNK_SIZE_BYTES}
+     */
+    public ColumnarDataSetWriter(@NonNull File file, long chunkSizeBytes) throws IOException {
+        Preconditions.checkArgument(chunkSizeBytes > 0 && chunkSizeBytes <= MAX_CHUNK_SIZE_BYTES,
+                "Chunk size must be between 1 and %s bytes, got %s", MAX_CHUNK_SIZE_BYTES, chunkSizeBytes);
+        this.file = file;
+        this.chunkSizeBytes = chunkSizeBytes;
+        this.fileOutputStream = new FileOutputStream(file);
+        this.channel = fileOutputStream.getChannel();
+    }
+
+    /**
+     * Write all DataSets from the iterator to the specified file. Note that the iterator is not reset before writing.
+     *
+     * @param iterator Iterator to write the output of
+     * @param file     File to write to. Will be overwritten if it already exists
+     * @return Number of examples written
+     */
+    public static long write(@NonNull DataSetIterator iterator, @NonNull File file) throws IOException {
+        try (ColumnarDataSetWriter w = new ColumnarDataSetWriter(file)) {
+            while (iterator.hasNext()) {
+                w.write(iterator.next());
+            }
+            return w.getNumExamples();
+        }
+    }
+
+    /**
+     * Write all MultiDataSets from the iterator to the specified file. Note that the iterator is not reset before
+     * writing.
+     *
+     * @param iterator Iterator to write the output of
+     * @param file     File to write to. Will be overwritten if it already exists
+     * @return Number of examples written
+     */
+    public static long write(@NonNull MultiDataSetIterator iterator, @NonNull File file) throws IOException {
+        try (ColumnarDataSetWriter w = new ColumnarDataSetWriter(file)) {
+            while (iterator.hasNext()) {
+                w.write(iterator.next());
+            }
+            return w.getNumExamples();
+        }
+    }
+
+    /**
+     * Write the examples in the specified DataSet. The labels array is optional (may be null) but must be consistently
+     * present or absent for all DataSets written to the file.
+     */
+    public void write(@NonNull DataSet dataSet) throws IOException {
+        INDArray l = dataSet.getLabels();
+        INDArray lm = dataSet.getLabelsMaskArray();
+        write(new INDArray[]{dataSet.getFeatures()},
+                l == null ? new INDArray[0] : new INDArray[]{l},
+                new INDArray[]{dataSet.getFeaturesMaskArray()},
+                l == null ? new INDArray[0] : new INDArray[]{lm});
+    }
+
+    /**
+     * Write the examples in the specified MultiDataSet
+     */
+    public void write(@NonNull MultiDataSet multiDataSet) throws IOException {
+        INDArray[] f = multiDataSet.getFeatures();
+        INDArray[] l = multiDataSet.getLabels();
+        if (l == null) {
+            l = new INDArray[0];
+        }
+        INDArray[] fm = multiDataSet.getFeaturesMaskArrays();
+        INDArray[] lm = multiDataSet.getLabelsMaskArrays();
+        write(f, l, fm == null ? new INDArray[f.length] : fm, lm == null ? new INDArray[l.length] : lm);
+    }
+
+    protected void write(INDArray[] features, INDArray[] labels, INDArray[] featuresMasks, INDArray[] labelsMasks)
+            throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Cannot write to writer: writer has been closed");
+        }
+        Preconditions.checkState(features != null && features.length > 0 && features[0] != null,
+                "Cannot write data with no features arrays");
+        if (numFeatureArrays < 0) {
+            numFeatureArrays = features.length;
+            numLabelArrays = labels.length;
+            columns = new ColumnarDataSetFile.Column[ColumnarDataSetFile.numColumns(numFeatureArrays, numLabelArrays)];
+            writeFileHeader();
+        } else if (numFeatureArrays != features.length || numLabelArrays != labels.length) {
+            throw new IllegalStateException("All data written to a columnar dataset file must have the same number of" +
+                    " features and labels arrays. Previously written data had " + numFeatureArrays + " features arrays" +
+                    " and " + numLabelArrays + " labels arrays, got " + features.length + " and " + labels.length);
+        }
+
+        INDArray[] arrays = new INDArray[columns.length];
+        System.arraycopy(features, 0, arrays, 0, numFeatureArrays);
+        System.arraycopy(labels, 0, arrays, numFeatureArrays, numLabelArrays);
+        System.arraycopy(featuresMasks, 0, arrays, numFeatureArrays + numLabelArrays, numFeatureArrays);
+        System.arraycopy(labelsMasks, 0, arrays, 2 * numFeatureArrays + numLabelArrays, numLabelArrays);
+
+        long n = features[0].size(0);
+        long bytesPerExample = 0;
+        for (int c = 0; c < arrays.length; c++) {
+            INDArray arr = arrays[c];
+            if (arr == null) {
+                if (c < numFeatureArrays + numLabelArrays) {
+                    throw new IllegalStateException("Features and labels arrays must not be null: " +
+                            (c < numFeatureArrays ? "features" : "labels") + " array is null");
+                }
+                continue;
+            }
+            if (arr.rank() == 0 || arr.size(0) != n) {
+                throw new IllegalStateException("All arrays must have the same minibatch size: features array 0 has" +
+                        " shape " + Arrays.toString(features[0].shape()) + ", got array with shape " +
+                        Arrays.toString(arr.shape()));
+            }
+            ColumnarDataSetFile.Column col = new ColumnarDataSetFile.Column(arr.dataType(),
+                    Arrays.copyOfRange(arr.shape(), 1, arr.rank()));
+            if (columns[c] == null) {
+                columns[c] = col;
+            } else if (!columns[c].equals(col)) {
+                throw new IllegalStateException("All examples written to a columnar dataset file must have the same" +
+                        " data type and per-example shape for each array. Array " + c + " previously had " +
+                        columns[c] + ", got " + col + " (full shape: " + Arrays.toString(arr.shape()) + ")");
+            }
+            bytesPerExample += col.getBytesPerExample();
+        }
+        if (n == 0) {
+            return;
+        }
+
+        //Split large minibatches over multiple chunks; copy (detach) the arrays so they can be buffered safely
+        long perChunk = Math.max(1, chunkSizeBytes / Math.max(1, bytesPerExample));
+        try (MemoryWorkspace ws = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+            for (long from = 0; from < n; from += perChunk) {
+                long to = Math.min(n, from + perChunk);
+                INDArray[] entry = new INDArray[arrays.length];
+                for (int c = 0; c < arrays.length; c++) {
+                    if (arrays[c] != null) {
+                        INDArray a = (from == 0 && to == n) ? arrays[c] : arrays[c].get(NDArrayIndex.interval(from, to));
+                        entry[c] = a.dup('c');
+                    }
+                }
+                long entryBytes = (to - from) * bytesPerExample;
+                if (!pending.isEmpty() && pendingBytes + entryBytes > chunkSizeBytes) {
+                    flush();
+                }
+                pending.add(entry);
+                pendingBytes += entryBytes;
+            }
+        }
+        numExamples += n;
+    }
+
+    private void writeFileHeader() throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate((int) ColumnarDataSetFile.align(ColumnarDataSetFile.FILE_HEADER_BYTES));
+        bb.putLong(ColumnarDataSetFile.MAGIC);
+        bb.putInt(ColumnarDataSetFile.VERSION);
+        bb.put((byte) (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 0 : 1));
+        bb.putInt(numFeatureArrays);
+        bb.putInt(numLabelArrays);
+        bb.position(0);
+        writeFully(bb);
+    }
+
+    /**
+     * Write all buffered examples as a single chunk
+     */
+    protected void flush() throws IOException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        long n = 0;
+        for (INDArray[] entry : pending) {
+            n += entry[0].size(0);
+        }
+        boolean[] present = new boolean[columns.length];
+        for (INDArray[] entry : pending) {
+            for (int c = 0; c < columns.length; c++) {
+                present[c] |= entry[c] != null;
+            }
+        }
+
+        //Header has fixed length for a given set of columns: compute the length, then the data offsets
+        long[] offsets = new long[columns.length];
+        int headerLength = chunkHeader(n, present, offsets).length;
+        long pos = ColumnarDataSetFile.align(ColumnarDataSetFile.CHUNK_PREFIX_BYTES + headerLength);
+        for (int c = 0; c < columns.length; c++) {
+            if (present[c]) {
+                offsets[c] = pos;
+                pos = ColumnarDataSetFile.align(pos + n * columns[c].getBytesPerExample());
+            }
+        }
+        long chunkLength = pos;
+        if (chunkLength > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Chunk size exceeds maximum of Integer.MAX_VALUE bytes: " + chunkLength);
+        }
+
+        byte[] header = chunkHeader(n, present, offsets);
+        ByteBuffer prefix = ByteBuffer.allocate(ColumnarDataSetFile.CHUNK_PREFIX_BYTES + header.length);
+        prefix.putInt(ColumnarDataSetFile.CHUNK_MARKER);
+        prefix.putInt(header.length);
+        prefix.putLong(chunkLength);
+        prefix.put(header);
+        prefix.position(0);
+        long written = writeFully(prefix);
+
+        for (int c = 0; c < columns.length; c++) {
+            if (!present[c]) {
+                continue;
+            }
+            written += pad(offsets[c] - written);
+            byte[] ones = null;
+            for (INDArray[] entry : pending) {
+                if (entry[c] != null) {
+                    written += writeFully(ColumnarDataSetFile.bytes(entry[c]));
+                } else {
+                    //Mask array is absent for this minibatch but present for others in the same chunk
+                    if (ones == null) {
+                        ones = columns[c].getOnes();
+                    }
+                    for (long i = 0; i < entry[0].size(0); i++) {
+                        written += writeFully(ByteBuffer.wrap(ones));
+                    }
+                }
+            }
+        }
+        pad(chunkLength - written);
+
+        pending.clear();
+        pendingBytes = 0;
+    }
+
+    private byte[] chunkHeader(long numExamples, boolean[] present, long[] offsets) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(baos)) {
+            dos.writeLong(numExamples);
+            for (int c = 0; c < columns.length; c++) {
+                dos.writeBoolean(present[c]);
+                if (present[c]) {
+                    columns[c].write(dos);
+                    dos.writeLong(offsets[c]);
+                }
+            }
+        }
+        return baos.toByteArray();
+    }
+
+    private long pad(long numBytes) throws IOException {
+        if (numBytes > 0) {
+            writeFully(ByteBuffer.allocate((int) numBytes));
+        }
+        return numBytes;
+    }
+
+    private long writeFully(ByteBuffer bb) throws IOException {
+        long count = bb.remaining();
+        while (bb.hasRemaining()) {
+            channel.write(bb);
+        }
+        return count;
+    }
+
+    /**
+     * Write any buffered examples, and close the file
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (numFeatureArrays < 0) {
+                //No data was written
+                numFeatureArrays = 0;
+                numLabelArrays = 0;
+                writeFileHeader();
+            }
+            flush();
+        } finally {
+            channel.close();
+            fileOutputStream.close();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.deeplearning4j.datasets.iterator.columnar;
+
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.MultiDataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * A MultiDataSetIterator over a columnar dataset file, as written by {@link ColumnarDataSetWriter}.<br>
+ * Minibatches are assembled by copying the selected examples directly from the memory-mapped file, hence the order of
+ * examples can be shuffled at the example level each epoch, at negligible cost compared to re-running ETL or
+ * deserializing saved MultiDataSets. See {@link BaseColumnarIterator} for details on shuffling.
+ */
+public class ColumnarMultiDataSetIterator extends BaseColumnarIterator<MultiDataSet, MultiDataSetPreProcessor>
+        implements MultiDataSetIterator {
+
+    /**
+     * Create an iterator with no shuffling: examples are returned in the order they were written
+     *
+     * @param file      Columnar dataset file
+     * @param batchSize Minibatch size
+     */
+    public ColumnarMultiDataSetIterator(File file, int batchSize) throws IOException {
+        this(new ColumnarDataSetFile(file), batchSize, null);
+    }
+
+    /**
+     * @param file      Columnar dataset file
+     * @param batchSize Minibatch size
+     * @param rng       May be null. If non-null, use this to shuffle the order of examples at the start of each epoch
+     */
+    public ColumnarMultiDataSetIterator(File file, int batchSize, Random rng) throws IOException {
+        this(new ColumnarDataSetFile(file), batchSize, rng);
+    }
+
+    /**
+     * @param file      Columnar dataset file. May be shared between multiple iterators
+     * @param batchSize Minibatch size
+     * @param rng       May be null. If non-null, use this to shuffle the order of examples at the start of each epoch
+     */
+    public ColumnarMultiDataSetIterator(ColumnarDataSetFile file, int batchSize, Random rng) {
+        super(file, batchSize, rng);
+    }
+
+    @Override
+    protected MultiDataSet convert(MultiDataSet mds) {
+        return mds;
+    }
+
+    @Override
+    protected void applyPreprocessor(MultiDataSet toPreProcess) {
+        if (preProcessor != null) {
+            preProcessor.preProcess(toPreProcess);
+        }
+    }
+}
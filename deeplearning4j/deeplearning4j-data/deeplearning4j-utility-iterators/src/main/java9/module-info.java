@@ -8,6 +8,7 @@ module deeplearning4j.utility.iterators {
 
     exports org.deeplearning4j.datasets.iterator;
     exports org.deeplearning4j.datasets.iterator.callbacks;
+    exports org.deeplearning4j.datasets.iterator.columnar;
     exports org.deeplearning4j.datasets.iterator.file;
     exports org.deeplearning4j.datasets.iterator.loader;
     exports org.deeplearning4j.datasets.iterator.parallel;
@@ -22,6 +22,7 @@ package org.deeplearning4j.nn.conf;
 import lombok.Data;
 import lombok.NonNull;
 import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.nd4j.common.base.Preconditions;
 import org.nd4j.linalg.api.buffer.DataType;
 
 import java.util.ArrayList;
@@ -40,6 +41,7 @@ public abstract class BaseBuilder {
     protected BackpropType backpropType = BackpropType.Standard;
     protected int tbpttFwdLength = DEFAULT_TBPTT_LENGTH;
     protected int tbpttBackLength = DEFAULT_TBPTT_LENGTH;
+    protected int gradientAccumulationSteps = 1;
     protected InputType inputType;
 
     protected WorkspaceMode trainingWorkspaceMode = WorkspaceMode.ENABLED;
@@ -166,6 +168,23 @@ public abstract class BaseBuilder {
         return (T) this;
     }
 
+    /**
+     * Accumulate the gradients of the specified number of minibatches (fit calls) before applying a single
+     * parameter update, for a larger effective minibatch size without the memory cost of fitting it at once.<br>
+     * The update is equivalent to a single update for all accumulated examples: the summed gradients are divided
+     * by the total number of examples, and BatchNormalization mean/variance estimates are averaged, weighted by
+     * minibatch size. Iteration counts and listener {@code iterationDone} calls are per update, not per minibatch.
+     * Gradients not yet applied at the end of an epoch carry over to the next update.<br>
+     * Only applies to {@link org.deeplearning4j.nn.api.OptimizationAlgorithm#STOCHASTIC_GRADIENT_DESCENT}.
+     *
+     * @param steps Number of minibatches per parameter update. Default: 1
+     */
+    public  <T extends BaseBuilder> T gradientAccumulation(int steps) {
+        Preconditions.checkArgument(steps >= 1, "Number of gradient accumulation steps must be >= 1, got %s", steps);
+        this.gradientAccumulationSteps = steps;
+        return (T) this;
+    }
+
     public  <T extends BaseBuilder> T confs(List<NeuralNetConfiguration> confs) {
         this.confs = confs;
         return (T) this;
@@ -58,7 +58,7 @@ import java.io.Serializable;
 import java.util.*;
 
 @Data
-@EqualsAndHashCode(exclude = {"trainingWorkspaceMode", "inferenceWorkspaceMode", "cacheMode", "topologicalOrder", "topologicalOrderStr"})
+@EqualsAndHashCode(exclude = {"trainingWorkspaceMode", "inferenceWorkspaceMode", "cacheMode", "activationCheckpoints", "topologicalOrder", "topologicalOrderStr"})
 @AllArgsConstructor(access = AccessLevel.PRIVATE)
 @NoArgsConstructor
 public class ComputationGraphConfiguration implements Serializable, Cloneable {
@@ -99,6 +99,19 @@ public class ComputationGraphConfiguration implements Serializable, Cloneable {
     protected int tbpttFwdLength = 20;
     protected int tbpttBackLength = 20;
 
+    /**
+     * Vertices whose activations are retained during the forward pass when fitting the network. If set (non-empty),
+     * the activations of the other vertices before the last checkpoint are discarded after the forward pass, and
+     * recomputed segment by segment during backprop. Null or empty: all activations are retained (default)
+     */
+    protected List<String> activationCheckpoints;
+
+    /**
+     * Number of minibatches (fit calls) whose gradients are accumulated before a single parameter update is applied.
+     * 1 (default): parameters are updated after every minibatch
+     */
+    protected int gradientAccumulationSteps = 1;
+
     protected NeuralNetConfiguration defaultConfiguration;
 
     //Counter for the number of parameter updates so far
@@ -380,8 +393,10 @@ public class ComputationGraphConfiguration implements Serializable, Cloneable {
         conf.networkOutputs = new ArrayList<>(this.networkOutputs);
 
         conf.backpropType = backpropType;
+        conf.gradientAccumulationSteps = gradientAccumulationSteps;
         conf.tbpttFwdLength = tbpttFwdLength;
         conf.tbpttBackLength = tbpttBackLength;
+        conf.activationCheckpoints = activationCheckpoints == null ? null : new ArrayList<>(activationCheckpoints);
         conf.defaultConfiguration = defaultConfiguration.clone();
         conf.trainingWorkspaceMode = trainingWorkspaceMode;
         conf.inferenceWorkspaceMode = inferenceWorkspaceMode;
@@ -455,6 +470,19 @@ public class ComputationGraphConfiguration implements Serializable, Cloneable {
             }
         }
 
+        if(activationCheckpoints != null) {
+            for (String s : activationCheckpoints) {
+                if (!vertices.containsKey(s)) {
+                    throw new IllegalStateException(
+                            "Invalid configuration: Activation checkpoint \"" + s + "\" is not a valid vertex");
+                }
+            }
+            if (!activationCheckpoints.isEmpty() && backpropType == BackpropType.TruncatedBPTT) {
+                throw new IllegalStateException("Invalid configuration: activation checkpoints cannot be used with " +
+                        "truncated backpropagation through time");
+            }
+        }
+
         //Check that there aren't any disconnected vertices
         if(!allowDisconnected){
             //A vertex is considered disconnected if it is (a) not an output vertex, and (b) isn't used an as input
@@ -779,6 +807,8 @@ public class ComputationGraphConfiguration implements Serializable, Cloneable {
         protected BackpropType backpropType = BackpropType.Standard;
         protected int tbpttFwdLength = DEFAULT_TBPTT_LENGTH;
         protected int tbpttBackLength = DEFAULT_TBPTT_LENGTH;
+        protected List<String> activationCheckpoints;
+        protected int gradientAccumulationSteps = 1;
 
         protected Map<String, InputPreProcessor> inputPreProcessors = new LinkedHashMap<>();
 
@@ -1185,6 +1215,41 @@ public class ComputationGraphConfiguration implements Serializable, Cloneable {
             return this;
         }
 
+        /**
+         * Enable activation checkpointing (recomputation) for training, to reduce the memory required for backprop.<br>
+         * Only the activations of the specified vertices (and of any other vertices whose activations are used after
+         * the next checkpoint, such as the start of skip connections) are retained after the forward pass. The network
+         * is split into segments ending at each checkpoint; during backprop, the forward pass of each segment is
+         * recomputed before its gradients are calculated. Activations after the last checkpoint are retained as usual.<br>
+         * Peak activation memory is then approximately the retained activations plus those of the largest segment,
+         * at the cost of one additional forward pass for all vertices before the last checkpoint. Checkpoints are
+         * usually placed every sqrt(N) layers for a network of N layers.<br>
+         * Note: activation checkpointing cannot be used with truncated BPTT.
+         *
+         * @param vertexNames Names of the vertices (layers) to use as checkpoints
+         */
+        public GraphBuilder activationCheckpoints(String... vertexNames) {
+            this.activationCheckpoints = vertexNames == null || vertexNames.length == 0 ? null : new ArrayList<>(Arrays.asList(vertexNames));
+            return this;
+        }
+
+        /**
+         * Accumulate the gradients of the specified number of minibatches (fit calls) before applying a single
+         * parameter update, for a larger effective minibatch size without the memory cost of fitting it at once.<br>
+         * The update is equivalent to a single update for all accumulated examples: the summed gradients are divided
+         * by the total number of examples, and BatchNormalization mean/variance estimates are averaged, weighted by
+         * minibatch size. Iteration counts and listener {@code iterationDone} calls are per update, not per minibatch.
+         * Gradients not yet applied at the end of an epoch carry over to the next update.<br>
+         * Only applies to {@link org.deeplearning4j.nn.api.OptimizationAlgorithm#STOCHASTIC_GRADIENT_DESCENT}.
+         *
+         * @param steps Number of minibatches per parameter update. Default: 1
+         */
+        public GraphBuilder gradientAccumulation(int steps) {
+            Preconditions.checkArgument(steps >= 1, "Number of gradient accumulation steps must be >= 1, got %s", steps);
+            this.gradientAccumulationSteps = steps;
+            return this;
+        }
+
         /**
          * Enabled by default. If enabled, an exception will be throw when using the (invalid) combination of truncated
          * backpropagation through time (TBPTT) with either a GlobalPoolingLayer or LastTimeStepLayer.<br>
@@ -1245,6 +1310,8 @@ public class ComputationGraphConfiguration implements Serializable, Cloneable {
             conf.backpropType = backpropType;
             conf.tbpttBackLength = tbpttBackLength;
             conf.tbpttFwdLength = tbpttFwdLength;
+            conf.activationCheckpoints = activationCheckpoints;
+            conf.gradientAccumulationSteps = gradientAccumulationSteps;
 
             conf.networkInputs = networkInputs;
             conf.networkOutputs = networkOutputs;
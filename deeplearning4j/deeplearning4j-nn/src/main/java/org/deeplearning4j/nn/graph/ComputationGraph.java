@@ -55,6 +55,7 @@ import org.deeplearning4j.nn.layers.FrozenLayer;
 import org.deeplearning4j.nn.layers.FrozenLayerWithBackprop;
 import org.deeplearning4j.nn.layers.recurrent.BidirectionalLayer;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.nn.profiler.LayerProfiler;
 import org.deeplearning4j.nn.updater.graph.ComputationGraphUpdater;
 import org.deeplearning4j.nn.workspace.ArrayType;
 import org.deeplearning4j.nn.workspace.LayerWorkspaceMgr;
@@ -75,6 +76,7 @@ import org.nd4j.linalg.api.memory.enums.LearningPolicy;
 import org.nd4j.linalg.api.memory.enums.ResetPolicy;
 import org.nd4j.linalg.api.memory.enums.SpillPolicy;
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.rng.Random;
 import org.nd4j.linalg.dataset.adapter.MultiDataSetIteratorAdapter;
 import org.nd4j.linalg.dataset.api.DataSet;
 import org.nd4j.linalg.dataset.api.DataSetUtil;
@@ -121,6 +123,13 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
     //Workspaces for CUDNN. Pass to LayerWorkspaceMgr for re-use in cudnn helpers
     @Getter
     protected transient Map<String,Pointer> helperWorkspaces = new HashMap<>();
+    /**
+     * Per-layer timing and memory profiler, if profiling is enabled. Null (profiling disabled) by default.
+     * See {@link LayerProfiler}
+     */
+    @Getter
+    @Setter
+    protected transient LayerProfiler layerProfiler;
 
     private transient final AtomicLong occupiedBy = new AtomicLong(-1);
 
@@ -144,6 +153,12 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
      */
     protected static final String WS_OUTPUT_MEM = "WS_OUTPUT_MEM";
 
+    /**
+     * Workspace for the activations of one segment of the network, when training with activation checkpointing.
+     * Opened once per segment in the forward pass, and again when the segment is recomputed during backprop
+     */
+    protected static final String WS_CHECKPOINT_SEGMENT = "WS_CHECKPOINT_SEGMENT";
+
     protected final WorkspaceConfiguration WS_LAYER_WORKING_MEM_CONFIG;
 
     protected static final WorkspaceConfiguration WS_ALL_LAYERS_ACT_CONFIG = WorkspaceConfiguration.builder()
@@ -207,6 +222,7 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
     private transient INDArray[] labelMaskArrays;
 
     private transient int[] outputLayerIdxs;
+    private transient CheckpointSegments checkpointSegments;
 
     private NeuralNetConfiguration defaultConfiguration;
     private Collection<TrainingListener> trainingListeners = new ArrayList<>();
@@ -937,6 +953,7 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                     .build();
         }
         workspaceMgr.setHelperWorkspacePointers(helperWorkspaces);
+        workspaceMgr.setProfiler(layerProfiler);
 
         if(!iter.hasNext() && iter.resetSupported())
             iter.reset();
@@ -1151,6 +1168,7 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                     .build();
         }
         workspaceMgr.setHelperWorkspacePointers(helperWorkspaces);
+        workspaceMgr.setProfiler(layerProfiler);
 
         if (configuration.getBackpropType() == BackpropType.TruncatedBPTT) {
             doTruncatedBPTT(inputs, labels, featureMaskArrays, labelMaskArrays, workspaceMgr);
@@ -1363,6 +1381,7 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                     .build();
         }
         workspaceMgr.setHelperWorkspacePointers(helperWorkspaces);
+        workspaceMgr.setProfiler(layerProfiler);
 
 
         boolean tbptt = configuration.getBackpropType() == BackpropType.TruncatedBPTT;
@@ -1372,8 +1391,16 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
         //Calculate activations (which are stored in each layer, and used in backprop)
         try(MemoryWorkspace wsAllActivations = workspaceMgr.notifyScopeEntered(ArrayType.ACTIVATIONS)) {
 
-            Map<String, INDArray> activations = ffToLayerActivationsInWS(true, -1, getOutputLayerIndices(),
-                    fwdType, tbptt, inputs, inputMaskArrays, labelMaskArrays, false);
+            //With activation checkpointing, only some activations are retained, the others are recomputed in backprop
+            CheckpointSegments segments = tbptt ? null : getCheckpointSegments();
+            Map<String, INDArray> activations;
+            if (segments == null) {
+                activations = ffToLayerActivationsInWS(true, -1, getOutputLayerIndices(),
+                        fwdType, tbptt, inputs, inputMaskArrays, labelMaskArrays, false);
+            } else {
+                activations = ffToLayerActivationsCheckpointed(segments, getOutputLayerIndices(), inputs,
+                        inputMaskArrays, labelMaskArrays);
+            }
             if (!trainingListeners.isEmpty()) {
                 try (MemoryWorkspace workspace = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
                     for (TrainingListener tl : trainingListeners) {
@@ -1381,7 +1408,7 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                     }
                 }
             }
-            calcBackpropGradients(false, false);
+            calcBackpropGradients(false, false, segments, null);
 
 
             //Score: sum of the scores for the various output layers...
@@ -1944,6 +1971,7 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
             }
         }
         workspaceMgr.setHelperWorkspacePointers(helperWorkspaces);
+        workspaceMgr.setProfiler(layerProfiler);
 
         Map<String, INDArray> activations = new HashMap<>();
 
@@ -1977,6 +2005,7 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
             if(current.isInputVertex()) {
                 out = inputs[vIdx];
             } else {
+                long profStart = layerProfiler == null ? 0 : layerProfiler.start(vName);
 
                 if(fwdPassType == FwdPassType.STANDARD) {
                     //Standard feed-forward case
@@ -2024,6 +2053,9 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                     throw new IllegalArgumentException("Unsupported forward pass type for this method: " + fwdPassType);
                 }
 
+                if(layerProfiler != null) {
+                    layerProfiler.end(vName, LayerProfiler.Phase.FORWARD, profStart);
+                }
                 validateArrayWorkspaces(workspaceMgr, out, ArrayType.ACTIVATIONS, vName, false, "Feed forward (inference)");
             }
 
@@ -2111,6 +2143,7 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
             }
         }
         workspaceMgr.setHelperWorkspacePointers(helperWorkspaces);
+        workspaceMgr.setProfiler(layerProfiler);
 
         boolean traceLog = log.isTraceEnabled();
         Map<String, INDArray> activations = new HashMap<>();
@@ -2143,6 +2176,7 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                 if (current.isInputVertex()) {
                     out = inputs[vIdx];
                 } else {
+                    long profStart = layerProfiler == null ? 0 : layerProfiler.start(vName);
                     if (fwdPassType == FwdPassType.STANDARD) {
                         out = current.doForward(train, workspaceMgr);
                     } else if (fwdPassType == FwdPassType.RNN_ACTIVATE_WITH_STORED_STATE) {
@@ -2171,6 +2205,9 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                         throw new IllegalStateException("FwdPassType not supported for this method: " + fwdPassType);
                     }
 
+                    if(layerProfiler != null) {
+                        layerProfiler.end(vName, LayerProfiler.Phase.FORWARD, profStart);
+                    }
                     validateArrayWorkspaces(workspaceMgr, out, ArrayType.ACTIVATIONS, vName, false, "Feed forward (inference)");
                 }
 
@@ -2338,6 +2375,7 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
 
                 // workspaceMgr.keepOpen(ArrayType.values());
                 workspaceMgr.setHelperWorkspacePointers(helperWorkspaces);
+                workspaceMgr.setProfiler(layerProfiler);
 
                 //Is this one of the layers/vertices that we want the output for?
                 boolean isRequiredOutput = false;
@@ -2370,6 +2408,7 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                     out = features[vIdx];
 
                 } else {
+                    long profStart = layerProfiler == null ? 0 : layerProfiler.start(vName);
 
                     if (fwdPassType == FwdPassType.STANDARD) {
                         //Standard feed-forward case
@@ -2456,6 +2495,9 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                         throw new IllegalArgumentException("Unsupported forward pass type for this method: " + fwdPassType);
                     }
 
+                    if(layerProfiler != null) {
+                        layerProfiler.end(vName, LayerProfiler.Phase.FORWARD, profStart);
+                    }
                     validateArrayWorkspaces(workspaceMgr, out, ArrayType.ACTIVATIONS, vName, false, "Feed forward (inference)");
                 }
 
@@ -2545,6 +2587,17 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
      *                         learning situations.
      */
     protected void calcBackpropGradients(boolean clearLayers, boolean truncatedBPTT, INDArray... externalEpsilons) {
+        calcBackpropGradients(clearLayers, truncatedBPTT, null, externalEpsilons);
+    }
+
+    /**
+     * As per {@link #calcBackpropGradients(boolean, boolean, INDArray...)}, with optional activation checkpointing
+     *
+     * @param segments Checkpoint segments, as used for the forward pass. If non-null, the forward pass of each
+     *                 recomputed segment is repeated before backprop through the segment's vertices
+     */
+    private void calcBackpropGradients(boolean clearLayers, boolean truncatedBPTT, CheckpointSegments segments,
+                                       INDArray[] externalEpsilons) {
         if (flattenedGradients == null) {
             initGradientsView();
         }
@@ -2623,6 +2676,10 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
         boolean traceLog = log.isTraceEnabled();
 
         Throwable t = null;
+        MemoryWorkspace wsSegment = null;
+        if (segments != null) {
+            segments.saveRngState(segments.numSegments + 1);
+        }
         try {
             for (int i = topologicalOrder.length - 1; i >= 0; i--) {
                 boolean hitFrozen = false;
@@ -2630,6 +2687,13 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                 int vIdx = current.getVertexIndex();
                 String vertexName = current.getVertexName();
 
+                if (segments != null && segments.segmentEnd[i] == i) {
+                    //Activation checkpointing: first recompute the forward pass for all vertices in this segment
+                    wsSegment = segments.workspaceMgr.notifyScopeEntered(ArrayType.ACTIVATIONS);
+                    wsSegment.setPreviousWorkspace(initialWorkspace);
+                    forwardSegment(segments, segments.segmentStart[i], i, false);
+                }
+
                 if (traceLog) {
                     log.trace("About backprop: {} (\"{}\") - {}", i, vertexName, current.getClass().getSimpleName());
                 }
@@ -2666,6 +2730,7 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                     }
                 }
                 workspaceMgr.setHelperWorkspacePointers(helperWorkspaces);
+                workspaceMgr.setProfiler(layerProfiler);
 
                 for(LayerWorkspaceMgr layerWorkspaceMgr : allWorkspaceManagers) {
                     // layerWorkspaceMgr.keepOpen(ArrayType.values());
@@ -2723,7 +2788,11 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                 INDArray[] epsilons;
                 try (MemoryWorkspace wsWorkingMem = workspaceMgr.notifyScopeEntered(ArrayType.BP_WORKING_MEM)) {
 
+                    long profStart = layerProfiler == null ? 0 : layerProfiler.start(vertexName);
                     pair = current.doBackward(truncatedBPTT, workspaceMgr);
+                    if(layerProfiler != null) {
+                        layerProfiler.end(vertexName, LayerProfiler.Phase.BACKWARD, profStart);
+                    }
                     epsilons = pair.getSecond();
 
                     //Validate workspace location for the activation gradients:
@@ -2777,10 +2846,22 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                 if (traceLog) {
                     log.trace("Completed backprop: {} (\"{}\") - {}", i, vertexName, current.getClass().getSimpleName());
                 }
+
+                if (wsSegment != null && segments.segmentStart[i] == i) {
+                    //Backprop for the segment is complete: its recomputed activations are no longer required
+                    wsSegment.close();
+                    wsSegment = null;
+                }
             }
         } catch (Throwable t2) {
             t = t2;
         } finally {
+            if (wsSegment != null) {
+                wsSegment.close();
+            }
+            if (segments != null) {
+                segments.clear();
+            }
             Nd4j.getMemoryManager().setCurrentWorkspace(initialWorkspace);
 
             if(t != null){
@@ -2815,6 +2896,222 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
 
     }
 
+    /**
+     * Get the segments for activation checkpointing, as configured via
+     * {@link ComputationGraphConfiguration.GraphBuilder#activationCheckpoints(String...)}
+     *
+     * @return Checkpoint segments, or null if activation checkpointing is not used
+     */
+    private CheckpointSegments getCheckpointSegments() {
+        List<String> checkpoints = configuration.getActivationCheckpoints();
+        if (checkpoints == null || checkpoints.isEmpty()) {
+            return null;
+        }
+        if (checkpointSegments == null || !checkpointSegments.checkpoints.equals(checkpoints)) {
+            int n = topologicalOrder.length;
+            int[] position = new int[n];
+            for (int i = 0; i < n; i++) {
+                position[topologicalOrder[i]] = i;
+            }
+
+            //All outputs must be in the last segment, which is not recomputed: the output layer inputs are also used
+            // to calculate the score after backprop
+            int firstOutput = n;
+            for (int idx : getOutputLayerIndices()) {
+                firstOutput = Math.min(firstOutput, position[idx]);
+            }
+            boolean[] isCheckpoint = new boolean[n];
+            for (String name : checkpoints) {
+                int p = position[verticesMap.get(name).getVertexIndex()];
+                if (p < firstOutput) {
+                    isCheckpoint[p] = true;
+                } else {
+                    log.warn("Activation checkpoint \"{}\" is not before all network outputs in the topological order and will be ignored", name);
+                }
+            }
+
+            int[] segment = new int[n];
+            int[] segmentStart = new int[n];
+            int[] segmentEnd = new int[n];
+            Arrays.fill(segmentEnd, -1);
+            int numSegments = 0;
+            int start = 0;
+            for (int i = 0; i < n; i++) {
+                segment[i] = numSegments;
+                segmentStart[i] = start;
+                if (isCheckpoint[i]) {
+                    for (int j = start; j <= i; j++) {
+                        segmentEnd[j] = i;
+                    }
+                    numSegments++;
+                    start = i + 1;
+                }
+            }
+
+            //Activations in recomputed segments are retained only if they are used in a later segment
+            boolean[] retain = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                GraphVertex gv = vertices[topologicalOrder[i]];
+                if (segmentEnd[i] == -1 || gv.getOutputVertices() == null) {
+                    continue;
+                }
+                for (VertexIndices v : gv.getOutputVertices()) {
+                    if (segment[position[v.getVertexIndex()]] != segment[i]) {
+                        retain[gv.getVertexIndex()] = true;
+                    }
+                }
+            }
+
+            checkpointSegments = new CheckpointSegments(new ArrayList<>(checkpoints), position, segment, segmentStart,
+                    segmentEnd, retain, numSegments);
+        }
+        return checkpointSegments.numSegments == 0 ? null : checkpointSegments;
+    }
+
+    /**
+     * Forward pass for training with activation checkpointing. Segments before the last checkpoint are executed in
+     * a separate workspace, which is closed after each segment: only the activations that are required by later
+     * segments are retained (in WS_ALL_LAYERS_ACT). Activations of the last segment are retained as per
+     * {@link #ffToLayerActivationsInWS(boolean, int, int[], FwdPassType, boolean, INDArray[], INDArray[], INDArray[], boolean)}
+     *
+     * @return Retained activations
+     */
+    protected Map<String, INDArray> ffToLayerActivationsCheckpointed(CheckpointSegments segments, int[] excludeIdxs,
+                                                                     INDArray[] input, INDArray[] fMask, INDArray[] lMask) {
+        setInputs(input);
+        setLayerMaskArrays(fMask, lMask);
+
+        if (configuration.getTrainingWorkspaceMode() == WorkspaceMode.NONE) {
+            WorkspaceUtils.assertNoWorkspacesOpen("Expected no workspace active in ffToLayerActivationsCheckpointed", true);
+            segments.workspaceMgr = LayerWorkspaceMgr.noWorkspaces();
+            segments.retainedWorkspaceMgr = LayerWorkspaceMgr.noWorkspaces();
+        } else {
+            WorkspaceUtils.assertOpenAndActive(WS_ALL_LAYERS_ACT, "ffToLayerActivationsCheckpointed method requires workspace WS_ALL_LAYERS_ACT to be open");
+
+            segments.retainedWorkspaceMgr = LayerWorkspaceMgr.builder()
+                    .with(ArrayType.ACTIVATIONS, WS_ALL_LAYERS_ACT, WS_ALL_LAYERS_ACT_CONFIG)
+                    .with(ArrayType.INPUT, WS_ALL_LAYERS_ACT, WS_ALL_LAYERS_ACT_CONFIG)
+                    .with(ArrayType.FF_WORKING_MEM, WS_LAYER_WORKING_MEM, WS_LAYER_WORKING_MEM_CONFIG)
+                    .with(ArrayType.RNN_FF_LOOP_WORKING_MEM, WS_RNN_LOOP_WORKING_MEM, WS_RNN_LOOP_WORKING_MEM_CONFIG)
+                    .build();
+            segments.workspaceMgr = LayerWorkspaceMgr.builder()
+                    .with(ArrayType.ACTIVATIONS, WS_CHECKPOINT_SEGMENT, WS_LAYER_ACT_X_CONFIG)
+                    .with(ArrayType.INPUT, WS_CHECKPOINT_SEGMENT, WS_LAYER_ACT_X_CONFIG)
+                    .with(ArrayType.FF_WORKING_MEM, WS_LAYER_WORKING_MEM, WS_LAYER_WORKING_MEM_CONFIG)
+                    .with(ArrayType.RNN_FF_LOOP_WORKING_MEM, WS_RNN_LOOP_WORKING_MEM, WS_RNN_LOOP_WORKING_MEM_CONFIG)
+                    .build();
+
+            if(input[0].isAttached()) {
+                //Don't leverage out of async DataMultiSetIterator workspaces
+                segments.retainedWorkspaceMgr.setNoLeverageOverride(input[0].data().getParentWorkspace().getId());
+                segments.workspaceMgr.setNoLeverageOverride(input[0].data().getParentWorkspace().getId());
+            }
+
+            if(configuration.getCacheMode() != CacheMode.NONE) {
+                segments.retainedWorkspaceMgr.setWorkspace(ArrayType.FF_CACHE, WS_ALL_LAYERS_ACT, WS_ALL_LAYERS_ACT_CONFIG);
+                segments.workspaceMgr.setWorkspace(ArrayType.FF_CACHE, WS_CHECKPOINT_SEGMENT, WS_LAYER_ACT_X_CONFIG);
+            }
+        }
+        segments.retainedWorkspaceMgr.setHelperWorkspacePointers(helperWorkspaces);
+        segments.retainedWorkspaceMgr.setProfiler(layerProfiler);
+        segments.workspaceMgr.setHelperWorkspacePointers(helperWorkspaces);
+        segments.workspaceMgr.setProfiler(layerProfiler);
+
+        segments.excludeIdxs = excludeIdxs;
+        segments.activations = new HashMap<>();
+
+        int start = 0;
+        while (start < topologicalOrder.length) {
+            int end = segments.segmentEnd[start];
+            if (end == -1) {
+                forwardSegment(segments, start, topologicalOrder.length - 1, true);
+                break;
+            }
+            try (MemoryWorkspace wsSegment = segments.workspaceMgr.notifyScopeEntered(ArrayType.ACTIVATIONS)) {
+                forwardSegment(segments, start, end, true);
+            }
+            start = end + 1;
+        }
+
+        Nd4j.getMemoryManager().setCurrentWorkspace(null);
+
+        Map<String, INDArray> activations = segments.activations;
+        segments.activations = null;
+        return activations;
+    }
+
+    /**
+     * Forward pass for the vertices in one segment (at positions start to end, inclusive, in the topological order).
+     * Inputs from vertices in other segments are set from the retained activations.
+     *
+     * @param initial If true: initial forward pass (retain activations as required). If false: recompute for backprop
+     */
+    private void forwardSegment(CheckpointSegments segments, int start, int end, boolean initial) {
+        int seg = segments.segment[start];
+        boolean recomputed = segments.segmentEnd[start] != -1;
+        LayerWorkspaceMgr workspaceMgr = recomputed ? segments.workspaceMgr : segments.retainedWorkspaceMgr;
+        //Recomputation during backprop replays the RNG state of the initial pass: same dropout masks etc
+        if (initial) {
+            segments.saveRngState(seg);
+        } else {
+            segments.restoreRngState(seg);
+        }
+
+        for (int i = start; i <= end; i++) {
+            GraphVertex current = vertices[topologicalOrder[i]];
+            int vIdx = current.getVertexIndex();
+
+            VertexIndices[] inputsFrom = current.getInputVertices();
+            if (inputsFrom != null) {
+                for (int j = 0; j < inputsFrom.length; j++) {
+                    int from = inputsFrom[j].getVertexIndex();
+                    if (segments.segment[segments.position[from]] != seg) {
+                        current.setInput(j, segments.retained[from], workspaceMgr);
+                    }
+                }
+            }
+
+            if (initial && segments.excludeIdxs != null && ArrayUtils.contains(segments.excludeIdxs, vIdx)) {
+                continue;
+            }
+
+            INDArray out;
+            if (current.isInputVertex()) {
+                out = inputs[vIdx];
+            } else {
+                long profStart = layerProfiler == null ? 0 : layerProfiler.start(current.getVertexName());
+                try (MemoryWorkspace wsFFWorking = workspaceMgr.notifyScopeEntered(ArrayType.FF_WORKING_MEM)) {
+                    out = current.doForward(true, workspaceMgr);
+                }
+                if(layerProfiler != null) {
+                    layerProfiler.end(current.getVertexName(), LayerProfiler.Phase.FORWARD, profStart);
+                }
+            }
+
+            if (initial) {
+                if (segments.retain[vIdx]) {
+                    if (!current.isInputVertex()) {
+                        out = segments.retainedWorkspaceMgr.leverageTo(ArrayType.ACTIVATIONS, out);
+                    }
+                    segments.retained[vIdx] = out;
+                }
+                if (!recomputed || segments.retain[vIdx]) {
+                    segments.activations.put(current.getVertexName(), out);
+                }
+            }
+
+            VertexIndices[] inputsTo = current.getOutputVertices();
+            if (inputsTo != null) {
+                for (VertexIndices v : inputsTo) {
+                    int to = v.getVertexIndex();
+                    if (segments.segment[segments.position[to]] == seg) {
+                        vertices[to].setInput(v.getVertexEdgeNumber(), out, workspaceMgr);
+                    }
+                }
+            }
+        }
+    }
+
     @Override
     public ComputationGraph clone() {
         ComputationGraph cg = new ComputationGraph(configuration.clone());
@@ -2839,6 +3136,20 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
         return cg;
     }
 
+    /**
+     * Create an immutable, inference-only executor for this network, with a pre-resolved vertex schedule, batch
+     * normalization layers folded into the preceding convolution/dense layers where possible, and a single reusable
+     * activation workspace. The executor uses a copy of the current parameters: it is not affected by further
+     * training of this network. See {@link InferenceGraph} for details and limitations.
+     *
+     * @return Inference executor for this network
+     */
+    public InferenceGraph freezeForInference() {
+        if (!initCalled)
+            init();
+        return new InferenceGraph(this);
+    }
+
 
     public double calcRegularizationScore(boolean backpropParamsOnly){
         double scoreSum = 0.0;
@@ -3033,6 +3344,7 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                     .build();
         }
         mgr.setHelperWorkspacePointers(helperWorkspaces);
+        mgr.setProfiler(layerProfiler);
 
         boolean hasMaskArrays = dataSet.hasMaskArrays();
         if (hasMaskArrays) {
@@ -3130,6 +3442,7 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                     .build();
         }
         mgr.setHelperWorkspacePointers(helperWorkspaces);
+        mgr.setProfiler(layerProfiler);
 
         boolean hasMaskArrays = dataSet.hasMaskArrays();
         if (hasMaskArrays) {
@@ -4840,4 +5153,63 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
         }
 
     }
+
+    /**
+     * Split of the network into segments for activation checkpointing, in terms of positions in the topological
+     * order. Each checkpoint ends a segment; the segment after the last checkpoint is not recomputed.<br>
+     * Also holds the state for the current iteration: retained activations, workspace managers and RNG states
+     */
+    protected static class CheckpointSegments {
+        private final List<String> checkpoints;
+        private final int[] position;       //Position in topological order, by vertex index
+        private final int[] segment;        //Segment index, by position
+        private final int[] segmentStart;   //First position of the segment, by position
+        private final int[] segmentEnd;     //Last position of the segment, by position. -1 for the last segment
+        private final boolean[] retain;     //Whether the activations are retained after the forward pass, by vertex index
+        private final int numSegments;      //Number of recomputed segments
+        private final long[] rootStates;    //RNG state at the start of each segment, plus at the start of backprop
+        private final long[] nodeStates;
+        private final INDArray[] retained;  //By vertex index
+
+        private LayerWorkspaceMgr workspaceMgr;
+        private LayerWorkspaceMgr retainedWorkspaceMgr;
+        private Map<String, INDArray> activations;
+        private int[] excludeIdxs;
+
+        private CheckpointSegments(List<String> checkpoints, int[] position, int[] segment, int[] segmentStart,
+                                   int[] segmentEnd, boolean[] retain, int numSegments) {
+            this.checkpoints = checkpoints;
+            this.position = position;
+            this.segment = segment;
+            this.segmentStart = segmentStart;
+            this.segmentEnd = segmentEnd;
+            this.retain = retain;
+            this.numSegments = numSegments;
+            this.rootStates = new long[numSegments + 2];
+            this.nodeStates = new long[numSegments + 2];
+            this.retained = new INDArray[retain.length];
+        }
+
+        private void saveRngState(int idx) {
+            Random r = Nd4j.getRandom();
+            rootStates[idx] = r.rootState();
+            nodeStates[idx] = r.nodeState();
+        }
+
+        private void restoreRngState(int idx) {
+            Nd4j.getRandom().setStates(rootStates[idx], nodeStates[idx]);
+        }
+
+        /**
+         * Release the retained activations at the end of an iteration, and restore the RNG state from the start of
+         * backprop: the RNG then continues as if the recomputed segments had not been run again
+         */
+        private void clear() {
+            Arrays.fill(retained, null);
+            workspaceMgr = null;
+            retainedWorkspaceMgr = null;
+            excludeIdxs = null;
+            restoreRngState(numSegments + 1);
+        }
+    }
 }
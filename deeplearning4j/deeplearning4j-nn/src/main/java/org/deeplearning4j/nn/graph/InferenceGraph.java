@@ -0,0 +1,394 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.deeplearning4j.nn.graph;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.javacpp.Pointer;
+import org.deeplearning4j.nn.api.Layer;
+import org.deeplearning4j.nn.conf.CNN2DFormat;
+import org.deeplearning4j.nn.conf.InputPreProcessor;
+import org.deeplearning4j.nn.conf.RNNFormat;
+import org.deeplearning4j.nn.conf.WorkspaceMode;
+import org.deeplearning4j.nn.graph.vertex.GraphVertex;
+import org.deeplearning4j.nn.graph.vertex.VertexIndices;
+import org.deeplearning4j.nn.graph.vertex.impl.LayerVertex;
+import org.deeplearning4j.nn.layers.convolution.ConvolutionLayer;
+import org.deeplearning4j.nn.layers.feedforward.dense.DenseLayer;
+import org.deeplearning4j.nn.layers.normalization.BatchNormalization;
+import org.deeplearning4j.nn.params.BatchNormalizationParamInitializer;
+import org.deeplearning4j.nn.params.DefaultParamInitializer;
+import org.deeplearning4j.nn.workspace.ArrayType;
+import org.deeplearning4j.nn.workspace.LayerWorkspaceMgr;
+import org.deeplearning4j.util.Convolution1DUtils;
+import org.deeplearning4j.util.ConvolutionUtils;
+import org.nd4j.common.base.Preconditions;
+import org.nd4j.linalg.activations.impl.ActivationIdentity;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import java.util.*;
+
+/**
+ * An immutable, inference-only executor for a {@link ComputationGraph}, created by
+ * {@link ComputationGraph#freezeForInference()}.<br>
+ * Compared to {@link ComputationGraph#output(INDArray...)}, the following work is done once when the executor is
+ * created, instead of on every forward pass:
+ * <ul>
+ *     <li>The vertex execution schedule (topological order, the source of each vertex input, input preprocessors and
+ *     data format permutations) is resolved into flat arrays</li>
+ *     <li>Batch normalization layers that directly follow a convolution or dense layer with identity activation are
+ *     folded into the weights and bias of that layer, and removed from the schedule</li>
+ *     <li>Training-only configuration (dropout, weight noise) is removed</li>
+ * </ul>
+ * All activations of a forward pass are placed in a single workspace, which is reused by subsequent calls.<br>
+ * The executor holds its own copy of the network parameters: later changes to the original network (for example,
+ * further training) are not reflected in its output.<br>
+ * Limitations: mask arrays and RNN time step (stateful) inference are not supported. Calls to the output methods are
+ * synchronized; use one executor per thread for concurrent inference.
+ */
+@Slf4j
+public class InferenceGraph {
+    private static final String WS_INFERENCE_ACT = "WS_INFERENCE_GRAPH_ACT";
+
+    private enum StepType {INPUT, LAYER, ALIAS, VERTEX}
+
+    private final ComputationGraph graph;
+    private final int numInputs;
+    private final int[] outputIdxs;
+    private final List<String> foldedVertices = new ArrayList<>();
+
+    //Schedule, by step (position in topological order)
+    private final StepType[] stepTypes;
+    private final GraphVertex[] stepVertices;
+    private final Layer[] stepLayers;
+    private final InputPreProcessor[] stepPreProcessors;
+    private final int[][] stepInputs;          //Index of the vertex producing each input of the vertex
+    private final int[][][] stepPermutes;      //Permutation to apply to each input of the vertex; null if none
+
+    private final int[] lastUse;               //Last step that uses the activations, by vertex index
+    private final boolean noWorkspaces;
+    private final Map<String, Pointer> helperWorkspaces = new HashMap<>();
+
+    protected InferenceGraph(@NonNull ComputationGraph network) {
+        Preconditions.checkState(network.getConfiguration() != null && network.params() != null,
+                "Network must be initialized before it can be frozen for inference");
+        graph = new ComputationGraph(network.getConfiguration().clone());
+        graph.init(network.params().dup(), false);
+        noWorkspaces = graph.getConfiguration().getInferenceWorkspaceMode() == WorkspaceMode.NONE;
+
+        for (Layer l : graph.getLayers()) {
+            l.conf().getLayer().setIDropout(null);
+            if (l.conf().getLayer() instanceof org.deeplearning4j.nn.conf.layers.BaseLayer) {
+                ((org.deeplearning4j.nn.conf.layers.BaseLayer) l.conf().getLayer()).setWeightNoise(null);
+            }
+        }
+
+        GraphVertex[] vertices = graph.getVertices();
+        int[] order = graph.topologicalSortOrder();
+        numInputs = graph.getNumInputArrays();
+        List<String> outputNames = graph.getConfiguration().getNetworkOutputs();
+        outputIdxs = new int[outputNames.size()];
+        for (int i = 0; i < outputIdxs.length; i++) {
+            outputIdxs[i] = graph.getVertex(outputNames.get(i)).getVertexIndex();
+        }
+
+        //Inputs of each vertex, by edge number
+        int[][] inputs = new int[vertices.length][];
+        for (GraphVertex gv : vertices) {
+            VertexIndices[] in = gv.getInputVertices();
+            inputs[gv.getVertexIndex()] = new int[in == null ? 0 : in.length];
+            if (in != null) {
+                for (VertexIndices vi : in) {
+                    inputs[gv.getVertexIndex()][vi.getVertexEdgeNumber()] = vi.getVertexIndex();
+                }
+            }
+        }
+
+        int n = order.length;
+        stepTypes = new StepType[n];
+        stepVertices = new GraphVertex[n];
+        stepLayers = new Layer[n];
+        stepPreProcessors = new InputPreProcessor[n];
+        stepInputs = new int[n][];
+        stepPermutes = new int[n][][];
+        for (int i = 0; i < n; i++) {
+            GraphVertex current = vertices[order[i]];
+            int vIdx = current.getVertexIndex();
+            stepVertices[i] = current;
+            stepInputs[i] = inputs[vIdx];
+            stepPermutes[i] = new int[stepInputs[i].length][];
+            if (current.isInputVertex()) {
+                stepTypes[i] = StepType.INPUT;
+                continue;
+            }
+
+            if (i > 0) {
+                //Same data format conversions as ComputationGraph.outputOfLayersDetached
+                resolvePermute(i, vertices[order[i - 1]]);
+            }
+
+            if (current instanceof LayerVertex) {
+                if (canFold(current, vertices, outputNames, inputs[vIdx])) {
+                    fold(vertices[inputs[vIdx][0]].getLayer(), (BatchNormalization) current.getLayer());
+                    foldedVertices.add(current.getVertexName());
+                    stepTypes[i] = StepType.ALIAS;
+                } else {
+                    stepTypes[i] = StepType.LAYER;
+                    stepLayers[i] = current.getLayer();
+                    stepPreProcessors[i] = ((LayerVertex) current).getLayerPreProcessor();
+                }
+            } else {
+                stepTypes[i] = StepType.VERTEX;
+            }
+        }
+
+        //Last step at which the activations of each vertex are needed, to release references early
+        lastUse = new int[vertices.length];
+        for (int i = 0; i < n; i++) {
+            for (int src : stepInputs[i]) {
+                lastUse[src] = Math.max(lastUse[src], i);
+            }
+        }
+        for (int idx : outputIdxs) {
+            lastUse[idx] = n;
+        }
+
+        if (!foldedVertices.isEmpty()) {
+            log.debug("Folded {} batch normalization layers into preceding layers: {}", foldedVertices.size(), foldedVertices);
+        }
+    }
+
+    private void resolvePermute(int step, GraphVertex prev) {
+        GraphVertex current = stepVertices[step];
+        if (!current.hasLayer() || !prev.hasLayer())
+            return;
+        int inputIdx = -1;
+        for (int j = 0; j < stepInputs[step].length; j++) {
+            if (stepInputs[step][j] == prev.getVertexIndex())
+                inputIdx = j;
+        }
+        if (inputIdx < 0)
+            return;
+
+        org.deeplearning4j.nn.conf.layers.Layer prevConf = prev.getLayer().conf().getLayer();
+        org.deeplearning4j.nn.conf.layers.Layer currConf = current.getLayer().conf().getLayer();
+        if (ConvolutionUtils.layerHasConvolutionLayout(prevConf) && ConvolutionUtils.layerHasConvolutionLayout(currConf)) {
+            CNN2DFormat prevFormat = ConvolutionUtils.getFormatForLayer(prevConf);
+            if (prevFormat != ConvolutionUtils.getFormatForLayer(currConf)) {
+                stepPermutes[step][inputIdx] = prevFormat == CNN2DFormat.NCHW ? new int[]{0, 3, 1, 2} : new int[]{0, 2, 3, 1};
+            }
+        } else if (Convolution1DUtils.hasRnnDataFormat(prevConf) && Convolution1DUtils.hasRnnDataFormat(currConf)) {
+            RNNFormat prevFormat = Convolution1DUtils.getRnnFormatFromLayer(prevConf);
+            if (prevFormat != Convolution1DUtils.getRnnFormatFromLayer(currConf)) {
+                stepPermutes[step][inputIdx] = new int[]{0, 2, 1};
+            }
+        }
+    }
+
+    /**
+     * A batch normalization layer can be folded into its input layer if it is the only consumer of a (2d) convolution
+     * or dense layer, with identity activation and bias, whose activations are not a network output
+     */
+    private static boolean canFold(GraphVertex bnVertex, GraphVertex[] vertices, List<String> outputNames, int[] inputs) {
+        if (bnVertex.getLayer().getClass() != BatchNormalization.class || inputs.length != 1
+                || ((LayerVertex) bnVertex).getLayerPreProcessor() != null)
+            return false;
+        GraphVertex producer = vertices[inputs[0]];
+        if (!(producer instanceof LayerVertex))
+            return false;
+        if (producer.getOutputVertices() == null || producer.getOutputVertices().length != 1
+                || outputNames.contains(producer.getVertexName()))
+            return false;
+
+        Layer l = producer.getLayer();
+        org.deeplearning4j.nn.conf.layers.BatchNormalization bnConf =
+                (org.deeplearning4j.nn.conf.layers.BatchNormalization) bnVertex.getLayer().conf().getLayer();
+        if (l.getClass() == ConvolutionLayer.class) {
+            org.deeplearning4j.nn.conf.layers.ConvolutionLayer c =
+                    (org.deeplearning4j.nn.conf.layers.ConvolutionLayer) l.conf().getLayer();
+            return c.hasBias() && c.getActivationFn() instanceof ActivationIdentity
+                    && c.getCnn2dDataFormat() == bnConf.getCnn2DFormat();
+        } else if (l.getClass() == DenseLayer.class) {
+            org.deeplearning4j.nn.conf.layers.DenseLayer d =
+                    (org.deeplearning4j.nn.conf.layers.DenseLayer) l.conf().getLayer();
+            return d.hasBias() && !d.hasLayerNorm() && d.getActivationFn() instanceof ActivationIdentity;
+        }
+        return false;
+    }
+
+    /**
+     * Fold the (inference mode) batch normalization transform y = gamma * (x - mean) / std + beta into the weights
+     * and bias of the preceding layer: W' = W * gamma / std, b' = (b - mean) * gamma / std + beta
+     */
+    private static void fold(Layer layer, BatchNormalization bn) {
+        org.deeplearning4j.nn.conf.layers.BatchNormalization bnConf =
+                (org.deeplearning4j.nn.conf.layers.BatchNormalization) bn.conf().getLayer();
+        INDArray mean = bn.getParam(BatchNormalizationParamInitializer.GLOBAL_MEAN);
+        long nOut = mean.length();
+        DataType dt = mean.dataType();
+        mean = mean.reshape(nOut);
+
+        INDArray var;
+        if (bnConf.isUseLogStd()) {
+            INDArray log10s = bn.getParam(BatchNormalizationParamInitializer.GLOBAL_LOG_STD).reshape(nOut);
+            var = Transforms.pow(Nd4j.valueArrayOf(log10s.shape(), 10.0, dt), log10s);
+            var.muli(var);
+        } else {
+            var = bn.getParam(BatchNormalizationParamInitializer.GLOBAL_VAR).reshape(nOut).dup();
+        }
+        INDArray std = Transforms.sqrt(var.addi(bnConf.getEps()), false);
+
+        INDArray gamma;
+        INDArray beta;
+        if (bnConf.isLockGammaBeta()) {
+            gamma = Nd4j.valueArrayOf(new long[]{nOut}, bnConf.getGamma(), dt);
+            beta = Nd4j.valueArrayOf(new long[]{nOut}, bnConf.getBeta(), dt);
+        } else {
+            gamma = bn.getParam(BatchNormalizationParamInitializer.GAMMA).reshape(nOut);
+            beta = bn.getParam(BatchNormalizationParamInitializer.BETA).reshape(nOut);
+        }
+        INDArray scale = gamma.div(std);
+
+        INDArray w = layer.getParam(DefaultParamInitializer.WEIGHT_KEY);
+        INDArray b = layer.getParam(DefaultParamInitializer.BIAS_KEY);
+        if (layer instanceof ConvolutionLayer) {
+            //Weights: [outDepth, inDepth, kH, kW]
+            INDArray w2d = w.reshape('c', nOut, w.length() / nOut);
+            w.assign(w2d.mulColumnVector(scale.reshape(nOut, 1)).reshape('c', w.shape()));
+        } else {
+            //Weights: [nIn, nOut]
+            w.muliRowVector(scale.reshape(1, nOut));
+        }
+        INDArray newBias = b.reshape(nOut).sub(mean).muli(scale).addi(beta);
+        b.assign(newBias.reshape(b.shape()));
+    }
+
+    /**
+     * @return Names of the batch normalization vertices that were folded into their preceding layer
+     */
+    public List<String> getFoldedVertices() {
+        return Collections.unmodifiableList(foldedVertices);
+    }
+
+    /**
+     * Return the network output, for a network with a single output.
+     *
+     * @param input Inputs to the network
+     * @return Output activations
+     */
+    public INDArray outputSingle(INDArray... input) {
+        Preconditions.checkState(outputIdxs.length == 1, "Cannot use outputSingle with a network that has %s outputs",
+                outputIdxs.length);
+        return output(input)[0];
+    }
+
+    /**
+     * Return the network outputs, in the order they are defined in the configuration.
+     * The returned arrays are detached from any workspace.
+     *
+     * @param input Inputs to the network
+     * @return Output activations
+     */
+    public synchronized INDArray[] output(@NonNull INDArray... input) {
+        if (input.length != numInputs) {
+            throw new IllegalArgumentException("Invalid number of input arrays: network has " + numInputs
+                    + " inputs, got " + input.length + " input arrays");
+        }
+
+        LayerWorkspaceMgr mgr;
+        if (noWorkspaces) {
+            mgr = LayerWorkspaceMgr.noWorkspaces();
+        } else {
+            mgr = LayerWorkspaceMgr.builder()
+                    .with(ArrayType.INPUT, WS_INFERENCE_ACT, ComputationGraph.WS_ALL_LAYERS_ACT_CONFIG)
+                    .with(ArrayType.ACTIVATIONS, WS_INFERENCE_ACT, ComputationGraph.WS_ALL_LAYERS_ACT_CONFIG)
+                    .with(ArrayType.FF_WORKING_MEM, ComputationGraph.WS_LAYER_WORKING_MEM, graph.WS_LAYER_WORKING_MEM_CONFIG)
+                    .with(ArrayType.RNN_FF_LOOP_WORKING_MEM, ComputationGraph.WS_RNN_LOOP_WORKING_MEM,
+                            ComputationGraph.WS_RNN_LOOP_WORKING_MEM_CONFIG)
+                    .build();
+            if (input[0].isAttached()) {
+                //Don't leverage out of async iterator workspaces
+                mgr.setNoLeverageOverride(input[0].data().getParentWorkspace().getId());
+            }
+        }
+        mgr.setHelperWorkspacePointers(helperWorkspaces);
+
+        int batchSize = (int) input[0].size(0);
+        INDArray[] acts = new INDArray[stepVertices.length];
+        INDArray[] out = new INDArray[outputIdxs.length];
+        //Some vertices (e.g., DuplicateToTimeSeriesVertex) read the network inputs directly
+        graph.setInputs(input);
+        MemoryWorkspace initialWorkspace = Nd4j.getMemoryManager().getCurrentWorkspace();
+        try (MemoryWorkspace ws = mgr.notifyScopeEntered(ArrayType.ACTIVATIONS)) {
+            for (int i = 0; i < stepTypes.length; i++) {
+                GraphVertex v = stepVertices[i];
+                int vIdx = v.getVertexIndex();
+                int[] in = stepInputs[i];
+                switch (stepTypes[i]) {
+                    case INPUT:
+                        acts[vIdx] = input[vIdx];
+                        break;
+                    case ALIAS:
+                        acts[vIdx] = acts[in[0]];
+                        break;
+                    case LAYER:
+                        INDArray x = stepInput(i, 0, acts);
+                        if (stepPreProcessors[i] != null) {
+                            x = stepPreProcessors[i].preProcess(x, batchSize, mgr);
+                        }
+                        acts[vIdx] = stepLayers[i].activate(x, false, mgr);
+                        stepLayers[i].clear();
+                        break;
+                    case VERTEX:
+                        for (int j = 0; j < in.length; j++) {
+                            v.setInput(j, stepInput(i, j, acts), mgr);
+                        }
+                        acts[vIdx] = v.doForward(false, mgr);
+                        v.clear();
+                        break;
+                }
+
+                for (int src : in) {
+                    if (lastUse[src] == i)
+                        acts[src] = null;
+                }
+            }
+
+            for (int i = 0; i < outputIdxs.length; i++) {
+                out[i] = acts[outputIdxs[i]].detach();
+            }
+        } finally {
+            graph.clear();
+            Nd4j.getMemoryManager().setCurrentWorkspace(initialWorkspace);
+        }
+        return out;
+    }
+
+    private INDArray stepInput(int step, int edge, INDArray[] acts) {
+        INDArray x = acts[stepInputs[step][edge]];
+        int[] permute = stepPermutes[step][edge];
+        return permute == null ? x : x.permute(permute);
+    }
+}
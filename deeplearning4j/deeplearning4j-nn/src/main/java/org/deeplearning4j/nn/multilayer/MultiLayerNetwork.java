@@ -47,6 +47,7 @@ import org.deeplearning4j.nn.layers.FrozenLayer;
 import org.deeplearning4j.nn.layers.FrozenLayerWithBackprop;
 import org.deeplearning4j.nn.layers.recurrent.BidirectionalLayer;
 import org.deeplearning4j.nn.layers.wrapper.BaseWrapperLayer;
+import org.deeplearning4j.nn.profiler.LayerProfiler;
 import org.deeplearning4j.nn.updater.MultiLayerUpdater;
 import org.deeplearning4j.nn.workspace.ArrayType;
 import org.deeplearning4j.nn.workspace.LayerWorkspaceMgr;
@@ -129,6 +130,13 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
     //Workspaces for CUDNN. Pass to LayerWorkspaceMgr for re-use in cudnn helpers
     @Getter
     protected transient Map<String,Pointer> helperWorkspaces = new HashMap<>();
+    /**
+     * Per-layer timing and memory profiler, if profiling is enabled. Null (profiling disabled) by default.
+     * See {@link LayerProfiler}
+     */
+    @Getter
+    @Setter
+    protected transient LayerProfiler layerProfiler;
 
 
     /**
@@ -399,6 +407,7 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
                     .build();
         }
         workspaceMgr.setHelperWorkspacePointers(helperWorkspaces);
+        workspaceMgr.setProfiler(layerProfiler);
 
         Layer layer = layers[layerIdx];
         if (!layer.isPretrainLayer())
@@ -1019,12 +1028,14 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
         }
 
         workspaceMgr.setHelperWorkspacePointers(helperWorkspaces);
+        workspaceMgr.setProfiler(layerProfiler);
 
         List<INDArray> out = new ArrayList<>();
         input = workspaceMgr.leverageTo(ArrayType.INPUT, input);
         out.add(input);    //Should  be unnecessary (and no op), if layer is implemented correctly
 
         for( int i = 0; i <= layerIndex; i++) {
+            long profStart = layerProfiler == null ? 0 : layerProfiler.start(String.valueOf(i));
             if (getLayerWiseConfigurations().getInputPreProcess(i) != null) {
                 input = getLayerWiseConfigurations().getInputPreProcess(i).preProcess(input, getInputMiniBatchSize(), workspaceMgr);
                 //Validation: Exception if invalid (bad preprocessor implementation)
@@ -1049,6 +1060,9 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
             } else {
                 throw new IllegalStateException("Forward pass type not supported for this method: " + fwdPassType);
             }
+            if(layerProfiler != null) {
+                layerProfiler.end(String.valueOf(i), LayerProfiler.Phase.FORWARD, profStart);
+            }
 
             //Validation: Exception if invalid (bad layer implementation)
             validateArrayWorkspaces(workspaceMgr, input, ArrayType.ACTIVATIONS, i, false, "Feed forward to layer (inference)");
@@ -1121,6 +1135,7 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
             WorkspaceUtils.assertOpenAndActive(WS_ALL_LAYERS_ACT, "ffToLayerActivationsInWs method requires workspace WS_ALL_LAYERS_ACT to be open");
         }
         workspaceMgr.setHelperWorkspacePointers(helperWorkspaces);
+        workspaceMgr.setProfiler(layerProfiler);
         //workspaceMgr.keepOpen(INPUT, ACTIVATIONS, FF_WORKING_MEM, RNN_FF_LOOP_WORKING_MEM);
 
         List<INDArray> out = new ArrayList<>();
@@ -1129,6 +1144,7 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
         boolean traceLog = log.isTraceEnabled();
         for( int i = 0; i <= layerIndex; i++) {
             try(MemoryWorkspace wsFFWorking = workspaceMgr.notifyScopeEntered(ArrayType.FF_WORKING_MEM)) {
+                long profStart = layerProfiler == null ? 0 : layerProfiler.start(String.valueOf(i));
                 if (getLayerWiseConfigurations().getInputPreProcess(i) != null) {
                     input = workspaceMgr.dup(ArrayType.ACTIVATIONS, getLayerWiseConfigurations().getInputPreProcess(i).preProcess(input, getInputMiniBatchSize(), workspaceMgr));
                     //Validation: Exception if invalid (bad preprocessor implementation)
@@ -1156,6 +1172,9 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
                 } else {
                     throw new IllegalStateException("FwdPassType not supported for this method: " + fwdPassType);
                 }
+                if(layerProfiler != null) {
+                    layerProfiler.end(String.valueOf(i), LayerProfiler.Phase.FORWARD, profStart);
+                }
 
                 if (input == null) {
                     throw new IllegalStateException("Layer " + i + " returned null activations");
@@ -1251,7 +1270,9 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
                     .build();
         }
         mgrEven.setHelperWorkspacePointers(helperWorkspaces);
+        mgrEven.setProfiler(layerProfiler);
         mgrOdd.setHelperWorkspacePointers(helperWorkspaces);
+        mgrOdd.setProfiler(layerProfiler);
 
         MemoryWorkspace wsActCloseNext = null;
         MemoryWorkspace temp = null;
@@ -1282,6 +1303,7 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
                         mgr.setNoLeverageOverride(input.data().getParentWorkspace().getId());
                     }
 
+                    long profStart = layerProfiler == null ? 0 : layerProfiler.start(String.valueOf(i));
                     if (getLayerWiseConfigurations().getInputPreProcess(i) != null) {
                         input = mgr.dup(ACTIVATIONS, getLayerWiseConfigurations().getInputPreProcess(i).preProcess(input, getInputMiniBatchSize(), mgr));
                         //Validation: Exception if invalid (bad preprocessor implementation)
@@ -1339,6 +1361,9 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
                     } else {
                         throw new IllegalArgumentException("Unsupported forward pass type for this method: " + fwdPassType);
                     }
+                    if(layerProfiler != null) {
+                        layerProfiler.end(String.valueOf(i), LayerProfiler.Phase.FORWARD, profStart);
+                    }
 
                     layers[i].clear();
 
@@ -1700,6 +1725,7 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
                     .build();
         }
         workspaceMgr.setHelperWorkspacePointers(helperWorkspaces);
+        workspaceMgr.setProfiler(layerProfiler);
 
         if (!iter.hasNext() && iter.resetSupported()) {
             iter.reset();
@@ -1806,6 +1832,7 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
             }
         }
         mgr.setHelperWorkspacePointers(helperWorkspaces);
+        mgr.setProfiler(layerProfiler);
 
         //Calculate activations (which are stored in each layer, and used in backprop)
 
@@ -1908,7 +1935,9 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
         }
 
         mgrEven.setHelperWorkspacePointers(helperWorkspaces);
+        mgrEven.setProfiler(layerProfiler);
         mgrOdd.setHelperWorkspacePointers(helperWorkspaces);
+        mgrOdd.setProfiler(layerProfiler);
 
         //calculate and apply the backward gradient for every layer
         /*
@@ -1968,6 +1997,7 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
 
                     INDArray eps = (i == layers.length - 1 ? epsilon : currPair.getRight());  //eps is null for OutputLayer
 
+                    long profStart = layerProfiler == null ? 0 : layerProfiler.start(String.valueOf(i));
                     if (!tbptt) {
                         //Standard case
                         currPair = layers[i].backpropGradient(eps, workspaceMgr);
@@ -2002,6 +2032,9 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
                                     true, "Backprop");
                         }
                     }
+                    if(layerProfiler != null) {
+                        layerProfiler.end(String.valueOf(i), LayerProfiler.Phase.BACKWARD, profStart);
+                    }
 
                     if (i == 0) {
                         if (returnInputActGrad && currPair.getSecond() != null) {
@@ -2299,6 +2332,7 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
                     .build();
         }
         workspaceMgr.setHelperWorkspacePointers(helperWorkspaces);
+        workspaceMgr.setProfiler(layerProfiler);
 
         if (layerWiseConfigurations.getBackpropType() == BackpropType.TruncatedBPTT) {
             doTruncatedBPTT(features, labels, featuresMask, labelsMask, workspaceMgr);
@@ -2590,6 +2624,7 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
                     .build();
         }
         mgr.setHelperWorkspacePointers(helperWorkspaces);
+        mgr.setProfiler(layerProfiler);
 
         INDArray inputToOutputLayer = outputOfLayerDetached(
                 training,
@@ -0,0 +1,184 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.deeplearning4j.nn.profiler;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.deeplearning4j.nn.workspace.ArrayType;
+
+import java.io.Serializable;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Timing and memory statistics for a single layer (or graph vertex), as collected by a {@link LayerProfiler}.<br>
+ * Instances returned by {@link LayerProfiler#getProfiles()} are snapshots: they are not modified by further profiling.
+ */
+@Data
+@NoArgsConstructor
+public class LayerProfile implements Serializable {
+
+    private String layerName;
+    private Timing forward = new Timing();
+    private Timing backward = new Timing();
+    private Timing updater = new Timing();
+    private long[] allocatedBytes = new long[ArrayType.values().length];
+
+    public LayerProfile(String layerName) {
+        this.layerName = layerName;
+    }
+
+    /**
+     * @param phase Phase to get the timing for
+     * @return Timing statistics for the specified phase
+     */
+    public Timing getTiming(LayerProfiler.Phase phase) {
+        switch (phase) {
+            case FORWARD:
+                return forward;
+            case BACKWARD:
+                return backward;
+            case UPDATER:
+                return updater;
+            default:
+                throw new IllegalArgumentException("Unknown phase: " + phase);
+        }
+    }
+
+    /**
+     * @return Total time (nanoseconds) for all phases
+     */
+    public long getTotalNanos() {
+        return forward.getTotalNanos() + backward.getTotalNanos() + updater.getTotalNanos();
+    }
+
+    /**
+     * @param arrayType Type of array
+     * @return Total number of bytes allocated for arrays of the specified type, via the layer workspace manager
+     */
+    public long getAllocatedBytes(ArrayType arrayType) {
+        return allocatedBytes[arrayType.ordinal()];
+    }
+
+    /**
+     * @return Total bytes allocated (for arrays of each type) via the layer workspace manager
+     */
+    public Map<ArrayType, Long> getAllocatedBytesByType() {
+        Map<ArrayType, Long> out = new EnumMap<>(ArrayType.class);
+        for (ArrayType t : ArrayType.values()) {
+            if (allocatedBytes[t.ordinal()] > 0) {
+                out.put(t, allocatedBytes[t.ordinal()]);
+            }
+        }
+        return out;
+    }
+
+    protected LayerProfile copy() {
+        LayerProfile p = new LayerProfile(layerName);
+        p.forward = forward.copy();
+        p.backward = backward.copy();
+        p.updater = updater.copy();
+        p.allocatedBytes = allocatedBytes.clone();
+        return p;
+    }
+
+    /**
+     * Wall clock timing statistics for one phase (forward, backward or updater) of a layer.<br>
+     * In addition to the count, total, min and max, durations are recorded in a histogram with power-of-2 nanosecond
+     * bins: bin i counts the durations d with 2^i <= d < 2^(i+1) nanoseconds. Percentiles are estimated from this
+     * histogram, and hence are accurate to within a factor of 2.
+     */
+    @Data
+    public static class Timing implements Serializable {
+        public static final int NUM_BINS = 64;
+
+        private long count;
+        private long totalNanos;
+        private long minNanos = Long.MAX_VALUE;
+        private long maxNanos;
+        private long[] histogram = new long[NUM_BINS];
+
+        protected void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            count++;
+            totalNanos += nanos;
+            minNanos = Math.min(minNanos, nanos);
+            maxNanos = Math.max(maxNanos, nanos);
+            histogram[bin(nanos)]++;
+        }
+
+        protected static int bin(long nanos) {
+            return nanos <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+        }
+
+        /**
+         * @return Minimum duration in nanoseconds, or 0 if no durations have been recorded
+         */
+        public long getMinNanos() {
+            return count == 0 ? 0 : minNanos;
+        }
+
+        /**
+         * @return Mean duration in nanoseconds, or 0 if no durations have been recorded
+         */
+        public double getMeanNanos() {
+            return count == 0 ? 0.0 : totalNanos / (double) count;
+        }
+
+        /**
+         * Estimate a percentile of the recorded durations, from the histogram
+         *
+         * @param percentile Percentile, in range 0 to 100
+         * @return Estimated percentile in nanoseconds, or 0 if no durations have been recorded
+         */
+        public long getPercentileNanos(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("Percentile must be in range 0 to 100, got " + percentile);
+            }
+            if (count == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long cumulative = 0;
+            for (int i = 0; i < NUM_BINS; i++) {
+                cumulative += histogram[i];
+                if (cumulative >= target) {
+                    //Use the geometric middle of the bin, restricted to the observed range
+                    long estimate = i == 0 ? 1 : (long) ((1L << i) * Math.sqrt(2));
+                    return Math.max(minNanos, Math.min(maxNanos, estimate));
+                }
+            }
+            return maxNanos;
+        }
+
+        protected Timing copy() {
+            Timing t = new Timing();
+            t.count = count;
+            t.totalNanos = totalNanos;
+            t.minNanos = minNanos;
+            t.maxNanos = maxNanos;
+            t.histogram = histogram.clone();
+            return t;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.deeplearning4j.nn.profiler;
+
+import lombok.Getter;
+import org.deeplearning4j.nn.workspace.ArrayType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.*;
+
+/**
+ * Opt-in per-layer instrumentation for {@link org.deeplearning4j.nn.multilayer.MultiLayerNetwork} and
+ * {@link org.deeplearning4j.nn.graph.ComputationGraph}.<br>
+ * When set on a network (via {@code setLayerProfiler(LayerProfiler)}), the following are recorded for each layer or
+ * graph vertex:<br>
+ * - Forward pass, backward pass and updater wall clock time (see {@link LayerProfile.Timing})<br>
+ * - Bytes allocated via the {@link org.deeplearning4j.nn.workspace.LayerWorkspaceMgr}, by {@link ArrayType}<br>
+ * <br>
+ * Layers of a MultiLayerNetwork are identified by their index ("0", "1", ...), as for gradients and updaters.
+ * ComputationGraph layers and vertices are identified by their vertex name.<br>
+ * Updater time is recorded per updater block (a set of parameters with identical updater configuration), and is
+ * attributed to the layers in the block in proportion to their number of parameters.<br>
+ * <br>
+ * Note that by default, the device is synchronized (see {@link org.nd4j.linalg.api.ops.executioner.OpExecutioner#commit()})
+ * after each measured operation, so that asynchronous execution (for example on CUDA) does not attribute time to the
+ * wrong layer. This is required for accurate timings, but means that profiling can reduce overall throughput.<br>
+ * Profilers are intended to be used by the network's training/inference thread only; {@link #getProfiles()} and
+ * {@link #reset()} may however be called from any thread.
+ */
+public class LayerProfiler {
+
+    public enum Phase {FORWARD, BACKWARD, UPDATER}
+
+    @Getter
+    private final boolean synchronizeDevice;
+    private final Map<String, LayerProfile> profiles = new LinkedHashMap<>();
+    private String currentLayer;
+
+    /**
+     * Create a profiler that synchronizes the device after each measured operation
+     */
+    public LayerProfiler() {
+        this(true);
+    }
+
+    /**
+     * @param synchronizeDevice If true: synchronize the device (wait for all queued operations to complete) before
+     *                          recording the end time of each operation. If false: timings may be inaccurate for
+     *                          backends that execute operations asynchronously
+     */
+    public LayerProfiler(boolean synchronizeDevice) {
+        this.synchronizeDevice = synchronizeDevice;
+    }
+
+    /**
+     * Mark the start of an operation for the specified layer. Allocations recorded until the corresponding
+     * {@link #end(String, Phase, long)} call are attributed to this layer.
+     *
+     * @param layerName Name of the layer
+     * @return Start time, to be passed to {@link #end(String, Phase, long)}
+     */
+    public long start(String layerName) {
+        if (synchronizeDevice) {
+            //Don't attribute time for previously queued operations to this layer
+            Nd4j.getExecutioner().commit();
+        }
+        currentLayer = layerName;
+        return System.nanoTime();
+    }
+
+    /**
+     * Mark the end of an operation for the specified layer, and record the time since {@link #start(String)}
+     *
+     * @param layerName  Name of the layer
+     * @param phase      Type of operation
+     * @param startNanos Start time, as returned by {@link #start(String)}
+     */
+    public void end(String layerName, Phase phase, long startNanos) {
+        record(layerName, phase, stop(startNanos));
+    }
+
+    /**
+     * Mark the end of an operation without recording it - for example, when the time for one operation is to be
+     * attributed to multiple layers
+     *
+     * @param startNanos Start time, as returned by {@link #start(String)}
+     * @return Time since {@link #start(String)}, in nanoseconds
+     */
+    public long stop(long startNanos) {
+        if (synchronizeDevice) {
+            Nd4j.getExecutioner().commit();
+        }
+        currentLayer = null;
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Record a duration for the specified layer
+     *
+     * @param layerName Name of the layer
+     * @param phase     Type of operation
+     * @param nanos     Duration in nanoseconds
+     */
+    public synchronized void record(String layerName, Phase phase, long nanos) {
+        profile(layerName).getTiming(phase).record(nanos);
+    }
+
+    /**
+     * Record an array allocation. The allocation is attributed to the layer currently being executed (i.e., between
+     * {@link #start(String)} and {@link #end(String, Phase, long)}); allocations outside of any layer are not recorded.
+     *
+     * @param arrayType Type of the array
+     * @param array     Array that was allocated
+     */
+    public void recordAllocation(ArrayType arrayType, INDArray array) {
+        String layer = currentLayer;
+        if (layer == null || array == null || array.isEmpty()) {
+            return;
+        }
+        long bytes = array.length() * array.dataType().width();
+        synchronized (this) {
+            profile(layer).getAllocatedBytes()[arrayType.ordinal()] += bytes;
+        }
+    }
+
+    private LayerProfile profile(String layerName) {
+        LayerProfile p = profiles.get(layerName);
+        if (p == null) {
+            p = new LayerProfile(layerName);
+            profiles.put(layerName, p);
+        }
+        return p;
+    }
+
+    /**
+     * Get a snapshot of the statistics for all layers recorded so far, in the order that the layers were first
+     * executed
+     *
+     * @return Layer profiles, keyed by layer name
+     */
+    public synchronized Map<String, LayerProfile> getProfiles() {
+        Map<String, LayerProfile> out = new LinkedHashMap<>();
+        for (Map.Entry<String, LayerProfile> e : profiles.entrySet()) {
+            out.put(e.getKey(), e.getValue().copy());
+        }
+        return out;
+    }
+
+    /**
+     * Clear all statistics recorded so far
+     */
+    public synchronized void reset() {
+        profiles.clear();
+    }
+
+    /**
+     * @return A table summarizing the statistics recorded so far, with layers sorted by total time (descending)
+     */
+    public String summary() {
+        List<LayerProfile> list = new ArrayList<>(getProfiles().values());
+        Collections.sort(list, new Comparator<LayerProfile>() {
+            @Override
+            public int compare(LayerProfile o1, LayerProfile o2) {
+                return Long.compare(o2.getTotalNanos(), o1.getTotalNanos());
+            }
+        });
+
+        long total = 0;
+        for (LayerProfile p : list) {
+            total += p.getTotalNanos();
+        }
+
+        StringBuilder sb = new StringBuilder();
+        String format = "%-30s %8s %12s %12s %12s %12s %12s %14s\n";
+        sb.append(String.format(format, "Layer", "% Time", "Fwd mean ms", "Fwd p99 ms", "Bwd mean ms", "Bwd p99 ms",
+                "Upd mean ms", "Allocated MB"));
+        for (LayerProfile p : list) {
+            long bytes = 0;
+            for (long b : p.getAllocatedBytes()) {
+                bytes += b;
+            }
+            sb.append(String.format(format, p.getLayerName(),
+                    String.format("%.1f", total == 0 ? 0.0 : 100.0 * p.getTotalNanos() / total),
+                    ms(p.getForward().getMeanNanos()), ms(p.getForward().getPercentileNanos(99)),
+                    ms(p.getBackward().getMeanNanos()), ms(p.getBackward().getPercentileNanos(99)),
+                    ms(p.getUpdater().getMeanNanos()),
+                    String.format("%.2f", bytes / (1024.0 * 1024.0))));
+        }
+        return sb.toString();
+    }
+
+    private static String ms(double nanos) {
+        return String.format("%.3f", nanos / 1e6);
+    }
+}
@@ -20,6 +20,7 @@
 
 package org.deeplearning4j.nn.updater;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import org.deeplearning4j.nn.api.Model;
 import org.deeplearning4j.nn.api.Trainable;
@@ -27,6 +28,7 @@ import org.deeplearning4j.nn.api.Updater;
 import org.deeplearning4j.nn.conf.GradientNormalization;
 import org.deeplearning4j.nn.gradient.DefaultGradient;
 import org.deeplearning4j.nn.gradient.Gradient;
+import org.deeplearning4j.nn.profiler.LayerProfiler;
 import org.nd4j.common.base.Preconditions;
 import org.nd4j.linalg.api.memory.MemoryWorkspace;
 import org.nd4j.linalg.api.ndarray.INDArray;
@@ -52,6 +54,21 @@ public abstract class BaseMultiLayerUpdater<T extends Model> implements Updater
     protected INDArray updaterStateViewArray;
     protected boolean initializedMinibatchDivision;
     protected List<INDArray> gradientsForMinibatchDivision;
+    protected boolean initializedFusedPreApply;
+    /**
+     * Contiguous ranges of the gradient view, each covering one or more layers using elementwise gradient clipping with
+     * the same threshold. Null if any layer uses a gradient normalization that must be applied per layer or per
+     * parameter type
+     */
+    protected List<ClipSegment> clipSegments;
+    /**
+     * Updater time (nanoseconds) per layer for the current update call; only used if profiling is enabled for the
+     * network. See {@link #getLayerProfiler()}
+     */
+    @Getter(AccessLevel.NONE)
+    private transient Map<String, Long> profiledNanos;
+    @Getter(AccessLevel.NONE)
+    private transient Map<Trainable, String> profiledLayerNames;
 
     public BaseMultiLayerUpdater(T network) {
         this(network, null);
@@ -171,6 +188,9 @@ public abstract class BaseMultiLayerUpdater<T extends Model> implements Updater
                 INDArray gradientViewSubset = gradientView.reshape(gradientView.length()).get(
                         NDArrayIndex.interval(paramsViewSoFar, paramsViewSoFar + gradSize));
                 ub.setGradientView(gradientViewSubset);
+                INDArray paramsViewSubset = paramsView.reshape(paramsView.length()).get(
+                        NDArrayIndex.interval(paramsViewSoFar, paramsViewSoFar + gradSize));
+                ub.setParamsView(paramsViewSubset);
             }
 
             ub.init();
@@ -259,12 +279,58 @@ public abstract class BaseMultiLayerUpdater<T extends Model> implements Updater
      * @param batchSize The current minibatch size (number of examples)
      */
     public  void update(Gradient gradient, int iteration, int epoch, int batchSize, LayerWorkspaceMgr workspaceMgr) {
+        LayerProfiler profiler = getLayerProfiler();
+        if (profiler == null) {
+            doUpdate(gradient, iteration, epoch, batchSize);
+            return;
+        }
+
+        profiledNanos = new LinkedHashMap<>();
+        try {
+            doUpdate(gradient, iteration, epoch, batchSize);
+            for (Map.Entry<String, Long> e : profiledNanos.entrySet()) {
+                profiler.record(e.getKey(), LayerProfiler.Phase.UPDATER, e.getValue());
+            }
+        } finally {
+            profiledNanos = null;
+        }
+    }
 
+    /**
+     * @return The profiler to record per-layer updater time with, or null if profiling is not enabled for the network
+     */
+    protected LayerProfiler getLayerProfiler() {
+        return null;
+    }
+
+    private void doUpdate(Gradient gradient, int iteration, int epoch, int batchSize) {
         //First: check if gradient is standard or external...
         //In a MultiLayerNetwork, the INDArray returned by .gradient() is always the standard full view array
         // hence should be the same object under normal circumstances
         boolean isExternal = gradient.gradient() != getFlattenedGradientsView();
 
+        if (!initializedFusedPreApply) {
+            clipSegments = createClipSegments();
+            initializedFusedPreApply = true;
+        }
+
+        if (!isExternal && clipSegments != null) {
+            //Fused path: no gradient normalization, or only elementwise clipping. No per-layer split of the gradients
+            // is required, and clipping is done with one op per contiguous range of layers with the same threshold
+            if (isMiniBatch()) {
+                divideByMinibatch(false, gradient, batchSize);
+            }
+            for (ClipSegment c : clipSegments) {
+                Nd4j.getExecutioner().exec(DynamicCustomOp.builder("clipbyvalue")
+                        .addInputs(c.gradientView)
+                        .callInplace(true)
+                        .addFloatingPointArguments(-c.threshold, c.threshold)
+                        .build());
+            }
+            applyUpdaterBlocks(gradient, iteration, epoch, false);
+            return;
+        }
+
         //Split up the gradients on a per-layer basis, for pre-apply
         Map<String, Gradient> layerGradients = new HashMap<>();
 
@@ -300,16 +366,27 @@ public abstract class BaseMultiLayerUpdater<T extends Model> implements Updater
             String layerName = entry.getKey();
             Trainable layer = layersByName.get(layerName);
 
+            long profStart = profiledNanos == null ? 0 : getLayerProfiler().start(layerName);
             preApply(layer, layerGradients.get(layerName), iteration);
+            if (profiledNanos != null) {
+                addProfiledNanos(layerName, getLayerProfiler().stop(profStart));
+            }
         }
 
-        //Apply the updaters in blocks. This also applies LR and momentum schedules, L1 and L2
+        applyUpdaterBlocks(gradient, iteration, epoch, isExternal);
+    }
+
+    /**
+     * Apply the updaters in blocks. This also applies LR and momentum schedules, L1 and L2
+     */
+    protected void applyUpdaterBlocks(Gradient gradient, int iteration, int epoch, boolean isExternal) {
         for (UpdaterBlock ub : updaterBlocks) {
             if (ub.skipDueToPretrainConfig(this instanceof LayerUpdater)) {
                 //Should skip some updater blocks sometimes
                 //For example, VAE decoder params while doing supervised backprop
                 continue;
             }
+            long profStart = profiledNanos == null ? 0 : getLayerProfiler().start(null);
             if (isExternal) {
                 //RL4J etc type case: calculate gradients in 1 net, update them in another
                 ub.updateExternalGradient(iteration, epoch, gradient.gradient(), getParams());
@@ -317,10 +394,40 @@ public abstract class BaseMultiLayerUpdater<T extends Model> implements Updater
                 //Standard case
                 ub.update(iteration, epoch);
             }
+            if (profiledNanos != null) {
+                addProfiledNanos(ub, getLayerProfiler().stop(profStart));
+            }
 
         }
     }
 
+    private void addProfiledNanos(String layerName, long nanos) {
+        Long current = profiledNanos.get(layerName);
+        profiledNanos.put(layerName, current == null ? nanos : current + nanos);
+    }
+
+    /**
+     * Attribute the time for an updater block to the layers in the block, in proportion to their number of parameters
+     */
+    private void addProfiledNanos(UpdaterBlock ub, long nanos) {
+        if (profiledLayerNames == null) {
+            profiledLayerNames = new IdentityHashMap<>();
+            for (Map.Entry<String, Trainable> e : layersByName.entrySet()) {
+                profiledLayerNames.put(e.getValue(), e.getKey());
+            }
+        }
+        long blockSize = ub.getParamOffsetEnd() - ub.getParamOffsetStart();
+        List<UpdaterBlock.ParamState> states = ub.getLayersAndVariablesInBlock();
+        for (UpdaterBlock.ParamState ps : states) {
+            String name = profiledLayerNames.get(ps.getLayer());
+            if (name == null) {
+                name = ps.getLayer().getConfig().getLayerName();
+            }
+            long n = ps.getParamOffsetEnd() - ps.getParamOffsetStart();
+            addProfiledNanos(name, blockSize > 0 ? nanos * n / blockSize : nanos / states.size());
+        }
+    }
+
     protected void divideByMinibatch(boolean isExternal, Gradient gradient, int batchSize){
         //Challenge here: most gradients are actual gradients, and should be divided by the minibatch to get the average
         //However, some 'gradients' are actually updates - an example being BatchNorm mean/variance estimates... these
@@ -376,10 +483,100 @@ public abstract class BaseMultiLayerUpdater<T extends Model> implements Updater
         return out;
     }
 
+    /**
+     * Get the subsets of the specified (flattened) gradient array that are not divided by the minibatch size. These
+     * are updates rather than gradients - for example, BatchNormalization mean/variance estimates.
+     * See {@link Trainable#updaterDivideByMinibatch(String)}
+     *
+     * @param from Flattened gradient array
+     * @return Views of the subsets, in the order they appear in the array
+     */
+    public List<INDArray> getNonMinibatchDivisionSubsets(INDArray from) {
+        from = from.reshape(from.length());
+        List<INDArray> out = new ArrayList<>();
+        long paramsSoFar = 0;
+        for (Trainable t : getOrderedLayers()) {
+            Map<String, INDArray> paramTable = t.paramTable(false);
+            for (Map.Entry<String, INDArray> e : paramTable.entrySet()) {
+                long l = e.getValue().length();
+                if (!t.updaterDivideByMinibatch(e.getKey())) {
+                    out.add(from.get(NDArrayIndex.interval(paramsSoFar, paramsSoFar + l)));
+                }
+                paramsSoFar += l;
+            }
+        }
+        return out;
+    }
+
     protected boolean isSingleLayerUpdater() {
         return false;
     }
 
+    /**
+     * Determine the ranges of the flattened gradient view to clip, for the fused update path
+     *
+     * @return The clip segments (empty if no layer uses gradient normalization), or null if any layer uses gradient
+     * normalization other than {@link GradientNormalization#ClipElementWiseAbsoluteValue}, or has parameters but no
+     * configuration
+     */
+    protected List<ClipSegment> createClipSegments() {
+        INDArray gradientView = getFlattenedGradientsView();
+        if (gradientView == null)
+            return null;
+        gradientView = gradientView.reshape(gradientView.length());
+
+        List<ClipSegment> out = new ArrayList<>();
+        ClipSegment current = null;
+        long offset = 0;
+        for (Trainable t : getOrderedLayers()) {
+            Map<String, INDArray> paramTable = t.paramTable(false);
+            long n = 0;
+            if (paramTable != null) {
+                for (INDArray p : paramTable.values()) {
+                    n += p.length();
+                }
+            }
+            if (n == 0)
+                continue;
+            if (t.getConfig() == null)
+                return null;        //Gradient normalization can't be determined: use the per-layer path
+
+            GradientNormalization normalization = t.getConfig().getGradientNormalization();
+            if (normalization == null || normalization == GradientNormalization.None) {
+                current = null;
+            } else if (normalization == GradientNormalization.ClipElementWiseAbsoluteValue) {
+                double threshold = t.getConfig().getGradientNormalizationThreshold();
+                if (current != null && current.threshold == threshold && current.end == offset) {
+                    current.end = offset + n;
+                } else {
+                    current = new ClipSegment(offset, offset + n, threshold);
+                    out.add(current);
+                }
+            } else {
+                return null;
+            }
+            offset += n;
+        }
+
+        for (ClipSegment c : out) {
+            c.gradientView = gradientView.get(NDArrayIndex.interval(c.start, c.end));
+        }
+        return out;
+    }
+
+    protected static class ClipSegment {
+        protected final long start;
+        protected long end;
+        protected final double threshold;
+        protected INDArray gradientView;
+
+        protected ClipSegment(long start, long end, double threshold) {
+            this.start = start;
+            this.end = end;
+            this.threshold = threshold;
+        }
+    }
+
     /**
      * Pre-apply: Apply gradient normalization/clipping
      *
@@ -26,6 +26,7 @@ import org.deeplearning4j.nn.api.Layer;
 import org.deeplearning4j.nn.api.Trainable;
 import org.deeplearning4j.nn.api.Updater;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.nn.profiler.LayerProfiler;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
 import java.util.HashMap;
@@ -69,6 +70,11 @@ public class MultiLayerUpdater extends BaseMultiLayerUpdater<MultiLayerNetwork>
         return network.params();
     }
 
+    @Override
+    protected LayerProfiler getLayerProfiler() {
+        return network.getLayerProfiler();
+    }
+
     @Override
     protected boolean isMiniBatch() {
         return network.conf().isMiniBatch();
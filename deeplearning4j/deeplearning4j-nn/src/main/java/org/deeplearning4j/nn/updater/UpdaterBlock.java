@@ -22,6 +22,8 @@ package org.deeplearning4j.nn.updater;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 import lombok.val;
 import org.deeplearning4j.nn.api.Layer;
 import org.deeplearning4j.nn.api.Trainable;
@@ -48,10 +50,20 @@ public class UpdaterBlock {
 
     private INDArray updaterView;
     private INDArray gradientView;
+    private INDArray paramsView;
     private boolean updaterViewRequiresInitialization;
 
     private GradientUpdater gradientUpdater;
 
+    /**
+     * Contiguous ranges of parameters in this block with identical regularization, so each regularization can be
+     * applied with one op per range instead of one op per parameter. Initialized on first use; only used when the
+     * block's parameter and gradient views are set
+     */
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private List<RegularizationSegment> regularizationSegments;
+
 
     @AllArgsConstructor
     @Data
@@ -64,6 +76,19 @@ public class UpdaterBlock {
         private final INDArray gradView;
     }
 
+    /**
+     * A contiguous range of parameters (possibly spanning multiple parameters and layers) with the same regularization
+     */
+    @AllArgsConstructor
+    @Data
+    public static class RegularizationSegment {
+        private final List<Regularization> regularization;
+        private final int paramOffsetStart;
+        private int paramOffsetEnd;
+        private INDArray paramView;
+        private INDArray gradView;
+    }
+
     /**
      * @param paramOffsetStart          Start offset of the parameters in this block (relative to overall net params
      *                                  view array)
@@ -167,6 +192,25 @@ public class UpdaterBlock {
 
     protected void applyRegularizationAllVariables(Regularization.ApplyStep applyStep, int iteration, int epoch, boolean externalGradient, INDArray fullNetworkGradientView,
                                                    INDArray fullNetworkParamsArray) {
+        if (!externalGradient && paramsView != null && gradientView != null) {
+            //Standard case: one op per contiguous range of parameters with the same regularization
+            if (regularizationSegments == null) {
+                regularizationSegments = createRegularizationSegments();
+            }
+            if (regularizationSegments.isEmpty())
+                return;
+            boolean hasLR = gradientUpdater.getConfig().hasLearningRate();
+            double lr = (hasLR ? gradientUpdater.getConfig().getLearningRate(iteration, epoch) : 1.0);
+            for (RegularizationSegment s : regularizationSegments) {
+                for (Regularization r : s.getRegularization()) {
+                    if (r.applyStep() == applyStep) {
+                        r.apply(s.getParamView(), s.getGradView(), lr, iteration, epoch);
+                    }
+                }
+            }
+            return;
+        }
+
         for (ParamState p : layersAndVariablesInBlock) {
             INDArray paramView;
             INDArray gradView;
@@ -189,6 +233,39 @@ public class UpdaterBlock {
         }
     }
 
+    /**
+     * Merge adjacent parameters with equal regularization configuration into segments. All regularization
+     * implementations are elementwise, hence applying them to a merged range is equivalent to applying them to each
+     * parameter separately
+     */
+    protected List<RegularizationSegment> createRegularizationSegments() {
+        List<RegularizationSegment> out = new ArrayList<>();
+        RegularizationSegment current = null;
+        for (ParamState p : layersAndVariablesInBlock) {
+            List<Regularization> l = p.getLayer().getConfig().getRegularizationByParam(p.getParamName());
+            if (l == null || l.isEmpty() || p.getParamOffsetEnd() == p.getParamOffsetStart()) {
+                current = null;
+                continue;
+            }
+            if (current != null && current.getParamOffsetEnd() == p.getParamOffsetStart() && current.getRegularization().equals(l)) {
+                current.setParamOffsetEnd(p.getParamOffsetEnd());
+            } else {
+                current = new RegularizationSegment(l, p.getParamOffsetStart(), p.getParamOffsetEnd(), null, null);
+                out.add(current);
+            }
+        }
+
+        INDArray params = paramsView.reshape(paramsView.length());
+        INDArray grad = gradientView.reshape(gradientView.length());
+        for (RegularizationSegment s : out) {
+            long start = s.getParamOffsetStart() - paramOffsetStart;
+            long end = s.getParamOffsetEnd() - paramOffsetStart;
+            s.setParamView(params.get(NDArrayIndex.interval(start, end)));
+            s.setGradView(grad.get(NDArrayIndex.interval(start, end)));
+        }
+        return out;
+    }
+
     /**
      * Apply L1 and L2 regularization, if necessary. Note that L1/L2 may differ for different layers in the same block
      *
@@ -198,8 +275,6 @@ public class UpdaterBlock {
      * @param paramsView   Parameter view array for the layer + param
      */
     protected void applyRegularization(Regularization.ApplyStep step, Trainable layer, String paramName, INDArray gradientView, INDArray paramsView, int iter, int epoch, double lr) {
-        //TODO: do this for multiple contiguous params/layers (fewer, larger ops)
-
         List<Regularization> l = layer.getConfig().getRegularizationByParam(paramName);
         if(l != null && !l.isEmpty()){
             for(Regularization r : l){
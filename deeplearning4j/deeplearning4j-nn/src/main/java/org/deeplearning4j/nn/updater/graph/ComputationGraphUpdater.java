@@ -24,6 +24,7 @@ import org.deeplearning4j.nn.api.Layer;
 import org.deeplearning4j.nn.api.Trainable;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.deeplearning4j.nn.graph.vertex.GraphVertex;
+import org.deeplearning4j.nn.profiler.LayerProfiler;
 import org.deeplearning4j.nn.updater.BaseMultiLayerUpdater;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
@@ -90,6 +91,11 @@ public class ComputationGraphUpdater extends BaseMultiLayerUpdater<ComputationGr
         return network.params();
     }
 
+    @Override
+    protected LayerProfiler getLayerProfiler() {
+        return network.getLayerProfiler();
+    }
+
     @Override
     protected boolean isMiniBatch() {
         return network.conf().isMiniBatch();
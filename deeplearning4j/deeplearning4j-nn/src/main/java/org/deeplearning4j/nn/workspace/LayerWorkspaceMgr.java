@@ -25,6 +25,8 @@ import lombok.Getter;
 import lombok.NonNull;
 import lombok.Setter;
 import org.bytedeco.javacpp.Pointer;
+import org.deeplearning4j.nn.profiler.LayerProfiler;
+import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.memory.conf.WorkspaceConfiguration;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.workspace.BaseWorkspaceMgr;
@@ -48,6 +50,13 @@ public class LayerWorkspaceMgr extends BaseWorkspaceMgr<ArrayType> {
     @Setter @Getter
     protected Map<String,Pointer> helperWorkspacePointers;
 
+    /**
+     * Profiler to record allocations with, if any (set from MultiLayerNetwork or ComputationGraph when profiling is
+     * enabled). See {@link LayerProfiler}
+     */
+    @Setter @Getter
+    protected LayerProfiler profiler;
+
     private LayerWorkspaceMgr(){
 
     }
@@ -73,7 +82,48 @@ public class LayerWorkspaceMgr extends BaseWorkspaceMgr<ArrayType> {
         if(noLeverageOverride != null && array.isAttached() && noLeverageOverride.contains(array.data().getParentWorkspace().getId())){
             return array;
         }
-        return super.leverageTo(arrayType, array);
+        INDArray ret = super.leverageTo(arrayType, array);
+        if(profiler != null && ret != array){
+            profiler.recordAllocation(arrayType, ret);
+        }
+        return ret;
+    }
+
+    @Override
+    public INDArray create(@NonNull ArrayType arrayType, @NonNull DataType dataType, @NonNull long[] shape, char order) {
+        INDArray ret = super.create(arrayType, dataType, shape, order);
+        if(profiler != null){
+            profiler.recordAllocation(arrayType, ret);
+        }
+        return ret;
+    }
+
+    @Override
+    public INDArray createUninitialized(@NonNull ArrayType arrayType, @NonNull DataType dataType, @NonNull long[] shape, char order) {
+        INDArray ret = super.createUninitialized(arrayType, dataType, shape, order);
+        if(profiler != null){
+            profiler.recordAllocation(arrayType, ret);
+        }
+        return ret;
+    }
+
+    @Override
+    public INDArray dup(@NonNull ArrayType arrayType, @NonNull INDArray toDup, char order) {
+        INDArray ret = super.dup(arrayType, toDup, order);
+        if(profiler != null){
+            profiler.recordAllocation(arrayType, ret);
+        }
+        return ret;
+    }
+
+    @Override
+    public INDArray castTo(@NonNull ArrayType arrayType, @NonNull DataType dataType, @NonNull INDArray toCast, boolean dupIfCorrectType) {
+        INDArray ret = super.castTo(arrayType, dataType, toCast, dupIfCorrectType);
+        if(profiler != null && toCast.dataType() != dataType){
+            //Same type copies are recorded by dup
+            profiler.recordAllocation(arrayType, ret);
+        }
+        return ret;
     }
 
     @Override
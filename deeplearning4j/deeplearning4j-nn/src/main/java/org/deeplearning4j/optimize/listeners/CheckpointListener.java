@@ -30,11 +30,17 @@ import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
 import org.deeplearning4j.optimize.api.BaseTrainingListener;
 import org.deeplearning4j.util.ModelSerializer;
 import org.nd4j.common.base.Preconditions;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
 
 import java.io.*;
 import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Slf4j
 public class CheckpointListener extends BaseTrainingListener implements Serializable {
@@ -48,6 +54,7 @@ public class CheckpointListener extends BaseTrainingListener implements Serializ
     private int keepEvery;
     private boolean logSaving;
     private boolean deleteExisting;
+    private int asyncMaxPending;
 
     private Integer saveEveryNEpochs;
     private Integer saveEveryNIterations;
@@ -65,6 +72,16 @@ public class CheckpointListener extends BaseTrainingListener implements Serializ
     private int startIter = -1;
     private Long lastSaveEveryMsNoSinceLast;
 
+    //Asynchronous saving: parameters and updater state are copied into one of (at most asyncMaxPending) staging
+    // buffers on the training thread, and written to disk on a separate thread
+    private transient ExecutorService saveExecutor;
+    private transient BlockingQueue<INDArray[]> stagingBuffers;
+    private transient int stagingBuffersCreated;
+    private transient AtomicReference<Throwable> asyncSaveError;
+    private volatile long lastStallTimeMs = -1;
+    private volatile long lastWriteTimeMs = -1;
+    private volatile long totalStallTimeMs;
+
     private CheckpointListener(Builder builder){
         this.rootDir = builder.rootDir;
         this.keepMode = builder.keepMode;
@@ -72,6 +89,7 @@ public class CheckpointListener extends BaseTrainingListener implements Serializ
         this.keepEvery = builder.keepEvery;
         this.logSaving = builder.logSaving;
         this.deleteExisting = builder.deleteExisting;
+        this.asyncMaxPending = builder.asyncMaxPending;
 
         this.saveEveryNEpochs = builder.saveEveryNEpochs;
         this.saveEveryNIterations = builder.saveEveryNIterations;
@@ -95,7 +113,8 @@ public class CheckpointListener extends BaseTrainingListener implements Serializ
                 if(files != null && files.length > 0){
                     for(File f : files){
                         String name = f.getName();
-                        if(name.startsWith("checkpoint_") && (name.endsWith("MultiLayerNetwork.zip") || name.endsWith("ComputationGraph.zip"))){
+                        if(name.startsWith("checkpoint_") && (name.endsWith("MultiLayerNetwork.zip") || name.endsWith("ComputationGraph.zip")
+                                || name.endsWith(".zip.tmp"))){
                             f.delete();
                         }
                     }
@@ -174,6 +193,11 @@ public class CheckpointListener extends BaseTrainingListener implements Serializ
     }
 
     private void saveCheckpointHelper(Model model) throws Exception {
+        long start = System.currentTimeMillis();
+        if(asyncMaxPending > 0){
+            checkAsyncSaveError();
+        }
+
         if(!checkpointRecordFile.exists()){
             checkpointRecordFile.createNewFile();
             write(Checkpoint.getFileHeader() + "\n", checkpointRecordFile);
@@ -182,20 +206,65 @@ public class CheckpointListener extends BaseTrainingListener implements Serializ
         Checkpoint c = new Checkpoint(++lastCheckpointNum, System.currentTimeMillis(), getIter(model), getEpoch(model),
                 getModelType(model), null);
         setFileName(c);
+        this.lastCheckpoint = c;
 
-        ModelSerializer.writeModel(model, new File(rootDir, c.getFilename()), true);
-
-        String s = c.toFileString();
-        write(s + "\n", checkpointRecordFile);
+        String json = getConfigJson(model);
+        if(asyncMaxPending > 0 && (model instanceof MultiLayerNetwork || model instanceof ComputationGraph)){
+            //Copy the current state to a staging buffer (blocking if too many checkpoints are still being written),
+            // and write it to disk on the save thread
+            INDArray[] staged = stage(model);
+            long stall = recordStallTime(start);
+            saveExecutor.execute(() -> {
+                long writeStart = System.currentTimeMillis();
+                try {
+                    writeCheckpoint(c, json, staged[0], staged[1]);
+                    lastWriteTimeMs = System.currentTimeMillis() - writeStart;
+                    if(logSaving){
+                        log.info("Model checkpoint saved: epoch {}, iteration {}, path: {} (training blocked for {} ms, background write {} ms)",
+                                c.getEpoch(), c.getIteration(), new File(rootDir, c.getFilename()).getPath(), stall, lastWriteTimeMs);
+                    }
+                } catch (Throwable t){
+                    log.error("Error saving checkpoint {} asynchronously", c.getCheckpointNum(), t);
+                    asyncSaveError.compareAndSet(null, t);
+                } finally {
+                    stagingBuffers.add(staged);
+                }
+            });
+        } else {
+            writeCheckpoint(c, json, model.params(), getUpdaterState(model));
+            long stall = recordStallTime(start);
+            lastWriteTimeMs = stall;
+            if(logSaving){
+                log.info("Model checkpoint saved: epoch {}, iteration {}, path: {} (training blocked for {} ms)", c.getEpoch(),
+                        c.getIteration(), new File(rootDir, c.getFilename()).getPath(), stall);
+            }
+        }
+    }
 
-        if(logSaving){
-            log.info("Model checkpoint saved: epoch {}, iteration {}, path: {}", c.getEpoch(), c.getIteration(),
-                    new File(rootDir, c.getFilename()).getPath() );
+    private void writeCheckpoint(Checkpoint c, String json, INDArray params, INDArray updaterState) throws IOException {
+        //Write to a temporary file first and rename once it is fully written: a partially written checkpoint (due to
+        // a crash or the JVM exiting during the save) never appears under a valid checkpoint file name
+        File f = new File(rootDir, c.getFilename());
+        File tmp = new File(rootDir, c.getFilename() + ".tmp");
+        try(FileOutputStream fos = new FileOutputStream(tmp); BufferedOutputStream bos = new BufferedOutputStream(fos)){
+            ModelSerializer.writeModel(json, params, updaterState, bos, null);
+            bos.flush();
+            fos.getFD().sync();
+        }
+        try {
+            java.nio.file.Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e){
+            java.nio.file.Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
         }
-        this.lastCheckpoint = c;
 
+        String s = c.toFileString();
+        write(s + "\n", checkpointRecordFile);
 
         //Finally: determine if we should delete some old models...
+        deleteOldCheckpoints(c.getCheckpointNum());
+    }
+
+    private void deleteOldCheckpoints(int latestCheckpointNum){
         if(keepMode == null || keepMode == KeepMode.ALL){
             return;
         } else if(keepMode == KeepMode.LAST){
@@ -213,7 +282,7 @@ public class CheckpointListener extends BaseTrainingListener implements Serializ
                 if(cp.getCheckpointNum() > 0 && (cp.getCheckpointNum()+1) % keepEvery == 0){
                     //One of the "every M to keep" models
                     continue;
-                } else if(cp.getCheckpointNum() > lastCheckpointNum - keepLast ){        //Example: latest is 5, keep last 2 -> keep checkpoints 4 and 5
+                } else if(cp.getCheckpointNum() > latestCheckpointNum - keepLast ){        //Example: latest is 5, keep last 2 -> keep checkpoints 4 and 5
                     //One of last N to keep
                     continue;
                 }
@@ -224,6 +293,114 @@ public class CheckpointListener extends BaseTrainingListener implements Serializ
         }
     }
 
+    private INDArray[] stage(Model model) throws InterruptedException {
+        if(saveExecutor == null){
+            //Single writer thread, so checkpoint files and the checkpoint record file are written in order. Not a daemon
+            // thread (pending checkpoints are written before the JVM exits), but it is stopped when idle
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, "CheckpointListener-save");
+                t.setDaemon(false);
+                return t;
+            });
+            executor.allowCoreThreadTimeOut(true);
+            saveExecutor = executor;
+            stagingBuffers = new ArrayBlockingQueue<>(asyncMaxPending);
+            stagingBuffersCreated = 0;
+        }
+
+        INDArray[] buffer = stagingBuffers.poll();
+        if(buffer == null){
+            if(stagingBuffersCreated < asyncMaxPending){
+                buffer = new INDArray[2];
+                stagingBuffersCreated++;
+            } else {
+                //All staging buffers are in use: wait until the oldest pending checkpoint has been written
+                buffer = stagingBuffers.take();
+            }
+        }
+
+        try(MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()){
+            buffer[0] = copyInto(buffer[0], model.params());
+            buffer[1] = copyInto(buffer[1], getUpdaterState(model));
+        }
+        return buffer;
+    }
+
+    private static INDArray copyInto(INDArray buffer, INDArray from){
+        if(from == null){
+            return null;
+        }
+        if(buffer == null || buffer.dataType() != from.dataType() || !Arrays.equals(buffer.shape(), from.shape())){
+            return from.dup();
+        }
+        return buffer.assign(from);
+    }
+
+    private long recordStallTime(long start){
+        long stall = System.currentTimeMillis() - start;
+        lastStallTimeMs = stall;
+        totalStallTimeMs += stall;
+        return stall;
+    }
+
+    private void checkAsyncSaveError(){
+        if(asyncSaveError == null){
+            asyncSaveError = new AtomicReference<>();
+        }
+        Throwable t = asyncSaveError.getAndSet(null);
+        if(t != null){
+            throw new RuntimeException("Error saving checkpoint asynchronously", t);
+        }
+    }
+
+    /**
+     * Wait for all pending asynchronous checkpoint saves to complete (see {@link Builder#asyncSave(int)}).
+     * Should be called after training is complete, before checkpoints are loaded or the checkpoint directory is used.
+     * No-op if asynchronous saving is not enabled.
+     *
+     * @throws RuntimeException If an asynchronous checkpoint save failed
+     */
+    public void awaitPendingSaves(){
+        if(saveExecutor != null){
+            //Single thread executor: once this task has run, all previously submitted saves have completed
+            try {
+                saveExecutor.submit(() -> { }).get();
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for pending checkpoint saves", e);
+            } catch (ExecutionException e){
+                throw new RuntimeException(e);
+            }
+        }
+        if(asyncMaxPending > 0){
+            checkAsyncSaveError();
+        }
+    }
+
+    /**
+     * @return The time (in milliseconds) that training was blocked for when saving the most recent checkpoint, or
+     * -1 if no checkpoint has been saved yet. For asynchronous saving, this is the time taken to copy the model state
+     * to a staging buffer (including any time spent waiting for a free buffer); otherwise it is the full save time.
+     */
+    public long getLastStallTimeMs(){
+        return lastStallTimeMs;
+    }
+
+    /**
+     * @return The total time (in milliseconds) that training was blocked for, for all checkpoints saved so far
+     */
+    public long getTotalStallTimeMs(){
+        return totalStallTimeMs;
+    }
+
+    /**
+     * @return The time (in milliseconds) taken to write the most recently written checkpoint to disk, or -1 if no
+     * checkpoint has been written yet
+     */
+    public long getLastWriteTimeMs(){
+        return lastWriteTimeMs;
+    }
+
     private static void setFileName(Checkpoint c){
         String filename = getFileName(c.getCheckpointNum(), c.getModelType());
         c.setFilename(filename);
@@ -265,6 +442,26 @@ public class CheckpointListener extends BaseTrainingListener implements Serializ
         }
     }
 
+    protected static String getConfigJson(Model model){
+        if (model instanceof MultiLayerNetwork) {
+            return ((MultiLayerNetwork) model).getLayerWiseConfigurations().toJson();
+        } else if (model instanceof ComputationGraph) {
+            return ((ComputationGraph) model).getConfiguration().toJson();
+        } else {
+            return "";
+        }
+    }
+
+    protected static INDArray getUpdaterState(Model model){
+        if (model instanceof MultiLayerNetwork) {
+            return ((MultiLayerNetwork) model).getUpdater().getStateViewArray();
+        } else if (model instanceof ComputationGraph) {
+            return ((ComputationGraph) model).getUpdater().getStateViewArray();
+        } else {
+            return null;
+        }
+    }
+
     protected static String getModelType(Model model){
         if(model.getClass() == MultiLayerNetwork.class){
             return "MultiLayerNetwork";
@@ -496,6 +693,7 @@ public class CheckpointListener extends BaseTrainingListener implements Serializ
         private int keepEvery;
         private boolean logSaving = true;
         private boolean deleteExisting = false;
+        private int asyncMaxPending = 0;
 
         private Integer saveEveryNEpochs;
         private Integer saveEveryNIterations;
@@ -640,6 +838,32 @@ public class CheckpointListener extends BaseTrainingListener implements Serializ
             return this;
         }
 
+        /**
+         * Save checkpoints asynchronously, with at most 2 checkpoints pending at any time. See {@link #asyncSave(int)}
+         *
+         * @param asyncSave If true: save checkpoints asynchronously. False (default): save on the training thread
+         */
+        public Builder asyncSave(boolean asyncSave){
+            return asyncSave(asyncSave ? 2 : 0);
+        }
+
+        /**
+         * Save checkpoints asynchronously. When a checkpoint is due, the network parameters and updater state are copied
+         * to a staging buffer on the training thread, and training continues while the checkpoint is written to disk on a
+         * separate thread. At most {@code maxPending} staging buffers are used: if this many checkpoints are still being
+         * written when another one is due, training blocks until the oldest has been written.<br>
+         * Note that each staging buffer holds a copy of the parameters and updater state. Use
+         * {@link CheckpointListener#awaitPendingSaves()} to wait for all checkpoints to be written.<br>
+         * Disabled (0) by default: checkpoints are written on the training thread.
+         *
+         * @param maxPending Maximum number of checkpoints that may be pending at any time, or 0 to save synchronously
+         */
+        public Builder asyncSave(int maxPending){
+            Preconditions.checkArgument(maxPending >= 0, "Maximum number of pending checkpoints must be >= 0, got %s", maxPending);
+            this.asyncMaxPending = maxPending;
+            return this;
+        }
+
         public CheckpointListener build(){
             if(saveEveryNEpochs == null && saveEveryAmount == null && saveEveryNIterations == null){
                 throw new IllegalStateException("Cannot construct listener: no models will be saved (must use at least" +
@@ -0,0 +1,595 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.deeplearning4j.optimize.solvers;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.nn.api.Layer;
+import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.nn.conf.BackpropType;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.layers.BaseOutputLayer;
+import org.deeplearning4j.nn.conf.layers.BatchNormalization;
+import org.deeplearning4j.nn.conf.layers.Cnn3DLossLayer;
+import org.deeplearning4j.nn.conf.layers.CnnLossLayer;
+import org.deeplearning4j.nn.conf.layers.LossLayer;
+import org.deeplearning4j.nn.conf.layers.RnnLossLayer;
+import org.deeplearning4j.nn.gradient.DefaultGradient;
+import org.deeplearning4j.nn.gradient.Gradient;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.graph.util.ComputationGraphUtil;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.nn.params.BatchNormalizationParamInitializer;
+import org.deeplearning4j.nn.updater.BaseMultiLayerUpdater;
+import org.deeplearning4j.nn.workspace.LayerWorkspaceMgr;
+import org.deeplearning4j.optimize.api.TrainingListener;
+import org.deeplearning4j.util.NetworkUtils;
+import org.nd4j.common.base.Preconditions;
+import org.nd4j.common.primitives.Pair;
+import org.nd4j.linalg.activations.IActivation;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.DataSet;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.lossfunctions.ILossFunction;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mixed precision training for {@link MultiLayerNetwork} and {@link ComputationGraph}.<br>
+ * The network passed to the builder holds the master copy of the parameters, in its own (usually FLOAT) data type,
+ * along with its updater - the updater state is kept in the {@link BaseMultiLayerUpdater} of the master network, in
+ * the same data type as the parameters. A copy of the network in a lower precision data type (HALF or BFLOAT16) is
+ * used for the forward and backward passes. Each iteration:<br>
+ * 1. The master parameters are copied (cast) to the low precision network<br>
+ * 2. Forward and backward passes are done in low precision, with the gradient of the loss multiplied by the current
+ * loss scale<br>
+ * 3. The gradients are cast to the master precision and checked for overflow (NaN or infinite values). If an overflow
+ * occurred, the step is skipped and the loss scale is reduced. Otherwise, the gradients are divided by the loss scale
+ * and the updater of the master network is applied as usual<br>
+ * With dynamic loss scaling, the loss scale is increased again after {@code scaleGrowthInterval} consecutive steps
+ * without overflow. Loss scaling is mainly required for HALF, which has a limited exponent range; BFLOAT16 has the
+ * same range as FLOAT, hence loss scaling is disabled by default for BFLOAT16 (overflow detection is always enabled).
+ * Loss scaling is also disabled for networks without an output layer that has a standard loss function (for example,
+ * {@link org.deeplearning4j.nn.conf.layers.objdetect.Yolo2OutputLayer}), as the loss of such layers can't be scaled.<br>
+ * <br>
+ * Usage:
+ * <pre>
+ * {@code
+ * MixedPrecisionTrainer trainer = new MixedPrecisionTrainer.Builder(net)
+ *          .computeDataType(DataType.BFLOAT16)
+ *          .build();
+ * for (int i = 0; i < numEpochs; i++) {
+ *     trainer.fit(trainData);
+ * }
+ * }
+ * </pre>
+ * Training listeners of the master network are called as per a standard fit call. Notes:<br>
+ * - Truncated BPTT is not supported<br>
+ * - The running mean/variance of batch normalization layers are computed in the low precision network<br>
+ * - The network should not be fit by other means while the trainer is in use
+ */
+@Slf4j
+public class MixedPrecisionTrainer {
+    public static final DataType DEFAULT_COMPUTE_DATA_TYPE = DataType.HALF;
+    public static final double DEFAULT_INITIAL_LOSS_SCALE = 65536;
+    public static final double DEFAULT_SCALE_FACTOR = 2.0;
+    public static final int DEFAULT_SCALE_GROWTH_INTERVAL = 2000;
+
+    @Getter
+    private final Model master;
+    @Getter
+    private final Model compute;
+    @Getter
+    private final DataType computeDataType;
+    @Getter
+    private final boolean dynamicLossScaling;
+    private final double scaleFactor;
+    private final int scaleGrowthInterval;
+    private final double minLossScale;
+
+    private final List<LossScaling> lossFunctions = new ArrayList<>();
+    private final Gradient masterGradient;
+    private final INDArray masterGradientView;
+    private final INDArray computeGradientView;
+    //Batch norm global mean/variance "gradients" are not gradients of the loss, hence are not scaled
+    private final List<Pair<INDArray, INDArray>> unscaledGradients = new ArrayList<>();
+
+    @Getter
+    private double lossScale;
+    private int stepsSinceOverflow;
+    @Getter
+    private long skippedSteps;
+
+    protected MixedPrecisionTrainer(Builder builder) {
+        this.master = builder.model;
+        this.computeDataType = builder.computeDataType;
+        this.scaleFactor = builder.scaleFactor;
+        this.scaleGrowthInterval = builder.scaleGrowthInterval;
+        this.minLossScale = builder.minLossScale;
+
+        INDArray masterParams = master.params();
+        Preconditions.checkState(masterParams.dataType().isFPType() && masterParams.dataType().width() > computeDataType.width(),
+                "Compute data type (%s) must be a floating point type with lower precision than the network data type (%s)",
+                computeDataType, masterParams.dataType());
+
+        try (MemoryWorkspace ws = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+            //Low precision copy: no updater, no listeners
+            if (master instanceof MultiLayerNetwork) {
+                MultiLayerNetwork net = (MultiLayerNetwork) master;
+                Preconditions.checkState(net.getLayerWiseConfigurations().getBackpropType() != BackpropType.TruncatedBPTT,
+                        "Mixed precision training is not supported for truncated BPTT");
+                MultiLayerConfiguration conf = MultiLayerConfiguration.fromJson(net.getLayerWiseConfigurations().toJson());
+                conf.setDataType(computeDataType);
+                MultiLayerNetwork c = new MultiLayerNetwork(conf);
+                c.init(masterParams.castTo(computeDataType), false);
+                //The updater of a previously fitted or restored network is bound to the existing gradients view
+                if (net.getGradientsViewArray() == null) {
+                    net.initGradientsView();
+                }
+                c.initGradientsView();
+                compute = c;
+            } else {
+                ComputationGraph net = (ComputationGraph) master;
+                Preconditions.checkState(net.getConfiguration().getBackpropType() != BackpropType.TruncatedBPTT,
+                        "Mixed precision training is not supported for truncated BPTT");
+                ComputationGraphConfiguration conf = ComputationGraphConfiguration.fromJson(net.getConfiguration().toJson());
+                conf.setDataType(computeDataType);
+                ComputationGraph c = new ComputationGraph(conf);
+                c.init(masterParams.castTo(computeDataType), false);
+                //The updater of a previously fitted or restored network is bound to the existing gradients view
+                if (net.getGradientsViewArray() == null) {
+                    net.initGradientsView();
+                }
+                c.initGradientsView();
+                compute = c;
+            }
+        }
+
+        masterGradientView = gradientsView(master);
+        computeGradientView = gradientsView(compute);
+        masterGradient = new DefaultGradient(masterGradientView);
+        Layer[] masterLayers = layers(master);
+        Layer[] computeLayers = layers(compute);
+        for (int i = 0; i < masterLayers.length; i++) {
+            Layer l = masterLayers[i];
+            if (l.getGradientsViewArray() == null)
+                continue;
+            String prefix = master instanceof MultiLayerNetwork ? String.valueOf(l.getIndex()) : l.conf().getLayer().getLayerName();
+            Map<String, INDArray> m = l.conf().getLayer().initializer().getGradientsFromFlattened(l.conf(), l.getGradientsViewArray());
+            Map<String, INDArray> c = computeLayers[i].conf().getLayer().initializer().getGradientsFromFlattened(
+                    computeLayers[i].conf(), computeLayers[i].getGradientsViewArray());
+            for (Map.Entry<String, INDArray> e : m.entrySet()) {
+                masterGradient.setGradientFor(prefix + "_" + e.getKey(), e.getValue());
+                if (l.conf().getLayer() instanceof BatchNormalization && isGlobalStatistic(e.getKey())) {
+                    unscaledGradients.add(new Pair<>(e.getValue(), c.get(e.getKey())));
+                }
+            }
+        }
+
+        for (Layer l : computeLayers) {
+            LossScaling ls = wrapLossFunction(l.conf().getLayer());
+            if (ls != null) {
+                lossFunctions.add(ls);
+            }
+        }
+
+        if (lossFunctions.isEmpty()) {
+            //Loss can't be scaled: the gradients must not be unscaled, and the scale must not grow
+            Preconditions.checkState((builder.initialLossScale == null || builder.initialLossScale == 1.0) &&
+                    !Boolean.TRUE.equals(builder.dynamicLossScaling), "Loss scaling requires at least one output layer " +
+                    "with a loss function (OutputLayer, RnnOutputLayer, LossLayer, etc) - no supported output layers found");
+            if (computeDataType == DataType.HALF) {
+                log.warn("No output layers with a supported loss function found: training in HALF precision without loss scaling");
+            }
+            this.dynamicLossScaling = false;
+            this.lossScale = 1.0;
+        } else {
+            this.dynamicLossScaling = builder.dynamicLossScaling != null ? builder.dynamicLossScaling :
+                    computeDataType == DataType.HALF;
+            setLossScale(builder.initialLossScale != null ? builder.initialLossScale :
+                    (computeDataType == DataType.HALF ? DEFAULT_INITIAL_LOSS_SCALE : 1.0));
+        }
+    }
+
+    /**
+     * Fit the network for one epoch on the given data
+     *
+     * @param iterator Training data
+     */
+    public void fit(@NonNull DataSetIterator iterator) {
+        if (!iterator.hasNext() && iterator.resetSupported()) {
+            iterator.reset();
+        }
+        epochStart();
+        while (iterator.hasNext()) {
+            DataSet ds = iterator.next();
+            if (ds.getFeatures() == null)
+                break;
+            fit(ds);
+        }
+        epochEnd();
+    }
+
+    /**
+     * Fit the network for one epoch on the given data. Only supported for ComputationGraph models
+     *
+     * @param iterator Training data
+     */
+    public void fit(@NonNull MultiDataSetIterator iterator) {
+        Preconditions.checkState(master instanceof ComputationGraph, "MultiDataSetIterator can only be used to fit " +
+                "ComputationGraph models, got %s", master.getClass());
+        if (!iterator.hasNext() && iterator.resetSupported()) {
+            iterator.reset();
+        }
+        epochStart();
+        while (iterator.hasNext()) {
+            MultiDataSet mds = iterator.next();
+            if (mds.getFeatures() == null)
+                break;
+            fit(mds);
+        }
+        epochEnd();
+    }
+
+    /**
+     * Perform one training iteration on the given minibatch
+     *
+     * @param dataSet Minibatch
+     */
+    public void fit(@NonNull DataSet dataSet) {
+        if (compute instanceof MultiLayerNetwork) {
+            MultiLayerNetwork net = (MultiLayerNetwork) compute;
+            net.setLayerMaskArrays(cast(dataSet.getFeaturesMaskArray()), cast(dataSet.getLabelsMaskArray()));
+            net.setInput(cast(dataSet.getFeatures()));
+            net.setLabels(cast(dataSet.getLabels()));
+            step();
+        } else {
+            fit(ComputationGraphUtil.toMultiDataSet(dataSet));
+        }
+    }
+
+    /**
+     * Perform one training iteration on the given minibatch. Only supported for ComputationGraph models
+     *
+     * @param dataSet Minibatch
+     */
+    public void fit(@NonNull MultiDataSet dataSet) {
+        Preconditions.checkState(compute instanceof ComputationGraph, "MultiDataSet can only be used to fit " +
+                "ComputationGraph models, got %s", master.getClass());
+        ComputationGraph net = (ComputationGraph) compute;
+        net.setLayerMaskArrays(cast(dataSet.getFeaturesMaskArrays()), cast(dataSet.getLabelsMaskArrays()));
+        net.setInputs(cast(dataSet.getFeatures()));
+        net.setLabels(cast(dataSet.getLabels()));
+        step();
+    }
+
+    private void step() {
+        compute.params().assign(master.params());
+        try {
+            if (compute instanceof MultiLayerNetwork) {
+                ((MultiLayerNetwork) compute).computeGradientAndScore();
+            } else {
+                ((ComputationGraph) compute).computeGradientAndScore();
+            }
+        } finally {
+            clearMasks(compute);
+        }
+
+        double score = compute.score();
+        setScore(master, score);
+
+        masterGradientView.assign(computeGradientView);
+        //Any NaN or infinite values in the gradients result in a non-finite sum: single reduction instead of two checks
+        double sum = masterGradientView.sumNumber().doubleValue();
+        if (!Double.isFinite(sum)) {
+            skippedSteps++;
+            stepsSinceOverflow = 0;
+            if (dynamicLossScaling && lossScale > minLossScale) {
+                setLossScale(Math.max(minLossScale, lossScale / scaleFactor));
+            }
+            log.debug("Non-finite gradients in iteration {}: skipping step. Loss scale: {}", NetworkUtils.getIterationCount(master), lossScale);
+            return;
+        }
+
+        //Gradients are only scaled if the loss was scaled
+        if (lossScale != 1.0 && !lossFunctions.isEmpty()) {
+            masterGradientView.divi(lossScale);
+            for (Pair<INDArray, INDArray> p : unscaledGradients) {
+                p.getFirst().assign(p.getSecond());
+            }
+        }
+
+        Collection<TrainingListener> listeners = listeners(master);
+        try (MemoryWorkspace ws = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+            for (TrainingListener tl : listeners) {
+                tl.onGradientCalculation(master);
+            }
+        }
+
+        int iteration = NetworkUtils.getIterationCount(master);
+        int epoch = NetworkUtils.getEpochCount(master);
+        updater(master).update(masterGradient, iteration, epoch, compute.batchSize(), LayerWorkspaceMgr.noWorkspaces());
+        //As per NegativeDefaultStepFunction
+        master.params().subi(masterGradientView);
+
+        try (MemoryWorkspace ws = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+            for (TrainingListener tl : listeners) {
+                tl.iterationDone(master, iteration, epoch);
+            }
+        }
+        NetworkUtils.incrementIterationCount(master, 1);
+        //Iteration count is also used by the low precision network (dropout schedules, etc)
+        NetworkUtils.incrementIterationCount(compute, 1);
+        NetworkUtils.applyConstraints(master);
+
+        if (dynamicLossScaling && ++stepsSinceOverflow >= scaleGrowthInterval) {
+            setLossScale(lossScale * scaleFactor);
+            stepsSinceOverflow = 0;
+        }
+    }
+
+    private void setLossScale(double lossScale) {
+        this.lossScale = lossScale;
+        for (LossScaling ls : lossFunctions) {
+            ls.setScale(lossScale);
+        }
+    }
+
+    private void epochStart() {
+        for (TrainingListener tl : listeners(master)) {
+            tl.onEpochStart(master);
+        }
+    }
+
+    private void epochEnd() {
+        for (TrainingListener tl : listeners(master)) {
+            tl.onEpochEnd(master);
+        }
+        if (master instanceof MultiLayerNetwork) {
+            ((MultiLayerNetwork) master).incrementEpochCount();
+            ((MultiLayerNetwork) compute).incrementEpochCount();
+        } else {
+            ((ComputationGraph) master).incrementEpochCount();
+            ((ComputationGraph) compute).incrementEpochCount();
+        }
+    }
+
+    private INDArray cast(INDArray arr) {
+        if (arr == null || !arr.dataType().isFPType() || arr.dataType() == computeDataType)
+            return arr;
+        return arr.castTo(computeDataType);
+    }
+
+    private INDArray[] cast(INDArray[] arr) {
+        if (arr == null)
+            return null;
+        INDArray[] out = new INDArray[arr.length];
+        for (int i = 0; i < arr.length; i++) {
+            out[i] = cast(arr[i]);
+        }
+        return out;
+    }
+
+    private static boolean isGlobalStatistic(String param) {
+        return BatchNormalizationParamInitializer.GLOBAL_MEAN.equals(param)
+                || BatchNormalizationParamInitializer.GLOBAL_VAR.equals(param)
+                || BatchNormalizationParamInitializer.GLOBAL_LOG_STD.equals(param);
+    }
+
+    private static LossScaling wrapLossFunction(org.deeplearning4j.nn.conf.layers.Layer l) {
+        if (l instanceof BaseOutputLayer) {
+            BaseOutputLayer o = (BaseOutputLayer) l;
+            o.setLossFn(new LossScaling(o.getLossFn()));
+            return (LossScaling) o.getLossFn();
+        } else if (l instanceof LossLayer) {
+            LossLayer o = (LossLayer) l;
+            o.setLossFn(new LossScaling(o.getLossFn()));
+            return (LossScaling) o.getLossFn();
+        } else if (l instanceof RnnLossLayer) {
+            RnnLossLayer o = (RnnLossLayer) l;
+            o.setLossFn(new LossScaling(o.getLossFn()));
+            return (LossScaling) o.getLossFn();
+        } else if (l instanceof CnnLossLayer) {
+            CnnLossLayer o = (CnnLossLayer) l;
+            o.setLossFn(new LossScaling(o.getLossFn()));
+            return (LossScaling) o.getLossFn();
+        } else if (l instanceof Cnn3DLossLayer) {
+            Cnn3DLossLayer o = (Cnn3DLossLayer) l;
+            o.setLossFn(new LossScaling(o.getLossFn()));
+            return (LossScaling) o.getLossFn();
+        }
+        return null;
+    }
+
+    private static Layer[] layers(Model model) {
+        if (model instanceof MultiLayerNetwork)
+            return ((MultiLayerNetwork) model).getLayers();
+        return ((ComputationGraph) model).getLayers();
+    }
+
+    private static INDArray gradientsView(Model model) {
+        if (model instanceof MultiLayerNetwork)
+            return ((MultiLayerNetwork) model).getGradientsViewArray();
+        return ((ComputationGraph) model).getGradientsViewArray();
+    }
+
+    private static BaseMultiLayerUpdater<?> updater(Model model) {
+        if (model instanceof MultiLayerNetwork)
+            return (BaseMultiLayerUpdater<?>) ((MultiLayerNetwork) model).getUpdater(true);
+        return ((ComputationGraph) model).getUpdater(true);
+    }
+
+    private static Collection<TrainingListener> listeners(Model model) {
+        if (model instanceof MultiLayerNetwork)
+            return ((MultiLayerNetwork) model).getListeners();
+        return ((ComputationGraph) model).getListeners();
+    }
+
+    private static void setScore(Model model, double score) {
+        if (model instanceof MultiLayerNetwork)
+            ((MultiLayerNetwork) model).setScore(score);
+        else
+            ((ComputationGraph) model).setScore(score);
+    }
+
+    private static void clearMasks(Model model) {
+        if (model instanceof MultiLayerNetwork)
+            ((MultiLayerNetwork) model).clearLayerMaskArrays();
+        else
+            ((ComputationGraph) model).clearLayerMaskArrays();
+    }
+
+    /**
+     * Loss function wrapper that multiplies the gradient (but not the score) of the wrapped loss function by the
+     * loss scale. Only used in the low precision network; never serialized
+     */
+    private static class LossScaling implements ILossFunction {
+        private final ILossFunction lossFn;
+        private double scale = 1.0;
+
+        private LossScaling(ILossFunction lossFn) {
+            this.lossFn = lossFn;
+        }
+
+        private void setScale(double scale) {
+            this.scale = scale;
+        }
+
+        @Override
+        public double computeScore(INDArray labels, INDArray preOutput, IActivation activationFn, INDArray mask, boolean average) {
+            return lossFn.computeScore(labels, preOutput, activationFn, mask, average);
+        }
+
+        @Override
+        public INDArray computeScoreArray(INDArray labels, INDArray preOutput, IActivation activationFn, INDArray mask) {
+            return lossFn.computeScoreArray(labels, preOutput, activationFn, mask);
+        }
+
+        @Override
+        public INDArray computeGradient(INDArray labels, INDArray preOutput, IActivation activationFn, INDArray mask) {
+            INDArray grad = lossFn.computeGradient(labels, preOutput, activationFn, mask);
+            return scale == 1.0 ? grad : grad.muli(scale);
+        }
+
+        @Override
+        public Pair<Double, INDArray> computeGradientAndScore(INDArray labels, INDArray preOutput, IActivation activationFn,
+                                                              INDArray mask, boolean average) {
+            return new Pair<>(computeScore(labels, preOutput, activationFn, mask, average),
+                    computeGradient(labels, preOutput, activationFn, mask));
+        }
+
+        @Override
+        public String name() {
+            return lossFn.name();
+        }
+
+        @Override
+        public String toString() {
+            return "LossScaling(" + lossFn + ")";
+        }
+    }
+
+    public static class Builder {
+        private final Model model;
+        private DataType computeDataType = DEFAULT_COMPUTE_DATA_TYPE;
+        private Double initialLossScale;
+        private Boolean dynamicLossScaling;
+        private double scaleFactor = DEFAULT_SCALE_FACTOR;
+        private int scaleGrowthInterval = DEFAULT_SCALE_GROWTH_INTERVAL;
+        private double minLossScale = 1.0;
+
+        /**
+         * @param model MultiLayerNetwork or ComputationGraph to train. Must be initialized
+         */
+        public Builder(@NonNull Model model) {
+            Preconditions.checkArgument(model instanceof MultiLayerNetwork || model instanceof ComputationGraph,
+                    "Only MultiLayerNetwork and ComputationGraph models are supported, got %s", model.getClass());
+            Preconditions.checkArgument(model.params() != null, "Model must be initialized before mixed precision training");
+            this.model = model;
+        }
+
+        /**
+         * Data type for the forward and backward passes: HALF or BFLOAT16. Default: HALF
+         */
+        public Builder computeDataType(@NonNull DataType dataType) {
+            Preconditions.checkArgument(dataType == DataType.HALF || dataType == DataType.BFLOAT16,
+                    "Compute data type must be HALF or BFLOAT16, got %s", dataType);
+            this.computeDataType = dataType;
+            return this;
+        }
+
+        /**
+         * Initial loss scale. Default: {@link #DEFAULT_INITIAL_LOSS_SCALE} for HALF, 1.0 (no scaling) for BFLOAT16
+         */
+        public Builder initialLossScale(double lossScale) {
+            Preconditions.checkArgument(lossScale > 0, "Loss scale must be positive, got %s", lossScale);
+            this.initialLossScale = lossScale;
+            return this;
+        }
+
+        /**
+         * Whether to adapt the loss scale: divide it by the scale factor when an overflow occurs, and multiply it by
+         * the scale factor after {@code growthInterval} steps without overflow. Default: true for HALF, false for
+         * BFLOAT16
+         */
+        public Builder dynamicLossScaling(boolean dynamicLossScaling) {
+            this.dynamicLossScaling = dynamicLossScaling;
+            return this;
+        }
+
+        /**
+         * @param scaleFactor    Factor to reduce/increase the loss scale by. Default: {@link #DEFAULT_SCALE_FACTOR}
+         * @param growthInterval Number of consecutive steps without overflow before the loss scale is increased.
+         *                       Default: {@link #DEFAULT_SCALE_GROWTH_INTERVAL}
+         */
+        public Builder dynamicLossScaling(double scaleFactor, int growthInterval) {
+            Preconditions.checkArgument(scaleFactor > 1, "Scale factor must be greater than 1, got %s", scaleFactor);
+            Preconditions.checkArgument(growthInterval > 0, "Growth interval must be positive, got %s", growthInterval);
+            this.dynamicLossScaling = true;
+            this.scaleFactor = scaleFactor;
+            this.scaleGrowthInterval = growthInterval;
+            return this;
+        }
+
+        /**
+         * Minimum loss scale for dynamic loss scaling. Default: 1.0
+         */
+        public Builder minLossScale(double minLossScale) {
+            Preconditions.checkArgument(minLossScale > 0, "Minimum loss scale must be positive, got %s", minLossScale);
+            this.minLossScale = minLossScale;
+            return this;
+        }
+
+        public MixedPrecisionTrainer build() {
+            return new MixedPrecisionTrainer(this);
+        }
+    }
+}
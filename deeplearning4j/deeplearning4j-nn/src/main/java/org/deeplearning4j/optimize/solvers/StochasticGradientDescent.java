@@ -24,6 +24,10 @@ import lombok.extern.slf4j.Slf4j;
 import org.deeplearning4j.nn.api.Model;
 import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
 import org.deeplearning4j.nn.gradient.Gradient;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.nn.updater.BaseMultiLayerUpdater;
+import org.deeplearning4j.nn.updater.graph.ComputationGraphUpdater;
 import org.deeplearning4j.nn.workspace.LayerWorkspaceMgr;
 import org.deeplearning4j.optimize.api.StepFunction;
 import org.deeplearning4j.optimize.api.TrainingListener;
@@ -34,10 +38,18 @@ import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.common.primitives.Pair;
 
 import java.util.Collection;
+import java.util.List;
 
 @Slf4j
 public class StochasticGradientDescent extends BaseOptimizer {
 
+    //Gradient accumulation state: sum of the gradients (weighted mean for BatchNorm mean/variance estimates) and of
+    // the scores (weighted by minibatch size) since the last parameter update
+    private INDArray accumulatedGradient;
+    private int accumulatedSteps;
+    private long accumulatedExamples;
+    private double accumulatedScore;
+
 
     public StochasticGradientDescent(NeuralNetConfiguration conf, StepFunction stepFunction,
                                      Collection<TrainingListener> trainingListeners, Model model) {
@@ -47,7 +59,17 @@ public class StochasticGradientDescent extends BaseOptimizer {
 
     @Override
     public boolean optimize(LayerWorkspaceMgr workspaceMgr) {
-        Pair<Gradient, Double> pair = gradientAndScore(workspaceMgr);
+        int accumulationSteps = gradientAccumulationSteps();
+        Pair<Gradient, Double> pair;
+        if (accumulationSteps > 1 || accumulatedSteps > 0) {
+            pair = accumulateGradientAndScore(accumulationSteps, workspaceMgr);
+            if (pair == null) {
+                //Gradient was accumulated: no parameter update yet
+                return true;
+            }
+        } else {
+            pair = gradientAndScore(workspaceMgr);
+        }
 
         Gradient gradient = pair.getFirst();
 
@@ -74,6 +96,94 @@ public class StochasticGradientDescent extends BaseOptimizer {
         return true;
     }
 
+    /**
+     * Compute the gradient for the current minibatch and add it to the accumulated gradient. Once the configured number
+     * of minibatches has been accumulated, the accumulated gradient is placed in the network's gradient view and the
+     * updater is applied, as for a single minibatch with all of the accumulated examples.
+     *
+     * @return The gradient and (weighted average) score if the parameters should be updated now, or null otherwise
+     */
+    protected Pair<Gradient, Double> accumulateGradientAndScore(int accumulationSteps, LayerWorkspaceMgr workspaceMgr) {
+        oldScore = score;
+        model.computeGradientAndScore(workspaceMgr);
+        Pair<Gradient, Double> pair = model.gradientAndScore();
+        INDArray grad = pair.getFirst().gradient();
+        grad = grad.reshape(grad.length());
+        int batchSize = model.batchSize();
+
+        BaseMultiLayerUpdater<?> u = multiLayerUpdater();
+        if (accumulatedGradient == null || accumulatedGradient.length() != grad.length()) {
+            try (MemoryWorkspace ws = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+                accumulatedGradient = Nd4j.zeros(grad.dataType(), grad.length());
+            }
+        }
+        accumulatedGradient.addi(grad);
+        if (batchSize > 1) {
+            //Mean/variance estimates are not summed like gradients, but averaged (weighted by minibatch size)
+            List<INDArray> from = u.getNonMinibatchDivisionSubsets(grad);
+            List<INDArray> to = u.getNonMinibatchDivisionSubsets(accumulatedGradient);
+            for (int i = 0; i < from.size(); i++) {
+                to.get(i).addi(from.get(i).mul(batchSize - 1));
+            }
+        }
+        accumulatedSteps++;
+        accumulatedExamples += batchSize;
+        accumulatedScore += pair.getSecond() * batchSize;
+
+        if (accumulatedSteps < accumulationSteps) {
+            return null;
+        }
+
+        grad.assign(accumulatedGradient);
+        for (INDArray arr : u.getNonMinibatchDivisionSubsets(grad)) {
+            arr.divi(accumulatedExamples);
+        }
+        score = accumulatedScore / accumulatedExamples;
+        int totalExamples = (int) accumulatedExamples;
+        accumulatedGradient.assign(0);
+        accumulatedSteps = 0;
+        accumulatedExamples = 0;
+        accumulatedScore = 0;
+
+        if (model instanceof MultiLayerNetwork) {
+            ((MultiLayerNetwork) model).setScore(score);
+        } else {
+            ((ComputationGraph) model).setScore(score);
+        }
+
+        if (trainingListeners != null && !trainingListeners.isEmpty()) {
+            try (MemoryWorkspace workspace = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+                for (TrainingListener l : trainingListeners) {
+                    l.onGradientCalculation(model);
+                }
+            }
+        }
+
+        updateGradientAccordingToParams(pair.getFirst(), model, totalExamples, workspaceMgr);
+        return new Pair<>(pair.getFirst(), score);
+    }
+
+    protected int gradientAccumulationSteps() {
+        if (model instanceof MultiLayerNetwork) {
+            return ((MultiLayerNetwork) model).getLayerWiseConfigurations().getGradientAccumulationSteps();
+        } else if (model instanceof ComputationGraph) {
+            return ((ComputationGraph) model).getConfiguration().getGradientAccumulationSteps();
+        }
+        return 1;
+    }
+
+    protected BaseMultiLayerUpdater<?> multiLayerUpdater() {
+        try (MemoryWorkspace ws = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+            if (model instanceof ComputationGraph) {
+                if (computationGraphUpdater == null) {
+                    computationGraphUpdater = new ComputationGraphUpdater((ComputationGraph) model);
+                }
+                return computationGraphUpdater;
+            }
+            return (BaseMultiLayerUpdater<?>) getUpdater(true);
+        }
+    }
+
     @Override
     public void preProcessLine() {}
 
@@ -133,8 +133,6 @@ public class ModelSerializer {
      */
     public static void writeModel(@NonNull Model model, @NonNull OutputStream stream, boolean saveUpdater,DataNormalization dataNormalization)
             throws IOException {
-        ZipOutputStream zipfile = new ZipOutputStream(new CloseShieldOutputStream(stream));
-
         // Save configuration as JSON
         String json = "";
         if (model instanceof MultiLayerNetwork) {
@@ -143,18 +141,46 @@ public class ModelSerializer {
             json = ((ComputationGraph) model).getConfiguration().toJson();
         }
 
+        INDArray updaterState = null;
+        if (saveUpdater) {
+            if (model instanceof MultiLayerNetwork) {
+                updaterState = ((MultiLayerNetwork) model).getUpdater().getStateViewArray();
+            } else if (model instanceof ComputationGraph) {
+                updaterState = ((ComputationGraph) model).getUpdater().getStateViewArray();
+            }
+        }
+
+        writeModel(json, model.params(), updaterState, stream, dataNormalization);
+    }
+
+    /**
+     * Write a model to an output stream, given its configuration JSON, parameters and updater state.<br>
+     * This allows a snapshot of a model (for example, copies of the parameters and updater state) to be written without
+     * access to the model itself - for example, on a background thread while the original model continues training.
+     *
+     * @param configJson        the model configuration, as returned by {@link MultiLayerConfiguration#toJson()} or
+     *                          {@link ComputationGraphConfiguration#toJson()}
+     * @param params            the model parameters (may be null)
+     * @param updaterState      the updater state view array (may be null: updater state is not saved)
+     * @param stream            the output stream to write to
+     * @param dataNormalization the normalizer to save (may be null)
+     * @throws IOException
+     */
+    public static void writeModel(@NonNull String configJson, INDArray params, INDArray updaterState,
+                                  @NonNull OutputStream stream, DataNormalization dataNormalization) throws IOException {
+        ZipOutputStream zipfile = new ZipOutputStream(new CloseShieldOutputStream(stream));
+
         ZipEntry config = new ZipEntry(CONFIGURATION_JSON);
         zipfile.putNextEntry(config);
-        zipfile.write(json.getBytes());
+        zipfile.write(configJson.getBytes());
 
         // Save parameters as binary
         ZipEntry coefficients = new ZipEntry(COEFFICIENTS_BIN);
         zipfile.putNextEntry(coefficients);
         DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(zipfile));
-        INDArray params = model.params();
         if(params != null) {
             try {
-                Nd4j.write(model.params(), dos);
+                Nd4j.write(params, dos);
             } finally {
                 dos.flush();
             }
@@ -163,23 +189,14 @@ public class ModelSerializer {
             zipfile.putNextEntry(noParamsMarker);
         }
 
-        if (saveUpdater) {
-            INDArray updaterState = null;
-            if (model instanceof MultiLayerNetwork) {
-                updaterState = ((MultiLayerNetwork) model).getUpdater().getStateViewArray();
-            } else if (model instanceof ComputationGraph) {
-                updaterState = ((ComputationGraph) model).getUpdater().getStateViewArray();
-            }
+        if (updaterState != null && updaterState.length() > 0) {
+            ZipEntry updater = new ZipEntry(UPDATER_BIN);
+            zipfile.putNextEntry(updater);
 
-            if (updaterState != null && updaterState.length() > 0) {
-                ZipEntry updater = new ZipEntry(UPDATER_BIN);
-                zipfile.putNextEntry(updater);
-
-                try {
-                    Nd4j.write(updaterState, dos);
-                } finally {
-                    dos.flush();
-                }
+            try {
+                Nd4j.write(updaterState, dos);
+            } finally {
+                dos.flush();
             }
         }
 
@@ -0,0 +1,164 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.deeplearning4j.parallelism;
+
+import lombok.NonNull;
+import org.nd4j.common.base.Preconditions;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free, bounded ring buffer used to exchange encoded updates between model replicas: any number of producers,
+ * and a fixed number of consumers, each of which receives every message published (including its own - consumers
+ * can skip these using {@link Consumer#accept(int, INDArray)}'s source argument).<br>
+ * Each consumer has its own read cursor. Publishing blocks (spins) while the slowest active consumer is
+ * {@code capacity} messages behind, so no message is overwritten before all active consumers have read it. To avoid
+ * deadlocks when replicas both publish and consume, a callback is executed while waiting, which should drain the
+ * publishing thread's own consumer.
+ */
+public class EncodedUpdatesRingBuffer {
+    private static final long INACTIVE = Long.MAX_VALUE;
+
+    private final AtomicReferenceArray<Message> slots;
+    private final int capacity;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLongArray cursors;
+
+    /**
+     * @param capacity  Capacity (maximum number of unread messages). Rounded up to the next power of 2
+     * @param consumers Number of consumers
+     */
+    public EncodedUpdatesRingBuffer(int capacity, int consumers) {
+        Preconditions.checkArgument(capacity > 0 && capacity <= (1 << 30), "Invalid capacity: %s", capacity);
+        Preconditions.checkArgument(consumers > 0, "Number of consumers must be positive, got %s", consumers);
+        this.capacity = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        this.mask = this.capacity - 1;
+        this.slots = new AtomicReferenceArray<>(this.capacity);
+        this.cursors = new AtomicLongArray(consumers);
+    }
+
+    /**
+     * Publish a message, waiting if required until all active consumers have read the message previously held by its
+     * slot
+     *
+     * @param source       Id of the publisher
+     * @param encoded      Encoded update
+     * @param whileWaiting Executed repeatedly while waiting for consumers. May be null
+     */
+    public void publish(int source, @NonNull INDArray encoded, Runnable whileWaiting) {
+        while (true) {
+            long h = head.get();
+            if (h - minCursor() >= capacity) {
+                if (whileWaiting != null)
+                    whileWaiting.run();
+                Thread.yield();
+                continue;
+            }
+            if (head.compareAndSet(h, h + 1)) {
+                slots.set((int) (h & mask), new Message(h, source, encoded));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Read all messages available to the specified consumer, in publication order
+     *
+     * @param consumer Consumer id
+     * @param fn       Function to apply to each message
+     * @return Number of messages read
+     */
+    public int drain(int consumer, @NonNull Consumer fn) {
+        long c = cursors.get(consumer);
+        if (c == INACTIVE)
+            return 0;
+        int count = 0;
+        while (true) {
+            Message m = slots.get((int) (c & mask));
+            //Null or older message: not yet published
+            if (m == null || m.sequence != c)
+                break;
+            fn.accept(m.source, m.encoded);
+            cursors.set(consumer, ++c);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Deactivate a consumer: publishers no longer wait for it to read messages. Messages published while a consumer is
+     * inactive are never delivered to it
+     */
+    public void deactivate(int consumer) {
+        cursors.set(consumer, INACTIVE);
+    }
+
+    /**
+     * (Re)activate a consumer, if it is not active. The consumer receives all messages published after this call
+     */
+    public void activate(int consumer) {
+        if (cursors.get(consumer) == INACTIVE)
+            cursors.set(consumer, head.get());
+    }
+
+    /**
+     * @return Total number of messages published so far
+     */
+    public long published() {
+        return head.get();
+    }
+
+    /**
+     * @return Number of messages not yet read by the specified consumer
+     */
+    public long pending(int consumer) {
+        long c = cursors.get(consumer);
+        return c == INACTIVE ? 0 : head.get() - c;
+    }
+
+    private long minCursor() {
+        long min = INACTIVE;
+        for (int i = 0; i < cursors.length(); i++) {
+            min = Math.min(min, cursors.get(i));
+        }
+        return min;
+    }
+
+    public interface Consumer {
+        void accept(int source, INDArray encoded);
+    }
+
+    private static class Message {
+        private final long sequence;
+        private final int source;
+        private final INDArray encoded;
+
+        private Message(long sequence, int source, INDArray encoded) {
+            this.sequence = sequence;
+            this.source = source;
+            this.encoded = encoded;
+        }
+    }
+}
@@ -0,0 +1,951 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.deeplearning4j.parallelism;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.nn.conf.BackpropType;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.graph.util.ComputationGraphUtil;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.optimize.api.BaseTrainingListener;
+import org.deeplearning4j.optimize.api.TrainingListener;
+import org.nd4j.common.base.Preconditions;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.compression.ThresholdCompression;
+import org.nd4j.linalg.dataset.AsyncDataSetIterator;
+import org.nd4j.linalg.dataset.AsyncMultiDataSetIterator;
+import org.nd4j.linalg.dataset.api.DataSet;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Data parallel training of a {@link MultiLayerNetwork} or {@link ComputationGraph} on a single machine, using
+ * one model replica per worker thread.<br>
+ * Minibatches are prefetched from the source iterator, and each training round distributes one minibatch to each
+ * worker. The first worker trains the original model (in the calling thread), the other workers train replicas of it.
+ * Two training modes are supported - see {@link TrainingMode}:<br>
+ * - {@link TrainingMode#SHARED_GRADIENTS}: synchronous training. The gradients of all workers are combined into the
+ * flattened gradients view of the original model before its updater is applied, and the replicas copy the updated
+ * parameters at the start of the next round. This is equivalent to training with a minibatch of
+ * {@code workers x batchSize} examples.<br>
+ * - {@link TrainingMode#AVERAGING}: each worker fits its own replica, and the parameters (and optionally the updater
+ * state) of all replicas are averaged every {@code averagingFrequency} rounds.<br>
+ * - {@link TrainingMode#THRESHOLD_SHARING}: asynchronous training. Workers fetch minibatches independently, and after
+ * each iteration share their parameter updates with the other workers as sparse, threshold encoded messages (see
+ * {@link ThresholdCompression}) via a lock-free {@link EncodedUpdatesRingBuffer}. Each worker applies its own updates
+ * in full; update values below the threshold are accumulated in a per-worker residual until they are shared, and the
+ * threshold is adapted to keep the fraction of encoded values within the configured sparsity range. This avoids dense
+ * parameter/gradient exchange, which is particularly beneficial for large models with sparse updates, such as those
+ * dominated by embedding layers.<br>
+ * <br>
+ * Usage:
+ * <pre>
+ * {@code
+ * ParallelWrapper wrapper = new ParallelWrapper.Builder(net)
+ *          .workers(4)
+ *          .prefetchBuffer(8)
+ *          .trainingMode(ParallelWrapper.TrainingMode.SHARED_GRADIENTS)
+ *          .build();
+ * for (int i = 0; i < numEpochs; i++) {
+ *     wrapper.fit(trainData);
+ * }
+ * wrapper.shutdown();
+ * }
+ * </pre>
+ * Training listeners of the original model are called as per a standard fit call; replicas have no listeners.<br>
+ * Note that a ParallelWrapper instance should be used for only one model, and the model should not be fit by other
+ * means while the wrapper is in use.
+ */
+@Slf4j
+public class ParallelWrapper implements AutoCloseable {
+
+    public enum TrainingMode {
+        /**
+         * Each worker trains its own replica; the parameters are averaged every {@code averagingFrequency} rounds
+         */
+        AVERAGING,
+        /**
+         * Synchronous data parallel training: the gradients of all workers are combined, and a single update is
+         * applied to the original model in each round
+         */
+        SHARED_GRADIENTS,
+        /**
+         * Asynchronous training: each worker trains its own replica, and the updates of each worker are shared with
+         * all other workers as sparse threshold encoded updates after each iteration
+         */
+        THRESHOLD_SHARING
+    }
+
+    public final static int DEFAULT_NUM_WORKERS = Math.max(2, Nd4j.getAffinityManager().getNumberOfDevices());
+    public final static int DEFAULT_PREFETCH_BUFFER = 16;
+    public final static int DEFAULT_AVERAGING_FREQUENCY = 1;
+    public final static TrainingMode DEFAULT_TRAINING_MODE = TrainingMode.SHARED_GRADIENTS;
+    public final static double DEFAULT_INITIAL_THRESHOLD = 1e-3;
+    public final static double DEFAULT_MIN_SPARSITY = 1e-3;
+    public final static double DEFAULT_MAX_SPARSITY = 1e-2;
+    public final static int DEFAULT_UPDATES_BUFFER = 128;
+    /**
+     * Multiplicative threshold adjustment per iteration, when the fraction of encoded values is outside of the target
+     * sparsity range
+     */
+    protected final static double THRESHOLD_DECAY = 0.965936;
+
+    @Getter
+    protected Model model;
+    @Getter
+    protected int workers;
+    protected int prefetchBuffer;
+    protected int averagingFrequency;
+    protected boolean averageUpdaters;
+    @Getter
+    protected TrainingMode trainingMode;
+    protected double initialThreshold;
+    protected double minSparsity;
+    protected double maxSparsity;
+    protected int updatesBuffer;
+
+    private TrainerWorker[] zoo;
+    private int roundsSinceAveraging;
+    private volatile Round currentRound;
+    private EncodedUpdatesRingBuffer updatesRing;
+    private ThresholdState[] thresholdStates;
+
+    protected ParallelWrapper() {
+        //
+    }
+
+    protected void init() {
+        Preconditions.checkState(model instanceof MultiLayerNetwork || model instanceof ComputationGraph,
+                "Only MultiLayerNetwork and ComputationGraph models are supported, got %s", model.getClass());
+        Preconditions.checkState(model.params() != null, "Model has not been initialized: call init() before training");
+        if (trainingMode == TrainingMode.SHARED_GRADIENTS) {
+            BackpropType bp = model instanceof MultiLayerNetwork ?
+                    ((MultiLayerNetwork) model).getLayerWiseConfigurations().getBackpropType() :
+                    ((ComputationGraph) model).getConfiguration().getBackpropType();
+            Preconditions.checkState(bp != BackpropType.TruncatedBPTT, "Truncated BPTT is not supported with training " +
+                    "mode SHARED_GRADIENTS: use training mode AVERAGING instead");
+        }
+
+        if (trainingMode == TrainingMode.THRESHOLD_SHARING) {
+            updatesRing = new EncodedUpdatesRingBuffer(updatesBuffer, workers);
+            thresholdStates = new ThresholdState[workers];
+        }
+
+        int numDevices = Nd4j.getAffinityManager().getNumberOfDevices();
+        //Worker 0 is the calling thread, training the original model
+        zoo = new TrainerWorker[workers - 1];
+        for (int i = 0; i < zoo.length; i++) {
+            zoo[i] = new TrainerWorker(i + 1, (i + 1) % numDevices);
+            zoo[i].setDaemon(true);
+            zoo[i].start();
+        }
+        for (TrainerWorker w : zoo) {
+            w.awaitReady();
+        }
+    }
+
+    /**
+     * Fit the model for one epoch on the given data
+     *
+     * @param source Training data
+     */
+    public synchronized void fit(@NonNull DataSetIterator source) {
+        checkOpen();
+        DataSetIterator iter = source;
+        if (!iter.hasNext() && iter.resetSupported()) {
+            iter.reset();
+        }
+        boolean destructable = false;
+        if (prefetchBuffer > 0 && iter.asyncSupported()) {
+            iter = new AsyncDataSetIterator(iter, prefetchBuffer, false);
+            destructable = true;
+        }
+        try {
+            fitHelper(iter::hasNext, iter::next);
+        } finally {
+            if (destructable)
+                ((AsyncDataSetIterator) iter).shutdown();
+        }
+    }
+
+    /**
+     * Fit the model for one epoch on the given data. Only supported for ComputationGraph models
+     *
+     * @param source Training data
+     */
+    public synchronized void fit(@NonNull MultiDataSetIterator source) {
+        checkOpen();
+        Preconditions.checkState(model instanceof ComputationGraph, "MultiDataSetIterator can only be used to fit " +
+                "ComputationGraph models, got %s", model.getClass());
+        MultiDataSetIterator iter = source;
+        if (!iter.hasNext() && iter.resetSupported()) {
+            iter.reset();
+        }
+        boolean destructable = false;
+        if (prefetchBuffer > 0 && iter.asyncSupported()) {
+            iter = new AsyncMultiDataSetIterator(iter, prefetchBuffer, false);
+            destructable = true;
+        }
+        try {
+            fitHelper(iter::hasNext, iter::next);
+        } finally {
+            if (destructable)
+                ((AsyncMultiDataSetIterator) iter).shutdown();
+        }
+    }
+
+    protected void fitHelper(BooleanSupplier hasNext, Supplier<Object> next) {
+        List<TrainingListener> listeners = new ArrayList<>(listeners(model));
+        for (TrainingListener tl : listeners) {
+            tl.onEpochStart(model);
+        }
+
+        //Gradient sharing: the original model is trained with an additional listener, that combines the gradients
+        // of all workers after the gradient calculation, but before the updater is applied
+        //Threshold sharing: the additional listener shares the update after each iteration
+        TrainingListener sharing = null;
+        if (trainingMode == TrainingMode.SHARED_GRADIENTS) {
+            sharing = new GradientSharingListener();
+        } else if (trainingMode == TrainingMode.THRESHOLD_SHARING) {
+            sharing = new ThresholdSharingListener(0);
+        }
+        if (sharing != null) {
+            List<TrainingListener> withSharing = new ArrayList<>();
+            withSharing.add(sharing);
+            withSharing.addAll(listeners);
+            model.setListeners(withSharing);
+        }
+
+        try {
+            if (trainingMode == TrainingMode.THRESHOLD_SHARING) {
+                runJob(new AsyncEpoch(new BatchSource(hasNext, next), workers));
+            } else {
+                fitRounds(hasNext, next);
+            }
+        } finally {
+            if (sharing != null) {
+                model.setListeners(listeners);
+            }
+        }
+
+        for (TrainingListener tl : listeners) {
+            tl.onEpochEnd(model);
+        }
+        incrementEpochCount(model);
+        for (TrainerWorker w : zoo) {
+            incrementEpochCount(w.replica);
+        }
+    }
+
+    private void fitRounds(BooleanSupplier hasNext, Supplier<Object> next) {
+        while (hasNext.getAsBoolean()) {
+            Object[] batches = new Object[workers];
+            int count = 0;
+            while (count < workers && hasNext.getAsBoolean()) {
+                Object b = next.get();
+                if (b == null || features(b) == null)
+                    break;
+                batches[count++] = b;
+            }
+            if (count == 0)
+                break;
+
+            runRound(new Round(batches, count));
+
+            if (trainingMode == TrainingMode.AVERAGING && ++roundsSinceAveraging >= averagingFrequency) {
+                averageModels();
+            }
+        }
+
+        if (trainingMode == TrainingMode.AVERAGING && roundsSinceAveraging > 0) {
+            averageModels();
+        }
+    }
+
+    private void runRound(Round round) {
+        currentRound = round;
+        try {
+            runJob(round);
+        } finally {
+            currentRound = null;
+        }
+    }
+
+    /**
+     * Execute the job on the first {@code job.workers} workers, using the calling thread for worker 0
+     */
+    private void runJob(Job job) {
+        for (int i = 1; i < job.workers; i++) {
+            zoo[i - 1].queue.add(job);
+        }
+
+        try {
+            job.run(0, model);
+        } catch (Throwable t) {
+            job.error = t;
+        } finally {
+            job.awaitDone();
+        }
+        job.rethrow();
+    }
+
+    /**
+     * Average the parameters (and updater state, if enabled) of all replicas into the original model, and copy the
+     * result back to the replicas
+     */
+    private void averageModels() {
+        roundsSinceAveraging = 0;
+        if (zoo.length == 0)
+            return;
+
+        INDArray params = model.params();
+        for (TrainerWorker w : zoo) {
+            params.addi(w.replica.params());
+        }
+        params.divi(workers);
+        for (TrainerWorker w : zoo) {
+            w.replica.params().assign(params);
+        }
+
+        if (averageUpdaters) {
+            INDArray state = updaterState(model);
+            if (state != null) {
+                for (TrainerWorker w : zoo) {
+                    state.addi(updaterState(w.replica));
+                }
+                state.divi(workers);
+                for (TrainerWorker w : zoo) {
+                    updaterState(w.replica).assign(state);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop the worker threads. The wrapper cannot be used after calling this method
+     */
+    public synchronized void shutdown() {
+        if (zoo == null)
+            return;
+        for (TrainerWorker w : zoo) {
+            w.shutdown();
+        }
+        zoo = null;
+    }
+
+    @Override
+    public void close() {
+        shutdown();
+    }
+
+    private void checkOpen() {
+        Preconditions.checkState(zoo != null, "ParallelWrapper has been shut down");
+    }
+
+    /**
+     * @return The model of each worker: the original model for worker 0, followed by the replicas
+     */
+    Model[] workerModels() {
+        checkOpen();
+        Model[] out = new Model[workers];
+        out[0] = model;
+        for (int i = 0; i < zoo.length; i++) {
+            out[i + 1] = zoo[i].replica;
+        }
+        return out;
+    }
+
+    /**
+     * @return The residual (local updates not yet shared) of the specified worker, or null if the worker has not
+     * shared any updates. {@link TrainingMode#THRESHOLD_SHARING} only
+     */
+    INDArray residual(int workerId) {
+        ThresholdState s = thresholdStates == null ? null : thresholdStates[workerId];
+        return s == null ? null : s.residual;
+    }
+
+
+    protected static Collection<TrainingListener> listeners(Model model) {
+        if (model instanceof MultiLayerNetwork)
+            return ((MultiLayerNetwork) model).getListeners();
+        return ((ComputationGraph) model).getListeners();
+    }
+
+    protected static INDArray gradients(Model model) {
+        if (model instanceof MultiLayerNetwork)
+            return ((MultiLayerNetwork) model).getGradientsViewArray();
+        return ((ComputationGraph) model).getGradientsViewArray();
+    }
+
+    protected static INDArray updaterState(Model model) {
+        if (model instanceof MultiLayerNetwork)
+            return ((MultiLayerNetwork) model).getUpdater().getStateViewArray();
+        return ((ComputationGraph) model).getUpdater().getStateViewArray();
+    }
+
+    protected static void incrementEpochCount(Model model) {
+        if (model instanceof MultiLayerNetwork)
+            ((MultiLayerNetwork) model).incrementEpochCount();
+        else
+            ((ComputationGraph) model).incrementEpochCount();
+    }
+
+    private static INDArray[] features(Object batch) {
+        if (batch instanceof DataSet) {
+            INDArray f = ((DataSet) batch).getFeatures();
+            return f == null ? null : new INDArray[]{f};
+        }
+        return ((MultiDataSet) batch).getFeatures();
+    }
+
+    private static long numExamples(Object batch) {
+        return features(batch)[0].size(0);
+    }
+
+    protected static void fit(Model model, Object batch) {
+        if (model instanceof MultiLayerNetwork) {
+            ((MultiLayerNetwork) model).fit((DataSet) batch);
+        } else if (batch instanceof DataSet) {
+            ((ComputationGraph) model).fit((DataSet) batch);
+        } else {
+            ((ComputationGraph) model).fit((MultiDataSet) batch);
+        }
+    }
+
+    /**
+     * Calculate the gradients (into the flattened gradients view) and score for one minibatch, without updating the
+     * parameters
+     */
+    protected static void computeGradientAndScore(Model model, Object batch) {
+        if (model instanceof MultiLayerNetwork) {
+            MultiLayerNetwork net = (MultiLayerNetwork) model;
+            DataSet ds = (DataSet) batch;
+            net.setLayerMaskArrays(ds.getFeaturesMaskArray(), ds.getLabelsMaskArray());
+            net.setInput(ds.getFeatures());
+            net.setLabels(ds.getLabels());
+            try {
+                net.computeGradientAndScore();
+            } finally {
+                net.clearLayerMaskArrays();
+            }
+        } else {
+            ComputationGraph net = (ComputationGraph) model;
+            MultiDataSet mds = batch instanceof DataSet ? ComputationGraphUtil.toMultiDataSet((DataSet) batch) : (MultiDataSet) batch;
+            net.setLayerMaskArrays(mds.getFeaturesMaskArrays(), mds.getLabelsMaskArrays());
+            net.setInputs(mds.getFeatures());
+            net.setLabels(mds.getLabels());
+            try {
+                net.computeGradientAndScore();
+            } finally {
+                net.clearLayerMaskArrays();
+            }
+        }
+    }
+
+    protected static void setScore(Model model, double score) {
+        if (model instanceof MultiLayerNetwork)
+            ((MultiLayerNetwork) model).setScore(score);
+        else
+            ((ComputationGraph) model).setScore(score);
+    }
+
+    /**
+     * Create a replica of the model, with the same parameters and updater state, but no listeners
+     */
+    protected static Model replicate(Model model) {
+        Model replica;
+        if (model instanceof MultiLayerNetwork) {
+            MultiLayerNetwork net = (MultiLayerNetwork) model;
+            MultiLayerNetwork r = new MultiLayerNetwork(net.getLayerWiseConfigurations().clone());
+            r.init(net.params().dup(), false);
+            replica = r;
+        } else {
+            ComputationGraph net = (ComputationGraph) model;
+            ComputationGraph r = new ComputationGraph(net.getConfiguration().clone());
+            r.init(net.params().dup(), false);
+            replica = r;
+        }
+
+        INDArray state = updaterState(model);
+        if (state != null) {
+            updaterState(replica).assign(state);
+        }
+        return replica;
+    }
+
+    /**
+     * Work to be executed by a number of workers. Worker 0 (the calling thread) is not counted in the latch
+     */
+    private abstract static class Job {
+        protected final int workers;
+        protected final CountDownLatch done;
+        protected volatile Throwable error;
+
+        protected Job(int workers) {
+            this.workers = workers;
+            this.done = new CountDownLatch(workers - 1);
+        }
+
+        protected abstract void run(int workerId, Model m) throws Exception;
+
+        private void awaitDone() {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for workers", e);
+            }
+        }
+
+        private void rethrow() {
+            if (error != null)
+                throw new RuntimeException("Exception in ParallelWrapper worker thread", error);
+        }
+    }
+
+    /**
+     * A single synchronous training round: one minibatch per worker, batch 0 being used for the original model
+     */
+    private class Round extends Job {
+        private final Object[] batches;
+        private final int count;
+
+        private Round(Object[] batches, int count) {
+            super(count);
+            this.batches = batches;
+            this.count = count;
+        }
+
+        @Override
+        protected void run(int workerId, Model m) {
+            Object batch = batches[workerId];
+            if (workerId == 0 || trainingMode != TrainingMode.SHARED_GRADIENTS) {
+                fit(m, batch);
+            } else {
+                //The original model isn't updated until all gradients are available: safe to read here
+                m.params().assign(model.params());
+                computeGradientAndScore(m, batch);
+            }
+        }
+    }
+
+    /**
+     * Minibatches shared between asynchronous workers
+     */
+    private static class BatchSource {
+        private final BooleanSupplier hasNext;
+        private final Supplier<Object> next;
+        private boolean exhausted;
+
+        private BatchSource(BooleanSupplier hasNext, Supplier<Object> next) {
+            this.hasNext = hasNext;
+            this.next = next;
+        }
+
+        private synchronized Object next() {
+            if (exhausted || !hasNext.getAsBoolean()) {
+                exhausted = true;
+                return null;
+            }
+            Object b = next.get();
+            if (b == null || features(b) == null) {
+                exhausted = true;
+                return null;
+            }
+            return b;
+        }
+    }
+
+    /**
+     * One epoch of asynchronous training with threshold encoded update sharing: each worker fits its replica on
+     * minibatches from the shared source until it is exhausted. Workers that finish early keep applying the updates
+     * of the other workers, until all workers are done: all replicas thus receive all updates
+     */
+    private class AsyncEpoch extends Job {
+        private final BatchSource source;
+        private final AtomicInteger active;
+
+        private AsyncEpoch(BatchSource source, int workers) {
+            super(workers);
+            this.source = source;
+            this.active = new AtomicInteger(workers);
+        }
+
+        @Override
+        protected void run(int workerId, Model m) {
+            if (workerId > 0) {
+                m.setListeners(Collections.singletonList(new ThresholdSharingListener(workerId)));
+            }
+            updatesRing.activate(workerId);
+            boolean finished = false;
+            try {
+                Object batch;
+                while (error == null && (batch = source.next()) != null) {
+                    fit(m, batch);
+                }
+                finished = true;
+            } finally {
+                if (!finished) {
+                    //Don't block the other workers
+                    updatesRing.deactivate(workerId);
+                }
+                active.decrementAndGet();
+            }
+
+            while (active.get() > 0 && error == null) {
+                applyUpdates(workerId, m);
+                LockSupport.parkNanos(100_000);
+            }
+            applyUpdates(workerId, m);
+        }
+    }
+
+    /**
+     * Apply the updates of all other workers published since the last call
+     */
+    private void applyUpdates(int workerId, Model m) {
+        INDArray params = m.params();
+        updatesRing.drain(workerId, (source, encoded) -> {
+            if (source != workerId)
+                ThresholdCompression.decode(encoded, params);
+        });
+    }
+
+    /**
+     * Per worker state for threshold encoding: residual, and current (adaptive) threshold
+     */
+    private static class ThresholdState {
+        private final INDArray residual;
+        private double threshold;
+
+        private ThresholdState(INDArray residual, double threshold) {
+            this.residual = residual;
+            this.threshold = threshold;
+        }
+    }
+
+    /**
+     * Combines the gradients of all workers into the original model's gradients view. Invoked after the gradient
+     * calculation for the original model, before its updater is applied.<br>
+     * The gradients calculated by DL4J models are summed (not averaged) over the examples in the minibatch; the
+     * updater divides them by the original model's minibatch size. The combined gradient is therefore scaled so that
+     * the update matches a single minibatch containing the examples of all workers.
+     */
+    private class GradientSharingListener extends BaseTrainingListener {
+        @Override
+        public void onGradientCalculation(Model m) {
+            Round round = currentRound;
+            if (round == null || round.count == 1)
+                return;
+            round.awaitDone();
+            round.rethrow();
+
+            long n0 = numExamples(round.batches[0]);
+            long total = n0;
+            double score = m.score() * n0;
+            INDArray g = gradients(m);
+            for (int i = 1; i < round.count; i++) {
+                Model r = zoo[i - 1].replica;
+                long n = numExamples(round.batches[i]);
+                g.addi(gradients(r));
+                score += r.score() * n;
+                total += n;
+            }
+            g.muli((double) n0 / total);
+            setScore(m, score / total);
+        }
+    }
+
+    /**
+     * Shares the update of each iteration with the other workers. Invoked after the update has been applied to the
+     * parameters of the worker's model.<br>
+     * The update is kept in the local parameters, and added to the worker's residual: the residual thus holds the
+     * local updates that have not yet been published. The residual is then threshold encoded, and the encoded
+     * (quantized) update is published. Finally, the updates published by other workers are applied. Each replica
+     * therefore differs from the shared state only by its own residual, without any dense exchange.
+     */
+    private class ThresholdSharingListener extends BaseTrainingListener {
+        private final int workerId;
+
+        private ThresholdSharingListener(int workerId) {
+            this.workerId = workerId;
+        }
+
+        @Override
+        public void iterationDone(Model m, int iteration, int epoch) {
+            INDArray params = m.params();
+            ThresholdState s = thresholdStates[workerId];
+            if (s == null) {
+                s = new ThresholdState(Nd4j.zeros(params.dataType(), params.shape()), initialThreshold);
+                thresholdStates[workerId] = s;
+            }
+
+            //Step function: params -= update. Accumulate the same parameter change in the residual
+            s.residual.subi(gradients(m));
+
+            INDArray encoded = ThresholdCompression.encode(s.residual, s.threshold);
+            double fraction = encoded == null ? 0.0 : ThresholdCompression.numEncoded(encoded) / (double) params.length();
+            if (fraction > maxSparsity) {
+                s.threshold /= THRESHOLD_DECAY;
+            } else if (fraction < minSparsity) {
+                s.threshold *= THRESHOLD_DECAY;
+            }
+
+            if (encoded != null) {
+                updatesRing.publish(workerId, encoded, () -> applyUpdates(workerId, m));
+            }
+            applyUpdates(workerId, m);
+        }
+    }
+
+    /**
+     * Worker thread, training one replica of the model
+     */
+    private class TrainerWorker extends Thread {
+        private final BlockingQueue<Job> queue = new LinkedBlockingQueue<>();
+        private final CountDownLatch ready = new CountDownLatch(1);
+        private final int id;
+        private final int deviceId;
+        private volatile Model replica;
+        private volatile Throwable initError;
+        private volatile boolean shouldWork = true;
+
+        private TrainerWorker(int id, int deviceId) {
+            this.id = id;
+            this.deviceId = deviceId;
+            setName("ParallelWrapper trainer " + id);
+        }
+
+        private void awaitReady() {
+            try {
+                ready.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            if (initError != null)
+                throw new RuntimeException("Failed to initialize model replica for worker " + id, initError);
+        }
+
+        @Override
+        public void run() {
+            Nd4j.getAffinityManager().unsafeSetDevice(deviceId);
+            try {
+                //Replicas are created in the worker thread, to place them on the worker's device
+                replica = replicate(model);
+                Nd4j.getExecutioner().commit();
+            } catch (Throwable t) {
+                initError = t;
+                return;
+            } finally {
+                ready.countDown();
+            }
+
+            while (shouldWork) {
+                Job job;
+                try {
+                    job = queue.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+
+                try {
+                    job.run(id, replica);
+                    Nd4j.getExecutioner().commit();
+                } catch (Throwable t) {
+                    log.error("Exception in ParallelWrapper worker {}", id, t);
+                    job.error = t;
+                } finally {
+                    job.done.countDown();
+                }
+            }
+        }
+
+        private void shutdown() {
+            shouldWork = false;
+            interrupt();
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public static class Builder {
+        private final Model model;
+        private int workers = DEFAULT_NUM_WORKERS;
+        private int prefetchBuffer = DEFAULT_PREFETCH_BUFFER;
+        private int averagingFrequency = DEFAULT_AVERAGING_FREQUENCY;
+        private boolean averageUpdaters = true;
+        private TrainingMode trainingMode = DEFAULT_TRAINING_MODE;
+        private double initialThreshold = DEFAULT_INITIAL_THRESHOLD;
+        private double minSparsity = DEFAULT_MIN_SPARSITY;
+        private double maxSparsity = DEFAULT_MAX_SPARSITY;
+        private int updatesBuffer = DEFAULT_UPDATES_BUFFER;
+
+        /**
+         * @param model Model to train. Must be an initialized MultiLayerNetwork or ComputationGraph
+         */
+        public Builder(@NonNull Model model) {
+            this.model = model;
+        }
+
+        /**
+         * Number of workers (model replicas, including the original model) to train with.
+         *
+         * @param workers Number of workers. Default: max(2, number of devices)
+         */
+        public Builder workers(int workers) {
+            if (workers < 1)
+                throw new IllegalStateException("Workers should be positive value");
+
+            this.workers = workers;
+            return this;
+        }
+
+        /**
+         * Number of minibatches to prefetch asynchronously from the source iterator. 0 disables prefetching.
+         * For best performance, this should be at least the number of workers.
+         *
+         * @param prefetchBuffer Prefetch buffer size. Default: 16
+         */
+        public Builder prefetchBuffer(int prefetchBuffer) {
+            if (prefetchBuffer < 0)
+                throw new IllegalStateException("Prefetch buffer should be non-negative value");
+
+            this.prefetchBuffer = prefetchBuffer;
+            return this;
+        }
+
+        /**
+         * Number of rounds (of one minibatch per worker) between parameter averaging. Only used in
+         * {@link TrainingMode#AVERAGING} mode
+         *
+         * @param frequency Averaging frequency. Default: 1
+         */
+        public Builder averagingFrequency(int frequency) {
+            if (frequency < 1)
+                throw new IllegalStateException("Averaging frequency should be positive value");
+
+            this.averagingFrequency = frequency;
+            return this;
+        }
+
+        /**
+         * Whether the updater state (momentum etc) should also be averaged. Only used in {@link TrainingMode#AVERAGING}
+         * mode
+         *
+         * @param averageUpdaters If true: average updater state. Default: true
+         */
+        public Builder averageUpdaters(boolean averageUpdaters) {
+            this.averageUpdaters = averageUpdaters;
+            return this;
+        }
+
+        /**
+         * @param trainingMode Training mode. Default: {@link TrainingMode#SHARED_GRADIENTS}
+         */
+        public Builder trainingMode(@NonNull TrainingMode trainingMode) {
+            this.trainingMode = trainingMode;
+            return this;
+        }
+
+        /**
+         * Initial encoding threshold. Only used in {@link TrainingMode#THRESHOLD_SHARING} mode
+         *
+         * @param threshold Initial threshold. Default: 1e-3
+         */
+        public Builder initialThreshold(double threshold) {
+            if (threshold <= 0)
+                throw new IllegalStateException("Threshold should be positive value");
+
+            this.initialThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * Target range for the fraction of update values encoded in each iteration. The encoding threshold is
+         * decreased if fewer values are encoded, and increased if more values are encoded. Only used in
+         * {@link TrainingMode#THRESHOLD_SHARING} mode
+         *
+         * @param minSparsity Minimum fraction of encoded values. Default: 1e-3
+         * @param maxSparsity Maximum fraction of encoded values. Default: 1e-2
+         */
+        public Builder targetSparsity(double minSparsity, double maxSparsity) {
+            if (minSparsity < 0 || maxSparsity > 1 || minSparsity > maxSparsity)
+                throw new IllegalStateException("Invalid target sparsity range: " + minSparsity + " to " + maxSparsity);
+
+            this.minSparsity = minSparsity;
+            this.maxSparsity = maxSparsity;
+            return this;
+        }
+
+        /**
+         * Capacity of the buffer of encoded updates shared between workers: the maximum number of updates that the
+         * slowest worker may be behind before other workers wait for it. Only used in
+         * {@link TrainingMode#THRESHOLD_SHARING} mode
+         *
+         * @param updatesBuffer Buffer size. Default: 128
+         */
+        public Builder updatesBuffer(int updatesBuffer) {
+            if (updatesBuffer < 1)
+                throw new IllegalStateException("Updates buffer should be positive value");
+
+            this.updatesBuffer = updatesBuffer;
+            return this;
+        }
+
+        public ParallelWrapper build() {
+            ParallelWrapper wrapper = new ParallelWrapper();
+            wrapper.model = this.model;
+            wrapper.workers = this.workers;
+            wrapper.prefetchBuffer = this.prefetchBuffer;
+            wrapper.averagingFrequency = this.averagingFrequency;
+            wrapper.averageUpdaters = this.averageUpdaters;
+            wrapper.trainingMode = this.trainingMode;
+            wrapper.initialThreshold = this.initialThreshold;
+            wrapper.minSparsity = this.minSparsity;
+            wrapper.maxSparsity = this.maxSparsity;
+            wrapper.updatesBuffer = this.updatesBuffer;
+            wrapper.init();
+
+            return wrapper;
+        }
+    }
+}
@@ -0,0 +1,573 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.deeplearning4j.parallelism;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.nd4j.autodiff.samediff.InferencePool;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.INDArrayIndex;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dynamic request batching for {@link SameDiff} graphs - the SameDiff equivalent of {@link ParallelInference} in
+ * BATCHED mode.<br>
+ * Concurrent requests (each a map of placeholder arrays, with minibatch along dimension 0) are queued, and a dispatcher
+ * thread coalesces them into a single batch, up to {@code batchLimit} examples. A batch is executed as soon as it is
+ * full, or once the oldest request in it has waited {@code maxWaitTime}, whichever comes first - so a single request
+ * never waits longer than the latency budget just to wait for a batch to fill up. Results are split back to the
+ * callers via {@link CompletableFuture}s.<br>
+ * <br>
+ * Variable-length inputs: placeholders listed in {@link Builder#padInputs(String...)} may differ in size along the
+ * padding dimension (dimension 1 by default - the sequence dimension for [minibatch, seqLength, ...] inputs). These are
+ * padded with {@code padValue} up to the longest request in the batch. Outputs listed in
+ * {@link Builder#unpadOutputs(String...)} are cropped back to each request's own length along the same dimension.
+ * The model itself must handle padded positions - usually via a mask placeholder, which can simply be listed as a padded
+ * input (padded with zeros).<br>
+ * Requests whose (non-padded) input shapes or datatypes differ are never combined into the same batch.<br>
+ * <br>
+ * Execution uses an {@link InferencePool} with one session per worker, so the SameDiff instance is shared between all
+ * workers and must not be modified while this instance is in use.
+ */
+@Slf4j
+public class SameDiffBatchedInference {
+    public final static int DEFAULT_NUM_WORKERS = 2;
+    public final static int DEFAULT_BATCH_LIMIT = 32;
+    public final static long DEFAULT_MAX_WAIT_MS = 5;
+    public final static int DEFAULT_QUEUE_LIMIT = 64;
+    private final static long SUBMIT_POLL_MS = 10;
+
+    @Getter
+    protected SameDiff sameDiff;
+    protected String[] outputs;
+    protected int workers;
+    protected int batchLimit;
+    protected long maxWaitNanos;
+    protected int queueLimit;
+    protected Set<String> padInputs = Collections.emptySet();
+    protected Set<String> unpadOutputs = Collections.emptySet();
+    protected int padDimension = 1;
+    protected double padValue = 0.0;
+
+    private BlockingQueue<Request> queue;
+    private final Deque<Request> deferred = new ArrayDeque<>();
+    private InferencePool pool;
+    private ExecutorService executor;
+    private Semaphore freeWorkers;
+    private Thread dispatcher;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    private final AtomicLong batchCounter = new AtomicLong();
+    private final AtomicLong requestCounter = new AtomicLong();
+
+    protected SameDiffBatchedInference() {
+        //
+    }
+
+    protected void init() {
+        queue = new LinkedBlockingQueue<>(queueLimit);
+        pool = sameDiff.createInferencePool(workers);
+        freeWorkers = new Semaphore(workers);
+        executor = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            t.setName("SameDiffInferenceThread-" + t.getId());
+            return t;
+        });
+
+        running.set(true);
+        dispatcher = new Thread(this::dispatchLoop);
+        dispatcher.setDaemon(true);
+        dispatcher.setName("SameDiffBatchDispatcher");
+        dispatcher.start();
+    }
+
+    /**
+     * Submit a request for asynchronous execution. Blocks only if the request queue is full.
+     *
+     * @param inputs Placeholder values for this request. All arrays must have the same size along dimension 0
+     * @return Future for the requested outputs, for this request only
+     * @throws IllegalStateException If the instance has been shut down (including while waiting for queue space)
+     */
+    public CompletableFuture<Map<String, INDArray>> outputAsync(@NonNull Map<String, INDArray> inputs) {
+        if (!running.get())
+            throw new IllegalStateException("SameDiffBatchedInference instance has been shut down");
+
+        Request r = new Request(inputs);
+        try {
+            //Don't block indefinitely on a full queue: nothing takes from the queue after shutdown
+            while (!queue.offer(r, SUBMIT_POLL_MS, TimeUnit.MILLISECONDS)) {
+                if (!running.get())
+                    throw new IllegalStateException("SameDiffBatchedInference instance has been shut down");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while submitting inference request", e);
+        }
+
+        //shutdown() clears the running flag before draining the queue: if the flag is still set here, the request is
+        // either executed or drained by shutdown(). Otherwise it may have been enqueued after the drain
+        if (!running.get() && queue.remove(r))
+            r.future.completeExceptionally(new IllegalStateException("SameDiffBatchedInference instance was shut down"));
+        return r.future;
+    }
+
+    /**
+     * Execute a request, blocking until the result is available
+     *
+     * @param inputs Placeholder values for this request. All arrays must have the same size along dimension 0
+     * @return The requested outputs, for this request only
+     */
+    public Map<String, INDArray> output(@NonNull Map<String, INDArray> inputs) {
+        try {
+            return outputAsync(inputs).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for inference result", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * @return Number of batches executed so far
+     */
+    public long getBatchCount() {
+        return batchCounter.get();
+    }
+
+    /**
+     * @return Number of requests executed so far
+     */
+    public long getRequestCount() {
+        return requestCounter.get();
+    }
+
+    /**
+     * This method gracefully shuts down SameDiffBatchedInference instance. Requests that have not yet been executed
+     * are completed exceptionally.
+     */
+    public synchronized void shutdown() {
+        if (!running.getAndSet(false))
+            return;
+
+        dispatcher.interrupt();
+        try {
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<Request> remaining = new ArrayList<>(deferred);
+        deferred.clear();
+        queue.drainTo(remaining);
+        for (Request r : remaining)
+            r.future.completeExceptionally(new IllegalStateException("SameDiffBatchedInference instance was shut down"));
+
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pool.close();
+    }
+
+    protected void dispatchLoop() {
+        while (running.get()) {
+            List<Request> batch;
+            try {
+                batch = nextBatch();
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            try {
+                //Wait for a free worker before handing over the batch. Requests keep queueing (and so batching) meanwhile
+                freeWorkers.acquire();
+            } catch (InterruptedException e) {
+                deferred.addAll(batch);     //Completed exceptionally by shutdown()
+                break;
+            }
+
+            final List<Request> b = batch;
+            try {
+                executor.execute(() -> {
+                    try {
+                        execute(b);
+                    } finally {
+                        freeWorkers.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                freeWorkers.release();
+                for (Request r : b)
+                    r.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Collect the next batch: the oldest pending request, plus any compatible requests that arrive before its deadline,
+     * up to the batch limit. Incompatible requests are deferred to later batches, in arrival order. At most
+     * {@code queueLimit} requests are deferred: once this is reached, no further requests are taken from the queue
+     * until the current batch has been dispatched
+     */
+    protected List<Request> nextBatch() throws InterruptedException {
+        Request first = deferred.pollFirst();
+        if (first == null)
+            first = queue.take();
+
+        List<Request> batch = new ArrayList<>();
+        batch.add(first);
+        long examples = first.numExamples;
+        long deadline = first.arrivalNanos + maxWaitNanos;
+
+        //Previously deferred requests are older than anything in the queue: consider them first
+        Iterator<Request> iter = deferred.iterator();
+        while (iter.hasNext() && examples < batchLimit) {
+            Request r = iter.next();
+            if (r.batchKey.equals(first.batchKey) && examples + r.numExamples <= batchLimit) {
+                batch.add(r);
+                examples += r.numExamples;
+                iter.remove();
+            }
+        }
+
+        try {
+            while (examples < batchLimit && deferred.size() < queueLimit) {
+                long remaining = deadline - System.nanoTime();
+                Request r = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                if (r == null)
+                    break;
+
+                if (r.batchKey.equals(first.batchKey) && examples + r.numExamples <= batchLimit) {
+                    batch.add(r);
+                    examples += r.numExamples;
+                } else {
+                    deferred.addLast(r);
+                    if (r.batchKey.equals(first.batchKey))
+                        break;      //Compatible, but batch is full
+                }
+            }
+        } catch (InterruptedException e) {
+            //Shutting down: return the collected requests to the deferred list, so that shutdown() completes them
+            // exceptionally
+            for (int i = batch.size() - 1; i >= 0; i--)
+                deferred.addFirst(batch.get(i));
+            throw e;
+        }
+        return batch;
+    }
+
+    protected void execute(List<Request> batch) {
+        try {
+            Map<String, INDArray> out;
+            if (batch.size() == 1) {
+                out = pool.output(batch.get(0).inputs, outputs);
+                batch.get(0).future.complete(out);
+            } else {
+                Map<String, INDArray> merged = mergeInputs(batch);
+                out = pool.output(merged, outputs);
+                splitOutputs(batch, out);
+            }
+            batchCounter.incrementAndGet();
+            requestCounter.addAndGet(batch.size());
+        } catch (Throwable t) {
+            log.error("Error executing batch of {} requests", batch.size(), t);
+            for (Request r : batch)
+                r.future.completeExceptionally(t);
+        }
+    }
+
+    protected Map<String, INDArray> mergeInputs(List<Request> batch) {
+        Map<String, INDArray> merged = new HashMap<>();
+        for (String name : batch.get(0).inputs.keySet()) {
+            INDArray[] arrs = new INDArray[batch.size()];
+            for (int i = 0; i < arrs.length; i++)
+                arrs[i] = batch.get(i).inputs.get(name);
+
+            if (padInputs.contains(name)) {
+                long maxLength = 0;
+                for (INDArray a : arrs)
+                    maxLength = Math.max(maxLength, a.size(padDimension));
+                for (int i = 0; i < arrs.length; i++)
+                    arrs[i] = pad(arrs[i], maxLength);
+            }
+            merged.put(name, Nd4j.concat(0, arrs));
+        }
+        return merged;
+    }
+
+    protected INDArray pad(INDArray arr, long length) {
+        if (arr.size(padDimension) == length)
+            return arr;
+
+        long[] shape = arr.shape().clone();
+        shape[padDimension] = length;
+        INDArray padded = Nd4j.valueArrayOf(shape, padValue, arr.dataType());
+        INDArrayIndex[] idx = new INDArrayIndex[shape.length];
+        for (int i = 0; i < idx.length; i++)
+            idx[i] = i == padDimension ? NDArrayIndex.interval(0, arr.size(padDimension)) : NDArrayIndex.all();
+        padded.get(idx).assign(arr);
+        return padded;
+    }
+
+    protected void splitOutputs(List<Request> batch, Map<String, INDArray> out) {
+        long offset = 0;
+        for (Request r : batch) {
+            Map<String, INDArray> m = new LinkedHashMap<>();
+            for (Map.Entry<String, INDArray> e : out.entrySet()) {
+                INDArray arr = e.getValue();
+                if (arr.rank() == 0) {
+                    //Scalar outputs can't be split between examples: all requests get a copy
+                    m.put(e.getKey(), arr.dup());
+                    continue;
+                }
+
+                INDArrayIndex[] idx = new INDArrayIndex[arr.rank()];
+                for (int i = 0; i < idx.length; i++)
+                    idx[i] = NDArrayIndex.all();
+                idx[0] = NDArrayIndex.interval(offset, offset + r.numExamples);
+                if (unpadOutputs.contains(e.getKey()) && r.padLength >= 0 && arr.rank() > padDimension)
+                    idx[padDimension] = NDArrayIndex.interval(0, r.padLength);
+                m.put(e.getKey(), arr.get(idx).dup());
+            }
+            offset += r.numExamples;
+            r.future.complete(m);
+        }
+    }
+
+    protected class Request {
+        private final Map<String, INDArray> inputs;
+        private final CompletableFuture<Map<String, INDArray>> future = new CompletableFuture<>();
+        private final long arrivalNanos = System.nanoTime();
+        private final long numExamples;
+        private final long padLength;
+        private final String batchKey;
+
+        protected Request(Map<String, INDArray> inputs) {
+            if (inputs.isEmpty())
+                throw new IllegalStateException("No inputs were provided");
+
+            this.inputs = inputs;
+            long n = -1;
+            long len = -1;
+            StringBuilder sb = new StringBuilder();
+            for (String name : new TreeSet<>(inputs.keySet())) {
+                INDArray arr = inputs.get(name);
+                if (arr == null || arr.rank() == 0)
+                    throw new IllegalStateException("Input \"" + name + "\" must be an array with minibatch along dimension 0");
+                if (n < 0)
+                    n = arr.size(0);
+                else if (arr.size(0) != n)
+                    throw new IllegalStateException("All inputs must have the same size along dimension 0: input \"" + name
+                            + "\" has size " + arr.size(0) + ", expected " + n);
+                arr.setCloseable(false);
+
+                long[] shape = arr.shape().clone();
+                shape[0] = -1;
+                if (padInputs.contains(name)) {
+                    if (arr.rank() <= padDimension)
+                        throw new IllegalStateException("Padded input \"" + name + "\" must have rank > " + padDimension
+                                + ", got shape " + Arrays.toString(arr.shape()));
+                    len = Math.max(len, shape[padDimension]);
+                    shape[padDimension] = -1;
+                }
+                sb.append(name).append(':').append(arr.dataType()).append(Arrays.toString(shape)).append(';');
+            }
+            this.numExamples = n;
+            this.padLength = len;
+            this.batchKey = sb.toString();
+        }
+    }
+
+
+    public static class Builder {
+        private SameDiff sameDiff;
+        private String[] outputs;
+        private int workers = DEFAULT_NUM_WORKERS;
+        private int batchLimit = DEFAULT_BATCH_LIMIT;
+        private long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_WAIT_MS);
+        private int queueLimit = DEFAULT_QUEUE_LIMIT;
+        private Set<String> padInputs = Collections.emptySet();
+        private Set<String> unpadOutputs = Collections.emptySet();
+        private int padDimension = 1;
+        private double padValue = 0.0;
+
+        /**
+         * @param sameDiff SameDiff instance to use for inference
+         * @param outputs  Names of the variables to return for each request
+         */
+        public Builder(@NonNull SameDiff sameDiff, @NonNull String... outputs) {
+            if (outputs.length == 0)
+                throw new IllegalStateException("At least one output must be specified");
+            this.sameDiff = sameDiff;
+            this.outputs = outputs;
+        }
+
+        /**
+         * Number of batches that can be executed concurrently. Each worker uses its own inference session, but all
+         * workers share the same SameDiff instance and parameters.
+         *
+         * @param workers
+         * @return
+         */
+        public Builder workers(int workers) {
+            if (workers < 1)
+                throw new IllegalStateException("Workers should be positive value");
+
+            this.workers = workers;
+            return this;
+        }
+
+        /**
+         * Maximum number of examples (total size along dimension 0) in a single batch. A single request larger than
+         * this is executed on its own.
+         *
+         * @param limit
+         * @return
+         */
+        public Builder batchLimit(int limit) {
+            if (limit < 1)
+                throw new IllegalStateException("Batch limit should be positive value");
+
+            this.batchLimit = limit;
+            return this;
+        }
+
+        /**
+         * Maximum time a request will wait for other requests to be batched with. A batch is executed once it is full,
+         * or once its oldest request has waited this long. Zero means "batch only what is already queued".
+         *
+         * Default value: 5 milliseconds
+         *
+         * @param time
+         * @param unit
+         * @return
+         */
+        public Builder maxWaitTime(long time, @NonNull TimeUnit unit) {
+            if (time < 0)
+                throw new IllegalStateException("Max wait time should be non-negative value");
+
+            this.maxWaitNanos = unit.toNanos(time);
+            return this;
+        }
+
+        /**
+         * This method defines request queue size. Callers block when the queue is full.
+         * The same limit applies to requests deferred to a later batch because of incompatible input shapes.
+         *
+         * Default value: 64
+         *
+         * @param limit
+         * @return
+         */
+        public Builder queueLimit(int limit) {
+            if (limit < 1)
+                throw new IllegalStateException("Queue limit should be positive value");
+
+            this.queueLimit = limit;
+            return this;
+        }
+
+        /**
+         * Placeholders that may have a different size along the padding dimension between requests. These are padded
+         * up to the longest request in the batch.
+         *
+         * @param inputs
+         * @return
+         */
+        public Builder padInputs(@NonNull String... inputs) {
+            this.padInputs = new HashSet<>(Arrays.asList(inputs));
+            return this;
+        }
+
+        /**
+         * Outputs that should be cropped back to each request's original length along the padding dimension
+         *
+         * @param outputs
+         * @return
+         */
+        public Builder unpadOutputs(@NonNull String... outputs) {
+            this.unpadOutputs = new HashSet<>(Arrays.asList(outputs));
+            return this;
+        }
+
+        /**
+         * Dimension along which variable-length inputs are padded. Default: 1
+         *
+         * @param dimension
+         * @return
+         */
+        public Builder padDimension(int dimension) {
+            if (dimension < 1)
+                throw new IllegalStateException("Pad dimension must be 1 or more (dimension 0 is the minibatch dimension)");
+
+            this.padDimension = dimension;
+            return this;
+        }
+
+        /**
+         * Value to use for padded positions. Default: 0
+         *
+         * @param value
+         * @return
+         */
+        public Builder padValue(double value) {
+            this.padValue = value;
+            return this;
+        }
+
+        /**
+         * This method builds new SameDiffBatchedInference instance
+         *
+         * @return
+         */
+        public SameDiffBatchedInference build() {
+            SameDiffBatchedInference inference = new SameDiffBatchedInference();
+            inference.sameDiff = this.sameDiff;
+            inference.outputs = this.outputs;
+            inference.workers = this.workers;
+            inference.batchLimit = this.batchLimit;
+            inference.maxWaitNanos = this.maxWaitNanos;
+            inference.queueLimit = this.queueLimit;
+            inference.padInputs = this.padInputs;
+            inference.unpadOutputs = this.unpadOutputs;
+            inference.padDimension = this.padDimension;
+            inference.padValue = this.padValue;
+            inference.init();
+
+            return inference;
+        }
+    }
+}
@@ -0,0 +1,601 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.deeplearning4j.parallelism;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.nn.api.Layer;
+import org.deeplearning4j.nn.api.layers.RecurrentLayer;
+import org.deeplearning4j.nn.layers.recurrent.BaseRecurrentLayer;
+import org.deeplearning4j.nn.layers.wrapper.BaseWrapperLayer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.INDArrayIndex;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Batched, stateful {@link MultiLayerNetwork#rnnTimeStep(INDArray)} inference for many independent sessions (streams)
+ * using a single network.<br>
+ * The recurrent state of every session is held in slot-indexed state arrays: for each state array of each recurrent
+ * layer, one array of shape [maxSessions, ...], with one row (slot) per active session. Concurrent time step requests
+ * from different sessions are queued, and a dispatcher thread coalesces them into a single batch (up to
+ * {@code batchLimit} sessions, waiting at most {@code maxWaitTime} for the batch to fill up): the states of the
+ * sessions in the batch are gathered from their slots, a single rnnTimeStep forward pass is executed, and the updated
+ * states are scattered back to the slots.<br>
+ * <br>
+ * Each request is a single example (size 1 along dimension 0) for a single session; requests with different input
+ * shapes (for example, a different number of time steps) are never combined into the same batch. Requests for the
+ * same session are always executed in submission order.<br>
+ * A session is created the first time its id is used, starting from the same initial (zero) state as
+ * {@link MultiLayerNetwork#rnnClearPreviousState()}. Sessions are removed via {@link #endSession(String)}, or
+ * automatically once they have been idle for longer than the session timeout. Requests for a new session fail with an
+ * {@link IllegalStateException} when all {@code maxSessions} slots are in use.<br>
+ * <br>
+ * Supported recurrent layers are those storing their state in {@link BaseRecurrentLayer} ({@code LSTM} and
+ * {@code SimpleRnn}), optionally within a wrapper layer such as {@code LastTimeStep}.
+ * The network is used by the dispatcher thread only, and must not be used elsewhere while this instance is in use.
+ */
+@Slf4j
+public class StatefulRnnInference {
+    public final static int DEFAULT_MAX_SESSIONS = 1024;
+    public final static int DEFAULT_BATCH_LIMIT = 32;
+    public final static long DEFAULT_MAX_WAIT_MS = 5;
+    public final static int DEFAULT_QUEUE_LIMIT = 1024;
+    public final static long DEFAULT_SESSION_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(10);
+    private final static long SUBMIT_POLL_MS = 10;
+
+    @Getter
+    protected MultiLayerNetwork network;
+    protected int maxSessions;
+    protected int batchLimit;
+    protected long maxWaitNanos;
+    protected int queueLimit;
+    protected long sessionTimeoutNanos;
+
+    private int[] recurrentLayers;
+    private List<Map<String, INDArray>> stateSlots;     //By entry in recurrentLayers. Null until the first step
+
+    private final Map<String, Session> sessions = new HashMap<>();
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    private long lastSweep = System.nanoTime();
+
+    private BlockingQueue<Request> queue;
+    private final Deque<Request> deferred = new ArrayDeque<>();
+    private Thread dispatcher;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    private final AtomicLong batchCounter = new AtomicLong();
+    private final AtomicLong requestCounter = new AtomicLong();
+    private final AtomicLong evictedCounter = new AtomicLong();
+
+    protected StatefulRnnInference() {
+        //
+    }
+
+    protected void init() {
+        List<Integer> rnnLayers = new ArrayList<>();
+        for (int i = 0; i < network.getnLayers(); i++) {
+            Layer l = network.getLayer(i);
+            if (l instanceof BaseWrapperLayer)
+                l = ((BaseWrapperLayer) l).getUnderlying();
+            if (l instanceof BaseRecurrentLayer) {
+                rnnLayers.add(i);
+            } else if (l instanceof RecurrentLayer) {
+                throw new IllegalStateException("Layer " + i + " of type " + l.getClass().getSimpleName()
+                        + " is not supported for stateful time step inference");
+            }
+        }
+        if (rnnLayers.isEmpty())
+            throw new IllegalStateException("Network has no recurrent layers");
+        recurrentLayers = new int[rnnLayers.size()];
+        for (int i = 0; i < recurrentLayers.length; i++)
+            recurrentLayers[i] = rnnLayers.get(i);
+
+        for (int i = 0; i < maxSessions; i++)
+            freeSlots.addLast(i);
+        network.rnnClearPreviousState();
+
+        queue = new LinkedBlockingQueue<>(queueLimit);
+        running.set(true);
+        dispatcher = new Thread(this::dispatchLoop);
+        dispatcher.setDaemon(true);
+        dispatcher.setName("StatefulRnnInferenceDispatcher");
+        dispatcher.start();
+    }
+
+    /**
+     * Submit a time step for asynchronous execution. Blocks only if the request queue is full.
+     *
+     * @param sessionId Id of the session. A new session is created if no session with this id exists
+     * @param input     Input for this session: [1, nIn] for a single time step, or [1, nIn, timeSteps]
+     * @return Future for the network output for this session, with size 1 along dimension 0
+     * @throws IllegalStateException If the instance has been shut down (including while waiting for queue space)
+     */
+    public CompletableFuture<INDArray> timeStepAsync(@NonNull String sessionId, @NonNull INDArray input) {
+        if (!running.get())
+            throw new IllegalStateException("StatefulRnnInference instance has been shut down");
+        if (input.rank() < 2 || input.size(0) != 1)
+            throw new IllegalStateException("Input for a session must have size 1 along dimension 0, got shape "
+                    + Arrays.toString(input.shape()));
+
+        Request r = new Request(sessionId, input);
+        try {
+            //Don't block indefinitely on a full queue: nothing takes from the queue after shutdown
+            while (!queue.offer(r, SUBMIT_POLL_MS, TimeUnit.MILLISECONDS)) {
+                if (!running.get())
+                    throw new IllegalStateException("StatefulRnnInference instance has been shut down");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while submitting time step request", e);
+        }
+
+        //shutdown() clears the running flag before draining the queue: if the flag is still set here, the request is
+        // either executed or drained by shutdown(). Otherwise it may have been enqueued after the drain
+        if (!running.get() && queue.remove(r))
+            r.future.completeExceptionally(new IllegalStateException("StatefulRnnInference instance was shut down"));
+        return r.future;
+    }
+
+    /**
+     * Execute a time step, blocking until the result is available. See {@link #timeStepAsync(String, INDArray)}
+     */
+    public INDArray timeStep(@NonNull String sessionId, @NonNull INDArray input) {
+        try {
+            return timeStepAsync(sessionId, input).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for time step result", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * End a session, releasing its state slot. Pending requests for the session that have not yet been executed will
+     * start a new session.
+     *
+     * @param sessionId Id of the session
+     * @return True if the session existed
+     */
+    public boolean endSession(@NonNull String sessionId) {
+        synchronized (sessions) {
+            Session s = sessions.remove(sessionId);
+            if (s == null)
+                return false;
+            freeSlots.addLast(s.slot);
+            return true;
+        }
+    }
+
+    /**
+     * @return Number of currently active sessions
+     */
+    public int getNumSessions() {
+        synchronized (sessions) {
+            return sessions.size();
+        }
+    }
+
+    /**
+     * @return Number of batches executed so far
+     */
+    public long getBatchCount() {
+        return batchCounter.get();
+    }
+
+    /**
+     * @return Number of requests executed so far
+     */
+    public long getRequestCount() {
+        return requestCounter.get();
+    }
+
+    /**
+     * @return Number of sessions removed so far because they exceeded the session timeout
+     */
+    public long getEvictedCount() {
+        return evictedCounter.get();
+    }
+
+    /**
+     * This method gracefully shuts down StatefulRnnInference instance. Requests that have not yet been executed are
+     * completed exceptionally.
+     */
+    public synchronized void shutdown() {
+        if (!running.getAndSet(false))
+            return;
+
+        dispatcher.interrupt();
+        try {
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<Request> remaining = new ArrayList<>(deferred);
+        deferred.clear();
+        queue.drainTo(remaining);
+        for (Request r : remaining)
+            r.future.completeExceptionally(new IllegalStateException("StatefulRnnInference instance was shut down"));
+
+        synchronized (sessions) {
+            sessions.clear();
+            freeSlots.clear();
+        }
+        stateSlots = null;
+        network.rnnClearPreviousState();
+    }
+
+    protected void dispatchLoop() {
+        while (running.get()) {
+            List<Request> batch;
+            try {
+                batch = nextBatch();
+            } catch (InterruptedException e) {
+                break;
+            }
+            execute(batch);
+        }
+    }
+
+    /**
+     * Collect the next batch: the oldest pending request, plus any compatible requests for other sessions that arrive
+     * before its deadline, up to the batch limit. Other requests are deferred to later batches, in arrival order. At
+     * most {@code queueLimit} requests are deferred: once this is reached, no further requests are taken from the queue
+     * until the current batch has been executed
+     */
+    protected List<Request> nextBatch() throws InterruptedException {
+        Request first = deferred.pollFirst();
+        if (first == null)
+            first = queue.take();
+
+        List<Request> batch = new ArrayList<>();
+        batch.add(first);
+        //Sessions with a request in this batch, or with an earlier request that was deferred: later requests for these
+        // sessions must not be executed in this batch
+        Set<String> seen = new HashSet<>();
+        seen.add(first.sessionId);
+        long deadline = first.arrivalNanos + maxWaitNanos;
+
+        Iterator<Request> iter = deferred.iterator();
+        while (iter.hasNext() && batch.size() < batchLimit) {
+            Request r = iter.next();
+            if (seen.add(r.sessionId) && r.batchKey.equals(first.batchKey)) {
+                batch.add(r);
+                iter.remove();
+            }
+        }
+        //Deferred requests beyond the batch limit are older than anything in the queue
+        while (iter.hasNext())
+            seen.add(iter.next().sessionId);
+
+        try {
+            while (batch.size() < batchLimit && deferred.size() < queueLimit) {
+                long remaining = deadline - System.nanoTime();
+                Request r = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                if (r == null)
+                    break;
+
+                if (seen.add(r.sessionId) && r.batchKey.equals(first.batchKey)) {
+                    batch.add(r);
+                } else {
+                    deferred.addLast(r);
+                }
+            }
+        } catch (InterruptedException e) {
+            //Shutting down: return the collected requests to the deferred list, so that shutdown() completes them
+            // exceptionally
+            for (int i = batch.size() - 1; i >= 0; i--)
+                deferred.addFirst(batch.get(i));
+            throw e;
+        }
+        return batch;
+    }
+
+    protected void execute(List<Request> batch) {
+        long now = System.nanoTime();
+        //Sessions with a request in this batch are in use: they must not be evicted by the sweep
+        synchronized (sessions) {
+            for (Request r : batch) {
+                Session s = sessions.get(r.sessionId);
+                if (s != null)
+                    s.lastAccessNanos = now;
+            }
+        }
+        sweepIdleSessions(now, false);
+
+        //Resolve (or allocate) the state slot of each session. Requests for new sessions that can't get a slot fail
+        List<Request> active = new ArrayList<>(batch.size());
+        List<Integer> slotList = new ArrayList<>(batch.size());
+        for (Request r : batch) {
+            try {
+                slotList.add(slotFor(r.sessionId, now));
+                active.add(r);
+            } catch (Throwable t) {
+                r.future.completeExceptionally(t);
+            }
+        }
+        if (active.isEmpty())
+            return;
+        int[] slots = new int[slotList.size()];
+        for (int i = 0; i < slots.length; i++)
+            slots[i] = slotList.get(i);
+
+        try {
+            //Gather: set the state of each recurrent layer from the session slots
+            network.rnnClearPreviousState();
+            if (stateSlots != null) {
+                for (int i = 0; i < recurrentLayers.length; i++) {
+                    Map<String, INDArray> state = new HashMap<>();
+                    for (Map.Entry<String, INDArray> e : stateSlots.get(i).entrySet())
+                        state.put(e.getKey(), e.getValue().getRows(slots));
+                    network.rnnSetPreviousState(recurrentLayers[i], state);
+                }
+            }
+
+            INDArray[] inputs = new INDArray[active.size()];
+            for (int i = 0; i < inputs.length; i++)
+                inputs[i] = active.get(i).input;
+            INDArray out = network.rnnTimeStep(inputs.length == 1 ? inputs[0] : Nd4j.concat(0, inputs));
+
+            //Scatter: store the updated states back to the session slots
+            if (stateSlots == null)
+                stateSlots = new ArrayList<>();
+            for (int i = 0; i < recurrentLayers.length; i++) {
+                if (stateSlots.size() <= i)
+                    stateSlots.add(new HashMap<>());
+                Map<String, INDArray> slotArrays = stateSlots.get(i);
+                for (Map.Entry<String, INDArray> e : network.rnnGetPreviousState(recurrentLayers[i]).entrySet()) {
+                    INDArray state = e.getValue();
+                    INDArray all = slotArrays.get(e.getKey());
+                    if (all == null) {
+                        long[] shape = state.shape().clone();
+                        shape[0] = maxSessions;
+                        all = Nd4j.zeros(state.dataType(), shape);
+                        slotArrays.put(e.getKey(), all);
+                    }
+                    for (int j = 0; j < slots.length; j++)
+                        all.putRow(slots[j], state.getRow(j));
+                }
+            }
+            network.rnnClearPreviousState();
+
+            INDArrayIndex[] idx = new INDArrayIndex[out.rank()];
+            Arrays.fill(idx, NDArrayIndex.all());
+            for (int i = 0; i < active.size(); i++) {
+                idx[0] = NDArrayIndex.interval(i, i + 1);
+                active.get(i).future.complete(out.get(idx).dup());
+            }
+            batchCounter.incrementAndGet();
+            requestCounter.addAndGet(active.size());
+        } catch (Throwable t) {
+            log.error("Error executing batch of {} time step requests", active.size(), t);
+            for (Request r : active)
+                r.future.completeExceptionally(t);
+        }
+    }
+
+    /**
+     * Get the state slot of the session, creating the session if required
+     */
+    protected int slotFor(String sessionId, long now) {
+        synchronized (sessions) {
+            Session s = sessions.get(sessionId);
+            if (s == null) {
+                if (freeSlots.isEmpty())
+                    sweepIdleSessions(now, true);
+                if (freeSlots.isEmpty())
+                    throw new IllegalStateException("Cannot create session \"" + sessionId + "\": all " + maxSessions
+                            + " session state slots are in use");
+                s = new Session(freeSlots.pollFirst());
+                sessions.put(sessionId, s);
+                //New session: start from the initial (zero) state
+                if (stateSlots != null) {
+                    for (Map<String, INDArray> m : stateSlots) {
+                        for (INDArray arr : m.values())
+                            arr.getRow(s.slot).assign(0);
+                    }
+                }
+            }
+            s.lastAccessNanos = now;
+            return s.slot;
+        }
+    }
+
+    /**
+     * Remove sessions that have been idle longer than the session timeout. Unless forced, this is done at most once
+     * per quarter of the timeout
+     */
+    protected void sweepIdleSessions(long now, boolean force) {
+        if (sessionTimeoutNanos <= 0 || (!force && now - lastSweep < sessionTimeoutNanos / 4))
+            return;
+        lastSweep = now;
+        synchronized (sessions) {
+            Iterator<Map.Entry<String, Session>> iter = sessions.entrySet().iterator();
+            while (iter.hasNext()) {
+                Session s = iter.next().getValue();
+                if (now - s.lastAccessNanos > sessionTimeoutNanos) {
+                    iter.remove();
+                    freeSlots.addLast(s.slot);
+                    evictedCounter.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    protected static class Session {
+        private final int slot;
+        private long lastAccessNanos;
+
+        protected Session(int slot) {
+            this.slot = slot;
+        }
+    }
+
+    protected static class Request {
+        private final String sessionId;
+        private final INDArray input;
+        private final CompletableFuture<INDArray> future = new CompletableFuture<>();
+        private final long arrivalNanos = System.nanoTime();
+        private final String batchKey;
+
+        protected Request(String sessionId, INDArray input) {
+            this.sessionId = sessionId;
+            this.input = input;
+            input.setCloseable(false);
+            long[] shape = input.shape().clone();
+            shape[0] = -1;
+            this.batchKey = input.dataType() + Arrays.toString(shape);
+        }
+    }
+
+
+    public static class Builder {
+        private MultiLayerNetwork network;
+        private int maxSessions = DEFAULT_MAX_SESSIONS;
+        private int batchLimit = DEFAULT_BATCH_LIMIT;
+        private long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_WAIT_MS);
+        private int queueLimit = DEFAULT_QUEUE_LIMIT;
+        private long sessionTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SESSION_TIMEOUT_MS);
+
+        /**
+         * @param network Network to use for inference. Must contain at least one recurrent layer
+         */
+        public Builder(@NonNull MultiLayerNetwork network) {
+            this.network = network;
+        }
+
+        /**
+         * Maximum number of concurrently active sessions. Memory for the state of this many sessions is allocated
+         * after the first time step.
+         *
+         * Default value: 1024
+         *
+         * @param maxSessions
+         * @return
+         */
+        public Builder maxSessions(int maxSessions) {
+            if (maxSessions < 1)
+                throw new IllegalStateException("Max sessions should be positive value");
+
+            this.maxSessions = maxSessions;
+            return this;
+        }
+
+        /**
+         * Maximum number of sessions in a single batch.
+         *
+         * Default value: 32
+         *
+         * @param limit
+         * @return
+         */
+        public Builder batchLimit(int limit) {
+            if (limit < 1)
+                throw new IllegalStateException("Batch limit should be positive value");
+
+            this.batchLimit = limit;
+            return this;
+        }
+
+        /**
+         * Maximum time a request will wait for other requests to be batched with. A batch is executed once it is full,
+         * or once its oldest request has waited this long. Zero means "batch only what is already queued".
+         *
+         * Default value: 5 milliseconds
+         *
+         * @param time
+         * @param unit
+         * @return
+         */
+        public Builder maxWaitTime(long time, @NonNull TimeUnit unit) {
+            if (time < 0)
+                throw new IllegalStateException("Max wait time should be non-negative value");
+
+            this.maxWaitNanos = unit.toNanos(time);
+            return this;
+        }
+
+        /**
+         * This method defines request queue size. Callers block when the queue is full.
+         * The same limit applies to requests deferred to a later batch (for example, further time steps of a session
+         * that already has a request in the current batch).
+         *
+         * Default value: 1024
+         *
+         * @param limit
+         * @return
+         */
+        public Builder queueLimit(int limit) {
+            if (limit < 1)
+                throw new IllegalStateException("Queue limit should be positive value");
+
+            this.queueLimit = limit;
+            return this;
+        }
+
+        /**
+         * Sessions without any requests for longer than this are removed, releasing their state slot. Zero disables
+         * automatic removal of idle sessions.
+         *
+         * Default value: 10 minutes
+         *
+         * @param time
+         * @param unit
+         * @return
+         */
+        public Builder sessionTimeout(long time, @NonNull TimeUnit unit) {
+            if (time < 0)
+                throw new IllegalStateException("Session timeout should be non-negative value");
+
+            this.sessionTimeoutNanos = unit.toNanos(time);
+            return this;
+        }
+
+        /**
+         * This method builds new StatefulRnnInference instance
+         *
+         * @return
+         */
+        public StatefulRnnInference build() {
+            StatefulRnnInference inf = new StatefulRnnInference();
+            inf.network = this.network;
+            inf.maxSessions = this.maxSessions;
+            inf.batchLimit = this.batchLimit;
+            inf.maxWaitNanos = this.maxWaitNanos;
+            inf.queueLimit = this.queueLimit;
+            inf.sessionTimeoutNanos = this.sessionTimeoutNanos;
+            inf.init();
+            return inf;
+        }
+    }
+}
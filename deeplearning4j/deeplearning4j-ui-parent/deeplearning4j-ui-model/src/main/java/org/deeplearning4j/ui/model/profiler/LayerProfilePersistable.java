@@ -0,0 +1,122 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.deeplearning4j.ui.model.profiler;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.apache.commons.compress.utils.IOUtils;
+import org.deeplearning4j.core.storage.Persistable;
+import org.deeplearning4j.nn.profiler.LayerProfile;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Snapshot of the per-layer statistics of a {@link org.deeplearning4j.nn.profiler.LayerProfiler}, for storage in a
+ * {@link org.deeplearning4j.core.storage.StatsStorage}. See {@link LayerProfilerListener}
+ */
+@AllArgsConstructor
+@Data
+public class LayerProfilePersistable implements Persistable {
+
+    public static final String TYPE_ID = "LayerProfiler";
+
+    private String sessionID;
+    private String workerID;
+    private long timestamp;
+    private int iterationCount;
+    private Map<String, LayerProfile> profiles;
+
+    public LayerProfilePersistable() {}
+
+    @Override
+    public String getSessionID() {
+        return sessionID;
+    }
+
+    @Override
+    public String getTypeID() {
+        return TYPE_ID;
+    }
+
+    @Override
+    public String getWorkerID() {
+        return workerID;
+    }
+
+    @Override
+    public long getTimeStamp() {
+        return timestamp;
+    }
+
+    @Override
+    public int encodingLengthBytes() {
+        return encode().length;
+    }
+
+    @Override
+    public byte[] encode() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(this);
+        } catch (IOException e) {
+            throw new RuntimeException(e); //Shouldn't normally happen
+        }
+        return baos.toByteArray();
+    }
+
+    @Override
+    public void encode(ByteBuffer buffer) {
+        buffer.put(encode());
+    }
+
+    @Override
+    public void encode(OutputStream outputStream) throws IOException {
+        outputStream.write(encode());
+    }
+
+    @Override
+    public void decode(byte[] decode) {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(decode))) {
+            LayerProfilePersistable p = (LayerProfilePersistable) ois.readObject();
+            this.sessionID = p.sessionID;
+            this.workerID = p.workerID;
+            this.timestamp = p.timestamp;
+            this.iterationCount = p.iterationCount;
+            this.profiles = p.profiles;
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException(e); //Shouldn't normally happen
+        }
+    }
+
+    @Override
+    public void decode(ByteBuffer buffer) {
+        byte[] arr = new byte[buffer.remaining()];
+        buffer.get(arr);
+        decode(arr);
+    }
+
+    @Override
+    public void decode(InputStream inputStream) throws IOException {
+        decode(IOUtils.toByteArray(inputStream));
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.deeplearning4j.ui.model.profiler;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.deeplearning4j.core.storage.StatsStorageRouter;
+import org.deeplearning4j.core.util.UIDProvider;
+import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.nn.profiler.LayerProfiler;
+import org.deeplearning4j.optimize.api.BaseTrainingListener;
+
+import java.util.UUID;
+
+/**
+ * A listener that enables per-layer profiling (see {@link LayerProfiler}) for a MultiLayerNetwork or ComputationGraph,
+ * and periodically posts the collected statistics to a {@link StatsStorageRouter} as {@link LayerProfilePersistable}
+ * updates.<br>
+ * The profiler is set on the network the first time the listener is called, unless the network already has one; the
+ * statistics are cumulative unless {@code resetAfterReport} is set, in which case each report covers only the
+ * iterations since the last report.
+ */
+public class LayerProfilerListener extends BaseTrainingListener {
+
+    private final StatsStorageRouter router;
+    private final int frequency;
+    private final boolean resetAfterReport;
+    @Getter
+    private final String sessionID;
+    @Getter
+    private final String workerID;
+    @Getter
+    private final LayerProfiler profiler;
+
+    /**
+     * @param router    Router to post the reports to
+     * @param frequency Post a report every this many iterations
+     */
+    public LayerProfilerListener(@NonNull StatsStorageRouter router, int frequency) {
+        this(router, frequency, false, new LayerProfiler(), null, null);
+    }
+
+    /**
+     * @param router           Router to post the reports to
+     * @param frequency        Post a report every this many iterations
+     * @param resetAfterReport If true: reset the profiler after each report
+     * @param profiler         Profiler to use, if the network doesn't already have one
+     * @param sessionID        Session ID for the reports. If null: a random session ID is used
+     * @param workerID         Worker ID for the reports. If null: a worker ID is generated from the JVM UID and thread
+     */
+    public LayerProfilerListener(@NonNull StatsStorageRouter router, int frequency, boolean resetAfterReport,
+                                 @NonNull LayerProfiler profiler, String sessionID, String workerID) {
+        if (frequency <= 0) {
+            throw new IllegalArgumentException("Frequency must be positive, got " + frequency);
+        }
+        this.router = router;
+        this.frequency = frequency;
+        this.resetAfterReport = resetAfterReport;
+        this.profiler = profiler;
+        this.sessionID = sessionID == null ? UUID.randomUUID().toString() : sessionID;
+        this.workerID = workerID == null ? UIDProvider.getJVMUID() + "_" + Thread.currentThread().getId() : workerID;
+    }
+
+    @Override
+    public void onEpochStart(Model model) {
+        getOrSetProfiler(model);
+    }
+
+    @Override
+    public void iterationDone(Model model, int iteration, int epoch) {
+        LayerProfiler p = getOrSetProfiler(model);
+        //The listener is called before the iteration count is incremented: the profiler covers iterations 0 to iteration
+        if ((iteration + 1) % frequency != 0) {
+            return;
+        }
+        router.putUpdate(new LayerProfilePersistable(sessionID, workerID, System.currentTimeMillis(), iteration,
+                p.getProfiles()));
+        if (resetAfterReport) {
+            p.reset();
+        }
+    }
+
+    private LayerProfiler getOrSetProfiler(Model model) {
+        if (model instanceof MultiLayerNetwork) {
+            MultiLayerNetwork net = (MultiLayerNetwork) model;
+            if (net.getLayerProfiler() == null) {
+                net.setLayerProfiler(profiler);
+            }
+            return net.getLayerProfiler();
+        } else if (model instanceof ComputationGraph) {
+            ComputationGraph cg = (ComputationGraph) model;
+            if (cg.getLayerProfiler() == null) {
+                cg.setLayerProfiler(profiler);
+            }
+            return cg.getLayerProfiler();
+        }
+        throw new IllegalStateException("LayerProfilerListener can only be used with MultiLayerNetwork or " +
+                "ComputationGraph models, got " + model.getClass().getName());
+    }
+}
@@ -36,10 +36,14 @@ import org.nd4j.common.base.Preconditions;
 import org.nd4j.linalg.dataset.api.MultiDataSet;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Slf4j
 public class CheckpointListener extends BaseListener implements Serializable {
@@ -54,6 +58,7 @@ public class CheckpointListener extends BaseListener implements Serializable {
     private boolean logSaving;
     private boolean deleteExisting;
     private boolean saveUpdaterState;
+    private int asyncMaxPending;
 
     private Integer saveEveryNEpochs;
     private Integer saveEveryNIterations;
@@ -71,6 +76,15 @@ public class CheckpointListener extends BaseListener implements Serializable {
     private int startIter = -1;
     private Long lastSaveEveryMsNoSinceLast;
 
+    //Asynchronous saving: the SameDiff instance is serialized to an in-memory buffer on the training thread, and at most
+    // asyncMaxPending of these buffers are written to disk on a separate thread
+    private transient ExecutorService saveExecutor;
+    private transient Semaphore pendingSaves;
+    private transient AtomicReference<Throwable> asyncSaveError;
+    private volatile long lastStallTimeMs = -1;
+    private volatile long lastWriteTimeMs = -1;
+    private volatile long totalStallTimeMs;
+
     private CheckpointListener(Builder builder){
         this.rootDir = builder.rootDir;
         this.fileNamePrefix = builder.fileNamePrefix;
@@ -80,6 +94,7 @@ public class CheckpointListener extends BaseListener implements Serializable {
         this.logSaving = builder.logSaving;
         this.deleteExisting = builder.deleteExisting;
         this.saveUpdaterState = builder.saveUpdaterState;
+        this.asyncMaxPending = builder.asyncMaxPending;
 
         this.saveEveryNEpochs = builder.saveEveryNEpochs;
         this.saveEveryNIterations = builder.saveEveryNIterations;
@@ -107,7 +122,8 @@ public class CheckpointListener extends BaseListener implements Serializable {
                 if(files != null && files.length > 0){
                     for(File f : files){
                         String name = f.getName();
-                        if(name.startsWith("checkpoint_") && (name.endsWith("MultiLayerNetwork.zip") || name.endsWith("ComputationGraph.zip"))){
+                        if(name.startsWith("checkpoint_") && (name.endsWith("MultiLayerNetwork.zip") || name.endsWith("ComputationGraph.zip"))
+                                || name.contains("checkpoint-") && name.endsWith(".bin.tmp")){
                             f.delete();
                         }
                     }
@@ -191,6 +207,23 @@ public class CheckpointListener extends BaseListener implements Serializable {
     }
 
     private void saveCheckpointHelper(SameDiff model, At at) throws Exception {
+        long start = System.currentTimeMillis();
+        if(asyncMaxPending > 0){
+            checkAsyncSaveError();
+            if(saveExecutor == null){
+                //Single writer thread, so checkpoint files and the checkpoint record file are written in order. Not a
+                // daemon thread (pending checkpoints are written before the JVM exits), but it is stopped when idle
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "CheckpointListener-save");
+                    t.setDaemon(false);
+                    return t;
+                });
+                executor.allowCoreThreadTimeOut(true);
+                saveExecutor = executor;
+                pendingSaves = new Semaphore(asyncMaxPending);
+            }
+        }
+
         if(!checkpointRecordFile.exists()){
             checkpointRecordFile.createNewFile();
             writeCheckpointInfo(Checkpoint.getFileHeader() + "\n", checkpointRecordFile);
@@ -199,21 +232,73 @@ public class CheckpointListener extends BaseListener implements Serializable {
         Checkpoint c = new Checkpoint(++lastCheckpointNum, System.currentTimeMillis(), at.iteration(), at.epoch(),null);
         String filename = getFileName(lastCheckpointNum, at, c.getTimestamp());
         c.setFilename(filename);
+        this.lastCheckpoint = c;
 
+        if(asyncMaxPending > 0){
+            //Wait if too many checkpoints are still being written, then serialize the current state (including array
+            // values) to memory. Only the (much slower) file write happens on the save thread
+            pendingSaves.acquire();
+            ByteBuffer bb;
+            try {
+                bb = model.asFlatBuffers(this.saveUpdaterState);
+            } catch (Throwable t){
+                pendingSaves.release();
+                throw t;
+            }
+            long stall = recordStallTime(start);
+            saveExecutor.execute(() -> {
+                long writeStart = System.currentTimeMillis();
+                try {
+                    writeCheckpoint(c, bb);
+                    lastWriteTimeMs = System.currentTimeMillis() - writeStart;
+                    if(logSaving){
+                        log.info("Model checkpoint saved: epoch {}, iteration {}, path: {} (training blocked for {} ms, background write {} ms)",
+                                c.getEpoch(), c.getIteration(), new File(rootDir, c.getFilename()).getPath(), stall, lastWriteTimeMs);
+                    }
+                } catch (Throwable t){
+                    log.error("Error saving checkpoint {} asynchronously", c.getCheckpointNum(), t);
+                    asyncSaveError.compareAndSet(null, t);
+                } finally {
+                    pendingSaves.release();
+                }
+            });
+        } else {
+            writeCheckpoint(c, model.asFlatBuffers(this.saveUpdaterState));
+            long stall = recordStallTime(start);
+            lastWriteTimeMs = stall;
+            if(logSaving){
+                log.info("Model checkpoint saved: epoch {}, iteration {}, path: {} (training blocked for {} ms)", c.getEpoch(),
+                        c.getIteration(), new File(rootDir, c.getFilename()).getPath(), stall);
+            }
+        }
+    }
+
+    private void writeCheckpoint(Checkpoint c, ByteBuffer bb) throws IOException {
+        //Write to a temporary file first and rename once it is fully written: a partially written checkpoint (due to
+        // a crash or the JVM exiting during the save) never appears under a valid checkpoint file name
         File saveFile = new File(rootDir, c.getFilename());
-        model.save(saveFile, this.saveUpdaterState);
+        File tmp = new File(rootDir, c.getFilename() + ".tmp");
+        int offset = bb.position();
+        byte[] array = bb.array();
+        try(FileOutputStream fos = new FileOutputStream(tmp); BufferedOutputStream bos = new BufferedOutputStream(fos)){
+            bos.write(array, offset, array.length - offset);
+            bos.flush();
+            fos.getFD().sync();
+        }
+        try {
+            java.nio.file.Files.move(tmp.toPath(), saveFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e){
+            java.nio.file.Files.move(tmp.toPath(), saveFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
 
         String s = c.toFileString();
         writeCheckpointInfo(s + "\n", checkpointRecordFile);
 
-        if(logSaving){
-            log.info("Model checkpoint saved: epoch {}, iteration {}, path: {}", c.getEpoch(), c.getIteration(),
-                    new File(rootDir, c.getFilename()).getPath() );
-        }
-        this.lastCheckpoint = c;
-
-
         //Finally: determine if we should delete some old models...
+        deleteOldCheckpoints(c.getCheckpointNum());
+    }
+
+    private void deleteOldCheckpoints(int latestCheckpointNum){
         if(keepMode == null || keepMode == KeepMode.ALL){
             return;
         } else if(keepMode == KeepMode.LAST){
@@ -231,7 +316,7 @@ public class CheckpointListener extends BaseListener implements Serializable {
                 if(cp.getCheckpointNum() > 0 && (cp.getCheckpointNum()+1) % keepEvery == 0){
                     //One of the "every M to keep" models
                     continue;
-                } else if(cp.getCheckpointNum() > lastCheckpointNum - keepLast ){        //Example: latest is 5, keep last 2 -> keep checkpoints 4 and 5
+                } else if(cp.getCheckpointNum() > latestCheckpointNum - keepLast ){        //Example: latest is 5, keep last 2 -> keep checkpoints 4 and 5
                     //One of last N to keep
                     continue;
                 }
@@ -242,6 +327,71 @@ public class CheckpointListener extends BaseListener implements Serializable {
         }
     }
 
+    private long recordStallTime(long start){
+        long stall = System.currentTimeMillis() - start;
+        lastStallTimeMs = stall;
+        totalStallTimeMs += stall;
+        return stall;
+    }
+
+    private void checkAsyncSaveError(){
+        if(asyncSaveError == null){
+            asyncSaveError = new AtomicReference<>();
+        }
+        Throwable t = asyncSaveError.getAndSet(null);
+        if(t != null){
+            throw new RuntimeException("Error saving checkpoint asynchronously", t);
+        }
+    }
+
+    /**
+     * Wait for all pending asynchronous checkpoint saves to complete (see {@link Builder#asyncSave(int)}).
+     * Should be called after training is complete, before checkpoints are loaded or the checkpoint directory is used.
+     * No-op if asynchronous saving is not enabled.
+     *
+     * @throws RuntimeException If an asynchronous checkpoint save failed
+     */
+    public void awaitPendingSaves(){
+        if(saveExecutor != null){
+            //Single thread executor: once this task has run, all previously submitted saves have completed
+            try {
+                saveExecutor.submit(() -> { }).get();
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for pending checkpoint saves", e);
+            } catch (ExecutionException e){
+                throw new RuntimeException(e);
+            }
+        }
+        if(asyncMaxPending > 0){
+            checkAsyncSaveError();
+        }
+    }
+
+    /**
+     * @return The time (in milliseconds) that training was blocked for when saving the most recent checkpoint, or
+     * -1 if no checkpoint has been saved yet. For asynchronous saving, this is the time taken to serialize the
+     * SameDiff instance to memory (including any time spent waiting for pending saves); otherwise it is the full save time.
+     */
+    public long getLastStallTimeMs(){
+        return lastStallTimeMs;
+    }
+
+    /**
+     * @return The total time (in milliseconds) that training was blocked for, for all checkpoints saved so far
+     */
+    public long getTotalStallTimeMs(){
+        return totalStallTimeMs;
+    }
+
+    /**
+     * @return The time (in milliseconds) taken to write the most recently written checkpoint to disk, or -1 if no
+     * checkpoint has been written yet
+     */
+    public long getLastWriteTimeMs(){
+        return lastWriteTimeMs;
+    }
+
     //Filename format: "<prefix>_checkpoint-#_epoch-#_iter-#_YYYY-MM-dd_HH-MM-ss.bin"
     private String getFileName(int checkpointNum, At at, long time){
         StringBuilder sb = new StringBuilder();
@@ -431,6 +581,7 @@ public class CheckpointListener extends BaseListener implements Serializable {
         private boolean saveUpdaterState = true;
         private boolean logSaving = true;
         private boolean deleteExisting = false;
+        private int asyncMaxPending = 0;
 
         private Integer saveEveryNEpochs;
         private Integer saveEveryNIterations;
@@ -592,6 +743,32 @@ public class CheckpointListener extends BaseListener implements Serializable {
             return this;
         }
 
+        /**
+         * Save checkpoints asynchronously, with at most 2 checkpoints pending at any time. See {@link #asyncSave(int)}
+         *
+         * @param asyncSave If true: save checkpoints asynchronously. False (default): save on the training thread
+         */
+        public Builder asyncSave(boolean asyncSave){
+            return asyncSave(asyncSave ? 2 : 0);
+        }
+
+        /**
+         * Save checkpoints asynchronously. When a checkpoint is due, the SameDiff instance (including array values and,
+         * optionally, updater state) is serialized to memory on the training thread, and training continues while the
+         * checkpoint is written to disk on a separate thread. At most {@code maxPending} serialized checkpoints are held
+         * in memory: if this many checkpoints are still being written when another one is due, training blocks until the
+         * oldest has been written.<br>
+         * Use {@link CheckpointListener#awaitPendingSaves()} to wait for all checkpoints to be written.<br>
+         * Disabled (0) by default: checkpoints are written on the training thread.
+         *
+         * @param maxPending Maximum number of checkpoints that may be pending at any time, or 0 to save synchronously
+         */
+        public Builder asyncSave(int maxPending){
+            Preconditions.checkArgument(maxPending >= 0, "Maximum number of pending checkpoints must be >= 0, got %s", maxPending);
+            this.asyncMaxPending = maxPending;
+            return this;
+        }
+
         public CheckpointListener build(){
             if(saveEveryNEpochs == null && saveEveryAmount == null && saveEveryNIterations == null){
                 throw new IllegalStateException("Cannot construct listener: no models will be saved (must use at least" +
@@ -0,0 +1,334 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.nd4j.autodiff.samediff;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.nd4j.autodiff.samediff.internal.ExecutionPlan;
+import org.nd4j.common.base.Preconditions;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.INDArrayIndex;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.util.*;
+
+/**
+ * Stateful, incremental execution of autoregressive models such as transformer decoders.<br>
+ * Decoders exported with a key/value cache (for example, ONNX or TensorFlow exports using "past key values") have, for
+ * each layer, a placeholder for the keys/values of all previous positions, and an output with the keys/values of
+ * the previous positions plus the new position(s) - usually the concatenation of the two along the sequence axis.
+ * Without a cache, each generated token requires re-running the model on the full prefix.<br>
+ * An IncrementalDecoder carries these state arrays between calls to {@link #step(Map)}: each state is kept in a buffer
+ * preallocated for {@code maxLength} positions, a view of the first {@link #getLength()} positions is passed to the
+ * state placeholder, and only the new positions of the state output are copied (appended) into the buffer after each
+ * step. Each step thus only needs the inputs (token ids, embeddings etc) for the new position(s).<br>
+ * <br>
+ * Usage:
+ * <pre>
+ * {@code
+ * IncrementalDecoder decoder = new IncrementalDecoder.Builder(sd)
+ *          .state("past_key_0", "present_key_0", 2)        //Placeholder, output, sequence axis
+ *          .state("past_value_0", "present_value_0", 2)
+ *          .outputs("logits")
+ *          .maxLength(512)
+ *          .build();
+ * Map<String,INDArray> out = decoder.step(Collections.singletonMap("input_ids", promptIds));
+ * while(...) {
+ *     out = decoder.step(Collections.singletonMap("input_ids", nextTokenId));
+ * }
+ * decoder.reset();     //Start a new sequence
+ * }
+ * </pre>
+ * Dimensions of the state placeholders other than the sequence axis that are not fixed in the graph (i.e., -1) are
+ * assumed to be the batch dimension, and are set to the decoder's batch size.<br>
+ * The outputs are calculated using a precompiled {@link ExecutionPlan} where possible.<br>
+ * Decoder instances are not thread safe: use one instance for each sequence (or batch of sequences) being decoded.
+ * Multiple decoders may share the same SameDiff instance.
+ */
+@Slf4j
+public class IncrementalDecoder {
+
+    @Getter
+    private final SameDiff sameDiff;
+    @Getter
+    private final int maxLength;
+    @Getter
+    private int batchSize;
+    private final List<String> outputs;
+    private final List<State> states;
+    private final ExecutionPlan plan;
+    @Getter
+    private int length;
+
+    private IncrementalDecoder(Builder b) {
+        this.sameDiff = b.sameDiff;
+        this.maxLength = b.maxLength;
+        this.batchSize = b.batchSize;
+        this.outputs = b.outputs;
+        this.states = b.states;
+
+        List<String> all = new ArrayList<>(outputs);
+        for (State s : states) {
+            all.add(s.output);
+        }
+        ExecutionPlan p = null;
+        try {
+            p = ExecutionPlan.compile(sameDiff, all);
+        } catch (IllegalStateException e) {
+            log.info("Could not compile execution plan for incremental decoding, using standard execution: {}", e.getMessage());
+        }
+        this.plan = p;
+        reset(batchSize);
+    }
+
+    /**
+     * Clear the state and start decoding a new sequence, with the same batch size. The state buffers are reused.
+     */
+    public void reset() {
+        length = 0;
+    }
+
+    /**
+     * Clear the state and start decoding a new sequence with the specified batch size.
+     *
+     * @param batchSize Batch size for the new sequence
+     */
+    public void reset(int batchSize) {
+        Preconditions.checkArgument(batchSize > 0, "Batch size must be positive, got %s", batchSize);
+        if (this.batchSize != batchSize || states.get(0).buffer == null) {
+            this.batchSize = batchSize;
+            for (State s : states) {
+                s.allocate(batchSize, maxLength);
+            }
+        }
+        length = 0;
+    }
+
+    /**
+     * Execute the model for the next position(s) of the sequence. The state placeholders are set to the current state
+     * (all previous positions), and the new positions are appended to the state.
+     *
+     * @param inputs Values for the other placeholders: i.e., the inputs for the new positions only
+     * @return The values of the decoder's outputs, for the new positions
+     * @throws IllegalStateException If the total number of positions would exceed the maximum length
+     */
+    public Map<String, INDArray> step(Map<String, INDArray> inputs) {
+        Map<String, INDArray> ph = new HashMap<>();
+        if (inputs != null) {
+            ph.putAll(inputs);
+        }
+        for (State s : states) {
+            Preconditions.checkState(!ph.containsKey(s.placeholder), "Placeholder \"%s\" is a state placeholder: its " +
+                    "value is set by the decoder, and must not be provided as an input", s.placeholder);
+            ph.put(s.placeholder, s.current(length));
+        }
+
+        Map<String, INDArray> out;
+        if (plan != null) {
+            out = sameDiff.output(plan, ph);
+        } else {
+            List<String> all = new ArrayList<>(outputs);
+            for (State s : states) {
+                all.add(s.output);
+            }
+            out = sameDiff.output(ph, all);
+        }
+
+        int newLength = -1;
+        for (State s : states) {
+            INDArray present = out.get(s.output);
+            long l = present.size(s.axis);
+            Preconditions.checkState(newLength < 0 || l == newLength, "State outputs have different lengths: output \"%s\" " +
+                    "has length %s along axis %s, expected %s", s.output, l, s.axis, newLength);
+            Preconditions.checkState(l > length, "State output \"%s\" has length %s along axis %s: expected the " +
+                    "previous state (length %s) plus at least one new position", s.output, l, s.axis, length);
+            Preconditions.checkState(l <= maxLength, "Cannot decode more than the maximum length of %s positions: state " +
+                    "output \"%s\" has length %s", maxLength, s.output, l);
+            newLength = (int) l;
+        }
+
+        //Append the new positions to the state buffers
+        for (State s : states) {
+            INDArray present = out.get(s.output);
+            INDArray dst = s.buffer.get(s.indices(length, newLength));
+            Preconditions.checkState(present.rank() == dst.rank(), "State output \"%s\" has rank %s, expected rank %s " +
+                    "(shape %s)", s.output, present.rank(), dst.rank(), dst.shape());
+            dst.assign(present.get(s.indices(length, newLength)));
+        }
+        length = newLength;
+
+        Map<String, INDArray> ret = new LinkedHashMap<>();
+        for (String s : outputs) {
+            ret.put(s, out.get(s));
+        }
+        return ret;
+    }
+
+    /**
+     * As per {@link #step(Map)}, but returning only the single specified output
+     */
+    public INDArray stepSingle(Map<String, INDArray> inputs, @NonNull String output) {
+        Preconditions.checkState(outputs.contains(output), "Output \"%s\" is not one of the decoder's outputs: %s", output, outputs);
+        return step(inputs).get(output);
+    }
+
+    /**
+     * Get the current value of a state - i.e., the keys/values for all positions so far. Note that the returned array
+     * is a view of the state buffer, and is modified by subsequent steps
+     *
+     * @param placeholder Name of the state placeholder
+     * @return The current state
+     */
+    public INDArray getState(@NonNull String placeholder) {
+        for (State s : states) {
+            if (s.placeholder.equals(placeholder)) {
+                return s.current(length);
+            }
+        }
+        throw new IllegalStateException("No state found for placeholder \"" + placeholder + "\"");
+    }
+
+    /**
+     * A single state: placeholder, output and the buffer holding the current value
+     */
+    private static class State {
+        private final String placeholder;
+        private final String output;
+        private final int axis;
+        private final long[] phShape;
+        private final DataType dataType;
+        private INDArray buffer;
+        private int batchSize;
+
+        private State(String placeholder, String output, int axis, long[] phShape, DataType dataType) {
+            this.placeholder = placeholder;
+            this.output = output;
+            this.axis = axis;
+            this.phShape = phShape;
+            this.dataType = dataType;
+        }
+
+        private void allocate(int batchSize, int maxLength) {
+            this.batchSize = batchSize;
+            buffer = Nd4j.create(dataType, shape(batchSize, maxLength));
+        }
+
+        private long[] shape(long batchSize, long length) {
+            long[] shape = phShape.clone();
+            for (int i = 0; i < shape.length; i++) {
+                if (i == axis) {
+                    shape[i] = length;
+                } else if (shape[i] < 0) {
+                    shape[i] = batchSize;
+                }
+            }
+            return shape;
+        }
+
+        private INDArrayIndex[] indices(long from, long to) {
+            INDArrayIndex[] idx = new INDArrayIndex[phShape.length];
+            for (int i = 0; i < idx.length; i++) {
+                idx[i] = i == axis ? NDArrayIndex.interval(from, to) : NDArrayIndex.all();
+            }
+            return idx;
+        }
+
+        private INDArray current(int length) {
+            if (length == 0) {
+                return Nd4j.create(dataType, shape(batchSize, 0));
+            }
+            return buffer.get(indices(0, length));
+        }
+    }
+
+    public static class Builder {
+        private final SameDiff sameDiff;
+        private final List<String> outputs = new ArrayList<>();
+        private final List<State> states = new ArrayList<>();
+        private int maxLength = -1;
+        private int batchSize = 1;
+
+        /**
+         * @param sameDiff The model to decode with
+         */
+        public Builder(@NonNull SameDiff sameDiff) {
+            this.sameDiff = sameDiff;
+        }
+
+        /**
+         * @param outputs The outputs to return from each step (for example, logits). Required
+         */
+        public Builder outputs(@NonNull String... outputs) {
+            this.outputs.addAll(Arrays.asList(outputs));
+            return this;
+        }
+
+        /**
+         * Add a state (for example, the keys or values of one attention layer).
+         *
+         * @param placeholder The placeholder for the state of the previous positions
+         * @param output      The output with the state for the previous positions and the new positions
+         * @param axis        The sequence axis of the placeholder and output
+         */
+        public Builder state(@NonNull String placeholder, @NonNull String output, int axis) {
+            Preconditions.checkState(sameDiff.hasVariable(placeholder) && sameDiff.getVariable(placeholder).isPlaceHolder(),
+                    "No placeholder with name \"%s\" exists", placeholder);
+            Preconditions.checkState(sameDiff.hasVariable(output), "No variable with name \"%s\" exists", output);
+            SDVariable ph = sameDiff.getVariable(placeholder);
+            long[] shape = ph.getShape();
+            Preconditions.checkState(shape != null, "Placeholder \"%s\" has no shape: the shape is required to " +
+                    "allocate the state buffer", placeholder);
+            if (axis < 0)
+                axis += shape.length;
+            Preconditions.checkArgument(axis >= 0 && axis < shape.length, "Invalid sequence axis %s for placeholder " +
+                    "\"%s\" with shape %s", axis, placeholder, shape);
+            states.add(new State(placeholder, output, axis, shape, ph.dataType()));
+            return this;
+        }
+
+        /**
+         * @param maxLength Maximum number of positions (prompt and generated), and the size of the state buffers
+         *                  along the sequence axis. Required
+         */
+        public Builder maxLength(int maxLength) {
+            this.maxLength = maxLength;
+            return this;
+        }
+
+        /**
+         * @param batchSize Batch size: number of sequences decoded together. Default: 1. See also {@link IncrementalDecoder#reset(int)}
+         */
+        public Builder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public IncrementalDecoder build() {
+            Preconditions.checkState(!outputs.isEmpty(), "No outputs were specified");
+            Preconditions.checkState(!states.isEmpty(), "No states were specified");
+            Preconditions.checkState(maxLength > 0, "Maximum length must be set and positive, got %s", maxLength);
+            return new IncrementalDecoder(this);
+        }
+    }
+}
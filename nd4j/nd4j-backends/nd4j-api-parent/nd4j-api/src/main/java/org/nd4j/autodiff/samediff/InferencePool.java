@@ -0,0 +1,242 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.nd4j.autodiff.samediff;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.nd4j.autodiff.listeners.At;
+import org.nd4j.autodiff.listeners.Listener;
+import org.nd4j.autodiff.listeners.Operation;
+import org.nd4j.autodiff.samediff.config.ExecutionResult;
+import org.nd4j.autodiff.samediff.config.SDValue;
+import org.nd4j.autodiff.samediff.internal.ExecutionPlan;
+import org.nd4j.autodiff.samediff.internal.InferenceSession;
+import org.nd4j.autodiff.samediff.internal.SessionMemMgr;
+import org.nd4j.autodiff.samediff.internal.memory.NoOpMemoryMgr;
+import org.nd4j.autodiff.samediff.internal.memory.PlannedMemoryMgr;
+import org.nd4j.common.base.Preconditions;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A bounded pool of {@link InferenceSession}s for concurrent inference on a single, shared SameDiff instance.<br>
+ * By default, SameDiff creates one session per calling thread, and keeps it for the lifetime of the SameDiff instance.
+ * For servers with large or frequently recycled thread pools, this means memory grows with the number of threads
+ * that have ever called output. An InferencePool instead leases a session to each request for the duration of that
+ * request only: at most {@code maxSessions} sessions are ever created, and callers block when all sessions are in use.<br>
+ * <br>
+ * Variables and constants are shared read-only between all sessions - they must not be modified (for example, by
+ * training or by calling {@link SDVariable#setArray(INDArray)}) while the pool is in use.<br>
+ * Each pooled session has its own memory manager instance (by default, a {@link PlannedMemoryMgr} with no thread-local
+ * state), so memory use is bounded by the number of sessions rather than the number of threads.<br>
+ * Create via {@link SameDiff#createInferencePool(int)}.
+ */
+@Slf4j
+public class InferencePool implements Closeable {
+
+    @Getter
+    private final SameDiff sameDiff;
+    @Getter
+    private final int maxSessions;
+    private final Supplier<SessionMemMgr> memMgrSupplier;
+    private final BlockingQueue<InferenceSession> idle;
+    private final AtomicInteger numCreated = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * @param sameDiff    SameDiff instance to perform inference with
+     * @param maxSessions Maximum number of sessions, and hence maximum number of concurrent executions
+     */
+    public InferencePool(@NonNull SameDiff sameDiff, int maxSessions) {
+        this(sameDiff, maxSessions, () -> new PlannedMemoryMgr(new NoOpMemoryMgr(), PlannedMemoryMgr.DEFAULT_MAX_PLANS));
+    }
+
+    /**
+     * @param sameDiff       SameDiff instance to perform inference with
+     * @param maxSessions    Maximum number of sessions, and hence maximum number of concurrent executions
+     * @param memMgrSupplier Creates the memory manager for each session. Must return a new instance on each call
+     */
+    public InferencePool(@NonNull SameDiff sameDiff, int maxSessions, @NonNull Supplier<SessionMemMgr> memMgrSupplier) {
+        Preconditions.checkArgument(maxSessions > 0, "Maximum number of sessions must be positive, got %s", maxSessions);
+        this.sameDiff = sameDiff;
+        this.maxSessions = maxSessions;
+        this.memMgrSupplier = memMgrSupplier;
+        this.idle = new ArrayBlockingQueue<>(maxSessions);
+    }
+
+    /**
+     * Do inference for the specified outputs for a single batch. Safe to call from multiple threads concurrently.
+     *
+     * @param placeholders The values to use for placeholders.
+     * @param outputs      The variables to calculate
+     * @return The values of the specified output variables
+     */
+    public Map<String, INDArray> output(Map<String, INDArray> placeholders, @NonNull String... outputs) {
+        Preconditions.checkState(outputs.length > 0, "No outputs were specified");
+        if (placeholders != null)
+            placeholders.values().forEach(arr -> arr.setCloseable(false));
+        InferenceSession session = lease();
+        try {
+            List<Listener> listeners = listenersStart();
+            ExecutionResult result = session.output(Arrays.asList(outputs), placeholders, Collections.emptyMap(), null,
+                    Collections.emptyList(), listeners, At.defaultAt(Operation.INFERENCE));
+            listenersEnd(listeners);
+            return toArrays(result);
+        } finally {
+            release(session);
+        }
+    }
+
+    /**
+     * Do inference for a single batch using a precompiled execution plan. Safe to call from multiple threads
+     * concurrently, including with the same plan. See {@link SameDiff#compile(String...)}
+     *
+     * @param plan         The plan to execute. Must have been compiled for this pool's SameDiff instance
+     * @param placeholders The values to use for placeholders.
+     * @return The values of the plan's output variables
+     */
+    public Map<String, INDArray> output(@NonNull ExecutionPlan plan, Map<String, INDArray> placeholders) {
+        Preconditions.checkState(plan.getSameDiff() == sameDiff, "Execution plan was compiled for a different SameDiff instance");
+        if (placeholders != null)
+            placeholders.values().forEach(arr -> arr.setCloseable(false));
+        InferenceSession session = lease();
+        try {
+            List<Listener> listeners = listenersStart();
+            ExecutionResult result = session.output(plan, placeholders, Collections.emptyMap(), null,
+                    listeners, At.defaultAt(Operation.INFERENCE));
+            listenersEnd(listeners);
+            return toArrays(result);
+        } finally {
+            release(session);
+        }
+    }
+
+    /**
+     * As per {@link #output(Map, String...)} but returning only the single specified output
+     */
+    public INDArray outputSingle(Map<String, INDArray> placeholders, @NonNull String output) {
+        return output(placeholders, output).get(output);
+    }
+
+    /**
+     * @return Number of sessions created so far. Never more than {@link #getMaxSessions()}
+     */
+    public int numSessions() {
+        return numCreated.get();
+    }
+
+    /**
+     * @return Number of sessions currently not leased to any caller
+     */
+    public int numIdleSessions() {
+        return idle.size();
+    }
+
+    /**
+     * Close the pool and the memory managers of all idle sessions. Sessions that are currently leased are closed when
+     * they are returned. Calling output after close results in an exception.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        InferenceSession s;
+        while ((s = idle.poll()) != null) {
+            s.getMmgr().close();
+        }
+    }
+
+    protected InferenceSession lease() {
+        Preconditions.checkState(!closed, "Inference pool has been closed");
+        InferenceSession s = idle.poll();
+        if (s != null)
+            return s;
+
+        //Create a new session if we are below the limit, otherwise wait for one to be returned
+        while (true) {
+            int n = numCreated.get();
+            if (n >= maxSessions)
+                break;
+            if (numCreated.compareAndSet(n, n + 1)) {
+                log.debug("Creating pooled InferenceSession {} of {}", n + 1, maxSessions);
+                s = sameDiff.getInferenceFactory().create(sameDiff);
+                s.setMmgr(memMgrSupplier.get());
+                return s;
+            }
+        }
+
+        try {
+            return idle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for an inference session", e);
+        }
+    }
+
+    protected void release(InferenceSession session) {
+        if (closed) {
+            session.getMmgr().close();
+        } else {
+            idle.add(session);
+        }
+    }
+
+    private List<Listener> listenersStart() {
+        List<Listener> active = new ArrayList<>();
+        for (Listener l : sameDiff.getListeners()) {
+            if (l.isActive(Operation.INFERENCE)) {
+                active.add(l);
+                l.operationStart(sameDiff, Operation.INFERENCE);
+            }
+        }
+        return active;
+    }
+
+    private void listenersEnd(List<Listener> active) {
+        for (Listener l : active) {
+            l.operationEnd(sameDiff, Operation.INFERENCE);
+        }
+    }
+
+    private static Map<String, INDArray> toArrays(ExecutionResult result) {
+        Map<String, INDArray> ret = new LinkedHashMap<>();
+        if (result.getValueOutputs() != null) {
+            for (Map.Entry<String, SDValue> e : result.getValueOutputs().entrySet()) {
+                e.getValue().setCloseable(false);
+                ret.put(e.getKey(), e.getValue().getTensorValue());
+            }
+        } else if (result.getOutputs() != null) {
+            for (Map.Entry<String, Optional<INDArray>> e : result.getOutputs().entrySet()) {
+                INDArray arr = e.getValue().orElse(null);
+                if (arr != null)
+                    arr.setCloseable(false);
+                ret.put(e.getKey(), arr);
+            }
+        }
+        return ret;
+    }
+}
@@ -1529,6 +1529,7 @@ public class SDVariable implements Serializable {
                     vCD.getControlDepsForVar().add(vThis.getName());
             }
         }
+        sameDiff.markStructureModified();
     }
 
 
@@ -96,8 +96,11 @@ import org.tensorflow.framework.GraphDef;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -112,7 +115,10 @@ import org.nd4j.common.config.ND4JClassLoading;
 
 @Slf4j
 public class SameDiff extends SDBaseOps {
+
     protected static final String GRAD_FN_KEY = "grad";
+    /** Default minimum estimated op cost (roughly, number of input elements) for inter-op parallel dispatch */
+    public static final long DEFAULT_INTER_OP_MIN_COST = 1 << 16;
 
     //Fields for graph structure and execution
     //Use trie to guarantee iteration order based on order they were added. Used in inputs() and flatbuffers serde, a trie also
@@ -144,6 +150,15 @@ public class SameDiff extends SDBaseOps {
 
     private final List<String> lossVariables = new ArrayList<>();
 
+    @Getter
+    private volatile ShapeCache shapeCache;     //Op output shapes for ExecutionPlan execution, if enabled
+    @Getter
+    private volatile ForkJoinPool interOpPool;  //Pool for parallel execution of independent ops in ExecutionPlans, if enabled
+    @Getter
+    private volatile long interOpMinCost = DEFAULT_INTER_OP_MIN_COST;
+    @Getter
+    private volatile long structureVersion;     //Incremented on every modification of the graph structure. See markStructureModified()
+
     private final List<Listener> listeners = new ArrayList<>();
 
     private final List<NameScope> nameScopes = new ArrayList<>();  //Used as a stack
@@ -167,6 +182,8 @@ public class SameDiff extends SDBaseOps {
     private boolean initializedTraining;                            //True if training setup has been done
     @Getter
     private Map<String, GradientUpdater> updaterMap;                 //GradientUpdater instance for each trainable parameter
+    private final Set<String> mappedVariables = new HashSet<>();     //Trainable parameters backed by a (private) memory mapped file - see load(File, boolean, boolean)
+    private final Set<String> readOnlyConstants = new HashSet<>();   //Constants backed by a read-only memory mapped file
 
     ////////////////////////////////////////
 
@@ -852,9 +869,21 @@ public class SameDiff extends SDBaseOps {
 
         if (!ops.containsKey(id)) {
             ops.put(id, SameDiffOp.builder().name(id).op(function).build());
+            markStructureModified();
         }
     }
 
+    /**
+     * Record a modification of the graph structure: ops or variables added, removed or renamed, or op inputs/outputs
+     * changed. Compiled {@link ExecutionPlan}s are invalidated by any such modification.<br>
+     * This is done by all SameDiff methods that modify the graph; it only needs to be called directly after modifying
+     * the maps returned by {@link #getOps()} or {@link #getVariables()}, or the {@link SameDiffOp} and {@link Variable}
+     * instances in them.
+     */
+    public void markStructureModified() {
+        structureVersion++;
+    }
+
 
     /**
      * Returns the name(s) of the inputs for the given function
@@ -1275,6 +1304,7 @@ public class SameDiff extends SDBaseOps {
         for (String resultName : varNames) {
             variables.get(resultName).setOutputOfOp(function.getOwnName());
         }
+        markStructureModified();
     }
 
     /**
@@ -1406,6 +1436,7 @@ public class SameDiff extends SDBaseOps {
             }
 
         }
+        markStructureModified();
     }
 
     /**
@@ -1475,7 +1506,7 @@ public class SameDiff extends SDBaseOps {
             if (!ArrayUtils.contains(function.argNames(), oldName))
                 oldFuncs.remove(function.getOwnName());
         }
-
+        markStructureModified();
     }
 
 
@@ -2055,6 +2086,8 @@ public class SameDiff extends SDBaseOps {
                 //Call TrainingSession to perform training
                 if (!initializedTraining)
                     initializeTraining();
+                if (!mappedVariables.isEmpty())
+                    copyMappedVariables();
 
                 lastLoss = ts.trainingIteration(
                         trainingConfig,
@@ -2255,6 +2288,22 @@ public class SameDiff extends SDBaseOps {
         }
     }
 
+    /**
+     * Copy the trainable parameters that are backed by a memory mapped file (see {@link #load(File, boolean, boolean)})
+     * to regular memory, so that they can be updated in place
+     */
+    protected void copyMappedVariables() {
+        for (String s : mappedVariables) {
+            if (variables.containsKey(s) && variablesArrays.hasArray(s)) {
+                INDArray arr = variablesArrays.getArray(s);
+                try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+                    variablesArrays.setArray(s, arr.dup(arr.ordering()));
+                }
+            }
+        }
+        mappedVariables.clear();
+    }
+
     /**
      * Convert the MultiDataSet to a {@code Map<String,INDArray>} based on the TrainingConfig settings.
      * The key is the placeholder/variable that the value INDArray should be associated with.
@@ -2983,6 +3032,151 @@ public class SameDiff extends SDBaseOps {
         return batchOutputHelper(placeholders,sequencePlaceHolders, listeners, Operation.INFERENCE, outputs);
     }
 
+    /**
+     * Compile a static {@link ExecutionPlan} for the specified outputs.<br>
+     * The plan precomputes the order of op execution and the inputs of each op, so that repeated inference calls via
+     * {@link #output(ExecutionPlan, Map)} skip the subgraph and dependency tracking calculations that are normally
+     * performed on every call. This is mainly useful for small batch inference, where this per-call overhead can
+     * be a significant fraction of total execution time.<br>
+     * Note that plans can only be compiled for graphs (or rather, the subgraph required to calculate the specified
+     * outputs) without control flow ops, and must be recompiled if the graph structure is modified.
+     *
+     * @param outputs The variables to calculate
+     * @return The compiled execution plan
+     */
+    public ExecutionPlan compile(@NonNull String... outputs) {
+        return ExecutionPlan.compile(this, Arrays.asList(outputs));
+    }
+
+    /**
+     * Do inference for a single batch, using a precompiled execution plan.
+     * See {@link #compile(String...)}
+     *
+     * @param plan         The plan to execute. Must have been compiled for this SameDiff instance
+     * @param placeholders The values to use for placeholders.
+     * @return The values of the plan's output variables
+     */
+    public Map<String, INDArray> output(@NonNull ExecutionPlan plan, Map<String, INDArray> placeholders) {
+        return output(plan, placeholders, null);
+    }
+
+    /**
+     * Do inference for a single batch, using a precompiled execution plan.
+     * See {@link #compile(String...)}
+     *
+     * @param plan         The plan to execute. Must have been compiled for this SameDiff instance
+     * @param placeholders The values to use for placeholders.
+     * @param listeners    Additional listeners to use during this operation.
+     * @return The values of the plan's output variables
+     */
+    public Map<String, INDArray> output(@NonNull ExecutionPlan plan, Map<String, INDArray> placeholders, List<Listener> listeners) {
+        if(placeholders != null)
+            placeholders.values().forEach(arr -> arr.setCloseable(false));
+
+        List<Listener> activeListeners = new ArrayList<>();
+        for (Listener l : this.listeners)
+            if (l.isActive(Operation.INFERENCE))
+                activeListeners.add(l);
+        if(listeners != null) {
+            for (Listener l : listeners)
+                if (l.isActive(Operation.INFERENCE))
+                    activeListeners.add(l);
+        }
+
+        for (Listener l : activeListeners) {
+            l.operationStart(this, Operation.INFERENCE);
+        }
+
+        ExecutionResult result = getOrCreateSession().output(plan, placeholders, Collections.emptyMap(), null,
+                activeListeners, At.defaultAt(Operation.INFERENCE));
+
+        Map<String,INDArray> ret = new LinkedHashMap<>();
+        for(Map.Entry<String,SDValue> entry : result.getValueOutputs().entrySet()) {
+            entry.getValue().setCloseable(false);
+            ret.put(entry.getKey(), entry.getValue().getTensorValue());
+        }
+
+        for (Listener l : activeListeners) {
+            l.operationEnd(this, Operation.INFERENCE);
+        }
+        return ret;
+    }
+
+    /**
+     * Create a bounded pool of inference sessions for concurrent inference on this SameDiff instance.<br>
+     * Unlike the output methods on SameDiff (which create and keep one session per calling thread), the pool leases
+     * a session to each request only for the duration of that request, so at most {@code maxSessions} sessions
+     * (and their memory) exist regardless of how many threads call it. See {@link InferencePool} for details.
+     *
+     * @param maxSessions Maximum number of sessions, and hence maximum number of concurrent executions
+     * @return The inference pool
+     */
+    public InferencePool createInferencePool(int maxSessions) {
+        return new InferencePool(this, maxSessions);
+    }
+
+    /**
+     * Enable caching of op output shapes for inference using {@link ExecutionPlan}s (including via {@link InferencePool}).
+     * When enabled, the output shapes of ops are calculated only on the first execution for each distinct input
+     * signature (plan outputs, placeholder shapes and data types), and reused on subsequent executions with the same
+     * signature. See {@link ShapeCache} for details. Replaces any existing cache.
+     *
+     * @param maxEntries Maximum number of input signatures to cache. Least recently used entries are evicted first
+     * @return The shape cache, which can be used to check the hit and miss counts
+     */
+    public ShapeCache enableShapeCache(int maxEntries) {
+        shapeCache = new ShapeCache(maxEntries);
+        return shapeCache;
+    }
+
+    /**
+     * Disable and remove the shape cache, if enabled. See {@link #enableShapeCache(int)}
+     */
+    public void disableShapeCache() {
+        shapeCache = null;
+    }
+
+    /**
+     * Enable inter-op parallelism for inference using {@link ExecutionPlan}s (including via {@link InferencePool}).<br>
+     * By default, ops are executed one at a time on the calling thread. When enabled, ops whose inputs are all available
+     * are dispatched onto the specified pool, so that independent branches of the graph (such as attention heads,
+     * inception blocks or multi-input towers) are computed concurrently. The calling thread also executes ops, and
+     * blocks until the plan has completed.<br>
+     * Ops estimated to be cheap (fewer than {@code minParallelCost} input elements, with matmul, convolution and
+     * similar ops weighted more heavily) are executed inline by the thread that made them ready, as the overhead of
+     * dispatching them to another thread would exceed their execution time.<br>
+     * Note that ops themselves may also use multiple threads (intra-op parallelism, see {@code OMP_NUM_THREADS}): for best
+     * results, the pool size multiplied by the number of threads per op should not exceed the number of cores.
+     * Listeners are called for each op as normal, but the order of op execution may differ between executions.
+     *
+     * @param pool            Pool to execute ops on
+     * @param minParallelCost Minimum estimated cost for an op to be executed on the pool. See {@link #DEFAULT_INTER_OP_MIN_COST}
+     */
+    public void enableInterOpParallelism(@NonNull ForkJoinPool pool, long minParallelCost) {
+        Preconditions.checkArgument(minParallelCost >= 0, "Minimum parallel cost must be >= 0, got %s", minParallelCost);
+        this.interOpMinCost = minParallelCost;
+        this.interOpPool = pool;
+    }
+
+    /**
+     * Disable inter-op parallelism, if enabled. See {@link #enableInterOpParallelism(ForkJoinPool, long)}
+     */
+    public void disableInterOpParallelism() {
+        interOpPool = null;
+    }
+
+    /**
+     * Get the inference session for the current thread, creating it if required
+     */
+    private InferenceSession getOrCreateSession() {
+        long threadId = Thread.currentThread().getId();
+        if (!sessions.containsKey(threadId)) {
+            log.info("Creating new InferenceSession for thread {}", threadId);
+            sessions.put(threadId, getInferenceFactory().create(this));
+        }
+        return sessions.get(threadId);
+    }
+
 
 
     protected ExecutionResult batchOutputHelper(Map<String, INDArray> placeholders, List<Listener> listeners, Operation operation, String... outputs) {
@@ -3096,11 +3290,7 @@ public class SameDiff extends SDBaseOps {
 
 
         Preconditions.checkState(outputs != null && outputs.length > 0, "No outputs were specified");
-        long threadId = Thread.currentThread().getId();
-        if (!sessions.containsKey(threadId)) {
-            log.info("Creating new InferenceSession for thread {}", threadId);
-            sessions.put(threadId, getInferenceFactory().create(this));
-        }
+        InferenceSession is = getOrCreateSession();
 
         List<String> phNames = inputs();
         if (placeholders == null && phNames != null) {
@@ -3114,8 +3304,6 @@ public class SameDiff extends SDBaseOps {
         }
 
         //Placeholder validation is performed in InferenceSession
-
-        InferenceSession is = sessions.get(threadId);
         return is.output(outputs == null ? Collections.emptyList() : Arrays.asList(outputs),
                 placeholders,
                 otherPlaceHolders,
@@ -3248,6 +3436,7 @@ public class SameDiff extends SDBaseOps {
         name = v.name();
         variables.put(name, Variable.builder().name(name).variable(v).build());
         constantArrays.setArray(name, constant);
+        markStructureModified();
         return v;
     }
 
@@ -3265,6 +3454,7 @@ public class SameDiff extends SDBaseOps {
     public SDVariable placeHolder(@NonNull String name, DataType dataType, long... shape) {
         SDVariable ret = new SDVariable(name, VariableType.PLACEHOLDER, this, shape, dataType);
         variables.put(name, Variable.builder().name(name).variable(ret).build());
+        markStructureModified();
         return ret;
     }
 
@@ -3537,6 +3727,7 @@ public class SameDiff extends SDBaseOps {
         } else {
             variables.remove(varName);
             sequences.remove(varName);
+            markStructureModified();
         }
     }
 
@@ -3860,6 +4051,7 @@ public class SameDiff extends SDBaseOps {
 
             variable.setVariableType(VariableType.CONSTANT);
         }
+        markStructureModified();
 
 
         if (trainingConfig != null && initializedTraining) {
@@ -3947,6 +4139,12 @@ public class SameDiff extends SDBaseOps {
             String n = variable.name();
             INDArray arr = variable.getArr();
             Preconditions.checkNotNull(arr, "Could not get array for variable %s: if this is a placeholder, use SDVariable.setArray before converting", variable);
+            if (readOnlyConstants.remove(n)) {
+                //Variables are modified in place: copy from the read-only memory mapped file
+                try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+                    arr = arr.dup(arr.ordering());
+                }
+            }
 
             variablesArrays.setArray(n, arr);  //DeviceLocal with delayed initialization, in case we don't actually need multiple threads
             constantArrays.removeArray(n);
@@ -3958,6 +4156,7 @@ public class SameDiff extends SDBaseOps {
 
             variable.setVariableType(VariableType.VARIABLE);
         }
+        markStructureModified();
 
 
         //For training: need to add new updater state
@@ -4101,6 +4300,7 @@ public class SameDiff extends SDBaseOps {
                 }
             }
         }
+        markStructureModified();
     }
 
     /**
@@ -4179,6 +4379,7 @@ public class SameDiff extends SDBaseOps {
 
         variables.remove(from);
         variables.put(to, v);
+        markStructureModified();
 
         if(v.getVariable().getVariableType() == VariableType.CONSTANT && constantArrays.hasArray(from)) {
             constantArrays.rename(from, to);
@@ -4296,6 +4497,7 @@ public class SameDiff extends SDBaseOps {
         }
 
         variables.get(varName).getInputsForOp().remove(function.getOwnName());
+        markStructureModified();
     }
 
     /**
@@ -4659,6 +4861,7 @@ public class SameDiff extends SDBaseOps {
 
         Preconditions.checkState(variable.getSameDiff() == this, "Same diff instance for variable must be the same!");
         variables.put(variable.name(), Variable.builder().name(variable.name()).variable(variable).build());
+        markStructureModified();
         return variable;
     }
 
@@ -5941,7 +6144,8 @@ public class SameDiff extends SDBaseOps {
             byte varType = (byte) variable.getVariableType().ordinal();
             if (variable.isConstant() || variable.isPlaceHolder() || variable.getVariableType() == VariableType.VARIABLE) {
                 //Don't export array type (i.e., activations), these are always replaced/re-calculated on each step
-                array = arr == null ? 0 : arr.toFlatArray(bufferBuilder);
+                //Arrays are written so that they can be used in place when the file is memory mapped
+                array = arr == null ? 0 : FlatBuffersMapper.toMappableFlatArray(bufferBuilder, arr);
             }
 
             if (variable.getVariableType() == VariableType.PLACEHOLDER) {
@@ -6185,6 +6389,32 @@ public class SameDiff extends SDBaseOps {
         }
     }
 
+    /**
+     * As per {@link #load(File, boolean)}, optionally memory mapping the file instead of reading it into memory.<br>
+     * When memoryMap is true, constant and variable arrays are backed directly by the mapped file where possible (files
+     * saved with this version or later, in the native byte order), so loading does not copy the array data and
+     * multiple processes loading the same file share the operating system's page cache. The mapping is private: the file
+     * is never modified. Trainable parameters are copied to regular memory before they are first updated by
+     * {@link #fit()}.<br>
+     * If the file is not writable by this process, the mapping is read-only. In that case only constants use the file
+     * in place: variable arrays are copied at load time, and constants are copied when converted to variables (see
+     * {@link #convertToVariables(List)}). Constant arrays must then not be modified in place (for example, via
+     * {@code getArr().assign(...)}): use {@link #assignArray(INDArray, SDVariable)} or
+     * {@link #setArrayForVariable(String, INDArray)} to replace their values instead.
+     *
+     * @param file             The file to load the network from
+     * @param loadUpdaterState If true - load the updater state. See {@link #load(File, boolean)}
+     * @param memoryMap        If true - memory map the file
+     * @return The loaded SameDiff network
+     */
+    public static SameDiff load(@NonNull File file, boolean loadUpdaterState, boolean memoryMap) {
+        try {
+            return fromFlatFile(file, loadUpdaterState, memoryMap);
+        } catch (IOException e) {
+            throw new RuntimeException("Error loading SameDiff instance from file", e);
+        }
+    }
+
     /**
      * As per {@link #load(File, boolean)} but the SameDiff instance
      *
@@ -6291,6 +6521,33 @@ public class SameDiff extends SDBaseOps {
         return fromFlatBuffers(bbIn, loadUpdaterState);
     }
 
+    /**
+     * Create a {@link SameDiff} instance from a file, optionally memory mapping the file.
+     * See {@link #load(File, boolean, boolean)} for details
+     *
+     * @param file             the file to load from
+     * @param loadUpdaterState If true, load the updater state (Adam etc state). For training, use true. For inference, use false
+     * @param memoryMap        If true, memory map the file and use the array data in place where possible
+     * @return the loaded same diff instance
+     * @throws IOException
+     */
+    public static SameDiff fromFlatFile(@NonNull File file, boolean loadUpdaterState, boolean memoryMap) throws IOException {
+        if (!memoryMap) {
+            return fromFlatFile(file, loadUpdaterState);
+        }
+
+        ByteBuffer bbIn;
+        boolean writable = file.canWrite();
+        try (FileChannel fc = writable ? FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE) :
+                FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Preconditions.checkState(fc.size() <= Integer.MAX_VALUE, "Cannot memory map file of size %s bytes: FlatBuffers " +
+                    "files are limited to 2GB", fc.size());
+            //Private mapping: writes (if any) are copy-on-write and never reach the file
+            bbIn = fc.map(writable ? FileChannel.MapMode.PRIVATE : FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        }
+        return fromFlatBuffers(bbIn, loadUpdaterState, true);
+    }
+
     /**
      * Create a {@link SameDiff}
      * instance from a byte buffers
@@ -6317,6 +6574,14 @@ public class SameDiff extends SDBaseOps {
      * @throws IOException
      */
     public static SameDiff fromFlatBuffers(ByteBuffer bbIn, boolean loadUpdaterState) throws IOException {
+        return fromFlatBuffers(bbIn, loadUpdaterState, false);
+    }
+
+    /**
+     * @param useArraysInPlace If true: constant and variable arrays use the data in bbIn directly where possible, instead
+     *                         of copying it. Only valid if bbIn is not modified or reused afterwards
+     */
+    private static SameDiff fromFlatBuffers(ByteBuffer bbIn, boolean loadUpdaterState, boolean useArraysInPlace) throws IOException {
 
         FlatGraph fg = FlatGraph.getRootAsFlatGraph(bbIn);
 
@@ -6398,9 +6663,17 @@ public class SameDiff extends SDBaseOps {
 
             FlatArray fa = v.ndarray();
             if (fa != null && vt != VariableType.ARRAY) {
-                INDArray arr;
-                try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
-                    arr = Nd4j.createFromFlatArray(fa);
+                //Trainable parameters are modified in place: these can't use a read-only mapping
+                boolean inPlace = useArraysInPlace && (vt != VariableType.VARIABLE || !bbIn.isReadOnly());
+                INDArray arr = inPlace ? FlatBuffersMapper.fromMappedFlatArray(fa) : null;
+                if (arr == null) {
+                    try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+                        arr = Nd4j.createFromFlatArray(fa);
+                    }
+                } else if (vt == VariableType.VARIABLE) {
+                    sd.mappedVariables.add(n);
+                } else if (bbIn.isReadOnly()) {
+                    sd.readOnlyConstants.add(n);
                 }
                 sd.setArrayForVariable(n, arr);
             }
@@ -38,6 +38,11 @@ import org.nd4j.linalg.dataset.api.MultiDataSet;
 import org.nd4j.common.function.Predicate;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 import static org.nd4j.imports.VariableUtils.stripVarSuffix;
@@ -100,6 +105,13 @@ public abstract class AbstractSession<T, O> {
      */
     protected final Set<String> zeroInputOpsInSubgraph = new HashSet<>();
 
+    /**
+     * Held by the executing thread during parallel execution of an {@link ExecutionPlan} (see
+     * {@link SameDiff#enableInterOpParallelism(ForkJoinPool, long)}) for everything except the op computation itself:
+     * all session state (node values, array tracking, memory manager) is only accessed while holding this lock
+     */
+    protected final ReentrantLock execLock = new ReentrantLock();
+
     public AbstractSession(@NonNull SameDiff sameDiff) {
         this.sameDiff = sameDiff;
     }
@@ -193,23 +205,7 @@ public abstract class AbstractSession<T, O> {
         Preconditions.checkState(!variables.isEmpty() || !requiredActivations.isEmpty(),
                 "Variables to perform forward pass for must not be empty");
 
-        // ensure all placeholders are in a mutable map
-        otherPlaceHolderValues = new LinkedHashMap<>(otherPlaceHolderValues);
-
-        // ensure all placeholders passed in are placed with the other placeholder
-        // values for consistency
-        // later in execution we only use other place holder values
-        if (placeholderValues != null && !placeholderValues.isEmpty()) {
-            for (Map.Entry<String, T> placeHolderValue : placeholderValues.entrySet()) {
-                if (otherPlaceHolderValues.containsKey(placeHolderValue.getKey())) {
-                    throw new IllegalArgumentException(
-                            "Unable to determine which placeholder to use. Please ensure all names across both placeholders are unique");
-                }
-
-                otherPlaceHolderValues.put(placeHolderValue.getKey(),
-                        SDValue.create((INDArray) placeHolderValue.getValue()));
-            }
-        }
+        otherPlaceHolderValues = mergePlaceholders(placeholderValues, otherPlaceHolderValues);
 
         if (requiredActivations == null)
             requiredActivations = Collections.emptySet();
@@ -717,6 +713,274 @@ public abstract class AbstractSession<T, O> {
                 .valueOutputs(outValues).build();
     }
 
+    /**
+     * Get the output of the session using a precompiled {@link ExecutionPlan}.<br>
+     * Unlike {@link #output(List, Map, Map, MultiDataSet, Collection, List, At)}, no subgraph calculation or
+     * dependency tracking is performed: the ops are executed in the order specified by the plan, using the
+     * inputs resolved when the plan was compiled.
+     *
+     * @param plan                   The execution plan. Must have been compiled for this session's SameDiff instance
+     * @param placeholderValues      The placeholder values (if any). May be null.
+     * @param otherPlaceHolderValues other placeholder values that may not be ndarrays.
+     * @param batch                  The batch data, used to call Listener.opExecution
+     * @return The values of the outputs specified by the plan
+     */
+    public ExecutionResult output(@NonNull ExecutionPlan plan,
+            Map<String, T> placeholderValues,
+            Map<String, SDValue> otherPlaceHolderValues,
+            MultiDataSet batch,
+            List<Listener> listeners, At at) {
+        Preconditions.checkState(plan.getSameDiff() == sameDiff,
+                "Execution plan was compiled for a different SameDiff instance");
+        Preconditions.checkState(plan.isValid(), "Execution plan is no longer valid: the graph structure has been " +
+                "modified since the plan was compiled. Recompile the plan using SameDiff.compile(String...)");
+
+        otherPlaceHolderValues = mergePlaceholders(placeholderValues, otherPlaceHolderValues);
+        if (at == null)
+            at = At.defaultAt();
+
+        placeholderValues = preprocessPlaceholders(placeholderValues, at);
+        otherPlaceHolderValues = preprocessValuePlaceholders(otherPlaceHolderValues, at);
+
+        for (String s : plan.getRequiredPlaceholders()) {
+            if (!otherPlaceHolderValues.containsKey(s) && (placeholderValues == null || !placeholderValues.containsKey(s))) {
+                throw new IllegalStateException("An input placeholder \"" + s + "\" is required to calculate the requested outputs," +
+                        " but a placeholder value was not provided");
+            }
+        }
+
+        dt.clear();
+        subgraph.clear();
+        subgraphOps.clear();
+        subgraph.addAll(plan.getSubgraph());
+        subgraphOps.addAll(plan.getSubgraphOps());
+
+        Set<String> reqOutputVariablesSet = plan.getOutputSet();
+        Map<String, SDValue> outValues = new LinkedHashMap<>();
+        for (String s : plan.getConstantsAndVariables()) {
+            SDValue value = SDValue.create((INDArray) getConstantOrVariable(s));
+            putNodeValue(value, VarId.createDefault(s));
+            if (reqOutputVariablesSet.contains(s))
+                outValues.put(s, value);
+        }
+        for (String s : plan.getRequiredPlaceholders()) {
+            SDValue value = placeholderValues != null && placeholderValues.containsKey(s) ?
+                    SDValue.create((INDArray) placeholderValues.get(s)) : otherPlaceHolderValues.get(s);
+            putNodeValue(value, VarId.createDefault(s));
+            if (reqOutputVariablesSet.contains(s))
+                outValues.put(s, value);
+        }
+
+        PlanExecution exec = new PlanExecution(plan, placeholderValues, otherPlaceHolderValues, batch, listeners, at, outValues);
+        ForkJoinPool pool = sameDiff.getInterOpPool();
+        Thread t = Thread.currentThread();
+        boolean inPool = t instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) t).getPool() == pool;
+        if (pool != null && !inPool && plan.numSteps() > 1) {
+            exec.executeParallel(pool, sameDiff.getInterOpMinCost());
+        } else {
+            for (int i = 0; i < plan.numSteps(); i++) {
+                exec.executeStep(i);
+            }
+        }
+
+        outValues = postProcessOutputValues(outValues);
+        return ExecutionResult.builder()
+                .valueOutputs(outValues).build();
+    }
+
+    /**
+     * Estimate the cost of executing the specified plan step, given the current node values. Used during parallel
+     * plan execution: steps with a cost below the threshold are executed inline on the current thread, rather than
+     * being submitted to the inter-op thread pool. Called while holding {@link #execLock}.
+     *
+     * @return The estimated cost, in units of array elements processed
+     */
+    protected long estimateCost(ExecutionPlan.Step step, Map<String, T> placeholderValues) {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * The state of a single execution of an {@link ExecutionPlan}: executes steps either sequentially, or in parallel
+     * (in dependency order) on a ForkJoinPool
+     */
+    protected class PlanExecution {
+        private final ExecutionPlan plan;
+        private final Map<String, T> placeholderValues;
+        private final Map<String, SDValue> otherPlaceHolderValues;
+        private final MultiDataSet batch;
+        private final List<Listener> listeners;
+        private final At at;
+        private final Map<String, SDValue> outValues;
+        private final FrameIter outerFrame = new FrameIter(OUTER_FRAME, 0, null);
+
+        //Parallel execution only - all accessed while holding execLock
+        private int[] remainingDeps;
+        private int numExecuted;
+        private ForkJoinPool pool;
+        private long minCost;
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+        private final Phaser phaser = new Phaser(1);
+
+        protected PlanExecution(ExecutionPlan plan, Map<String, T> placeholderValues, Map<String, SDValue> otherPlaceHolderValues,
+                                MultiDataSet batch, List<Listener> listeners, At at, Map<String, SDValue> outValues) {
+            this.plan = plan;
+            this.placeholderValues = placeholderValues;
+            this.otherPlaceHolderValues = otherPlaceHolderValues;
+            this.batch = batch;
+            this.listeners = listeners;
+            this.at = at;
+            this.outValues = outValues;
+        }
+
+        protected void executeStep(int idx) {
+            ExecutionPlan.Step step = plan.getSteps().get(idx);
+            Set<String> reqOutputVariablesSet = plan.getOutputSet();
+            O parameterizedOp = getAndParameterizeOp(step.getOpName(), outerFrame, step.getInputs(), null,
+                    step.getConstAndPhInputs(), placeholderValues, reqOutputVariablesSet, otherPlaceHolderValues);
+            ExecutionResult opOutputValues = getOutputs(parameterizedOp, outerFrame, step.getInputs(), null,
+                    step.getConstAndPhInputs(), listeners, at, batch, reqOutputVariablesSet, otherPlaceHolderValues);
+
+            List<VarId> outIds = step.getOutputs();
+            Preconditions.checkState(!opOutputValues.hasSingle() || opOutputValues.numResults() == outIds.size(),
+                    "Unexpected number of outputs from executed op %s: got %s outputs when %s outputs were expected",
+                    step.getOpName(), opOutputValues.numResults(), outIds.size());
+            for (int i = 0; i < opOutputValues.numResults(); i++) {
+                SDValue value = opOutputValues.hasValues() ? opOutputValues.valueWithKeyAtIndex(i, false)
+                        : SDValue.create(opOutputValues.resultAt(i));
+                if (value == null)
+                    continue;
+                VarId vid = outIds.get(i);
+                putNodeValue(value, vid);
+                if (reqOutputVariablesSet.contains(vid.getVariable()))
+                    outValues.put(vid.getVariable(), value);
+            }
+        }
+
+        /**
+         * Execute all steps, dispatching steps whose dependencies are satisfied onto the pool. The calling thread
+         * blocks until all steps have been executed
+         */
+        protected void executeParallel(ForkJoinPool pool, long minCost) {
+            this.pool = pool;
+            this.minCost = minCost;
+            this.remainingDeps = plan.getStepDependencyCounts().clone();
+            List<Integer> roots = new ArrayList<>();
+            for (int i = 0; i < remainingDeps.length; i++) {
+                if (remainingDeps[i] == 0)
+                    roots.add(i);
+            }
+
+            Deque<Integer> local = new ArrayDeque<>();
+            execLock.lock();
+            try {
+                dispatch(roots, local);
+            } catch (Throwable t) {
+                error.compareAndSet(null, t);
+            } finally {
+                execLock.unlock();
+            }
+            run(local);
+            phaser.arriveAndAwaitAdvance();     //Wait for all submitted tasks (including any still running after an error)
+
+            Throwable t = error.get();
+            if (t != null) {
+                if (t instanceof RuntimeException)
+                    throw (RuntimeException) t;
+                if (t instanceof Error)
+                    throw (Error) t;
+                throw new RuntimeException("Error during parallel execution of execution plan", t);
+            }
+            Preconditions.checkState(numExecuted == plan.numSteps(), "Parallel plan execution did not complete: executed %s of %s ops",
+                    numExecuted, plan.numSteps());
+        }
+
+        /**
+         * Execute steps on the current thread, until there are no more steps to execute inline
+         */
+        private void run(Deque<Integer> local) {
+            while (!local.isEmpty() && error.get() == null) {
+                int idx = local.pop();
+                execLock.lock();
+                try {
+                    executeStep(idx);
+                    numExecuted++;
+                    List<Integer> ready = null;
+                    for (int d : plan.getStepDependents()[idx]) {
+                        if (--remainingDeps[d] == 0) {
+                            if (ready == null)
+                                ready = new ArrayList<>();
+                            ready.add(d);
+                        }
+                    }
+                    if (ready != null)
+                        dispatch(ready, local);
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                } finally {
+                    execLock.unlock();
+                }
+            }
+        }
+
+        /**
+         * Decide where to execute the specified ready steps: cheap steps (and one expensive step) are executed on the
+         * current thread, other expensive steps are submitted to the pool. Must be called while holding execLock
+         */
+        private void dispatch(List<Integer> ready, Deque<Integer> local) {
+            boolean keptExpensive = false;
+            for (int idx : ready) {
+                long cost = estimateCost(plan.getSteps().get(idx), placeholderValues);
+                if (cost < minCost) {
+                    local.addFirst(idx);
+                } else if (!keptExpensive) {
+                    local.addLast(idx);
+                    keptExpensive = true;
+                } else {
+                    phaser.register();
+                    try {
+                        pool.execute(() -> {
+                            try {
+                                Deque<Integer> d = new ArrayDeque<>();
+                                d.push(idx);
+                                run(d);
+                            } finally {
+                                phaser.arriveAndDeregister();
+                            }
+                        });
+                    } catch (RuntimeException e) {
+                        phaser.arriveAndDeregister();
+                        throw e;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Combine the INDArray placeholders with the other (SDValue) placeholders, so that later in execution we only
+     * need to use the other placeholder values
+     *
+     * @return A new, mutable map containing all placeholder values
+     */
+    protected Map<String, SDValue> mergePlaceholders(Map<String, T> placeholderValues,
+            Map<String, SDValue> otherPlaceHolderValues) {
+        // ensure all placeholders are in a mutable map
+        Map<String, SDValue> out = otherPlaceHolderValues == null ? new LinkedHashMap<>()
+                : new LinkedHashMap<>(otherPlaceHolderValues);
+
+        if (placeholderValues != null && !placeholderValues.isEmpty()) {
+            for (Map.Entry<String, T> placeHolderValue : placeholderValues.entrySet()) {
+                if (out.containsKey(placeHolderValue.getKey())) {
+                    throw new IllegalArgumentException(
+                            "Unable to determine which placeholder to use. Please ensure all names across both placeholders are unique");
+                }
+
+                out.put(placeHolderValue.getKey(), SDValue.create((INDArray) placeHolderValue.getValue()));
+            }
+        }
+        return out;
+    }
+
     private FrameIter getExitIter(ExecStep es) {
         FrameIter outFrameIter;
         // Exit node forwards input to parent frame
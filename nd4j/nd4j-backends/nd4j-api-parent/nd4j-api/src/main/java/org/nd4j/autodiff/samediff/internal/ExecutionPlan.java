@@ -0,0 +1,308 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.nd4j.autodiff.samediff.internal;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.nd4j.autodiff.functions.DifferentialFunction;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.VariableType;
+import org.nd4j.common.base.Preconditions;
+import org.nd4j.linalg.api.ops.impl.controlflow.compat.*;
+
+import java.util.*;
+
+/**
+ * A pre-compiled, static execution schedule for a fixed set of requested outputs.<br>
+ * Normal SameDiff execution ({@link AbstractSession#output(List, Map, Map, org.nd4j.linalg.dataset.api.MultiDataSet, Collection, List, org.nd4j.autodiff.listeners.At)})
+ * recomputes the required subgraph and uses a dependency tracker to determine the order of execution on every call.
+ * This is necessary for graphs with control flow (Switch/Merge/Enter/Exit/NextIteration), but for static graphs
+ * the order of execution never changes between calls.<br>
+ * An ExecutionPlan performs that work once: it determines the subgraph required to calculate the requested outputs,
+ * sorts the ops topologically, and resolves the inputs of each op ahead of time. The plan can then be executed
+ * repeatedly via {@link SameDiff#output(ExecutionPlan, Map)}.<br>
+ * Plans are only valid for graphs without control flow ops. If the graph structure is modified after compilation
+ * (ops or variables added, removed or renamed, or op inputs changed - see {@link SameDiff#markStructureModified()}),
+ * the plan is considered stale and must be recompiled.
+ */
+@Slf4j
+@Getter
+public class ExecutionPlan {
+
+    private final SameDiff sameDiff;
+    private final List<String> outputs;
+    private final Set<String> outputSet;
+    /** Names of all variables (of any type) that may be calculated or used when executing this plan */
+    private final Set<String> subgraph;
+    /** Names of all ops executed by this plan */
+    private final Set<String> subgraphOps;
+    /** Constants and variables used as inputs by ops in this plan, or requested as outputs */
+    private final List<String> constantsAndVariables;
+    /** Placeholders that must be provided to execute this plan */
+    private final List<String> requiredPlaceholders;
+    /** Ops to execute, in order */
+    private final List<Step> steps;
+    /** Ops whose output shapes depend only on the placeholder shapes and data types. See {@link ShapeCache} */
+    private final Set<String> shapeCacheableOps;
+    /** For each step (by index): the number of earlier steps that must be executed before it */
+    private final int[] stepDependencyCounts;
+    /** For each step (by index): the indices of the steps that depend on it */
+    private final int[][] stepDependents;
+
+    //Used to detect modification of the graph after the plan was compiled. The op and variable counts also catch
+    // direct modification of the ops/variables maps without a call to SameDiff.markStructureModified()
+    private final long structureVersion;
+    private final int numOps;
+    private final int numVariables;
+
+    private ExecutionPlan(SameDiff sameDiff, List<String> outputs, Set<String> subgraph, Set<String> subgraphOps,
+                          List<String> constantsAndVariables, List<String> requiredPlaceholders, List<Step> steps,
+                          int[] stepDependencyCounts, int[][] stepDependents) {
+        this.sameDiff = sameDiff;
+        this.outputs = Collections.unmodifiableList(outputs);
+        this.outputSet = Collections.unmodifiableSet(new LinkedHashSet<>(outputs));
+        this.subgraph = Collections.unmodifiableSet(subgraph);
+        this.subgraphOps = Collections.unmodifiableSet(subgraphOps);
+        this.constantsAndVariables = Collections.unmodifiableList(constantsAndVariables);
+        this.requiredPlaceholders = Collections.unmodifiableList(requiredPlaceholders);
+        this.steps = Collections.unmodifiableList(steps);
+        this.shapeCacheableOps = Collections.unmodifiableSet(ShapeCache.shapeCacheableOps(sameDiff, steps));
+        this.stepDependencyCounts = stepDependencyCounts;
+        this.stepDependents = stepDependents;
+        this.structureVersion = sameDiff.getStructureVersion();
+        this.numOps = sameDiff.getOps().size();
+        this.numVariables = sameDiff.getVariables().size();
+    }
+
+    /**
+     * @return Number of ops executed by this plan
+     */
+    public int numSteps() {
+        return steps.size();
+    }
+
+    /**
+     * @return True if the graph structure has not been modified since this plan was compiled
+     */
+    public boolean isValid() {
+        return sameDiff.getStructureVersion() == structureVersion && sameDiff.getOps().size() == numOps &&
+                sameDiff.getVariables().size() == numVariables;
+    }
+
+    /**
+     * Compile an execution plan for the specified outputs
+     *
+     * @param sameDiff SameDiff instance to compile the plan for
+     * @param outputs  Names of the variables to calculate
+     * @return The execution plan
+     * @throws IllegalStateException If the required subgraph contains control flow ops, which cannot be statically scheduled
+     */
+    public static ExecutionPlan compile(@NonNull SameDiff sameDiff, @NonNull Collection<String> outputs) {
+        Preconditions.checkState(!outputs.isEmpty(), "Cannot compile execution plan: no outputs were specified");
+        for (String s : outputs) {
+            Preconditions.checkState(sameDiff.hasVariable(s), "Cannot compile execution plan: requested output variable %s " +
+                    "does not exist in SameDiff instance", s);
+        }
+
+        //Step 1: work backwards from the requested outputs to determine the variables and ops we need
+        Set<String> subgraph = new LinkedHashSet<>();
+        Set<String> subgraphOps = new LinkedHashSet<>();
+        Queue<String> processingQueue = new LinkedList<>(outputs);
+        while (!processingQueue.isEmpty()) {
+            String varName = processingQueue.remove();
+            if (!subgraph.add(varName))
+                continue;
+
+            Variable v = sameDiff.getVariables().get(varName);
+            Preconditions.checkState(v != null, "Cannot compile execution plan: no variable found with name %s", varName);
+            if (v.getControlDeps() != null) {
+                for (String opName : v.getControlDeps()) {
+                    addOp(sameDiff, opName, subgraphOps, processingQueue);
+                }
+            }
+
+            if (v.getOutputOfOp() != null) {
+                addOp(sameDiff, v.getOutputOfOp(), subgraphOps, processingQueue);
+            }
+        }
+
+        //Step 2: sort the ops topologically. We start from the order ops were added to the graph, which is usually
+        // already a valid execution order, so that the schedule is deterministic
+        Map<String, Set<String>> opDependsOn = new HashMap<>();
+        Map<String, List<String>> opIsDependencyFor = new HashMap<>();
+        for (String opName : subgraphOps) {
+            Set<String> deps = new LinkedHashSet<>();
+            SameDiffOp op = sameDiff.getOps().get(opName);
+            collectProducingOps(sameDiff, op.getInputsToOp(), deps);
+            collectProducingOps(sameDiff, op.getControlDeps(), deps);
+            deps.remove(opName);
+            opDependsOn.put(opName, deps);
+            for (String d : deps) {
+                opIsDependencyFor.computeIfAbsent(d, k -> new ArrayList<>()).add(opName);
+            }
+        }
+
+        Queue<String> ready = new LinkedList<>();
+        Map<String, Integer> remaining = new HashMap<>();
+        for (String opName : sameDiff.getOps().keySet()) {
+            if (!subgraphOps.contains(opName))
+                continue;
+            int n = opDependsOn.get(opName).size();
+            remaining.put(opName, n);
+            if (n == 0)
+                ready.add(opName);
+        }
+
+        List<String> order = new ArrayList<>(subgraphOps.size());
+        while (!ready.isEmpty()) {
+            String opName = ready.remove();
+            order.add(opName);
+            List<String> dependents = opIsDependencyFor.get(opName);
+            if (dependents != null) {
+                for (String d : dependents) {
+                    int r = remaining.get(d) - 1;
+                    remaining.put(d, r);
+                    if (r == 0)
+                        ready.add(d);
+                }
+            }
+        }
+        Preconditions.checkState(order.size() == subgraphOps.size(), "Cannot compile execution plan: graph contains a cycle " +
+                "between ops (%s of %s ops could be scheduled)", order.size(), subgraphOps.size());
+
+        //Step 3: resolve the inputs for each op ahead of time
+        List<Step> steps = new ArrayList<>(order.size());
+        for (String opName : order) {
+            SameDiffOp op = sameDiff.getOps().get(opName);
+            Set<AbstractSession.VarId> inputs = new LinkedHashSet<>();
+            Set<String> constAndPhInputs = new LinkedHashSet<>();
+            if (op.getInputsToOp() != null) {
+                for (String s : op.getInputsToOp()) {
+                    VariableType vt = sameDiff.getVariable(s).getVariableType();
+                    if (vt == VariableType.CONSTANT || vt == VariableType.PLACEHOLDER) {
+                        constAndPhInputs.add(s);
+                    } else {
+                        inputs.add(AbstractSession.VarId.createDefault(s));
+                    }
+                }
+            }
+
+            List<AbstractSession.VarId> outputIds = new ArrayList<>();
+            for (String s : op.getOutputsOfOp()) {
+                outputIds.add(AbstractSession.VarId.createDefault(s));
+            }
+            steps.add(new Step(opName, op, Collections.unmodifiableSet(inputs), Collections.unmodifiableSet(constAndPhInputs),
+                    Collections.unmodifiableList(outputIds)));
+        }
+
+        //Step 4: record the dependencies between steps, for parallel execution of independent steps
+        Map<String, Integer> stepIdx = new HashMap<>();
+        for (int i = 0; i < order.size(); i++) {
+            stepIdx.put(order.get(i), i);
+        }
+        int[] stepDependencyCounts = new int[order.size()];
+        int[][] stepDependents = new int[order.size()][];
+        for (int i = 0; i < order.size(); i++) {
+            stepDependencyCounts[i] = opDependsOn.get(order.get(i)).size();
+            List<String> dependents = opIsDependencyFor.get(order.get(i));
+            stepDependents[i] = new int[dependents == null ? 0 : dependents.size()];
+            for (int j = 0; j < stepDependents[i].length; j++) {
+                stepDependents[i][j] = stepIdx.get(dependents.get(j));
+            }
+        }
+
+        List<String> constantsAndVariables = new ArrayList<>();
+        List<String> placeholders = new ArrayList<>();
+        for (String s : subgraph) {
+            VariableType vt = sameDiff.getVariable(s).getVariableType();
+            if (vt == VariableType.CONSTANT || vt == VariableType.VARIABLE) {
+                constantsAndVariables.add(s);
+            } else if (vt == VariableType.PLACEHOLDER) {
+                placeholders.add(s);
+            }
+        }
+
+        log.debug("Compiled execution plan for outputs {}: {} ops, {} required placeholders", outputs, steps.size(), placeholders);
+        return new ExecutionPlan(sameDiff, new ArrayList<>(outputs), subgraph, subgraphOps, constantsAndVariables, placeholders, steps,
+                stepDependencyCounts, stepDependents);
+    }
+
+    private static void addOp(SameDiff sameDiff, String opName, Set<String> subgraphOps, Queue<String> processingQueue) {
+        if (!subgraphOps.add(opName))
+            return;
+        SameDiffOp op = sameDiff.getOps().get(opName);
+        Preconditions.checkState(op != null, "Cannot compile execution plan: no op found with name %s", opName);
+        DifferentialFunction df = op.getOp();
+        if (df instanceof Switch || df instanceof Merge || df instanceof Enter || df instanceof Exit ||
+                df instanceof NextIteration || df instanceof LoopCond) {
+            throw new IllegalStateException("Cannot compile execution plan: op \"" + opName + "\" of type " +
+                    df.getClass().getSimpleName() + " is a control flow op. Graphs with control flow (loops and conditional " +
+                    "execution) must be executed using SameDiff.output(...) instead");
+        }
+
+        if (op.getInputsToOp() != null)
+            processingQueue.addAll(op.getInputsToOp());
+        if (op.getControlDeps() != null)
+            processingQueue.addAll(op.getControlDeps());
+    }
+
+    private static void collectProducingOps(SameDiff sameDiff, List<String> varNames, Set<String> into) {
+        if (varNames == null)
+            return;
+        for (String s : varNames) {
+            Variable v = sameDiff.getVariables().get(s);
+            if (v.getOutputOfOp() != null)
+                into.add(v.getOutputOfOp());
+            if (v.getControlDeps() != null)
+                into.addAll(v.getControlDeps());
+        }
+    }
+
+    /**
+     * A single step in the execution plan: one op, with its inputs resolved in advance
+     */
+    @Getter
+    public static class Step {
+        private final String opName;
+        private final SameDiffOp op;
+        /** Non constant/placeholder inputs to the op (variables and op outputs) */
+        private final Set<AbstractSession.VarId> inputs;
+        /** Constant and placeholder inputs to the op */
+        private final Set<String> constAndPhInputs;
+        /** Output variables of the op */
+        private final List<AbstractSession.VarId> outputs;
+
+        protected Step(String opName, SameDiffOp op, Set<AbstractSession.VarId> inputs, Set<String> constAndPhInputs,
+                       List<AbstractSession.VarId> outputs) {
+            this.opName = opName;
+            this.op = op;
+            this.inputs = inputs;
+            this.constAndPhInputs = constAndPhInputs;
+            this.outputs = outputs;
+        }
+
+        @Override
+        public String toString() {
+            return "Step(" + opName + ",inputs=" + inputs + ",constAndPhInputs=" + constAndPhInputs + ")";
+        }
+    }
+}
@@ -63,6 +63,8 @@ import org.nd4j.linalg.indexing.NDArrayIndex;
 import org.nd4j.shade.wstx.util.StringUtil;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -71,9 +73,13 @@ public class InferenceSession extends AbstractSession<INDArray, Pair<SameDiffOp,
             "Alternatively, arrays defined in a workspace must be replaced after the workspace has been closed.";
 
     protected static final String KERAS_TRAIN_TEST = "keras_learning_phase";
+    //Ops where the amount of computation is much larger than the number of input elements, for parallel execution cost estimates
+    protected static final Set<String> COMPUTE_HEAVY_OPS = new HashSet<>(Arrays.asList("matmul", "xw_plus_b",
+            "relu_layer", "batched_gemm", "tensordot", "conv1d", "conv2d", "conv3dnew", "deconv2d", "deconv3d", "depthwise_conv2d",
+            "sconv2d", "lstmLayer", "gruCell", "lstmBlock", "dot_product_attention", "multi_head_dot_product_attention"));
     //freed array ids to track for allocation, sometimes SDValues contain dup arrays that get freed twice.
-    //we track the ids to avoid double frees
-    protected  static Set<Long> freedArrays = new LinkedHashSet<>();
+    //we track the ids to avoid double frees. Shared between sessions, which may execute concurrently
+    protected  static Set<Long> freedArrays = ConcurrentHashMap.newKeySet();
 
     @Getter
     @Setter
@@ -90,14 +96,61 @@ public class InferenceSession extends AbstractSession<INDArray, Pair<SameDiffOp,
     @Getter
     private Map<String,OpContext> opContexts = new LinkedHashMap<>();
 
+    //Op output shapes for the current plan execution, from the SameDiff instance's ShapeCache (if enabled)
+    private Map<String, List<LongShapeDescriptor>> cachedShapes;
+    //Op output shapes calculated during the current plan execution, to be added to the ShapeCache on a cache miss
+    private Map<String, List<LongShapeDescriptor>> calculatedShapes;
+    private Set<String> shapeCacheableOps;
+
     public InferenceSession(@NonNull SameDiff sameDiff) {
         super(sameDiff);
         mmgr = new ArrayCacheMemoryMgr();
     }
 
+    @Override
+    public ExecutionResult output(@NonNull ExecutionPlan plan, Map<String, INDArray> placeholderValues, Map<String, SDValue> otherPlaceHolderValues,
+                                  MultiDataSet batch, List<Listener> listeners, At at) {
+        ShapeCache shapeCache = sameDiff.getShapeCache();
+        ShapeCache.Key key = shapeCache == null ? null : ShapeCache.key(plan, placeholderValues, otherPlaceHolderValues);
+        if (key == null)
+            return super.output(plan, placeholderValues, otherPlaceHolderValues, batch, listeners, at);
+
+        cachedShapes = shapeCache.get(key);
+        if (cachedShapes == null) {
+            calculatedShapes = new HashMap<>();
+            shapeCacheableOps = plan.getShapeCacheableOps();
+        }
+        try {
+            ExecutionResult result = super.output(plan, placeholderValues, otherPlaceHolderValues, batch, listeners, at);
+            if (calculatedShapes != null)
+                shapeCache.put(key, calculatedShapes);
+            return result;
+        } finally {
+            cachedShapes = null;
+            calculatedShapes = null;
+            shapeCacheableOps = null;
+        }
+    }
+
+    /**
+     * Get the output shapes for the op: from the shape cache if available, otherwise calculated using the supplier
+     */
+    protected List<LongShapeDescriptor> outputShapes(String opName, Supplier<List<LongShapeDescriptor>> calculate) {
+        if (cachedShapes != null) {
+            List<LongShapeDescriptor> l = cachedShapes.get(opName);
+            if (l != null)
+                return l;
+        }
+        List<LongShapeDescriptor> l = calculate.get();
+        if (calculatedShapes != null && l != null && shapeCacheableOps.contains(opName))
+            calculatedShapes.put(opName, l);
+        return l;
+    }
+
     @Override
     protected Map<String, INDArray> preprocessPlaceholders(Map<String, INDArray> placeholders, At at) {
         arrayUseTracker.clear();
+        mmgr.executionStart(placeholders);
 
         //We'll also use this method as a "pre execution" hook-in, to mark variables as something we should never deallocate
         //This occurs by never marking these "ConstantDep" and "VariableDep" instances as satisfied, so there's always
@@ -221,6 +274,7 @@ public class InferenceSession extends AbstractSession<INDArray, Pair<SameDiffOp,
             }
         }
 
+        mmgr.executionEnd();
         return output;
     }
 
@@ -253,13 +307,25 @@ public class InferenceSession extends AbstractSession<INDArray, Pair<SameDiffOp,
             log.info("Executing samediff op: " + op.getName());
         }
 
-        ExecutionResult out = doExec(
-                op.getOp(),
-                opPair.getRight(),
-                outputFrameIter, opInputs,
-                allIterInputs,
-                constAndPhInputs,
-                otherPlaceHolders);
+        ExecutionResult out;
+        if (execLock.isHeldByCurrentThread() && isStandaloneOp(op.getOp(), opPair.getRight())) {
+            //Parallel plan execution: the op only reads from and writes to its (already allocated) OpContext arrays,
+            // so other ops can be parameterized and executed while this op is being computed
+            execLock.unlock();
+            try {
+                out = doExec(op.getOp(), opPair.getRight(), outputFrameIter, opInputs, allIterInputs, constAndPhInputs, otherPlaceHolders);
+            } finally {
+                execLock.lock();
+            }
+        } else {
+            out = doExec(
+                    op.getOp(),
+                    opPair.getRight(),
+                    outputFrameIter, opInputs,
+                    allIterInputs,
+                    constAndPhInputs,
+                    otherPlaceHolders);
+        }
         List<String> opOutNames = op.getOutputsOfOp();
 
         if (log.isTraceEnabled()) {
@@ -452,6 +518,39 @@ public class InferenceSession extends AbstractSession<INDArray, Pair<SameDiffOp,
     }
 
 
+    /**
+     * @return True if the op is executed by {@link #doExec} using only its OpContext, without accessing any other session state
+     */
+    protected static boolean isStandaloneOp(DifferentialFunction op, OpContext opContext) {
+        if (opContext == null || op instanceof Identity || op instanceof Switch || op instanceof Enter || op instanceof Exit ||
+                op instanceof NextIteration || op instanceof Merge || op instanceof LoopCond || op instanceof BaseTensorOp ||
+                op instanceof GradientBackwardsMarker || op instanceof ExternalErrorsFunction || op instanceof Assert ||
+                op instanceof Invoke)
+            return false;
+        return op instanceof CustomOp || op instanceof Op;
+    }
+
+    @Override
+    protected long estimateCost(ExecutionPlan.Step step, Map<String, INDArray> placeholderValues) {
+        //Number of input elements, with a multiplier for ops that do substantially more work per element
+        long elements = 0;
+        for (VarId vid : step.getInputs()) {
+            SDValue v = getSdValue(vid);
+            if (v != null && v.getSdValueType() == SDValueType.TENSOR && v.getTensorValue() != null)
+                elements += v.getTensorValue().length();
+        }
+        for (String s : step.getConstAndPhInputs()) {
+            SDVariable v = sameDiff.getVariable(s);
+            INDArray arr = v.isPlaceHolder() ? (placeholderValues == null ? null : placeholderValues.get(s)) : v.getArr();
+            if (arr != null)
+                elements += arr.length();
+        }
+        String opName = step.getOp().getOp().opName();
+        if (COMPUTE_HEAVY_OPS.contains(opName))
+            return elements * 64;
+        return elements;
+    }
+
     private void addToArrayTracker(ExecutionResult out,int i,Dep d) {
         if(out.hasSingle()) {
             arrayUseTracker.addDependency(SDValue.create(out.resultOrValueAt(i,false)), d);       //Op defined by "d" needs to be executed before specified array can be closed
@@ -1385,7 +1484,8 @@ public class InferenceSession extends AbstractSession<INDArray, Pair<SameDiffOp,
                 oc.setOutputArray(0, oc.getInputArray(0));
 
             } else {
-                List<LongShapeDescriptor> outShape = customOp.calculateOutputShape(oc);
+                final OpContext ctx = oc;
+                List<LongShapeDescriptor> outShape = outputShapes(opName, () -> customOp.calculateOutputShape(ctx));
                 Preconditions.checkState(outShape != null && outShape.size() > 0, "Failed to calculate output shapes for op %s (%s) - no shapes were returned by calculateOutputShape()", customOp.opName(), customOp.getOwnName());
                 String[] outNames = df.outputVariablesNames();
                 Preconditions.checkState(outNames.length == outShape.size(), "Error in operation shape calculation for op \"%s\": Got %s op output shapes for an operation" +
@@ -1463,7 +1563,8 @@ public class InferenceSession extends AbstractSession<INDArray, Pair<SameDiffOp,
                 INDArray z = mmgr.allocate(false, oc.getInputArray(0).dataType(), oc.getInputArray(0).shape());
                 oc.setOutputArray(0, z);
             } else {
-                List<LongShapeDescriptor> outputShape = ((BaseOp) op).calculateOutputShape(oc);
+                final OpContext ctx = oc;
+                List<LongShapeDescriptor> outputShape = outputShapes(opName, () -> ((BaseOp) op).calculateOutputShape(ctx));
                 Preconditions.checkState(outputShape != null && outputShape.size() == 1, "Could not calculate output shape for op: %s", op.getClass());
                 LongShapeDescriptor lsd = outputShape.get(0);
                 INDArray z = mmgr.allocate(isOutput, lsd);
@@ -25,6 +25,7 @@ import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.api.shape.LongShapeDescriptor;
 
 import java.io.Closeable;
+import java.util.Map;
 
 public interface SessionMemMgr extends Closeable {
 
@@ -64,6 +65,25 @@ public interface SessionMemMgr extends Closeable {
      */
     void release(INDArray array);
 
+    /**
+     * Called by the session at the start of each execution (forward pass), before any arrays are allocated.
+     * Memory managers that plan allocations ahead of time can use the placeholder shapes to select a plan.
+     * Default implementation is a no-op.
+     *
+     * @param placeholders The placeholder arrays for this execution. May be null.
+     */
+    default void executionStart(Map<String, INDArray> placeholders) {
+        //No-op by default
+    }
+
+    /**
+     * Called by the session at the end of each execution, after all releasable arrays have been released.
+     * Default implementation is a no-op.
+     */
+    default void executionEnd() {
+        //No-op by default
+    }
+
     /**
      * Close the session memory manager and clean up any memory / resources, if any
      */
@@ -0,0 +1,341 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.nd4j.autodiff.samediff.internal;
+
+import lombok.Getter;
+import org.apache.commons.lang3.ArrayUtils;
+import org.nd4j.autodiff.functions.DifferentialFunction;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.VariableType;
+import org.nd4j.autodiff.samediff.config.SDValue;
+import org.nd4j.autodiff.samediff.config.SDValueType;
+import org.nd4j.common.base.Preconditions;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.BroadcastOp;
+import org.nd4j.linalg.api.ops.RandomOp;
+import org.nd4j.linalg.api.ops.ScalarOp;
+import org.nd4j.linalg.api.ops.TransformOp;
+import org.nd4j.linalg.api.shape.LongShapeDescriptor;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, least-recently-used cache of op output shapes for {@link ExecutionPlan} execution.<br>
+ * Normally, the output shapes of every op are recalculated (via {@code calculateOutputShape}) on every execution.
+ * For a static graph, the output shapes of most ops depend only on the shapes and data types of the placeholders:
+ * this cache stores the resolved output shape descriptors of every such op, keyed on the input signature
+ * (the plan's output set, plus the shape and data type of each placeholder). Repeated executions with a
+ * previously seen signature then skip shape calculation for those ops entirely.<br>
+ * <br>
+ * Ops whose output shapes may depend on the <i>values</i> (not just the shapes) of their inputs - for example, reshape
+ * with a shape calculated from the data, or unique/where/non_max_suppression - always have their shapes calculated, as
+ * do all ops downstream of them. As shape, axis, size and permutation arguments are integer arrays, any op with an
+ * integer or boolean input whose value is not static is treated as such an op, unless it is known that the values of
+ * that input don't affect the output shape (for example, the indices of gather or the operands of elementwise ops).
+ * See {@link ExecutionPlan#getShapeCacheableOps()}.<br>
+ * <br>
+ * The hit and miss counts can be used to tune the bucketing of variable-sized inputs (such as sequence lengths):
+ * a low hit rate means too many distinct shapes are being used relative to the cache size.<br>
+ * Instances are thread safe, and are shared by all sessions of a SameDiff instance.
+ * Enable via {@link SameDiff#enableShapeCache(int)}. The cache must be cleared (or re-enabled) if the graph is modified,
+ * or if the arrays of any variables or constants are replaced with arrays of a different shape.
+ */
+public class ShapeCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+
+    /** Ops whose output shape depends on the values of the specified inputs */
+    private static final Map<String, int[]> SHAPE_ARG_INPUTS = new HashMap<>();
+    /** Ops whose output shape always depends on the values of their inputs */
+    private static final Set<String> DATA_DEPENDENT_SHAPE_OPS = new HashSet<>(Arrays.asList(
+            "unique", "unique_with_counts", "Where", "where_np", "non_max_suppression", "non_max_suppression_v3",
+            "non_max_suppression_overlaps", "listdiff", "confusion_matrix", "bincount"));
+    /** Ops whose output value depends only on the shape of their input */
+    private static final Set<String> SHAPE_OPS = new HashSet<>(Arrays.asList("shape_of", "shapes_of", "size", "rank"));
+    /** Custom ops with integer or boolean inputs whose values never affect the output shape: the specified inputs */
+    private static final Map<String, int[]> VALUE_INDEPENDENT_INPUTS = new HashMap<>();
+
+    static {
+        SHAPE_ARG_INPUTS.put("reshape", new int[]{1});
+        SHAPE_ARG_INPUTS.put("tile", new int[]{1});
+        SHAPE_ARG_INPUTS.put("fill", new int[]{0});
+        SHAPE_ARG_INPUTS.put("range", new int[]{0, 1, 2});
+        SHAPE_ARG_INPUTS.put("slice", new int[]{1, 2});
+        SHAPE_ARG_INPUTS.put("strided_slice", new int[]{1, 2, 3});
+        SHAPE_ARG_INPUTS.put("pad", new int[]{1});
+        SHAPE_ARG_INPUTS.put("mirror_pad", new int[]{1});
+        SHAPE_ARG_INPUTS.put("broadcast_to", new int[]{1});
+        SHAPE_ARG_INPUTS.put("expand_dims", new int[]{1});
+        SHAPE_ARG_INPUTS.put("squeeze", new int[]{1});
+        SHAPE_ARG_INPUTS.put("sequence_mask", new int[]{1});
+        SHAPE_ARG_INPUTS.put("onehot", new int[]{1});
+        SHAPE_ARG_INPUTS.put("top_k", new int[]{1});
+        SHAPE_ARG_INPUTS.put("create", new int[]{0});
+        SHAPE_ARG_INPUTS.put("resize_bilinear", new int[]{1});
+        SHAPE_ARG_INPUTS.put("resize_nearest_neighbor", new int[]{1});
+        SHAPE_ARG_INPUTS.put("image_resize", new int[]{1});
+
+        for (String s : new String[]{"add", "subtract", "multiply", "divide", "realdiv", "floordiv", "floormod", "mod",
+                "squaredsubtract", "maximum", "minimum", "equals", "not_equals", "greater", "greater_equal", "less",
+                "less_equal", "and", "or", "xor", "assign"}) {
+            VALUE_INDEPENDENT_INPUTS.put(s, new int[]{0, 1});
+        }
+        for (String s : new String[]{"cast", "identity", "not"}) {
+            VALUE_INDEPENDENT_INPUTS.put(s, new int[]{0});
+        }
+        VALUE_INDEPENDENT_INPUTS.put("select", new int[]{0, 1, 2});
+        VALUE_INDEPENDENT_INPUTS.put("gather", new int[]{0, 1});
+        VALUE_INDEPENDENT_INPUTS.put("gather_nd", new int[]{0, 1});
+        VALUE_INDEPENDENT_INPUTS.put("embedding_lookup", new int[]{0, 1});
+        for (String s : new String[]{"scatter_add", "scatter_sub", "scatter_mul", "scatter_div", "scatter_max",
+                "scatter_min", "scatter_upd"}) {
+            VALUE_INDEPENDENT_INPUTS.put(s, new int[]{0, 1, 2});
+        }
+    }
+
+    @Getter
+    private final int maxEntries;
+    private final Map<Key, Map<String, List<LongShapeDescriptor>>> cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ShapeCache(int maxEntries) {
+        Preconditions.checkArgument(maxEntries > 0, "Maximum number of cache entries must be positive, got %s", maxEntries);
+        this.maxEntries = maxEntries;
+        this.cache = new LinkedHashMap<Key, Map<String, List<LongShapeDescriptor>>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Map<String, List<LongShapeDescriptor>>> eldest) {
+                if (size() > ShapeCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the cached op output shapes for the specified signature, counting a hit or a miss
+     *
+     * @return Op output shapes, keyed by op name, or null if not present
+     */
+    public Map<String, List<LongShapeDescriptor>> get(Key key) {
+        Map<String, List<LongShapeDescriptor>> ret;
+        synchronized (cache) {
+            ret = cache.get(key);
+        }
+        (ret == null ? misses : hits).incrementAndGet();
+        return ret;
+    }
+
+    public void put(Key key, Map<String, List<LongShapeDescriptor>> shapes) {
+        synchronized (cache) {
+            cache.put(key, Collections.unmodifiableMap(shapes));
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return Fraction of lookups that were hits, or 0 if there have been no lookups
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : h / (double) total;
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Remove all entries, and reset the hit/miss/eviction counters
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "ShapeCache(size=" + size() + ",maxEntries=" + maxEntries + ",hits=" + hits.get() + ",misses=" + misses.get() +
+                ",evictions=" + evictions.get() + ")";
+    }
+
+    /**
+     * Create the cache key for executing the specified plan with the specified placeholders
+     *
+     * @return The key, or null if the placeholders cannot be keyed (for example, non-tensor placeholder values)
+     */
+    public static Key key(ExecutionPlan plan, Map<String, INDArray> placeholders, Map<String, SDValue> otherPlaceholders) {
+        List<String> phNames = plan.getRequiredPlaceholders();
+        long[][] shapes = new long[phNames.size()][];
+        DataType[] dataTypes = new DataType[phNames.size()];
+        for (int i = 0; i < phNames.size(); i++) {
+            String s = phNames.get(i);
+            INDArray arr = placeholders == null ? null : placeholders.get(s);
+            if (arr == null && otherPlaceholders != null && otherPlaceholders.containsKey(s)) {
+                SDValue v = otherPlaceholders.get(s);
+                arr = v.getSdValueType() == SDValueType.TENSOR ? v.getTensorValue() : null;
+            }
+            if (arr == null)
+                return null;
+            shapes[i] = arr.shape();
+            dataTypes[i] = arr.dataType();
+        }
+        return new Key(plan.getOutputs(), shapes, dataTypes);
+    }
+
+    /**
+     * Determine which ops in the plan have output shapes that depend only on the shapes and data types of the
+     * placeholders (and on the values of constants and variables), and hence can be cached
+     */
+    protected static Set<String> shapeCacheableOps(SameDiff sameDiff, List<ExecutionPlan.Step> steps) {
+        Set<String> staticShape = new HashSet<>();
+        Set<String> staticValue = new HashSet<>();
+        for (Variable v : sameDiff.getVariables().values()) {
+            VariableType vt = v.getVariable().getVariableType();
+            if (vt == VariableType.CONSTANT || vt == VariableType.VARIABLE) {
+                staticShape.add(v.getName());
+                staticValue.add(v.getName());
+            } else if (vt == VariableType.PLACEHOLDER) {
+                staticShape.add(v.getName());
+            }
+        }
+
+        Set<String> out = new HashSet<>();
+        for (ExecutionPlan.Step step : steps) {
+            SameDiffOp op = step.getOp();
+            DifferentialFunction df = op.getOp();
+            List<String> in = op.getInputsToOp() == null ? Collections.<String>emptyList() : op.getInputsToOp();
+            String opName = df.opName();
+
+            boolean inputShapesStatic = staticShape.containsAll(in);
+            int[] shapeArgs = SHAPE_ARG_INPUTS.get(opName);
+            boolean cacheable = inputShapesStatic && !DATA_DEPENDENT_SHAPE_OPS.contains(opName)
+                    && !("sequence_mask".equals(opName) && in.size() < 2);      //No max length: derived from the data
+            if (cacheable && shapeArgs != null) {
+                for (int idx : shapeArgs) {
+                    if (idx < in.size() && !staticValue.contains(in.get(idx))) {
+                        cacheable = false;
+                        break;
+                    }
+                }
+            }
+            if (cacheable) {
+                //Shape, axis, size and permutation arguments: permute, concat, split_v, reduce ops with an axis
+                // input, random ops with a shape input, etc
+                for (int i = 0; i < in.size() && cacheable; i++) {
+                    String inName = in.get(i);
+                    if (!staticValue.contains(inName) && mayBeShapeArg(sameDiff.getVariable(inName).dataType())
+                            && !isValueIndependentInput(df, i)) {
+                        cacheable = false;
+                    }
+                }
+            }
+
+            if (cacheable) {
+                out.add(step.getOpName());
+                staticShape.addAll(op.getOutputsOfOp());
+            }
+            if ((SHAPE_OPS.contains(opName) && inputShapesStatic) ||
+                    (cacheable && !(df instanceof RandomOp) && staticValue.containsAll(in))) {
+                staticValue.addAll(op.getOutputsOfOp());
+            }
+        }
+        return out;
+    }
+
+    private static boolean mayBeShapeArg(DataType dataType) {
+        return dataType == null || dataType.isIntType() || dataType == DataType.BOOL;
+    }
+
+    private static boolean isValueIndependentInput(DifferentialFunction df, int inputIdx) {
+        if (df instanceof TransformOp || df instanceof ScalarOp || df instanceof BroadcastOp)
+            return true;        //Legacy elementwise ops: output shape is determined by the input shapes
+        int[] idxs = VALUE_INDEPENDENT_INPUTS.get(df.opName());
+        return idxs != null && ArrayUtils.contains(idxs, inputIdx);
+    }
+
+    /**
+     * Cache key: the requested outputs, plus the shapes and data types of the placeholders
+     */
+    public static class Key {
+        private final List<String> outputs;
+        private final long[][] shapes;
+        private final DataType[] dataTypes;
+        private final int hashCode;
+
+        protected Key(List<String> outputs, long[][] shapes, DataType[] dataTypes) {
+            this.outputs = outputs;
+            this.shapes = shapes;
+            this.dataTypes = dataTypes;
+            this.hashCode = 31 * (31 * outputs.hashCode() + Arrays.deepHashCode(shapes)) + Arrays.hashCode(dataTypes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return hashCode == k.hashCode && outputs.equals(k.outputs) && Arrays.deepEquals(shapes, k.shapes)
+                    && Arrays.equals(dataTypes, k.dataTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("Key(outputs=").append(outputs).append(",placeholders=[");
+            for (int i = 0; i < shapes.length; i++) {
+                if (i > 0)
+                    sb.append(",");
+                sb.append(dataTypes[i]).append(Arrays.toString(shapes[i]));
+            }
+            return sb.append("])").toString();
+        }
+    }
+}
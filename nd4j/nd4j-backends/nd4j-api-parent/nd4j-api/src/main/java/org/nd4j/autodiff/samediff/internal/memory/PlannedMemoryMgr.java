@@ -0,0 +1,443 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.nd4j.autodiff.samediff.internal.memory;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.nd4j.autodiff.samediff.internal.SessionMemMgr;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.shape.LongShapeDescriptor;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.*;
+
+/**
+ * A {@link SessionMemMgr} that plans the memory for intermediate arrays ahead of time, based on array lifetimes.<br>
+ * <br>
+ * Unlike {@link ArrayCacheMemoryMgr}, which reuses released arrays reactively, this memory manager works in two phases,
+ * separately for each "shape signature" (the names, shapes and datatypes of the placeholders for an execution):<br>
+ * (a) Recording: the first execution for a given signature allocates arrays via the fallback memory manager, and records
+ * the datatype, shape and lifetime (allocation and release time) of every intermediate array.<br>
+ * (b) Planned: once the first execution completes, an offset into a single arena buffer (one per datatype) is assigned to
+ * each intermediate array, such that arrays with overlapping lifetimes never share memory. Subsequent executions with the
+ * same signature return views of the arena, and hence perform no native allocations for intermediate arrays.<br>
+ * <br>
+ * Arrays that are requested as detached (i.e., arrays returned to the user), empty arrays, string arrays and arrays that
+ * were never released during the recorded execution are always allocated via the fallback memory manager.<br>
+ * Before any arena region is handed out, all previously allocated arrays sharing that region must have been released in the
+ * current execution. If this is not the case (for example, because execution order differs from the recorded execution due
+ * to control flow), the allocation falls back to the fallback memory manager and the plan is discarded and re-recorded on
+ * the next execution.<br>
+ * <br>
+ * Memory statistics: {@link #getPlannedBytes()} reports the arena size for the most recently used plan,
+ * {@link #getPeakBytes()} the peak number of bytes in use by intermediate arrays at any point during the recorded execution
+ * (a lower bound for any plan), and {@link #getTotalBytes()} the total size of all intermediate arrays (i.e., the memory
+ * requirement without any reuse).
+ */
+@Slf4j
+public class PlannedMemoryMgr extends AbstractMemoryMgr {
+    public static final int DEFAULT_MAX_PLANS = 8;
+    /** Alignment for each array within the arena, in bytes */
+    public static final int ALIGNMENT_BYTES = 64;
+
+    @Getter
+    private final SessionMemMgr fallback;
+    private final Map<String, MemoryPlan> plans;
+
+    //State for the current execution
+    private String currentSignature;
+    private MemoryPlan currentPlan;
+    private List<AllocRecord> recording;
+    private final Map<INDArray, Integer> liveArrays = new IdentityHashMap<>();
+    private boolean[] released;
+    private int allocIdx;
+    private long clock;
+    private long liveBytes;
+
+    //Statistics
+    @Getter
+    private long plannedBytes;
+    @Getter
+    private long peakBytes;
+    @Getter
+    private long totalBytes;
+    @Getter
+    private long plannedAllocations;
+    @Getter
+    private long fallbackAllocations;
+
+    /**
+     * Create a PlannedMemoryMgr with the default settings: an {@link ArrayCacheMemoryMgr} as the fallback memory manager,
+     * and at most {@link #DEFAULT_MAX_PLANS} plans (shape signatures) retained
+     */
+    public PlannedMemoryMgr() {
+        this(new ArrayCacheMemoryMgr(), DEFAULT_MAX_PLANS);
+    }
+
+    /**
+     * @param fallback Memory manager used for arrays that are not planned, and during recording executions
+     * @param maxPlans Maximum number of plans (i.e., distinct placeholder shape signatures) to retain. Least recently used
+     *                 plans are discarded when this is exceeded
+     */
+    public PlannedMemoryMgr(@NonNull SessionMemMgr fallback, final int maxPlans) {
+        this.fallback = fallback;
+        this.plans = new LinkedHashMap<String, MemoryPlan>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MemoryPlan> eldest) {
+                return size() > maxPlans;
+            }
+        };
+    }
+
+    /**
+     * @return Number of plans (shape signatures) currently retained
+     */
+    public int numPlans() {
+        return plans.size();
+    }
+
+    @Override
+    public void executionStart(Map<String, INDArray> placeholders) {
+        if (currentSignature != null) {
+            //Previous execution did not complete (exception during execution) - discard any partial state
+            abandonExecution();
+        }
+
+        currentSignature = signature(placeholders);
+        currentPlan = plans.get(currentSignature);
+        allocIdx = 0;
+        liveArrays.clear();
+        if (currentPlan == null) {
+            recording = new ArrayList<>();
+            clock = 0;
+            liveBytes = 0;
+            peakBytes = 0;
+            totalBytes = 0;
+        } else {
+            recording = null;
+            released = new boolean[currentPlan.records.length];
+            plannedBytes = currentPlan.arenaBytes;
+            peakBytes = currentPlan.peakBytes;
+            totalBytes = currentPlan.totalBytes;
+        }
+        fallback.executionStart(placeholders);
+    }
+
+    @Override
+    public void executionEnd() {
+        if (currentSignature == null)
+            return;
+
+        if (recording != null) {
+            MemoryPlan plan = buildPlan(recording, peakBytes, totalBytes);
+            plans.put(currentSignature, plan);
+            plannedBytes = plan.arenaBytes;
+            log.debug("Created memory plan for signature {}: {} planned arrays, arena {} bytes, peak {} bytes, total {} bytes",
+                    currentSignature, plan.numPlanned, plan.arenaBytes, plan.peakBytes, plan.totalBytes);
+        } else if (currentPlan != null && !liveArrays.isEmpty()) {
+            //Some arena arrays were not released: they escape this execution (for example, returned to the user), so the
+            // arena regions can't be reused by the next execution
+            log.debug("{} arena arrays were not released by end of execution; discarding memory plan for signature {}",
+                    liveArrays.size(), currentSignature);
+            plans.remove(currentSignature);
+        }
+
+        currentSignature = null;
+        currentPlan = null;
+        recording = null;
+        released = null;
+        liveArrays.clear();
+        fallback.executionEnd();
+    }
+
+    @Override
+    public INDArray allocate(boolean detached, DataType dataType, long... shape) {
+        if (detached || !isPlannable(dataType, shape)) {
+            fallbackAllocations++;
+            return fallback.allocate(detached, dataType, shape);
+        }
+        return allocatePlanned(dataType, shape, 'c');
+    }
+
+    @Override
+    public INDArray allocate(boolean detached, LongShapeDescriptor descriptor) {
+        if (detached || descriptor.isEmpty() || !isPlannable(descriptor.dataType(), descriptor.getShape())) {
+            fallbackAllocations++;
+            return fallback.allocate(detached, descriptor);
+        }
+        return allocatePlanned(descriptor.dataType(), descriptor.getShape(), descriptor.getOrder());
+    }
+
+    protected INDArray allocatePlanned(DataType dataType, long[] shape, char order) {
+        if (currentSignature == null) {
+            //Allocation outside of execution
+            fallbackAllocations++;
+            return fallback.allocate(false, dataType, shape);
+        }
+
+        int idx = allocIdx++;
+        if (recording != null) {
+            INDArray arr = fallback.allocate(false, dataType, shape);
+            long bytes = arr.length() * dataType.width();
+            recording.add(new AllocRecord(dataType, shape.clone(), order, arr.length(), clock++));
+            liveArrays.put(arr, idx);
+            liveBytes += bytes;
+            totalBytes += bytes;
+            peakBytes = Math.max(peakBytes, liveBytes);
+            fallbackAllocations++;
+            return arr;
+        }
+
+        if (currentPlan != null && currentPlan.isUnplanned(idx, dataType, shape, order)) {
+            //Array was not released during the recorded execution (for example, it is returned to the user)
+            fallbackAllocations++;
+            return fallback.allocate(false, dataType, shape);
+        }
+
+        if (currentPlan != null) {
+            INDArray arr = currentPlan.allocate(idx, dataType, shape, order, released);
+            if (arr != null) {
+                liveArrays.put(arr, idx);
+                plannedAllocations++;
+                return arr;
+            }
+
+            //Allocation does not match the plan, or memory is not yet available: discard the plan and record again
+            // next time
+            log.debug("Allocation {} ({} {}) does not match memory plan for signature {}; discarding plan",
+                    idx, dataType, Arrays.toString(shape), currentSignature);
+            plans.remove(currentSignature);
+            currentPlan = null;
+        }
+
+        fallbackAllocations++;
+        return fallback.allocate(false, dataType, shape);
+    }
+
+    @Override
+    public void release(@NonNull INDArray array) {
+        Integer idx = liveArrays.remove(array);
+        if (idx == null) {
+            //Not a tracked array - allocated by the fallback memory manager outside of planning
+            fallback.release(array);
+            return;
+        }
+
+        if (recording != null) {
+            AllocRecord r = recording.get(idx);
+            r.end = clock++;
+            liveBytes -= r.length * r.dataType.width();
+            fallback.release(array);
+        } else if (released != null && idx < released.length) {
+            //Arena array: memory will be reused according to the plan, nothing to deallocate
+            released[idx] = true;
+        }
+    }
+
+    @Override
+    public void close() {
+        plans.clear();
+        liveArrays.clear();
+        fallback.close();
+    }
+
+    private void abandonExecution() {
+        if (currentPlan != null)
+            plans.remove(currentSignature);
+        currentSignature = null;
+        currentPlan = null;
+        recording = null;
+        released = null;
+        liveArrays.clear();
+    }
+
+    private static boolean isPlannable(DataType dataType, long[] shape) {
+        if (dataType == DataType.UTF8 || dataType == DataType.COMPRESSED || dataType == DataType.UNKNOWN)
+            return false;
+        for (long l : shape) {
+            if (l <= 0)
+                return false;
+        }
+        return true;
+    }
+
+    protected static String signature(Map<String, INDArray> placeholders) {
+        if (placeholders == null || placeholders.isEmpty())
+            return "";
+        StringBuilder sb = new StringBuilder();
+        for (String s : new TreeSet<>(placeholders.keySet())) {
+            INDArray arr = placeholders.get(s);
+            sb.append(s).append(':');
+            if (arr != null)
+                sb.append(arr.dataType()).append(Arrays.toString(arr.shape()));
+            sb.append(';');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Assign an arena offset for each array with a known lifetime. Uses the "greedy by size" heuristic: the largest arrays
+     * are placed first, each at the lowest offset that does not overlap any already placed array with an overlapping
+     * lifetime.
+     */
+    protected static MemoryPlan buildPlan(List<AllocRecord> records, long peak, long total) {
+        AllocRecord[] r = records.toArray(new AllocRecord[0]);
+        Map<DataType, List<Integer>> byType = new HashMap<>();
+        for (int i = 0; i < r.length; i++) {
+            if (r[i].end >= 0) {
+                byType.computeIfAbsent(r[i].dataType, k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        Map<DataType, DataBuffer> arenas = new HashMap<>();
+        long arenaBytes = 0;
+        int numPlanned = 0;
+        for (Map.Entry<DataType, List<Integer>> e : byType.entrySet()) {
+            DataType dt = e.getKey();
+            long alignElements = Math.max(1, ALIGNMENT_BYTES / dt.width());
+            List<Integer> order = new ArrayList<>(e.getValue());
+            order.sort((a, b) -> {
+                int c = Long.compare(r[b].length, r[a].length);
+                return c != 0 ? c : Long.compare(r[a].start, r[b].start);
+            });
+
+            List<Integer> placed = new ArrayList<>();
+            long arenaLength = 0;
+            for (int i : order) {
+                long size = alignUp(r[i].length, alignElements);
+                List<long[]> occupied = new ArrayList<>();
+                for (int j : placed) {
+                    if (r[i].start < r[j].end && r[j].start < r[i].end) {
+                        occupied.add(new long[]{r[j].offset, r[j].offset + alignUp(r[j].length, alignElements)});
+                    }
+                }
+                occupied.sort(Comparator.comparingLong(o -> o[0]));
+                long candidate = 0;
+                for (long[] o : occupied) {
+                    if (candidate + size <= o[0])
+                        break;
+                    candidate = Math.max(candidate, o[1]);
+                }
+                r[i].offset = candidate;
+                arenaLength = Math.max(arenaLength, candidate + size);
+                placed.add(i);
+            }
+
+            //Conflicts: earlier allocations sharing (part of) the same region. These must be released before
+            // the region can be handed out again
+            for (int i : placed) {
+                long endI = r[i].offset + r[i].length;
+                List<Integer> conflicts = new ArrayList<>();
+                for (int j : placed) {
+                    if (j < i && r[j].offset < endI && r[i].offset < r[j].offset + r[j].length) {
+                        conflicts.add(j);
+                    }
+                }
+                r[i].conflicts = new int[conflicts.size()];
+                for (int k = 0; k < conflicts.size(); k++)
+                    r[i].conflicts[k] = conflicts.get(k);
+                r[i].planned = true;
+                numPlanned++;
+            }
+
+            arenas.put(dt, Nd4j.createBuffer(dt, arenaLength, false, null));
+            arenaBytes += arenaLength * dt.width();
+        }
+
+        return new MemoryPlan(r, arenas, arenaBytes, peak, total, numPlanned);
+    }
+
+    private static long alignUp(long length, long alignment) {
+        return ((length + alignment - 1) / alignment) * alignment;
+    }
+
+    protected static class AllocRecord {
+        protected final DataType dataType;
+        protected final long[] shape;
+        protected final char order;
+        protected final long length;
+        protected final long start;
+        protected long end = -1;
+        protected long offset;
+        protected int[] conflicts;
+        protected boolean planned;
+
+        protected AllocRecord(DataType dataType, long[] shape, char order, long length, long start) {
+            this.dataType = dataType;
+            this.shape = shape;
+            this.order = order;
+            this.length = length;
+            this.start = start;
+        }
+    }
+
+    protected static class MemoryPlan {
+        protected final AllocRecord[] records;
+        protected final Map<DataType, DataBuffer> arenas;
+        protected final long arenaBytes;
+        protected final long peakBytes;
+        protected final long totalBytes;
+        protected final int numPlanned;
+
+        protected MemoryPlan(AllocRecord[] records, Map<DataType, DataBuffer> arenas, long arenaBytes, long peakBytes,
+                             long totalBytes, int numPlanned) {
+            this.records = records;
+            this.arenas = arenas;
+            this.arenaBytes = arenaBytes;
+            this.peakBytes = peakBytes;
+            this.totalBytes = totalBytes;
+            this.numPlanned = numPlanned;
+        }
+
+        /**
+         * @return True if the specified allocation matches the recorded execution, but was not assigned an arena region
+         */
+        protected boolean isUnplanned(int idx, DataType dataType, long[] shape, char order) {
+            return idx < records.length && !records[idx].planned && matches(records[idx], dataType, shape, order);
+        }
+
+        private static boolean matches(AllocRecord r, DataType dataType, long[] shape, char order) {
+            return r.dataType == dataType && r.order == order && Arrays.equals(r.shape, shape);
+        }
+
+        /**
+         * @return A view of the arena for the specified allocation, or null if the allocation does not match the plan
+         */
+        protected INDArray allocate(int idx, DataType dataType, long[] shape, char order, boolean[] released) {
+            if (idx >= records.length)
+                return null;
+            AllocRecord r = records[idx];
+            if (!r.planned || !matches(r, dataType, shape, order))
+                return null;
+            for (int c : r.conflicts) {
+                if (!released[c])
+                    return null;
+            }
+
+            INDArray arr = Nd4j.create(arenas.get(dataType), shape, Nd4j.getStrides(shape, order), r.offset, order);
+            arr.setCloseable(false);
+            return arr;
+        }
+    }
+}
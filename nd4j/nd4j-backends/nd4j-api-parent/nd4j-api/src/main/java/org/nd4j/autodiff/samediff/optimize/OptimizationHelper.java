@@ -31,19 +31,35 @@ import org.nd4j.common.base.Preconditions;
 import org.nd4j.common.function.Supplier;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Properties;
+import java.util.Set;
 
 public class OptimizationHelper {
 
     private final SameDiff originalGraph;
     @Getter
     private final Properties properties;
+    @Getter
+    private final Set<String> requiredOutputs;
     private boolean setConstantHolder = false;
     private boolean setVariableHolder = false;
 
     public OptimizationHelper(SameDiff originalGraph, Properties properties){
+        this(originalGraph, properties, null);
+    }
+
+    /**
+     * @param originalGraph   The graph being optimized
+     * @param properties      Optimization configuration
+     * @param requiredOutputs Variables that must remain available (by name) in the optimized graph. May be null
+     */
+    public OptimizationHelper(SameDiff originalGraph, Properties properties, Collection<String> requiredOutputs){
         this.originalGraph = originalGraph;
         this.properties = properties;
+        this.requiredOutputs = requiredOutputs == null ? Collections.<String>emptySet() : new HashSet<>(requiredOutputs);
     }
 
     public OptimizationHelper arrayRecoveryFunction(String arrayName, Supplier<INDArray> fn){
@@ -0,0 +1,532 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.nd4j.autodiff.samediff.optimize.optimizations;
+
+import org.nd4j.autodiff.functions.DifferentialFunction;
+import org.nd4j.autodiff.samediff.ArrayHolder;
+import org.nd4j.autodiff.samediff.SDVariable;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.internal.SameDiffOp;
+import org.nd4j.autodiff.samediff.internal.Variable;
+import org.nd4j.autodiff.samediff.optimize.OptimizationHelper;
+import org.nd4j.autodiff.samediff.optimize.Optimizer;
+import org.nd4j.enums.WeightsFormat;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.BaseScalarOp;
+import org.nd4j.linalg.api.ops.BaseTransformOp;
+import org.nd4j.linalg.api.ops.impl.broadcast.BiasAdd;
+import org.nd4j.linalg.api.ops.impl.broadcast.BroadcastMulOp;
+import org.nd4j.linalg.api.ops.impl.layers.convolution.BatchNorm;
+import org.nd4j.linalg.api.ops.impl.layers.convolution.Conv2D;
+import org.nd4j.linalg.api.ops.impl.layers.convolution.config.Conv2DConfig;
+import org.nd4j.linalg.api.ops.impl.reduce.Mmul;
+import org.nd4j.linalg.api.ops.impl.reduce.floating.Mean;
+import org.nd4j.linalg.api.ops.impl.scalar.*;
+import org.nd4j.linalg.api.ops.impl.transforms.custom.XwPlusB;
+import org.nd4j.linalg.api.ops.impl.transforms.floating.RSqrt;
+import org.nd4j.linalg.api.ops.impl.transforms.pairwise.arithmetic.AddOp;
+import org.nd4j.linalg.api.ops.impl.transforms.pairwise.arithmetic.MulOp;
+import org.nd4j.linalg.api.ops.impl.transforms.pairwise.arithmetic.SquaredDifferenceOp;
+import org.nd4j.linalg.api.ops.impl.transforms.pairwise.arithmetic.SubOp;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import java.util.*;
+
+/**
+ * This set of optimizations fuses common chains of small ops into single (native) ops, reducing op dispatch overhead
+ * and memory traffic - mainly for inference on imported TF/ONNX graphs:<br>
+ * - matmul + bias add: {@code xw_plus_b}<br>
+ * - xw_plus_b + relu: {@code relu_layer}<br>
+ * - conv2d + batch norm: the batch norm is folded into the (constant) conv2d weights and bias<br>
+ * - consecutive scalar add/subtract or multiply/divide ops: a single scalar op<br>
+ * - the TensorFlow layer normalization subgraph (as found in BERT): {@code layer_norm}<br>
+ * <br>
+ * Only ops whose intermediate outputs are not used anywhere else (and are not required outputs) are fused.
+ * Results may differ from the unfused graph by floating point rounding.
+ */
+public class FusionOptimizations extends BaseOptimizerSet {
+
+    public static final String LAYERNORM_MAX_EPSILON = "optimizer.fusion.layernorm.max.epsilon";
+    //layer_norm uses stdev + 1e-12 instead of sqrt(variance + epsilon): only fuse when epsilon is negligible
+    public static final double LAYERNORM_MAX_EPSILON_DEFAULT = 1e-6;
+
+    /**
+     * Replace mmul(x, w) + b with xw_plus_b(x, w, b), for rank 2 x and w and rank 1 b
+     */
+    public static class FuseMatMulBiasAdd implements Optimizer {
+        @Override
+        public boolean checkAndApply(SameDiff sd, OptimizationHelper helper, SameDiffOp op, ArrayHolder constantArrays, ArrayHolder variablesArrays) {
+            List<String> in = op.getInputsToOp();
+            if (in == null || in.size() != 2)
+                return false;
+
+            int mmulIdx;
+            if (op.getOp() instanceof BiasAdd) {
+                mmulIdx = 0;
+            } else if (op.getOp() instanceof AddOp) {
+                mmulIdx = producer(sd, in.get(0)) != null && producer(sd, in.get(0)).getOp() instanceof Mmul ? 0 : 1;
+            } else {
+                return false;
+            }
+
+            String mmulOut = in.get(mmulIdx);
+            String bias = in.get(1 - mmulIdx);
+            SameDiffOp mmul = producer(sd, mmulOut);
+            if (mmul == null || mmul.getOp().getClass() != Mmul.class || !isIntermediate(sd, helper, mmulOut, op.getName()))
+                return false;
+            if (!allZero(((Mmul) mmul.getOp()).iArgs()) || !defaultMmulScale(((Mmul) mmul.getOp()).tArgs()))
+                return false;
+
+            String x = mmul.getInputsToOp().get(0);
+            String w = mmul.getInputsToOp().get(1);
+            long[] wShape = sd.getVariable(w).getShape();
+            long[] bShape = sd.getVariable(bias).getShape();
+            if (!hasRank(sd, x, 2) || wShape == null || wShape.length != 2 || bShape == null || bShape.length != 1 || bShape[0] != wShape[1])
+                return false;
+            if (!sameFloatType(sd, x, w, bias))
+                return false;
+
+            String outName = op.getOutputsOfOp().get(0);
+            List<String> consumers = removeOps(sd, outName, op, mmul);
+            SDVariable fused = sd.nn.linear(sd.getVariable(x), sd.getVariable(w), sd.getVariable(bias));
+            replaceOutput(sd, fused, outName, consumers);
+            return true;
+        }
+    }
+
+    /**
+     * Replace relu(xw_plus_b(x, w, b)) with relu_layer(x, w, b)
+     */
+    public static class FuseLinearRelu implements Optimizer {
+        @Override
+        public boolean checkAndApply(SameDiff sd, OptimizationHelper helper, SameDiffOp op, ArrayHolder constantArrays, ArrayHolder variablesArrays) {
+            if (!(op.getOp() instanceof RectifiedLinear) || ((RectifiedLinear) op.getOp()).scalar().getDouble(0) != 0.0)
+                return false;
+
+            String linOut = op.getInputsToOp().get(0);
+            SameDiffOp lin = producer(sd, linOut);
+            if (lin == null || lin.getOp().getClass() != XwPlusB.class || !isIntermediate(sd, helper, linOut, op.getName()))
+                return false;
+            if (lin.getInputsToOp().size() != 3 || !allZero(((XwPlusB) lin.getOp()).iArgs()))
+                return false;
+
+            List<String> lIn = lin.getInputsToOp();
+            String outName = op.getOutputsOfOp().get(0);
+            List<String> consumers = removeOps(sd, outName, op, lin);
+            SDVariable fused = sd.nn.reluLayer(sd.getVariable(lIn.get(0)), sd.getVariable(lIn.get(1)), sd.getVariable(lIn.get(2)));
+            replaceOutput(sd, fused, outName, consumers);
+            return true;
+        }
+    }
+
+    /**
+     * Fold batchnorm(conv2d(x, w, b)) into conv2d(x, w', b'), when the weights, bias and batch norm parameters are all
+     * constants:<br>
+     * w' = w * gamma / sqrt(var + eps) (per output channel), b' = (b - mean) * gamma / sqrt(var + eps) + beta
+     */
+    public static class FoldBatchNormIntoConv2d implements Optimizer {
+        @Override
+        public boolean checkAndApply(SameDiff sd, OptimizationHelper helper, SameDiffOp op, ArrayHolder constantArrays, ArrayHolder variablesArrays) {
+            if (!(op.getOp() instanceof BatchNorm))
+                return false;
+            BatchNorm bn = (BatchNorm) op.getOp();
+            List<String> bnIn = op.getInputsToOp();
+            int expInputs = 3 + (bn.isApplyGamma() ? 1 : 0) + (bn.isApplyBeta() ? 1 : 0);
+            if (bnIn.size() != expInputs)
+                return false;
+            for (int i = 1; i < bnIn.size(); i++) {
+                if (!sd.getVariable(bnIn.get(i)).isConstant())
+                    return false;
+            }
+
+            String convOut = bnIn.get(0);
+            SameDiffOp conv = producer(sd, convOut);
+            if (conv == null || !(conv.getOp() instanceof Conv2D) || !isIntermediate(sd, helper, convOut, op.getName()))
+                return false;
+            List<String> cIn = conv.getInputsToOp();
+            for (int i = 1; i < cIn.size(); i++) {
+                if (!sd.getVariable(cIn.get(i)).isConstant())
+                    return false;
+            }
+
+            Conv2DConfig config = ((Conv2D) conv.getOp()).getConfig();
+            int channelAxis = config.isNHWC() ? 3 : 1;
+            int[] bnAxis = bn.getJaxis();
+            if (bnAxis == null || bnAxis.length != 1 || (bnAxis[0] != channelAxis && !(config.isNHWC() && bnAxis[0] == -1)))
+                return false;
+
+            INDArray w = sd.getVariable(cIn.get(1)).getArr();
+            int outChannelDim = config.getWeightsFormat() == WeightsFormat.YXIO ? 3 : 0;
+            long nOut = w.size(outChannelDim);
+
+            INDArray mean = sd.getVariable(bnIn.get(1)).getArr().castTo(w.dataType()).reshape(nOut);
+            INDArray var = sd.getVariable(bnIn.get(2)).getArr().castTo(w.dataType()).reshape(nOut);
+            INDArray gamma = bn.isApplyGamma() ? sd.getVariable(bnIn.get(3)).getArr().castTo(w.dataType()).reshape(nOut) : Nd4j.ones(w.dataType(), nOut);
+            INDArray beta = bn.isApplyBeta() ? sd.getVariable(bnIn.get(expInputs - 1)).getArr().castTo(w.dataType()).reshape(nOut) : Nd4j.zeros(w.dataType(), nOut);
+            INDArray b = cIn.size() > 2 ? sd.getVariable(cIn.get(2)).getArr().castTo(w.dataType()).reshape(nOut) : Nd4j.zeros(w.dataType(), nOut);
+
+            INDArray scale = gamma.div(Transforms.sqrt(var.add(bn.getEpsilon()), false));
+            INDArray wFolded = w.ulike();
+            Nd4j.exec(new BroadcastMulOp(w, scale, wFolded, outChannelDim));
+            INDArray bFolded = b.sub(mean).muli(scale).addi(beta);
+
+            SDVariable wVar = sd.constant(sd.generateDistinctCustomVariableName(cIn.get(1) + "_bnfolded"), wFolded);
+            SDVariable bVar = sd.constant(sd.generateDistinctCustomVariableName(op.getName() + "_bnfolded_bias"), bFolded);
+            String x = cIn.get(0);
+
+            String outName = op.getOutputsOfOp().get(0);
+            List<String> consumers = removeOps(sd, outName, op, conv);
+            SDVariable fused = new Conv2D(sd, sd.getVariable(x), wVar, bVar, config).outputVariable();
+            replaceOutput(sd, fused, outName, consumers);
+            return true;
+        }
+    }
+
+    /**
+     * Replace consecutive scalar ops of the same kind with a single scalar op:
+     * (x + a) - b becomes x + (a - b); (x * a) / b becomes x * (a / b). Floating point types only
+     */
+    public static class FoldScalarChains implements Optimizer {
+        @Override
+        public boolean checkAndApply(SameDiff sd, OptimizationHelper helper, SameDiffOp op, ArrayHolder constantArrays, ArrayHolder variablesArrays) {
+            int kind = scalarKind(op.getOp());
+            if (kind == 0 || op.getInputsToOp().size() != 1)
+                return false;
+
+            String prevOut = op.getInputsToOp().get(0);
+            SameDiffOp prev = producer(sd, prevOut);
+            if (prev == null || scalarKind(prev.getOp()) != kind || prev.getInputsToOp().size() != 1
+                    || !isIntermediate(sd, helper, prevOut, op.getName()))
+                return false;
+
+            String x = prev.getInputsToOp().get(0);
+            String outName = op.getOutputsOfOp().get(0);
+            if (!sd.getVariable(x).dataType().isFPType() || sd.getVariable(x).dataType() != sd.getVariable(outName).dataType())
+                return false;
+
+            double v1 = scalarValue(prev.getOp());
+            double v2 = scalarValue(op.getOp());
+            if (Double.isInfinite(v1) || Double.isInfinite(v2))
+                return false;       //Division by zero - leave as-is
+            List<String> consumers = removeOps(sd, outName, op, prev);
+            SDVariable fused;
+            if (kind == 1) {
+                fused = new ScalarAdd(sd, sd.getVariable(x), v1 + v2).outputVariable();
+            } else {
+                fused = new ScalarMultiplication(sd, sd.getVariable(x), v1 * v2).outputVariable();
+            }
+            replaceOutput(sd, fused, outName, consumers);
+            return true;
+        }
+
+        /**
+         * @return 1 for additive scalar ops, 2 for multiplicative, 0 otherwise
+         */
+        private static int scalarKind(DifferentialFunction df) {
+            Class<?> c = df.getClass();
+            if (c == ScalarAdd.class || c == ScalarSubtraction.class)
+                return 1;
+            if (c == ScalarMultiplication.class || c == ScalarDivision.class)
+                return 2;
+            return 0;
+        }
+
+        /**
+         * @return The scalar value as an addend (for add/subtract) or factor (for multiply/divide)
+         */
+        private static double scalarValue(DifferentialFunction df) {
+            double d = ((BaseScalarOp) df).scalar().getDouble(0);
+            if (df instanceof ScalarSubtraction)
+                return -d;
+            if (df instanceof ScalarDivision)
+                return 1.0 / d;
+            return d;
+        }
+    }
+
+    /**
+     * Replace the layer normalization subgraph produced by TensorFlow (as in BERT) with a single layer_norm op:<br>
+     * mean = reduce_mean(x, -1, keepDims); var = reduce_mean(squared_difference(x, mean), -1, keepDims);
+     * m = rsqrt(var + eps) * gamma; out = x * m + (beta - mean * m)<br>
+     * Only applied when eps is at most {@link #LAYERNORM_MAX_EPSILON} (default: {@link #LAYERNORM_MAX_EPSILON_DEFAULT})
+     */
+    public static class FuseLayerNorm implements Optimizer {
+        @Override
+        public boolean checkAndApply(SameDiff sd, OptimizationHelper helper, SameDiffOp op, ArrayHolder constantArrays, ArrayHolder variablesArrays) {
+            if (!(op.getOp() instanceof AddOp) || op.getInputsToOp().size() != 2)
+                return false;
+
+            for (int i = 0; i < 2; i++) {
+                if (tryApply(sd, helper, op, op.getInputsToOp().get(i), op.getInputsToOp().get(1 - i)))
+                    return true;
+            }
+            return false;
+        }
+
+        private boolean tryApply(SameDiff sd, OptimizationHelper helper, SameDiffOp outOp, String m1, String sub) {
+            SameDiffOp m1Op = producer(sd, m1);
+            SameDiffOp subOp = producer(sd, sub);
+            if (!isOp(m1Op, MulOp.class, 2) || !isOp(subOp, SubOp.class, 2))
+                return false;
+
+            String beta = subOp.getInputsToOp().get(0);
+            String m2 = subOp.getInputsToOp().get(1);
+            SameDiffOp m2Op = producer(sd, m2);
+            if (!isOp(m2Op, MulOp.class, 2))
+                return false;
+
+            //m1 = x * m, m2 = mean * m
+            String m = null;
+            for (String s : m1Op.getInputsToOp()) {
+                if (m2Op.getInputsToOp().contains(s))
+                    m = s;
+            }
+            if (m == null)
+                return false;
+            String x = other(m1Op, m);
+            String mean = other(m2Op, m);
+            SameDiffOp mOp = producer(sd, m);
+            if (x == null || mean == null || !isOp(mOp, MulOp.class, 2))
+                return false;
+
+            //m = rsqrt(var + eps) * gamma
+            String rs = null;
+            for (String s : mOp.getInputsToOp()) {
+                if (isOp(producer(sd, s), RSqrt.class, 1))
+                    rs = s;
+            }
+            if (rs == null)
+                return false;
+            String gamma = other(mOp, rs);
+            SameDiffOp rsOp = producer(sd, rs);
+            SameDiffOp addEpsOp = producer(sd, rsOp.getInputsToOp().get(0));
+            if (gamma == null || addEpsOp == null)
+                return false;
+
+            String var;
+            double eps;
+            if (isOp(addEpsOp, ScalarAdd.class, 1)) {
+                var = addEpsOp.getInputsToOp().get(0);
+                eps = ((ScalarAdd) addEpsOp.getOp()).scalar().getDouble(0);
+            } else if (isOp(addEpsOp, AddOp.class, 2)) {
+                String a = addEpsOp.getInputsToOp().get(0);
+                String b = addEpsOp.getInputsToOp().get(1);
+                String epsName = isScalarConstant(sd, b) ? b : (isScalarConstant(sd, a) ? a : null);
+                if (epsName == null)
+                    return false;
+                var = epsName.equals(b) ? a : b;
+                eps = sd.getVariable(epsName).getArr().getDouble(0);
+            } else {
+                return false;
+            }
+            double maxEps = Double.parseDouble(helper.getProperties().getProperty(LAYERNORM_MAX_EPSILON, String.valueOf(LAYERNORM_MAX_EPSILON_DEFAULT)));
+            if (eps > maxEps)
+                return false;
+
+            //var = reduce_mean(squared_difference(x, mean)); mean = reduce_mean(x)
+            SameDiffOp varOp = producer(sd, var);
+            SameDiffOp meanOp = producer(sd, mean);
+            if (!isOp(varOp, Mean.class, 1) || !isOp(meanOp, Mean.class, 1) || !x.equals(meanOp.getInputsToOp().get(0)))
+                return false;
+            String sqd = varOp.getInputsToOp().get(0);
+            SameDiffOp sqdOp = producer(sd, sqd);
+            if (!isOp(sqdOp, SquaredDifferenceOp.class, 2) || !sqdOp.getInputsToOp().contains(x) || !sqdOp.getInputsToOp().contains(mean))
+                return false;
+
+            //Reduction must be over the last dimension only: either -1, or rank-1 for x of known rank
+            long dim = meanDimension(meanOp);
+            if (dim == Long.MIN_VALUE || dim != meanDimension(varOp) || (dim != -1 && inferRank(sd, x) != dim + 1))
+                return false;
+            long[] xShape = sd.getVariable(x).getShape();
+            long[] gShape = sd.getVariable(gamma).getShape();
+            long[] bShape = sd.getVariable(beta).getShape();
+            if (gShape == null || gShape.length != 1 || bShape == null || bShape.length != 1 || gShape[0] != bShape[0]
+                    || (xShape != null && xShape[xShape.length - 1] > 0 && gShape[0] != xShape[xShape.length - 1]))
+                return false;
+            if (!sameFloatType(sd, x, gamma, beta))
+                return false;
+
+            //All intermediate values must be used only within the subgraph
+            SameDiffOp[] subgraph = {outOp, m1Op, subOp, m2Op, mOp, rsOp, addEpsOp, varOp, sqdOp, meanOp};
+            Set<String> opNames = new HashSet<>();
+            for (SameDiffOp o : subgraph)
+                opNames.add(o.getName());
+            for (String s : new String[]{m1, sub, m2, m, rs, rsOp.getInputsToOp().get(0), var, sqd, mean}) {
+                if (!isIntermediate(sd, helper, s, opNames))
+                    return false;
+            }
+
+            String outName = outOp.getOutputsOfOp().get(0);
+            List<String> consumers = removeOps(sd, outName, subgraph);
+            SDVariable fused = sd.nn.layerNorm(sd.getVariable(x), sd.getVariable(gamma), sd.getVariable(beta), false, dim);
+            replaceOutput(sd, fused, outName, consumers);
+            return true;
+        }
+
+        /**
+         * @return The single reduction dimension of a keepDims mean op, or Long.MIN_VALUE if not applicable
+         */
+        private static long meanDimension(SameDiffOp op) {
+            Mean mean = (Mean) op.getOp();
+            long[] dims = mean.getDimensions();
+            if (!mean.isKeepDims() || dims == null || dims.length != 1)
+                return Long.MIN_VALUE;
+            return dims[0];
+        }
+
+        private static boolean isScalarConstant(SameDiff sd, String name) {
+            SDVariable v = sd.getVariable(name);
+            return v.isConstant() && v.getArr() != null && v.getArr().length() == 1;
+        }
+    }
+
+
+    /**
+     * @return The op that produces the specified variable, or null if it is not the output of an op
+     */
+    protected static SameDiffOp producer(SameDiff sd, String varName) {
+        Variable v = sd.getVariables().get(varName);
+        if (v == null || v.getOutputOfOp() == null)
+            return null;
+        return sd.getOps().get(v.getOutputOfOp());
+    }
+
+    /**
+     * @return True if the variable can be removed by fusion: it is used only by the specified op(s), and is not a
+     * required output, loss variable, or part of any control dependency
+     */
+    protected static boolean isIntermediate(SameDiff sd, OptimizationHelper helper, String varName, String... consumerOps) {
+        return isIntermediate(sd, helper, varName, new HashSet<>(Arrays.asList(consumerOps)));
+    }
+
+    protected static boolean isIntermediate(SameDiff sd, OptimizationHelper helper, String varName, Set<String> consumerOps) {
+        Variable v = sd.getVariables().get(varName);
+        if (v == null || helper.getRequiredOutputs().contains(varName) || sd.getLossVariables().contains(varName))
+            return false;
+        if (!isEmpty(v.getControlDeps()) || !isEmpty(v.getControlDepsForOp()) || !isEmpty(v.getControlDepsForVar()))
+            return false;
+        if (isEmpty(v.getInputsForOp()))
+            return false;
+        return consumerOps.containsAll(v.getInputsForOp());
+    }
+
+    /**
+     * Remove the specified ops and all of their output variables
+     *
+     * @return The ops that use the (removed) output variable, which must be reconnected via
+     * {@link #replaceOutput(SameDiff, SDVariable, String, List)}
+     */
+    protected static List<String> removeOps(SameDiff sd, String outputName, SameDiffOp... ops) {
+        List<String> inputsFor = sd.getVariables().get(outputName).getInputsForOp();
+        List<String> consumers = inputsFor == null ? new ArrayList<String>() : new ArrayList<>(inputsFor);
+        for (SameDiffOp o : ops) {
+            OptimizationUtils.removeOp(sd, o.getName());
+        }
+        for (SameDiffOp o : ops) {
+            for (String s : o.getOutputsOfOp()) {
+                OptimizationUtils.removeVariable(sd, s);
+            }
+        }
+        return consumers;
+    }
+
+    /**
+     * Rename the output of a newly created (fused) op to the name of the output it replaces, and reconnect the
+     * ops that used the old output
+     */
+    protected static void replaceOutput(SameDiff sd, SDVariable newOutput, String name, List<String> consumers) {
+        sd.updateVariableNameAndReference(newOutput, name, true);
+        sd.getVariables().get(name).setInputsForOp(consumers);
+        sd.markStructureModified();
+    }
+
+    private static boolean isOp(SameDiffOp op, Class<?> c, int numInputs) {
+        return op != null && op.getOp().getClass() == c && op.getInputsToOp() != null && op.getInputsToOp().size() == numInputs;
+    }
+
+    private static String other(SameDiffOp op, String input) {
+        List<String> in = op.getInputsToOp();
+        if (in.get(0).equals(input))
+            return in.get(1);
+        if (in.get(1).equals(input))
+            return in.get(0);
+        return null;
+    }
+
+    private static boolean hasRank(SameDiff sd, String varName, int rank) {
+        return inferRank(sd, varName) == rank;
+    }
+
+    /**
+     * @return The rank of the variable, if known or if it can be inferred from the ops producing it. -1 otherwise
+     */
+    protected static int inferRank(SameDiff sd, String varName) {
+        for (int depth = 0; depth < 64; depth++) {
+            long[] shape = sd.getVariable(varName).getShape();
+            if (shape != null)
+                return shape.length;
+
+            SameDiffOp p = producer(sd, varName);
+            if (p == null || p.getInputsToOp() == null || p.getInputsToOp().isEmpty())
+                return -1;
+            DifferentialFunction df = p.getOp();
+            if (df instanceof XwPlusB)
+                return 2;
+            if (!(df instanceof BaseTransformOp || df instanceof BaseScalarOp || df instanceof BiasAdd))
+                return -1;
+            //Output has the same shape as the first input
+            varName = p.getInputsToOp().get(0);
+        }
+        return -1;
+    }
+
+    private static boolean sameFloatType(SameDiff sd, String... varNames) {
+        DataType dt = sd.getVariable(varNames[0]).dataType();
+        if (!dt.isFPType())
+            return false;
+        for (String s : varNames) {
+            if (sd.getVariable(s).dataType() != dt)
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean allZero(long[] args) {
+        if (args != null) {
+            for (long l : args) {
+                if (l != 0)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean defaultMmulScale(double[] tArgs) {
+        //alpha = 1, beta = 0 if present
+        return tArgs == null || tArgs.length == 0 || (tArgs[0] == 1.0 && (tArgs.length < 2 || tArgs[1] == 0.0));
+    }
+
+    private static boolean isEmpty(Collection<?> c) {
+        return c == null || c.isEmpty();
+    }
+}
@@ -27,6 +27,7 @@ import org.nd4j.linalg.api.ops.impl.loss.BaseLoss;
 import org.nd4j.linalg.api.ops.impl.loss.bp.BaseLossBp;
 import org.nd4j.shade.guava.primitives.Ints;
 import com.google.flatbuffers.FlatBufferBuilder;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -34,6 +35,14 @@ import java.util.concurrent.atomic.AtomicInteger;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.FloatPointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.LongPointer;
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacpp.ShortPointer;
+import org.bytedeco.javacpp.indexer.*;
 import org.nd4j.autodiff.functions.DifferentialFunction;
 import org.nd4j.autodiff.samediff.SDVariable;
 import org.nd4j.autodiff.samediff.SameDiff;
@@ -48,6 +57,8 @@ import org.nd4j.graph.IntPair;
 import org.nd4j.graph.OpType;
 import org.nd4j.graph.VarType;
 import org.nd4j.imports.converters.DifferentialFunctionClassHolder;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.concurrency.AffinityManager;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.api.ops.*;
 import org.nd4j.linalg.api.ops.Op.Type;
@@ -66,6 +77,11 @@ import org.nd4j.common.util.ArrayUtil;
 @Slf4j
 public class FlatBuffersMapper {
 
+    /**
+     * Alignment (in bytes) of array data written by {@link #toMappableFlatArray(FlatBufferBuilder, INDArray)}
+     */
+    public static final int MAPPED_ARRAY_ALIGNMENT = 64;
+
     private FlatBuffersMapper() {
     }
 
@@ -389,6 +405,147 @@ public class FlatBuffersMapper {
         }
     }
 
+    /**
+     * Serialize the array to a {@link FlatArray}, as per {@link INDArray#toFlatArray(FlatBufferBuilder)}, but with the
+     * data written as-is in the native byte order and aligned to {@link #MAPPED_ARRAY_ALIGNMENT} bytes within the
+     * final buffer. Arrays serialized this way can be used in place by {@link #fromMappedFlatArray(FlatArray)}, without
+     * any copy, when the FlatBuffers data is memory-mapped.
+     * Empty and String arrays are serialized using {@link INDArray#toFlatArray(FlatBufferBuilder)}
+     *
+     * @param builder Builder to add the array to
+     * @param arr     Array to serialize
+     * @return Offset of the FlatArray in the builder
+     */
+    public static int toMappableFlatArray(@NonNull FlatBufferBuilder builder, @NonNull INDArray arr) {
+        if (arr.isEmpty() || arr.dataType() == DataType.UTF8 || arr.dataType() == DataType.COMPRESSED) {
+            return arr.toFlatArray(builder);
+        }
+        if (arr.isView()) {
+            arr = arr.dup(arr.ordering());
+        }
+
+        int shape = FlatArray.createShapeVector(builder, arr.shapeInfoDataBuffer().asLong());
+        long numBytes = arr.length() * arr.dataType().width();
+        Preconditions.checkState(numBytes <= Integer.MAX_VALUE, "Cannot serialize array of %s bytes: FlatBuffers is limited to 2GB", numBytes);
+
+        Nd4j.getAffinityManager().ensureLocation(arr, AffinityManager.Location.HOST);
+        BytePointer data = new BytePointer(arr.data().addressPointer());
+        data.position(0);
+        data.capacity(numBytes);
+        data.limit(numBytes);
+
+        //Pad so that the data (written back to front) starts at an aligned offset in the finished buffer
+        builder.prep(MAPPED_ARRAY_ALIGNMENT, (int) numBytes);
+        int buffer = FlatArray.createBufferVector(builder, data.asByteBuffer());
+        return FlatArray.createFlatArray(builder, shape, buffer, getDataTypeAsByte(arr.dataType()), getOrderAsByte());
+    }
+
+    /**
+     * Create an INDArray that uses the data of the {@link FlatArray} directly, without copying it. This is possible only
+     * when the FlatBuffers data is in a direct (usually memory mapped) buffer, and the array was serialized in the native
+     * byte order with suitably aligned data - see {@link #toMappableFlatArray(FlatBufferBuilder, INDArray)}.<br>
+     * The returned array remains valid as long as the mapping does: the underlying buffer is referenced by the
+     * array's data buffer. Note that writing to the returned array writes to the mapped buffer.
+     *
+     * @param fa FlatArray to wrap
+     * @return The array, or null if the array can't be used in place (use {@link Nd4j#createFromFlatArray(FlatArray)} instead)
+     */
+    public static INDArray fromMappedFlatArray(@NonNull FlatArray fa) {
+        if (getOrderFromByte(fa.byteOrder()) != ByteOrder.nativeOrder()) {
+            return null;
+        }
+        DataType dt = getDataTypeFromByte(fa.dtype());
+        int rank = (int) fa.shape(0);
+        long[] shapeInfo = new long[Shape.shapeInfoLength(rank)];
+        for (int i = 0; i < shapeInfo.length; i++) {
+            shapeInfo[i] = fa.shape(i);
+        }
+        if (Shape.isEmpty(shapeInfo)) {
+            return null;
+        }
+
+        ByteBuffer bb = fa.bufferAsByteBuffer();
+        if (bb == null || !bb.isDirect()) {
+            return null;
+        }
+        bb = bb.slice().order(ByteOrder.nativeOrder());
+        long length = rank == 0 ? 1 : ArrayUtil.prodLong(Shape.shapeOf(shapeInfo));
+        if (bb.remaining() < length * dt.width() || new Pointer(bb).address() % dt.width() != 0) {
+            //Data is not aligned to the element size (for example, not written with toMappableFlatArray)
+            return null;
+        }
+
+        DataBuffer buffer;
+        switch (dt) {
+            case DOUBLE: {
+                DoublePointer p = new DoublePointer(bb.asDoubleBuffer());
+                buffer = Nd4j.createBuffer(p, dt, length, DoubleIndexer.create(p));
+                break;
+            }
+            case FLOAT: {
+                FloatPointer p = new FloatPointer(bb.asFloatBuffer());
+                buffer = Nd4j.createBuffer(p, dt, length, FloatIndexer.create(p));
+                break;
+            }
+            case HALF: {
+                ShortPointer p = new ShortPointer(bb.asShortBuffer());
+                buffer = Nd4j.createBuffer(p, dt, length, HalfIndexer.create(p));
+                break;
+            }
+            case BFLOAT16: {
+                ShortPointer p = new ShortPointer(bb.asShortBuffer());
+                buffer = Nd4j.createBuffer(p, dt, length, Bfloat16Indexer.create(p));
+                break;
+            }
+            case SHORT: {
+                ShortPointer p = new ShortPointer(bb.asShortBuffer());
+                buffer = Nd4j.createBuffer(p, dt, length, ShortIndexer.create(p));
+                break;
+            }
+            case UINT16: {
+                ShortPointer p = new ShortPointer(bb.asShortBuffer());
+                buffer = Nd4j.createBuffer(p, dt, length, UShortIndexer.create(p));
+                break;
+            }
+            case INT: {
+                IntPointer p = new IntPointer(bb.asIntBuffer());
+                buffer = Nd4j.createBuffer(p, dt, length, IntIndexer.create(p));
+                break;
+            }
+            case UINT32: {
+                IntPointer p = new IntPointer(bb.asIntBuffer());
+                buffer = Nd4j.createBuffer(p, dt, length, UIntIndexer.create(p));
+                break;
+            }
+            case LONG: {
+                LongPointer p = new LongPointer(bb.asLongBuffer());
+                buffer = Nd4j.createBuffer(p, dt, length, LongIndexer.create(p));
+                break;
+            }
+            case UINT64: {
+                LongPointer p = new LongPointer(bb.asLongBuffer());
+                buffer = Nd4j.createBuffer(p, dt, length, ULongIndexer.create(p));
+                break;
+            }
+            case BYTE: {
+                BytePointer p = new BytePointer(bb);
+                buffer = Nd4j.createBuffer(p, dt, length, ByteIndexer.create(p));
+                break;
+            }
+            case UBYTE: {
+                BytePointer p = new BytePointer(bb);
+                buffer = Nd4j.createBuffer(p, dt, length, UByteIndexer.create(p));
+                break;
+            }
+            default:
+                //BOOL, UTF8 etc: copied
+                return null;
+        }
+
+        char order = shapeInfo[shapeInfo.length - 1] == 99 ? 'c' : 'f';
+        return Nd4j.create(buffer, Shape.shapeOf(shapeInfo), Shape.stridesOf(shapeInfo), 0, order);
+    }
+
     public static DifferentialFunction fromFlatNode(FlatNode fn) {
 
         int id = fn.id();               //ID of the node
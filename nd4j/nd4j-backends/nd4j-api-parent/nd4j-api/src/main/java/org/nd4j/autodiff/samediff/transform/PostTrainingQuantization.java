@@ -0,0 +1,403 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.nd4j.autodiff.samediff.transform;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.nd4j.autodiff.functions.DifferentialFunction;
+import org.nd4j.autodiff.samediff.SDVariable;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.VariableType;
+import org.nd4j.autodiff.samediff.internal.SameDiffOp;
+import org.nd4j.autodiff.samediff.internal.Variable;
+import org.nd4j.common.base.Preconditions;
+import org.nd4j.enums.WeightsFormat;
+import org.nd4j.evaluation.IEvaluation;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.DynamicCustomOp;
+import org.nd4j.linalg.api.ops.impl.broadcast.BroadcastDivOp;
+import org.nd4j.linalg.api.ops.impl.layers.convolution.Conv2D;
+import org.nd4j.linalg.api.ops.impl.reduce.Mmul;
+import org.nd4j.linalg.api.ops.impl.transforms.custom.FakeQuantWithMinMaxVars;
+import org.nd4j.linalg.api.ops.impl.transforms.custom.XwPlusB;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import java.util.*;
+
+/**
+ * Post-training INT8 quantization for SameDiff inference graphs.<br>
+ * The weights of matrix multiplication ({@code mmul}, {@code xw_plus_b}) and 2d convolution ops are quantized
+ * symmetrically to INT8, with one scale per output channel (or a single scale per weight array, if per-channel
+ * quantization is disabled). Quantization is symmetric, so the zero point is always 0. The quantized graph stores each
+ * weight as an INT8 constant plus a FLOAT scale constant, and dequantizes it (cast + multiply by the scale) immediately
+ * before the matmul/conv op: the weights held in memory are about 4x smaller than FLOAT weights, while the ops
+ * themselves (and all activations) are still floating point.<br>
+ * <br>
+ * If calibration data is provided, the activations feeding these ops are also quantized: the min/max of each activation
+ * is recorded over the calibration batches, and a {@code fake_quant_with_min_max_vars} (quantize + dequantize) op with
+ * that range is inserted before the op.<br>
+ * <br>
+ * The original SameDiff instance is not modified. The returned instance is intended for inference only: quantized
+ * weights are constants and cannot be trained. Use {@link #evaluate(SameDiff, SameDiff, DataSetIterator, String, IEvaluation[])}
+ * to measure the accuracy difference between the original and quantized graphs.<br>
+ * <br>
+ * Usage:
+ * <pre>
+ * {@code
+ * SameDiff quantized = new PostTrainingQuantization.Builder()
+ *         .calibrationData(iterator, 10)
+ *         .build()
+ *         .quantize(sd);
+ * }
+ * </pre>
+ */
+@Slf4j
+@Getter
+public class PostTrainingQuantization {
+
+    public static final int NUM_BITS = 8;
+    private static final double INT8_MAX = 127.0;
+
+    private final boolean perChannel;
+    private final long minWeightElements;
+    private final DataSetIterator calibrationData;
+    private final int calibrationBatches;
+    private final String featurePlaceholder;
+
+    protected PostTrainingQuantization(Builder builder) {
+        this.perChannel = builder.perChannel;
+        this.minWeightElements = builder.minWeightElements;
+        this.calibrationData = builder.calibrationData;
+        this.calibrationBatches = builder.calibrationBatches;
+        this.featurePlaceholder = builder.featurePlaceholder;
+    }
+
+    /**
+     * Quantize the specified graph
+     *
+     * @param original The graph to quantize. Not modified
+     * @return A new SameDiff instance, with INT8 weight constants plus their scales
+     */
+    public SameDiff quantize(@NonNull SameDiff original) {
+        SameDiff sd = original.dup();
+
+        //Collect the weights to quantize: weight variable -> (op, weight input index, output channel axis)
+        Map<String, List<Target>> weights = new LinkedHashMap<>();
+        Map<String, List<Target>> activations = new LinkedHashMap<>();
+        for (SameDiffOp op : sd.getOps().values()) {
+            Target t = target(sd, op);
+            if (t == null)
+                continue;
+            String w = op.getInputsToOp().get(t.weightIdx);
+            SDVariable wVar = sd.getVariable(w);
+            if ((wVar.isConstant() || wVar.getVariableType() == VariableType.VARIABLE) && wVar.dataType().isFPType()
+                    && wVar.getArr() != null && wVar.getArr().length() >= minWeightElements) {
+                weights.computeIfAbsent(w, k -> new ArrayList<>()).add(t);
+            }
+            String a = op.getInputsToOp().get(0);
+            if (sd.getVariable(a).dataType().isFPType())
+                activations.computeIfAbsent(a, k -> new ArrayList<>()).add(t);
+        }
+
+        if (calibrationData != null && !activations.isEmpty()) {
+            Map<String, double[]> ranges = calibrate(original, activations.keySet());
+            for (Map.Entry<String, List<Target>> e : activations.entrySet()) {
+                double[] range = ranges.get(e.getKey());
+                if (range != null)
+                    insertFakeQuant(sd, e.getKey(), range, e.getValue());
+            }
+        }
+
+        long bytesBefore = 0;
+        long bytesAfter = 0;
+        for (Map.Entry<String, List<Target>> e : weights.entrySet()) {
+            INDArray w = sd.getVariable(e.getKey()).getArr();
+            bytesBefore += w.length() * w.dataType().width();
+            bytesAfter += quantizeWeight(sd, e.getKey(), e.getValue());
+        }
+        log.info("Quantized {} weight arrays: {} bytes -> {} bytes", weights.size(), bytesBefore, bytesAfter);
+        return sd;
+    }
+
+    /**
+     * Evaluate the original and quantized graphs on the same data. The evaluations are applied to the original graph,
+     * and new instances of them (see {@link IEvaluation#newInstance()}) are applied to the quantized graph.
+     *
+     * @param original       The original graph
+     * @param quantized      The quantized graph, as returned by {@link #quantize(SameDiff)}
+     * @param data           Data to evaluate on. Features are used for the feature placeholder, labels for the evaluations
+     * @param outputVariable The output (prediction) variable to evaluate
+     * @param evaluations    The evaluations to perform
+     * @return The results for both graphs
+     */
+    public QuantizationEvaluation evaluate(@NonNull SameDiff original, @NonNull SameDiff quantized, @NonNull DataSetIterator data,
+                                           @NonNull String outputVariable, @NonNull IEvaluation... evaluations) {
+        Preconditions.checkState(evaluations.length > 0, "No evaluations were specified");
+        IEvaluation[] q = new IEvaluation[evaluations.length];
+        for (int i = 0; i < evaluations.length; i++) {
+            q[i] = (IEvaluation) evaluations[i].newInstance();
+        }
+
+        String ph = featurePlaceholder(original);
+        if (!data.hasNext() && data.resetSupported())
+            data.reset();
+        while (data.hasNext()) {
+            DataSet ds = data.next();
+            Map<String, INDArray> phs = Collections.singletonMap(ph, ds.getFeatures());
+            INDArray o = original.outputSingle(phs, outputVariable);
+            INDArray oq = quantized.outputSingle(phs, outputVariable);
+            for (int i = 0; i < evaluations.length; i++) {
+                evaluations[i].eval(ds.getLabels(), o, ds.getLabelsMaskArray());
+                q[i].eval(ds.getLabels(), oq, ds.getLabelsMaskArray());
+            }
+        }
+        if (data.resetSupported())
+            data.reset();
+        return new QuantizationEvaluation(evaluations, q);
+    }
+
+    protected Target target(SameDiff sd, SameDiffOp op) {
+        DifferentialFunction df = op.getOp();
+        List<String> in = op.getInputsToOp();
+        if (in == null || in.size() < 2)
+            return null;
+        Class<?> c = df.getClass();
+        if (c == Mmul.class || c == XwPlusB.class) {
+            //Weights are [nIn, nOut], or [nOut, nIn] if transposed
+            long[] iArgs = ((DynamicCustomOp) df).iArgs();
+            boolean transposeB = iArgs != null && iArgs.length > 1 && iArgs[1] != 0;
+            if (sd.getVariable(in.get(1)).getShape() == null || sd.getVariable(in.get(1)).getShape().length != 2)
+                return null;
+            return new Target(op, 1, transposeB ? 0 : 1);
+        } else if (c == Conv2D.class) {
+            WeightsFormat wf = ((Conv2D) df).getConfig().getWeightsFormat();
+            return new Target(op, 1, wf == WeightsFormat.YXIO ? 3 : 0);
+        }
+        return null;
+    }
+
+    /**
+     * Replace the weight variable (for the specified ops) with INT8 weights plus a dequantization step
+     *
+     * @return Number of bytes used by the quantized weight and its scales
+     */
+    protected long quantizeWeight(SameDiff sd, String name, List<Target> targets) {
+        SDVariable wVar = sd.getVariable(name);
+        INDArray w = wVar.getArr();
+
+        int axis = targets.get(0).channelAxis;
+        for (Target t : targets) {
+            if (t.channelAxis != axis)
+                axis = -1;          //Shared weight used with different layouts: fall back on a single scale
+        }
+        if (!perChannel || w.rank() == 0)
+            axis = -1;
+
+        INDArray scale;
+        INDArray q;
+        if (axis < 0) {
+            double max = Math.max(w.amaxNumber().doubleValue(), Double.MIN_NORMAL);
+            scale = Nd4j.scalar(w.dataType(), max / INT8_MAX);
+            q = w.div(scale.getDouble(0));
+        } else {
+            long[] reduce = new long[w.rank() - 1];
+            for (int i = 0, j = 0; i < w.rank(); i++) {
+                if (i != axis)
+                    reduce[j++] = i;
+            }
+            scale = Transforms.max(w.amax(reduce), Double.MIN_NORMAL, false).divi(INT8_MAX);
+            q = w.ulike();
+            Nd4j.exec(new BroadcastDivOp(w, scale, q, axis));
+        }
+        q = Transforms.min(Transforms.max(Transforms.round(q, false), -INT8_MAX, false), INT8_MAX, false).castTo(DataType.INT8);
+
+        if (axis >= 0 && axis != w.rank() - 1) {
+            //Reshape scale so that it broadcasts along the output channel axis: [c] -> [c,1,...,1]
+            long[] shape = new long[w.rank() - axis];
+            Arrays.fill(shape, 1);
+            shape[0] = scale.length();
+            scale = scale.reshape(shape);
+        }
+
+        SDVariable qVar = sd.constant(sd.generateDistinctCustomVariableName(name + "_int8"), q);
+        SDVariable sVar = sd.constant(sd.generateDistinctCustomVariableName(name + "_scale"), scale);
+        SDVariable deq = sd.castTo(sd.generateDistinctCustomVariableName(name + "_dequantized"), qVar, w.dataType()).mul(sVar);
+
+        for (Target t : targets) {
+            sd.replaceArgFor(t.weightIdx, deq, t.op.getOp());
+        }
+        removeIfUnused(sd, name);
+        return q.length() + scale.length() * scale.dataType().width();
+    }
+
+    /**
+     * Remove the specified variable or constant, if it is no longer used by any op, as a control dependency, or as a
+     * loss variable
+     */
+    protected void removeIfUnused(SameDiff sd, String name) {
+        Variable v = sd.getVariables().get(name);
+        if ((v.getInputsForOp() != null && !v.getInputsForOp().isEmpty())
+                || (v.getControlDepsForOp() != null && !v.getControlDepsForOp().isEmpty())
+                || (v.getControlDepsForVar() != null && !v.getControlDepsForVar().isEmpty())
+                || sd.getLossVariables().contains(name))
+            return;
+
+        SDVariable var = v.getVariable();
+        if (var.getVariableType() == VariableType.VARIABLE) {
+            //Also removes any updater state and training config references for the variable
+            sd.convertToConstants(Collections.singletonList(var));
+        }
+        sd.getVariables().remove(name);
+        sd.getConstantArrays().removeArray(name);
+        sd.markStructureModified();
+    }
+
+    protected void insertFakeQuant(SameDiff sd, String activation, double[] range, List<Target> targets) {
+        DataType dt = sd.getVariable(activation).dataType();
+        //The quantized range must contain zero so that zero (padding etc) is exactly representable
+        SDVariable min = sd.constant(sd.generateDistinctCustomVariableName(activation + "_qmin"),
+                Nd4j.createFromArray(Math.min(range[0], 0.0)).castTo(dt).reshape(1));
+        SDVariable max = sd.constant(sd.generateDistinctCustomVariableName(activation + "_qmax"),
+                Nd4j.createFromArray(Math.max(range[1], 0.0)).castTo(dt).reshape(1));
+        SDVariable fq = new FakeQuantWithMinMaxVars(sd, sd.getVariable(activation), min, max, false, NUM_BITS).outputVariable();
+        for (Target t : targets) {
+            sd.replaceArgFor(0, fq, t.op.getOp());
+        }
+    }
+
+    /**
+     * Record the minimum and maximum values of the specified activations over the calibration data
+     */
+    protected Map<String, double[]> calibrate(SameDiff sd, Collection<String> activations) {
+        String ph = featurePlaceholder(sd);
+        List<String> toCompute = new ArrayList<>();
+        for (String s : activations) {
+            if (!sd.isPlaceHolder(s))
+                toCompute.add(s);
+        }
+
+        Map<String, double[]> ranges = new HashMap<>();
+        if (!calibrationData.hasNext() && calibrationData.resetSupported())
+            calibrationData.reset();
+        int count = 0;
+        while (calibrationData.hasNext() && (calibrationBatches <= 0 || count < calibrationBatches)) {
+            INDArray features = calibrationData.next().getFeatures();
+            Map<String, INDArray> phs = Collections.singletonMap(ph, features);
+            Map<String, INDArray> out = toCompute.isEmpty() ? new HashMap<String, INDArray>() :
+                    new HashMap<>(sd.output(phs, toCompute.toArray(new String[0])));
+            for (String s : activations) {
+                if (sd.isPlaceHolder(s) && !s.equals(ph))
+                    continue;
+                INDArray arr = s.equals(ph) ? features : out.get(s);
+                double[] r = ranges.computeIfAbsent(s, k -> new double[]{Double.MAX_VALUE, -Double.MAX_VALUE});
+                r[0] = Math.min(r[0], arr.minNumber().doubleValue());
+                r[1] = Math.max(r[1], arr.maxNumber().doubleValue());
+            }
+            count++;
+        }
+        if (calibrationData.resetSupported())
+            calibrationData.reset();
+        Preconditions.checkState(count > 0, "No calibration data: calibration iterator has no batches");
+        log.info("Calibrated {} activations over {} batches", ranges.size(), count);
+        return ranges;
+    }
+
+    protected String featurePlaceholder(SameDiff sd) {
+        if (featurePlaceholder != null)
+            return featurePlaceholder;
+        if (sd.getTrainingConfig() != null && sd.getTrainingConfig().getDataSetFeatureMapping() != null
+                && sd.getTrainingConfig().getDataSetFeatureMapping().size() == 1)
+            return sd.getTrainingConfig().getDataSetFeatureMapping().get(0);
+        List<String> inputs = sd.inputs();
+        Preconditions.checkState(inputs != null && inputs.size() == 1, "Unable to infer the feature placeholder: graph has " +
+                "placeholders %s and no training config feature mapping. Set it using Builder.featurePlaceholder(String)", inputs);
+        return inputs.get(0);
+    }
+
+    protected static class Target {
+        private final SameDiffOp op;
+        private final int weightIdx;
+        private final int channelAxis;
+
+        protected Target(SameDiffOp op, int weightIdx, int channelAxis) {
+            this.op = op;
+            this.weightIdx = weightIdx;
+            this.channelAxis = channelAxis;
+        }
+    }
+
+    public static class Builder {
+        private boolean perChannel = true;
+        private long minWeightElements = 0;
+        private DataSetIterator calibrationData;
+        private int calibrationBatches = 0;
+        private String featurePlaceholder;
+
+        /**
+         * @param perChannel If true (default): use one scale per output channel of each weight array. If false: use a
+         *                   single scale for the whole weight array
+         */
+        public Builder perChannel(boolean perChannel) {
+            this.perChannel = perChannel;
+            return this;
+        }
+
+        /**
+         * @param minWeightElements Weight arrays with fewer elements than this are left as-is. Default: 0
+         */
+        public Builder minWeightElements(long minWeightElements) {
+            Preconditions.checkArgument(minWeightElements >= 0, "Minimum weight elements must be >= 0, got %s", minWeightElements);
+            this.minWeightElements = minWeightElements;
+            return this;
+        }
+
+        /**
+         * Set the data used to calibrate the activation ranges. If not set, only weights are quantized.
+         *
+         * @param calibrationData    Representative input data. Only the features are used
+         * @param calibrationBatches Maximum number of batches to use. 0 to use all batches
+         */
+        public Builder calibrationData(DataSetIterator calibrationData, int calibrationBatches) {
+            Preconditions.checkArgument(calibrationBatches >= 0, "Number of calibration batches must be >= 0, got %s", calibrationBatches);
+            this.calibrationData = calibrationData;
+            this.calibrationBatches = calibrationBatches;
+            return this;
+        }
+
+        /**
+         * @param featurePlaceholder The placeholder to set with the DataSet features. If not set, the training config's
+         *                           feature mapping or the graph's only placeholder is used
+         */
+        public Builder featurePlaceholder(String featurePlaceholder) {
+            this.featurePlaceholder = featurePlaceholder;
+            return this;
+        }
+
+        public PostTrainingQuantization build() {
+            return new PostTrainingQuantization(this);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.nd4j.autodiff.samediff.transform;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.nd4j.evaluation.IEvaluation;
+import org.nd4j.evaluation.IMetric;
+
+/**
+ * The results of evaluating an original and a quantized graph on the same data.
+ * See {@link PostTrainingQuantization#evaluate(org.nd4j.autodiff.samediff.SameDiff, org.nd4j.autodiff.samediff.SameDiff,
+ * org.nd4j.linalg.dataset.api.iterator.DataSetIterator, String, IEvaluation[])}
+ */
+@Getter
+public class QuantizationEvaluation {
+
+    private final IEvaluation[] original;
+    private final IEvaluation[] quantized;
+
+    public QuantizationEvaluation(@NonNull IEvaluation[] original, @NonNull IEvaluation[] quantized) {
+        this.original = original;
+        this.quantized = quantized;
+    }
+
+    /**
+     * @return The value of the metric for the original graph
+     */
+    public double originalValue(IMetric metric) {
+        return find(original, metric).getValue(metric);
+    }
+
+    /**
+     * @return The value of the metric for the quantized graph
+     */
+    public double quantizedValue(IMetric metric) {
+        return find(quantized, metric).getValue(metric);
+    }
+
+    /**
+     * @return The change in the metric due to quantization: quantized value minus original value. For example, for
+     * {@code Evaluation.Metric.ACCURACY} a value of -0.01 means the quantized graph is 1% less accurate
+     */
+    public double delta(IMetric metric) {
+        return quantizedValue(metric) - originalValue(metric);
+    }
+
+    private static IEvaluation find(IEvaluation[] evaluations, IMetric metric) {
+        for (IEvaluation e : evaluations) {
+            if (metric.getEvaluationClass().isInstance(e))
+                return e;
+        }
+        throw new IllegalStateException("No evaluation of type " + metric.getEvaluationClass().getSimpleName() + " was performed");
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < original.length; i++) {
+            sb.append("Original:\n").append(original[i].stats())
+                    .append("\nQuantized:\n").append(quantized[i].stats()).append("\n");
+        }
+        return sb.toString();
+    }
+}
@@ -20,7 +20,136 @@
 
 package org.nd4j.linalg.compression;
 
+import lombok.NonNull;
+import org.nd4j.common.base.Preconditions;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.impl.scatter.ScatterAdd;
+import org.nd4j.linalg.api.ops.impl.shape.Gather;
+import org.nd4j.linalg.api.ops.impl.transforms.bool.MatchConditionTransform;
+import org.nd4j.linalg.api.shape.Shape;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.nd4j.linalg.indexing.conditions.Conditions;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+/**
+ * Sparse threshold encoding of updates, for exchanging updates between model replicas.<br>
+ * Elements of the input with an absolute value of at least the threshold are encoded as their index and sign only:
+ * the decoded value of each encoded element is {@code +/- threshold}, and all other elements are zero. The encoded
+ * amount is subtracted from the input, which thus acts as a residual: values below the threshold (and the remainder
+ * of encoded values) accumulate over subsequent calls until they are large enough to be encoded.<br>
+ * <br>
+ * Encoded format: an INT32 vector with a header of {@link #HEADER_LENGTH} values - number of encoded elements, length
+ * of the original array, threshold (as float bits) and encoding type ({@link #FLEXIBLE_ENCODING}) - followed by one
+ * value per encoded element: {@code (index + 1)} for positive values and {@code -(index + 1)} for negative values.
+ * Indices are linear indices in 'c' order.
+ */
 public class ThresholdCompression {
     public static final int FLEXIBLE_ENCODING = 0;
     public static final int BITMAP_ENCODING = 1;
+
+    public static final int HEADER_LENGTH = 4;
+
+    /**
+     * As per {@link #encode(INDArray, double, int)} with no limit on the number of encoded elements
+     */
+    public static INDArray encode(@NonNull INDArray residual, double threshold) {
+        return encode(residual, threshold, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Encode all elements with an absolute value of at least the threshold, and subtract the encoded values from the
+     * residual array (in place)
+     *
+     * @param residual    Array to encode. Modified in place
+     * @param threshold   Encoding threshold. Must be positive
+     * @param maxElements Maximum number of elements to encode. If more elements exceed the threshold, only the first
+     *                    maxElements of them are encoded
+     * @return The encoded array, or null if no elements exceed the threshold
+     */
+    public static INDArray encode(@NonNull INDArray residual, double threshold, int maxElements) {
+        Preconditions.checkArgument(threshold > 0, "Threshold must be positive, got %s", threshold);
+        Preconditions.checkArgument(residual.dataType().isFPType(), "Only floating point arrays can be encoded, got %s", residual.dataType());
+        Preconditions.checkArgument(residual.length() < Integer.MAX_VALUE, "Arrays with more than Integer.MAX_VALUE " +
+                "elements cannot be encoded, got length %s", residual.length());
+
+        INDArray flat = flatView(residual, "Residual");
+        INDArray mask = Nd4j.getExecutioner().exec(new MatchConditionTransform(flat, Conditions.absGreaterThanOrEqual(threshold)));
+        if (!mask.any())
+            return null;
+        INDArray indices = Nd4j.where(mask, null, null)[0];
+        int n = (int) Math.min(indices.length(), maxElements);
+        if (n < indices.length())
+            indices = indices.get(NDArrayIndex.interval(0, n));
+
+        //Encoded values: sign(value) * (index + 1). Encoded values are stored (and decoded) using the float threshold:
+        // use the same value for the residual
+        INDArray signs = Transforms.sign(Nd4j.exec(new Gather(flat, indices, 0))[0], false);
+        INDArray values = indices.castTo(DataType.INT32).addi(1).muli(signs.castTo(DataType.INT32));
+        scatterAdd(flat, indices, signs.muli(-(float) threshold));
+
+        INDArray header = Nd4j.createFromArray(n, (int) residual.length(), Float.floatToIntBits((float) threshold), FLEXIBLE_ENCODING);
+        return Nd4j.concat(0, header, values);
+    }
+
+    /**
+     * Decode the encoded array, adding the decoded values to the target array (in place)
+     *
+     * @param encoded Encoded array, as returned by {@link #encode(INDArray, double)}
+     * @param target  Array to add the decoded values to. Must have the same length as the encoded array
+     */
+    public static void decode(@NonNull INDArray encoded, @NonNull INDArray target) {
+        Preconditions.checkArgument(encoded.dataType() == DataType.INT32 && encoded.length() >= HEADER_LENGTH,
+                "Invalid encoded array: expected INT32 array with length at least %s, got %s array with length %s",
+                HEADER_LENGTH, encoded.dataType(), encoded.length());
+        DataBuffer buffer = encoded.data();
+        int n = buffer.getInt(0);
+        Preconditions.checkArgument(buffer.getInt(3) == FLEXIBLE_ENCODING, "Unsupported encoding type: %s", buffer.getInt(3));
+        Preconditions.checkArgument(buffer.getInt(1) == target.length(), "Encoded array has original length %s, " +
+                "but target array has length %s", buffer.getInt(1), target.length());
+        if (n == 0)
+            return;
+        double threshold = Float.intBitsToFloat(buffer.getInt(2));
+
+        INDArray values = encoded.get(NDArrayIndex.interval(HEADER_LENGTH, HEADER_LENGTH + n));
+        INDArray indices = Transforms.abs(values, true).subi(1);
+        INDArray updates = Transforms.sign(values.castTo(target.dataType()), false).muli(threshold);
+        scatterAdd(flatView(target, "Target"), indices, updates);
+    }
+
+    /**
+     * In-place scatter add: {@code arr[indices[i]] += updates[i]}
+     */
+    private static void scatterAdd(INDArray arr, INDArray indices, INDArray updates) {
+        ScatterAdd op = new ScatterAdd(arr, indices, updates);
+        op.addOutputArgument(arr);
+        Nd4j.exec(op);
+    }
+
+    /**
+     * @return A vector view of the array, with elements in 'c' order
+     */
+    private static INDArray flatView(INDArray arr, String name) {
+        Preconditions.checkArgument((arr.isVector() || arr.ordering() == 'c') && Shape.hasDefaultStridesForShape(arr),
+                "%s array must be a vector or a contiguous 'c' order array", name);
+        return arr.reshape('c', arr.length());
+    }
+
+    /**
+     * @param encoded Encoded array
+     * @return Number of elements in the encoded array
+     */
+    public static int numEncoded(@NonNull INDArray encoded) {
+        return encoded.data().getInt(0);
+    }
+
+    /**
+     * @param encoded Encoded array
+     * @return Threshold used to encode the array
+     */
+    public static double threshold(@NonNull INDArray encoded) {
+        return Float.intBitsToFloat(encoded.data().getInt(2));
+    }
 }
@@ -30,15 +30,19 @@ import org.datavec.api.split.FileSplit;
 import org.datavec.api.split.InputStreamInputSplit;
 import org.datavec.api.split.StringSplit;
 import org.datavec.api.split.partition.NumberOfRecordsPartitioner;
+import org.datavec.api.transform.schema.Schema;
 import org.datavec.api.writable.IntWritable;
 import org.datavec.api.writable.Text;
 import org.datavec.api.writable.Writable;
+import org.datavec.api.writable.batch.ColumnarRecordBatch;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import org.nd4j.common.io.ClassPathResource;
 import org.nd4j.common.tests.BaseND4JTest;
 import org.nd4j.common.tests.tags.TagNames;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
 
 import java.io.File;
 import java.io.IOException;
@@ -330,4 +334,43 @@ class CSVRecordReaderTest extends BaseND4JTest {
             assertTrue(e.getMessage().contains("initialized"),e.getMessage());
         }
     }
+
+    @Test
+    @DisplayName("Test Columnar Batches")
+    void testColumnarBatches() throws Exception {
+        Schema schema = new Schema.Builder()
+                .addColumnsDouble("a", "b", "c", "d")
+                .addColumnInteger("label")
+                .build();
+        CSVRecordReader rr = new CSVRecordReader(0, ',', '\"', schema);
+        rr.initialize(new FileSplit(new ClassPathResource("datavec-api/iris.dat").getFile()));
+        CSVRecordReader ref = new CSVRecordReader(0, ',');
+        ref.initialize(new FileSplit(new ClassPathResource("datavec-api/iris.dat").getFile()));
+
+        int count = 0;
+        while (rr.hasNext()) {
+            List<List<Writable>> batch = rr.next(32);
+            assertTrue(batch instanceof ColumnarRecordBatch);
+            ColumnarRecordBatch cb = (ColumnarRecordBatch) batch;
+            assertEquals(count < 128 ? 32 : 150 - 128, cb.size());
+            INDArray arr = cb.toArray(DataType.DOUBLE, 0, 4);
+            assertArrayEquals(new long[]{cb.size(), 5}, arr.shape());
+            for (int i = 0; i < cb.size(); i++) {
+                List<Writable> exp = ref.next();
+                for (int j = 0; j < 5; j++) {
+                    assertEquals(exp.get(j).toDouble(), arr.getDouble(i, j), 1e-12);
+                    assertEquals(exp.get(j).toDouble(), cb.get(i).get(j).toDouble(), 1e-12);
+                }
+                assertTrue(cb.get(i).get(4) instanceof IntWritable);
+            }
+            count += cb.size();
+        }
+        assertEquals(150, count);
+
+        //Values that don't match the schema
+        rr = new CSVRecordReader(0, ',', '\"', new Schema.Builder().addColumnsInteger("a", "b").build());
+        rr.initialize(new StringSplit("1,2.5"));
+        CSVRecordReader finalRr = rr;
+        assertThrows(NumberFormatException.class, () -> finalRr.next(10));
+    }
 }
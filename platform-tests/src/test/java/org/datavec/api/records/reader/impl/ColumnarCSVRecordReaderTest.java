@@ -0,0 +1,294 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.datavec.api.records.reader.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.datavec.api.records.reader.impl.csv.CSVRecordReader;
+import org.datavec.api.records.reader.impl.csv.ColumnarCSVParser;
+import org.datavec.api.records.reader.impl.csv.ColumnarCSVRecordReader;
+import org.datavec.api.split.FileSplit;
+import org.datavec.api.split.StringSplit;
+import org.datavec.api.transform.schema.Schema;
+import org.datavec.api.writable.Writable;
+import org.datavec.api.writable.batch.ColumnarRecordBatch;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.nd4j.common.io.ClassPathResource;
+import org.nd4j.common.tests.BaseND4JTest;
+import org.nd4j.common.tests.tags.TagNames;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Slf4j
+@DisplayName("Columnar CSV Record Reader Test")
+@Tag(TagNames.JAVA_ONLY)
+@Tag(TagNames.FILE_IO)
+class ColumnarCSVRecordReaderTest extends BaseND4JTest {
+
+    private static Schema irisSchema() {
+        return new Schema.Builder()
+                .addColumnsDouble("a", "b", "c", "d")
+                .addColumnInteger("label")
+                .build();
+    }
+
+    private static ByteBuffer bytes(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("Test Number Parsing")
+    void testNumberParsing() {
+        String[] doubles = {"0", "-0", "0.0", "-0.0", "1", "+1", "1.", "1.5", "-1.5", ".5", "-.5", "3.14159",
+                "1e5", "1E-5", "-2.5e+10", "1e22", "1e23", "1e-22", "1e-300", "1e308", "4.9e-324", "123456789012345678",
+                "1234567890123456789", "0.1234567890123456789", "9007199254740993", "NaN", "-Infinity", "0x1p3",
+                " 1.5", "1.5 ", "1.5d", "00012.500"};
+        for (String s : doubles) {
+            ByteBuffer bb = bytes(s);
+            assertEquals(Double.parseDouble(s), ColumnarCSVParser.parseDouble(bb, 0, bb.limit()), 0.0, s);
+            assertEquals(Float.parseFloat(s), ColumnarCSVParser.parseFloat(bb, 0, bb.limit()), 0.0f, s);
+        }
+
+        Random r = new Random(12345);
+        for (int i = 0; i < 100000; i++) {
+            String s;
+            switch (i % 4) {
+                case 0:
+                    s = Double.toString(r.nextGaussian() * Math.pow(10, r.nextInt(20) - 10));
+                    break;
+                case 1:
+                    s = String.format(Locale.ROOT, "%.4f", r.nextDouble() * 1000 - 500);
+                    break;
+                case 2:
+                    s = Float.toString((float) r.nextGaussian());
+                    break;
+                default:
+                    s = String.valueOf(r.nextInt(2000000) - 1000000) + "." + r.nextInt(1000);
+            }
+            ByteBuffer bb = bytes(s);
+            assertEquals(Double.parseDouble(s), ColumnarCSVParser.parseDouble(bb, 0, bb.limit()), 0.0, s);
+            assertEquals(Float.parseFloat(s), ColumnarCSVParser.parseFloat(bb, 0, bb.limit()), 0.0f, s);
+        }
+
+        String[] longs = {"0", "-0", "+7", "-123", "9223372036854775807", "-9223372036854775808"};
+        for (String s : longs) {
+            ByteBuffer bb = bytes(s);
+            assertEquals(Long.parseLong(s), ColumnarCSVParser.parseLong(bb, 0, bb.limit()), s);
+        }
+        for (String s : new String[]{"", "-", "1.0", "9223372036854775808", "-9223372036854775809", " 1", "abc"}) {
+            ByteBuffer bb = bytes(s);
+            assertThrows(NumberFormatException.class, () -> ColumnarCSVParser.parseLong(bb, 0, bb.limit()), s);
+        }
+        ByteBuffer invalid = bytes("1.2.3");
+        assertThrows(NumberFormatException.class, () -> ColumnarCSVParser.parseDouble(invalid, 0, invalid.limit()));
+    }
+
+    @Test
+    @DisplayName("Test Matches CSV Record Reader")
+    void testMatchesCSVRecordReader() throws Exception {
+        File f = new ClassPathResource("datavec-api/iris.dat").getFile();
+        //Small buffer sizes: lines span multiple reads, and the buffer must be expanded
+        for (int bufferSize : new int[]{1, 7, 64, ColumnarCSVRecordReader.DEFAULT_BUFFER_SIZE}) {
+            for (int skip : new int[]{0, 10}) {
+                CSVRecordReader ref = new CSVRecordReader(skip, ',');
+                ref.initialize(new FileSplit(f));
+                ColumnarCSVRecordReader rr = new ColumnarCSVRecordReader(irisSchema(), skip, ',', '"', bufferSize);
+                rr.initialize(new FileSplit(f));
+                for (int reset = 0; reset < 2; reset++) {
+                    int count = 0;
+                    while (rr.hasNext()) {
+                        ColumnarRecordBatch b = rr.next(32);
+                        for (int i = 0; i < b.size(); i++) {
+                            List<Writable> exp = ref.next();
+                            for (int j = 0; j < 5; j++) {
+                                assertEquals(exp.get(j).toDouble(), b.getDouble(i, j), 0.0);
+                            }
+                        }
+                        count += b.size();
+                    }
+                    assertFalse(ref.hasNext());
+                    assertEquals(150 - skip, count, "Buffer size " + bufferSize);
+                    rr.reset();
+                    ref.reset();
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test Format")
+    void testFormat() throws Exception {
+        Schema schema = new Schema.Builder()
+                .addColumnString("s")
+                .addColumnInteger("i")
+                .addColumnFloat("f")
+                .addColumnBoolean("b")
+                .addColumnString("last")
+                .build();
+        //CRLF and LF line endings, empty lines, quoted values with delimiters and escaped quotes, trailing empty value,
+        // no final line break
+        String csv = "header\r\n" +
+                "\"a,b\",1,1.5,true,x\r\n" +
+                "\n" +
+                "\"say \"\"hi\"\"\",-2,2,FALSE,\n" +
+                "plain,3,-0.25,TRUE,\"\"";
+        ColumnarCSVRecordReader rr = new ColumnarCSVRecordReader(schema, 1, ',', '"');
+        rr.initialize(new StringSplit(csv));
+        ColumnarRecordBatch b = rr.next(10);
+        assertFalse(rr.hasNext());
+        assertEquals(3, b.size());
+
+        assertEquals("a,b", b.get(0).get(0).toString());
+        assertEquals("say \"hi\"", b.get(1).get(0).toString());
+        assertEquals("plain", b.get(2).get(0).toString());
+        assertEquals(-2, b.get(1).get(1).toInt());
+        assertEquals(-0.25f, b.get(2).get(2).toFloat(), 0.0f);
+        assertEquals(1.0, b.getDouble(0, 3), 0.0);
+        assertEquals(0.0, b.getDouble(1, 3), 0.0);
+        assertEquals(1.0, b.getDouble(2, 3), 0.0);
+        assertEquals("x", b.get(0).get(4).toString());
+        assertEquals("", b.get(1).get(4).toString());
+        assertEquals("", b.get(2).get(4).toString());
+
+        //Wrong number of values
+        ColumnarCSVRecordReader rr2 = new ColumnarCSVRecordReader(schema);
+        rr2.initialize(new StringSplit("a,1,1.0,true"));
+        assertThrows(IllegalStateException.class, () -> rr2.next(10));
+    }
+
+    @Test
+    @DisplayName("Test Parse File Parallel")
+    void testParseFileParallel(@TempDir Path testDir) throws Exception {
+        Schema schema = new Schema.Builder()
+                .addColumnLong("idx")
+                .addColumnDouble("value")
+                .build();
+        File f = testDir.resolve("data.csv").toFile();
+        int n = 10007;
+        try (BufferedWriter w = Files.newBufferedWriter(f.toPath(), StandardCharsets.UTF_8)) {
+            w.write("idx,value\n");
+            for (int i = 0; i < n; i++) {
+                w.write(i + "," + (i * 0.5) + "\n");
+            }
+        }
+
+        ColumnarCSVParser parser = new ColumnarCSVParser(schema);
+        for (int threads : new int[]{1, 3, 8}) {
+            List<ColumnarRecordBatch> batches = parser.parseFile(f, 1, threads);
+            assertEquals(threads, batches.size());
+            int expIdx = 0;
+            for (ColumnarRecordBatch b : batches) {
+                for (int i = 0; i < b.size(); i++) {
+                    assertEquals(expIdx, b.getDouble(i, 0), 0.0);
+                    assertEquals(expIdx * 0.5, b.getDouble(i, 1), 0.0);
+                    expIdx++;
+                }
+            }
+            assertEquals(n, expIdx);
+        }
+    }
+
+    @Test
+    @Tag(TagNames.LONG_TEST)
+    @DisplayName("Test Throughput")
+    void testThroughput(@TempDir Path testDir) throws Exception {
+        //Not a strict performance test: logs throughput (MB/s) of the different CSV reading methods. File size (MB) can
+        // be set via system property, to benchmark with multi-GB files
+        long targetBytes = Long.getLong("org.datavec.csv.benchmarkMB", 64L) * 1024 * 1024;
+        int nCols = 10;
+        Schema.Builder sb = new Schema.Builder();
+        for (int j = 0; j < nCols; j++) {
+            sb.addColumnDouble("c" + j);
+        }
+        Schema schema = sb.build();
+
+        File f = testDir.resolve("benchmark.csv").toFile();
+        Random r = new Random(12345);
+        try (BufferedWriter w = Files.newBufferedWriter(f.toPath(), StandardCharsets.UTF_8)) {
+            StringBuilder line = new StringBuilder();
+            long written = 0;
+            while (written < targetBytes) {
+                line.setLength(0);
+                for (int j = 0; j < nCols; j++) {
+                    if (j > 0) {
+                        line.append(',');
+                    }
+                    line.append(String.format(Locale.ROOT, "%.5f", r.nextGaussian()));
+                }
+                line.append('\n');
+                w.write(line.toString());
+                written += line.length();
+            }
+        }
+        double mb = f.length() / (1024.0 * 1024.0);
+
+        long start = System.nanoTime();
+        CSVRecordReader csv = new CSVRecordReader();
+        csv.initialize(new FileSplit(f));
+        double expSum = 0;
+        long expCount = 0;
+        while (csv.hasNext()) {
+            for (List<Writable> l : csv.next(1024)) {
+                expSum += l.get(0).toDouble();
+                expCount++;
+            }
+        }
+        log.info("CSVRecordReader: {} MB/s", mb / ((System.nanoTime() - start) / 1e9));
+
+        start = System.nanoTime();
+        ColumnarCSVRecordReader rr = new ColumnarCSVRecordReader(schema);
+        rr.initialize(new FileSplit(f));
+        double sum = 0;
+        long count = 0;
+        while (rr.hasNext()) {
+            ColumnarRecordBatch b = rr.next(1024);
+            for (int i = 0; i < b.size(); i++) {
+                sum += b.getDouble(i, 0);
+            }
+            count += b.size();
+        }
+        log.info("ColumnarCSVRecordReader: {} MB/s", mb / ((System.nanoTime() - start) / 1e9));
+        assertEquals(expCount, count);
+        assertEquals(expSum, sum, 0.0);
+
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        start = System.nanoTime();
+        List<ColumnarRecordBatch> batches = new ColumnarCSVParser(schema).parseFile(f, 0, threads);
+        log.info("ColumnarCSVParser.parseFile ({} threads): {} MB/s", threads, mb / ((System.nanoTime() - start) / 1e9));
+        count = 0;
+        for (ColumnarRecordBatch b : batches) {
+            count += b.size();
+        }
+        assertEquals(expCount, count);
+    }
+}
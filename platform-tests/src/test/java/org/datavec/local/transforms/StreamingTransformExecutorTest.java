@@ -0,0 +1,219 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.datavec.local.transforms;
+
+import org.datavec.api.records.reader.impl.collection.CollectionRecordReader;
+import org.datavec.api.transform.MathOp;
+import org.datavec.api.transform.ReduceOp;
+import org.datavec.api.transform.TransformProcess;
+import org.datavec.api.transform.condition.ConditionOp;
+import org.datavec.api.transform.condition.column.DoubleColumnCondition;
+import org.datavec.api.transform.reduce.Reducer;
+import org.datavec.api.transform.schema.Schema;
+import org.datavec.api.writable.DoubleWritable;
+import org.datavec.api.writable.IntWritable;
+import org.datavec.api.writable.Text;
+import org.datavec.api.writable.Writable;
+import org.datavec.api.writable.comparator.DoubleWritableComparator;
+import org.datavec.local.transforms.spill.CloseableRecordIterator;
+import org.datavec.local.transforms.spill.SpillConfig;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.nd4j.common.tests.tags.TagNames;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Tag(TagNames.JAVA_ONLY)
+@Tag(TagNames.MULTI_THREADED)
+public class StreamingTransformExecutorTest {
+
+    private static Schema getSchema() {
+        return new Schema.Builder()
+                .addColumnInteger("id")
+                .addColumnCategorical("cat", "a", "b", "c")
+                .addColumnDouble("value")
+                .build();
+    }
+
+    private static List<List<Writable>> getData(int n) {
+        Random r = new Random(12345);
+        String[] cats = {"a", "b", "c"};
+        List<List<Writable>> out = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            out.add(Arrays.<Writable>asList(new IntWritable(i), new Text(cats[r.nextInt(3)]),
+                    new DoubleWritable(r.nextDouble())));
+        }
+        return out;
+    }
+
+    @Test
+    public void testMatchesPerRecordExecution() {
+        TransformProcess tp = new TransformProcess.Builder(getSchema())
+                .filter(new DoubleColumnCondition("value", ConditionOp.LessThan, 0.3))
+                .categoricalToInteger("cat")
+                .doubleMathOp("value", MathOp.Multiply, 10.0)
+                .filter(new DoubleColumnCondition("value", ConditionOp.GreaterThan, 9.0))
+                .build();
+
+        List<List<Writable>> data = getData(10000);
+        List<List<Writable>> expected = new ArrayList<>();
+        for (List<Writable> l : data) {
+            List<Writable> out = tp.execute(l);
+            if (out != null) {
+                expected.add(out);
+            }
+        }
+        //Wrong number of columns: should be removed
+        data.add(5000, Collections.<Writable>singletonList(new IntWritable(0)));
+
+        for (int batchSize : new int[]{1, 7, 1024}) {
+            StreamingTransformExecutor exec = new StreamingTransformExecutor.Builder()
+                    .numWorkers(4)
+                    .batchSize(batchSize)
+                    .maxBatchesInFlight(3)
+                    .build();
+
+            List<List<Writable>> actual = new ArrayList<>();
+            Iterator<List<Writable>> iter = exec.execute(new CollectionRecordReader(data), tp);
+            while (iter.hasNext()) {
+                actual.add(iter.next());
+            }
+            //Order should be preserved
+            assertEquals(expected, actual, "Batch size " + batchSize);
+        }
+    }
+
+    @Test
+    public void testReduction() {
+        TransformProcess tp = new TransformProcess.Builder(getSchema())
+                .filter(new DoubleColumnCondition("value", ConditionOp.LessThan, 0.5))
+                .removeColumns("id")
+                .reduce(new Reducer.Builder(ReduceOp.Sum).keyColumns("cat").countColumns("value").build())
+                .build();
+
+        List<List<Writable>> data = getData(1000);
+        List<List<Writable>> expected = new ArrayList<>(LocalTransformExecutor.execute(data, tp));
+
+        StreamingTransformExecutor exec = new StreamingTransformExecutor.Builder().numWorkers(3).batchSize(10).build();
+        List<List<Writable>> actual = new ArrayList<>();
+        Iterator<List<Writable>> iter = exec.execute(new CollectionRecordReader(data), tp);
+        while (iter.hasNext()) {
+            actual.add(iter.next());
+        }
+
+        Comparator<List<Writable>> c = new Comparator<List<Writable>>() {
+            @Override
+            public int compare(List<Writable> o1, List<Writable> o2) {
+                return o1.get(0).toString().compareTo(o2.get(0).toString());
+            }
+        };
+        Collections.sort(expected, c);
+        Collections.sort(actual, c);
+        assertEquals(3, actual.size());
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testSpilledReductionAndSortedRank(@TempDir Path testDir) {
+        TransformProcess tp = new TransformProcess.Builder(getSchema())
+                .filter(new DoubleColumnCondition("value", ConditionOp.LessThan, 0.1))
+                .reduce(new Reducer.Builder(ReduceOp.Sum).keyColumns("id").takeFirstColumns("cat").build())
+                .calculateSortedRank("rank", "value", new DoubleWritableComparator())
+                .doubleMathOp("value", MathOp.Multiply, 2.0)
+                .removeColumns("cat")
+                .build();
+
+        //Many keys, so that the reduction spills to disk
+        List<List<Writable>> data = getData(5000);
+        List<List<Writable>> withDuplicates = new ArrayList<>(data);
+        withDuplicates.addAll(data);
+        List<List<Writable>> expected = LocalTransformExecutor.execute(withDuplicates, tp);
+
+        File dir = testDir.toFile();
+        StreamingTransformExecutor exec = new StreamingTransformExecutor.Builder()
+                .numWorkers(2)
+                .batchSize(16)
+                .spillConfig(SpillConfig.builder().memoryBudgetBytes(16 * 1024).tempDirectory(dir).build())
+                .build();
+        List<List<Writable>> actual = new ArrayList<>();
+        Iterator<List<Writable>> iter = exec.execute(new CollectionRecordReader(withDuplicates), tp);
+        while (iter.hasNext()) {
+            actual.add(iter.next());
+        }
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).toString(), actual.get(i).toString(), "Record " + i);
+        }
+        assertEquals(0, dir.list().length, "Temporary files should be deleted");
+    }
+
+    @Test
+    public void testBackPressureAndClose() throws Exception {
+        final AtomicInteger numRead = new AtomicInteger();
+        CollectionRecordReader rr = new CollectionRecordReader(getData(10000)) {
+            @Override
+            public List<Writable> next() {
+                numRead.incrementAndGet();
+                return super.next();
+            }
+        };
+        TransformProcess tp = new TransformProcess.Builder(getSchema()).categoricalToInteger("cat").build();
+
+        StreamingTransformExecutor exec = new StreamingTransformExecutor.Builder()
+                .numWorkers(2)
+                .batchSize(10)
+                .maxBatchesInFlight(2)
+                .build();
+        try (CloseableRecordIterator iter = exec.execute(rr, tp)) {
+            assertTrue(iter.hasNext());
+            assertEquals(0, iter.next().get(0).toInt());
+            Thread.sleep(500);
+            //At most: the batch being consumed, the queued batches, and one batch waiting to be queued
+            assertTrue(numRead.get() <= 40, "Read " + numRead.get() + " records");
+        }
+        assertTrue(numRead.get() < 10000);
+    }
+
+    @Test
+    public void testExceptionPropagated() {
+        List<List<Writable>> data = getData(100);
+        data.set(50, Arrays.<Writable>asList(new IntWritable(50), new Text("a"), new Text("not a number")));
+        TransformProcess tp = new TransformProcess.Builder(getSchema())
+                .doubleMathOp("value", MathOp.Add, 1.0)
+                .build();
+
+        final CloseableRecordIterator iter = new StreamingTransformExecutor.Builder()
+                .numWorkers(2).batchSize(8).build()
+                .execute(new CollectionRecordReader(data), tp);
+        assertThrows(RuntimeException.class, () -> {
+            while (iter.hasNext()) {
+                iter.next();
+            }
+        });
+        assertFalse(iter.hasNext());
+    }
+}
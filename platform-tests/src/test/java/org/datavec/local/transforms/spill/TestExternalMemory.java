@@ -0,0 +1,255 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.datavec.local.transforms.spill;
+
+import lombok.extern.slf4j.Slf4j;
+import org.datavec.api.transform.ReduceOp;
+import org.datavec.api.transform.TransformProcess;
+import org.datavec.api.transform.join.Join;
+import org.datavec.api.transform.reduce.Reducer;
+import org.datavec.api.transform.schema.Schema;
+import org.datavec.api.writable.*;
+import org.datavec.local.transforms.LocalTransformExecutor;
+import org.datavec.local.transforms.join.ExecuteJoinFromCoGroupFlatMapFunction;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.nd4j.common.primitives.Pair;
+import org.nd4j.common.tests.tags.TagNames;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Slf4j
+@Tag(TagNames.JAVA_ONLY)
+@Tag(TagNames.FILE_IO)
+public class TestExternalMemory {
+
+    private static final Comparator<List<Writable>> BY_KEY = new Comparator<List<Writable>>() {
+        @Override
+        public int compare(List<Writable> o1, List<Writable> o2) {
+            return Long.compare(o1.get(0).toLong(), o2.get(0).toLong());
+        }
+    };
+
+    private static Schema getSchema() {
+        return new Schema.Builder()
+                .addColumnLong("key")
+                .addColumnString("text")
+                .addColumnDouble("value")
+                .build();
+    }
+
+    /**
+     * Lazily generated records, so that benchmarks can use more data than fits in memory
+     */
+    private static Iterator<List<Writable>> getData(final long n, final int numKeys, final long seed) {
+        return new Iterator<List<Writable>>() {
+            private final Random r = new Random(seed);
+            private long count;
+
+            @Override
+            public boolean hasNext() {
+                return count < n;
+            }
+
+            @Override
+            public List<Writable> next() {
+                long i = count++;
+                return Arrays.<Writable>asList(new LongWritable(r.nextInt(numKeys)), new Text("record_" + i),
+                        new DoubleWritable(i % 100));
+            }
+        };
+    }
+
+    private static List<List<Writable>> toList(Iterator<List<Writable>> iter) {
+        List<List<Writable>> out = new ArrayList<>();
+        while (iter.hasNext()) {
+            out.add(iter.next());
+        }
+        return out;
+    }
+
+    private static List<String> sortedStrings(List<List<Writable>> records) {
+        List<String> out = new ArrayList<>();
+        for (List<Writable> l : records) {
+            out.add(l.toString());
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    @Test
+    public void testExternalSort(@TempDir Path testDir) throws Exception {
+        List<List<Writable>> data = toList(getData(20000, 1000, 12345));
+        List<List<Writable>> expected = new ArrayList<>(data);
+        Collections.sort(expected, BY_KEY);
+
+        File dir = testDir.toFile();
+        for (int fanIn : new int[]{2, 3, SpillConfig.DEFAULT_MAX_MERGE_FAN_IN}) {
+            SpillConfig config = SpillConfig.builder().memoryBudgetBytes(64 * 1024).maxMergeFanIn(fanIn)
+                    .tempDirectory(dir).build();
+            List<List<Writable>> actual = toList(new ExternalSorter(BY_KEY, config).sort(data.iterator()));
+            //Sort should be stable: records with equal keys in input order
+            assertEquals(expected, actual, "Fan in " + fanIn);
+            assertEquals(0, dir.list().length, "Temporary files should be deleted");
+        }
+
+        //No spilling required
+        SpillConfig config = SpillConfig.builder().tempDirectory(dir).build();
+        assertEquals(expected, toList(new ExternalSorter(BY_KEY, config).sort(data.iterator())));
+        assertEquals(0, dir.list().length);
+
+        //Closing before the iterator is fully consumed
+        config = SpillConfig.builder().memoryBudgetBytes(64 * 1024).tempDirectory(dir).build();
+        CloseableRecordIterator iter = new ExternalSorter(BY_KEY, config).sort(data.iterator());
+        assertTrue(dir.list().length > 0);
+        assertEquals(expected.get(0), iter.next());
+        iter.close();
+        assertEquals(0, dir.list().length);
+    }
+
+    @Test
+    public void testExternalReduce(@TempDir Path testDir) throws Exception {
+        TransformProcess tp = new TransformProcess.Builder(getSchema())
+                .reduce(new Reducer.Builder(ReduceOp.Sum).keyColumns("key").countColumns("text").build())
+                .build();
+        Reducer reducer = (Reducer) tp.getActionList().get(0).getReducer();
+
+        File dir = testDir.toFile();
+        for (int numKeys : new int[]{1, 100, 10000}) {
+            List<List<Writable>> data = toList(getData(20000, numKeys, numKeys));
+            List<List<Writable>> expected = LocalTransformExecutor.execute(data, tp);
+
+            for (long budget : new long[]{1, 16 * 1024, SpillConfig.DEFAULT_MEMORY_BUDGET_BYTES}) {
+                SpillConfig config = SpillConfig.builder().memoryBudgetBytes(budget).numPartitions(8)
+                        .tempDirectory(dir).build();
+                List<List<Writable>> actual = toList(new ExternalReducer(reducer, config).reduce(data.iterator()));
+                assertEquals(sortedStrings(expected), sortedStrings(actual), "Keys " + numKeys + ", budget " + budget);
+                assertEquals(0, dir.list().length, "Temporary files should be deleted");
+            }
+        }
+    }
+
+    @Test
+    public void testExternalJoin(@TempDir Path testDir) throws Exception {
+        Schema left = new Schema.Builder().addColumnLong("key").addColumnString("leftText").build();
+        Schema right = getSchema();
+        List<List<Writable>> leftData = new ArrayList<>();
+        for (List<Writable> l : toList(getData(2000, 3000, 1))) {
+            leftData.add(Arrays.asList(l.get(0), l.get(1)));
+        }
+        List<List<Writable>> rightData = toList(getData(5000, 4000, 2));
+
+        File dir = testDir.toFile();
+        for (Join.JoinType jt : Join.JoinType.values()) {
+            Join join = new Join.Builder(jt).setJoinColumns("key").setSchemas(left, right).build();
+
+            //Expected: co-group by key in memory
+            Map<List<Writable>, Pair<List<List<Writable>>, List<List<Writable>>>> grouped = new HashMap<>();
+            for (int i = 0; i < 2; i++) {
+                for (List<Writable> l : (i == 0 ? leftData : rightData)) {
+                    List<Writable> key = Collections.singletonList(l.get(0));
+                    if (!grouped.containsKey(key)) {
+                        grouped.put(key, Pair.<List<List<Writable>>, List<List<Writable>>>of(
+                                new ArrayList<List<Writable>>(), new ArrayList<List<Writable>>()));
+                    }
+                    (i == 0 ? grouped.get(key).getFirst() : grouped.get(key).getSecond()).add(l);
+                }
+            }
+            ExecuteJoinFromCoGroupFlatMapFunction fn = new ExecuteJoinFromCoGroupFlatMapFunction(join);
+            List<List<Writable>> expected = new ArrayList<>();
+            for (Map.Entry<List<Writable>, Pair<List<List<Writable>>, List<List<Writable>>>> e : grouped.entrySet()) {
+                expected.addAll(fn.call(Pair.of(e.getKey(), e.getValue())));
+            }
+
+            for (long budget : new long[]{1, 32 * 1024, SpillConfig.DEFAULT_MEMORY_BUDGET_BYTES}) {
+                SpillConfig config = SpillConfig.builder().memoryBudgetBytes(budget).numPartitions(8)
+                        .tempDirectory(dir).build();
+                List<List<Writable>> actual = toList(new ExternalJoin(join, config)
+                        .join(leftData.iterator(), rightData.iterator()));
+                assertEquals(sortedStrings(expected), sortedStrings(actual), jt + ", budget " + budget);
+                assertEquals(0, dir.list().length, "Temporary files should be deleted");
+            }
+        }
+    }
+
+    @Test
+    @Tag(TagNames.LONG_TEST)
+    public void benchmarkExternalMemory(@TempDir Path testDir) throws Exception {
+        //Not a strict performance test: logs the throughput of each operation, on (lazily generated) data with an
+        // estimated in-memory size of a multiple of the max heap size (default: 10x), with a memory budget of 1/8 of
+        // the max heap size. The multiple can be set via system property; note that this requires a similar amount of
+        // free disk space
+        double heapMultiple = Double.parseDouble(System.getProperty("org.datavec.spill.benchmarkHeapMultiple", "10"));
+        long maxHeap = Runtime.getRuntime().maxMemory();
+        long recordBytes = SpillConfig.estimateSizeBytes(getData(1, 1, 0).next());
+        long n = (long) (heapMultiple * maxHeap / recordBytes);
+        int numKeys = (int) Math.min(Integer.MAX_VALUE, n / 10);
+        SpillConfig config = SpillConfig.builder().memoryBudgetBytes(maxHeap / 8).tempDirectory(testDir.toFile()).build();
+        log.info("Benchmarking with {} records (estimated {} MB), max heap {} MB, memory budget {} MB", n,
+                n * recordBytes / (1024 * 1024), maxHeap / (1024 * 1024), config.getMemoryBudgetBytes() / (1024 * 1024));
+
+        long start = System.nanoTime();
+        long count = 0;
+        long last = Long.MIN_VALUE;
+        try (CloseableRecordIterator iter = new ExternalSorter(BY_KEY, config).sort(getData(n, numKeys, 1))) {
+            while (iter.hasNext()) {
+                long key = iter.next().get(0).toLong();
+                assertTrue(key >= last);
+                last = key;
+                count++;
+            }
+        }
+        assertEquals(n, count);
+        log.info("ExternalSorter: {} records/s", count / ((System.nanoTime() - start) / 1e9));
+
+        Reducer reducer = new Reducer.Builder(ReduceOp.Sum).keyColumns("key").countColumns("text").build();
+        reducer.setInputSchema(getSchema());
+        start = System.nanoTime();
+        long total = 0;
+        try (CloseableRecordIterator iter = new ExternalReducer(reducer, config).reduce(getData(n, numKeys, 2))) {
+            while (iter.hasNext()) {
+                total += iter.next().get(1).toLong();
+            }
+        }
+        assertEquals(n, total);
+        log.info("ExternalReducer: {} records/s", n / ((System.nanoTime() - start) / 1e9));
+
+        Schema leftSchema = new Schema.Builder().addColumnLong("key").addColumnString("leftText")
+                .addColumnDouble("leftValue").build();
+        Join join = new Join.Builder(Join.JoinType.Inner).setJoinColumns("key").setSchemas(leftSchema, getSchema()).build();
+        start = System.nanoTime();
+        count = 0;
+        try (CloseableRecordIterator iter = new ExternalJoin(join, config)
+                .join(getData(n / 2, numKeys, 3), getData(n / 2, numKeys, 4))) {
+            while (iter.hasNext()) {
+                iter.next();
+                count++;
+            }
+        }
+        log.info("ExternalJoin: {} input records/s, {} output records", n / ((System.nanoTime() - start) / 1e9), count);
+        assertEquals(0, testDir.toFile().list().length);
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.deeplearning4j.parallelism;
+
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.BaseDL4JTest;
+import org.deeplearning4j.datasets.iterator.IteratorMultiDataSetIterator;
+import org.deeplearning4j.datasets.iterator.utilty.ListDataSetIterator;
+import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.nn.weights.WeightInit;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.nd4j.common.tests.tags.NativeTag;
+import org.nd4j.common.tests.tags.TagNames;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.impl.reduce.longer.MatchCondition;
+import org.nd4j.linalg.compression.ThresholdCompression;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.conditions.Conditions;
+import org.nd4j.linalg.learning.config.Adam;
+import org.nd4j.linalg.learning.config.IUpdater;
+import org.nd4j.linalg.learning.config.Sgd;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Slf4j
+@NativeTag
+@Tag(TagNames.TRAINING)
+@Tag(TagNames.MULTI_THREADED)
+public class ParallelWrapperTest extends BaseDL4JTest {
+
+    private static MultiLayerConfiguration mlnConf(IUpdater updater, int nIn, int hidden, int nOut) {
+        return new NeuralNetConfiguration.Builder()
+                .seed(12345)
+                .dataType(DataType.DOUBLE)
+                .updater(updater)
+                .weightInit(WeightInit.XAVIER)
+                .list()
+                .layer(new DenseLayer.Builder().nIn(nIn).nOut(hidden).activation(Activation.TANH).build())
+                .layer(new OutputLayer.Builder().nIn(hidden).nOut(nOut).activation(Activation.SOFTMAX)
+                        .lossFunction(LossFunctions.LossFunction.MCXENT).build())
+                .build();
+    }
+
+    private static ComputationGraph graph() {
+        ComputationGraph net = new ComputationGraph(new NeuralNetConfiguration.Builder()
+                .seed(12345)
+                .dataType(DataType.DOUBLE)
+                .updater(new Adam(1e-2))
+                .weightInit(WeightInit.XAVIER)
+                .graphBuilder()
+                .addInputs("in")
+                .layer("dense", new DenseLayer.Builder().nIn(10).nOut(8).activation(Activation.TANH).build(), "in")
+                .layer("out", new OutputLayer.Builder().nIn(8).nOut(3).activation(Activation.SOFTMAX)
+                        .lossFunction(LossFunctions.LossFunction.MCXENT).build(), "dense")
+                .setOutputs("out")
+                .build());
+        net.init();
+        return net;
+    }
+
+    /**
+     * Single examples, to be combined into minibatches by the iterators
+     */
+    private static List<DataSet> examples(int n, int nIn, int nOut) {
+        Nd4j.getRandom().setSeed(12345);
+        INDArray f = Nd4j.rand(DataType.DOUBLE, n, nIn);
+        INDArray l = Nd4j.zeros(DataType.DOUBLE, n, nOut);
+        for (int i = 0; i < n; i++) {
+            l.putScalar(i, i % nOut, 1.0);
+        }
+        return new DataSet(f, l).asList();
+    }
+
+    @Test
+    public void testSharedGradientsMLN() {
+        List<DataSet> data = examples(64, 10, 3);
+
+        MultiLayerNetwork net = new MultiLayerNetwork(mlnConf(new Adam(1e-2), 10, 8, 3));
+        net.init();
+        MultiLayerNetwork exp = new MultiLayerNetwork(mlnConf(new Adam(1e-2), 10, 8, 3));
+        exp.init();
+        assertEquals(exp.params(), net.params());
+
+        try (ParallelWrapper wrapper = new ParallelWrapper.Builder(net)
+                .workers(2)
+                .trainingMode(ParallelWrapper.TrainingMode.SHARED_GRADIENTS)
+                .build()) {
+            wrapper.fit(new ListDataSetIterator<>(data, 8));
+        }
+
+        //2 workers x 8 examples per round: equivalent to a minibatch size of 16
+        exp.fit(new ListDataSetIterator<>(data, 16));
+
+        assertEquals(exp.getIterationCount(), net.getIterationCount());
+        assertEquals(1, net.getEpochCount());
+        assertTrue(exp.params().equalsWithEps(net.params(), 1e-8));
+        assertTrue(exp.getUpdater().getStateViewArray().equalsWithEps(net.getUpdater().getStateViewArray(), 1e-8));
+    }
+
+    @Test
+    public void testSharedGradientsCG() {
+        List<MultiDataSet> data = new ArrayList<>();
+        for (DataSet ds : examples(48, 10, 3)) {
+            data.add(ds.toMultiDataSet());
+        }
+
+        ComputationGraph net = graph();
+        ComputationGraph exp = graph();
+
+        try (ParallelWrapper wrapper = new ParallelWrapper.Builder(net)
+                .workers(3)
+                .trainingMode(ParallelWrapper.TrainingMode.SHARED_GRADIENTS)
+                .build()) {
+            wrapper.fit(new IteratorMultiDataSetIterator(data.iterator(), 8));
+        }
+
+        exp.fit(new IteratorMultiDataSetIterator(data.iterator(), 24));
+
+        assertEquals(2, net.getIterationCount());
+        assertTrue(exp.params().equalsWithEps(net.params(), 1e-8));
+    }
+
+    @Test
+    public void testAveraging() {
+        List<DataSet> data = examples(64, 10, 3);
+
+        MultiLayerNetwork net = new MultiLayerNetwork(mlnConf(new Sgd(0.1), 10, 8, 3));
+        net.init();
+        MultiLayerNetwork exp = new MultiLayerNetwork(mlnConf(new Sgd(0.1), 10, 8, 3));
+        exp.init();
+
+        try (ParallelWrapper wrapper = new ParallelWrapper.Builder(net)
+                .workers(4)
+                .averagingFrequency(1)
+                .trainingMode(ParallelWrapper.TrainingMode.AVERAGING)
+                .build()) {
+            wrapper.fit(new ListDataSetIterator<>(data, 4));
+        }
+
+        //With plain SGD, averaging the parameters after every step is equivalent to a single step on the combined minibatch
+        exp.fit(new ListDataSetIterator<>(data, 16));
+
+        assertEquals(1, net.getEpochCount());
+        assertTrue(exp.params().equalsWithEps(net.params(), 1e-8));
+    }
+
+    @Test
+    public void testThresholdEncoding() {
+        Nd4j.getRandom().setSeed(12345);
+        INDArray orig = Nd4j.randn(DataType.DOUBLE, 1, 1000).muli(1e-2);
+        INDArray residual = orig.dup();
+        double threshold = 1e-2;
+        long expCount = orig.length() - Nd4j.getExecutioner().exec(new MatchCondition(orig, Conditions.absLessThan(threshold))).getLong(0);
+
+        INDArray encoded = ThresholdCompression.encode(residual, threshold);
+        assertNotNull(encoded);
+        assertEquals(expCount, ThresholdCompression.numEncoded(encoded));
+        assertEquals((float) threshold, ThresholdCompression.threshold(encoded), 0.0);
+
+        //Decoded values plus residual equal the original values
+        INDArray decoded = Nd4j.zeros(DataType.DOUBLE, 1, 1000);
+        ThresholdCompression.decode(encoded, decoded);
+        assertTrue(orig.equalsWithEps(decoded.add(residual), 1e-12));
+        assertEquals(expCount * (float) threshold, decoded.norm1Number().doubleValue(), 1e-6);
+
+        assertNull(ThresholdCompression.encode(Nd4j.zeros(DataType.DOUBLE, 10), threshold));
+    }
+
+    @Test
+    public void testUpdatesRingBuffer() throws Exception {
+        int n = 2000;
+        EncodedUpdatesRingBuffer ring = new EncodedUpdatesRingBuffer(8, 2);
+        INDArray msg = Nd4j.createFromArray(1, 2, 3);
+        long[] received = new long[2];
+
+        Thread[] threads = new Thread[2];
+        for (int t = 0; t < 2; t++) {
+            int id = t;
+            EncodedUpdatesRingBuffer.Consumer c = (source, encoded) -> {
+                if (source != id)
+                    received[id]++;
+            };
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < n; i++) {
+                    ring.publish(id, msg, () -> ring.drain(id, c));
+                    ring.drain(id, c);
+                }
+                while (ring.pending(id) > 0 || ring.published() < 2 * n) {
+                    ring.drain(id, c);
+                    Thread.yield();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertEquals(2 * n, ring.published());
+        assertEquals(n, received[0]);
+        assertEquals(n, received[1]);
+    }
+
+    @Test
+    public void testThresholdSharing() {
+        List<DataSet> data = examples(256, 10, 3);
+        MultiLayerNetwork net = new MultiLayerNetwork(mlnConf(new Sgd(0.1), 10, 16, 3));
+        net.init();
+        DataSet all = DataSet.merge(data);
+        double scoreBefore = net.score(all);
+
+        //Decoded update equals the thresholded gradient, and the remainder is carried over in the residual
+        net.setInput(data.get(0).getFeatures());
+        net.setLabels(data.get(0).getLabels());
+        net.computeGradientAndScore();
+        INDArray g = net.gradient().gradient().dup();
+        double t = Transforms.abs(g).meanNumber().doubleValue();
+        INDArray residual = Nd4j.zeros(g.dataType(), g.shape());
+        INDArray expResidual = residual.dup();
+        for (int i = 0; i < 3; i++) {
+            residual.addi(g);
+            expResidual.addi(g);
+            INDArray expDecoded = Transforms.sign(expResidual).muli(Transforms.abs(expResidual).gte(t).castTo(g.dataType()))
+                    .muli((float) t);
+            expResidual.subi(expDecoded);
+
+            INDArray encoded = ThresholdCompression.encode(residual, t);
+            INDArray decoded = Nd4j.zeros(g.dataType(), g.shape());
+            ThresholdCompression.decode(encoded, decoded);
+            assertEquals(expDecoded, decoded);
+            assertTrue(expResidual.equalsWithEps(residual, 1e-12));
+        }
+
+        try (ParallelWrapper wrapper = new ParallelWrapper.Builder(net)
+                .workers(4)
+                .trainingMode(ParallelWrapper.TrainingMode.THRESHOLD_SHARING)
+                .initialThreshold(1e-3)
+                .targetSparsity(1e-2, 1e-1)
+                .build()) {
+            for (int i = 0; i < 10; i++) {
+                wrapper.fit(new ListDataSetIterator<>(data, 8));
+            }
+
+            //All updates have been applied by all workers: each worker differs from the shared state only by its own
+            // residual. The replicas are thus identical up to their residuals
+            Model[] models = wrapper.workerModels();
+            INDArray p0 = models[0].params();
+            INDArray r0 = wrapper.residual(0);
+            INDArray shared = r0 == null ? p0 : p0.sub(r0);
+            for (int i = 1; i < models.length; i++) {
+                INDArray p = models[i].params();
+                INDArray r = wrapper.residual(i);
+                assertTrue(shared.equalsWithEps(r == null ? p : p.sub(r), 1e-8), "Worker " + i);
+
+                INDArray bound = Nd4j.zeros(p.dataType(), p.shape());
+                if (r0 != null)
+                    bound.addi(Transforms.abs(r0));
+                if (r != null)
+                    bound.addi(Transforms.abs(r));
+                double maxExcess = Transforms.abs(p.sub(p0)).subi(bound).maxNumber().doubleValue();
+                assertTrue(maxExcess <= 1e-8, "Worker " + i + " differs from worker 0 by more than the residuals: " + maxExcess);
+            }
+        }
+
+        assertEquals(10, net.getEpochCount());
+        double scoreAfter = net.score(all);
+        assertTrue(scoreAfter < scoreBefore, "Score before: " + scoreBefore + ", after: " + scoreAfter);
+    }
+
+    @Test
+    @Tag(TagNames.LONG_TEST)
+    @Tag(TagNames.LARGE_RESOURCES)
+    public void testThroughputBenchmark() {
+        int nIn = 784;
+        int batchSize = 64;
+        int numBatches = 200;
+        Nd4j.getRandom().setSeed(12345);
+        List<DataSet> batches = new ArrayList<>();
+        for (int i = 0; i < numBatches; i++) {
+            INDArray l = Nd4j.zeros(DataType.FLOAT, batchSize, 10);
+            for (int j = 0; j < batchSize; j++) {
+                l.putScalar(j, (i + j) % 10, 1.0);
+            }
+            batches.add(new DataSet(Nd4j.rand(DataType.FLOAT, batchSize, nIn), l));
+        }
+
+        int maxWorkers = Math.max(4, Runtime.getRuntime().availableProcessors() / 2);
+        for (ParallelWrapper.TrainingMode mode : ParallelWrapper.TrainingMode.values()) {
+            for (int workers = 1; workers <= maxWorkers; workers *= 2) {
+                MultiLayerNetwork net = new MultiLayerNetwork(new NeuralNetConfiguration.Builder()
+                        .seed(12345)
+                        .updater(new Adam(1e-3))
+                        .list()
+                        .layer(new DenseLayer.Builder().nIn(nIn).nOut(512).activation(Activation.RELU).build())
+                        .layer(new DenseLayer.Builder().nIn(512).nOut(512).activation(Activation.RELU).build())
+                        .layer(new OutputLayer.Builder().nIn(512).nOut(10).activation(Activation.SOFTMAX)
+                                .lossFunction(LossFunctions.LossFunction.MCXENT).build())
+                        .build());
+                net.init();
+
+                try (ParallelWrapper wrapper = new ParallelWrapper.Builder(net)
+                        .workers(workers)
+                        .prefetchBuffer(2 * workers)
+                        .trainingMode(mode)
+                        .averagingFrequency(5)
+                        .build()) {
+                    DataSetIterator iter = new ListDataSetIterator<>(batches, 1);
+                    //Warmup
+                    wrapper.fit(new ListDataSetIterator<>(batches.subList(0, 4 * workers), 1));
+
+                    long start = System.nanoTime();
+                    wrapper.fit(iter);
+                    long end = System.nanoTime();
+
+                    double samplesPerSec = (double) numBatches * batchSize / ((end - start) / 1e9);
+                    log.info("Mode {}, workers {}: {} samples/sec", mode, workers, String.format("%.1f", samplesPerSec));
+                }
+                assertFalse(Double.isNaN(net.score()));
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.deeplearning4j.parallelism;
+
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.BaseDL4JTest;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.nd4j.autodiff.samediff.SDVariable;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.common.tests.tags.NativeTag;
+import org.nd4j.common.tests.tags.TagNames;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Slf4j
+@NativeTag
+@Tag(TagNames.SAMEDIFF)
+@Tag(TagNames.MULTI_THREADED)
+public class SameDiffBatchedInferenceTest extends BaseDL4JTest {
+
+    @Test
+    public void testBatchedOutputMatchesSingle() throws Exception {
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, -1, 5);
+        SDVariable w = sd.var("w", Nd4j.rand(DataType.FLOAT, 5, 3));
+        SDVariable b = sd.var("b", Nd4j.rand(DataType.FLOAT, 3));
+        sd.nn.softmax("out", in.mmul(w).add(b));
+
+        int nRequests = 64;
+        List<INDArray> inputs = new ArrayList<>();
+        List<INDArray> expected = new ArrayList<>();
+        for (int i = 0; i < nRequests; i++) {
+            INDArray arr = Nd4j.rand(DataType.FLOAT, 1 + i % 3, 5);
+            inputs.add(arr);
+            expected.add(sd.outputSingle(Collections.singletonMap("in", arr), "out"));
+        }
+
+        SameDiffBatchedInference inf = new SameDiffBatchedInference.Builder(sd, "out")
+                .workers(2)
+                .batchLimit(16)
+                .maxWaitTime(20, TimeUnit.MILLISECONDS)
+                .build();
+        try {
+            List<CompletableFuture<Map<String, INDArray>>> futures = new ArrayList<>();
+            for (INDArray arr : inputs)
+                futures.add(inf.outputAsync(Collections.singletonMap("in", arr)));
+
+            for (int i = 0; i < nRequests; i++) {
+                INDArray out = futures.get(i).get().get("out");
+                assertTrue(expected.get(i).equalsWithEps(out, 1e-5), "Request " + i);
+            }
+
+            assertEquals(nRequests, inf.getRequestCount());
+            //Requests were submitted faster than the wait time, so at least some should have been batched together
+            assertTrue(inf.getBatchCount() < nRequests, "Expected batching: " + inf.getBatchCount() + " batches");
+        } finally {
+            inf.shutdown();
+        }
+        assertThrows(IllegalStateException.class, () -> inf.outputAsync(Collections.singletonMap("in", inputs.get(0))));
+    }
+
+    @Test
+    public void testVariableLengthPadding() throws Exception {
+        //Per-timestep output (cropped back) and a masked reduction over time (unaffected by zero padding)
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, -1, -1, 4);
+        SDVariable mask = sd.placeHolder("mask", DataType.FLOAT, -1, -1);
+        sd.math.tanh("perStep", in);
+        in.sum(2).mul(mask).sum("total", 1);
+
+        SameDiffBatchedInference inf = new SameDiffBatchedInference.Builder(sd, "perStep", "total")
+                .workers(1)
+                .batchLimit(8)
+                .maxWaitTime(50, TimeUnit.MILLISECONDS)
+                .padInputs("in", "mask")
+                .unpadOutputs("perStep")
+                .build();
+        try {
+            int[] lengths = {3, 7, 5, 1};
+            List<Map<String, INDArray>> requests = new ArrayList<>();
+            List<CompletableFuture<Map<String, INDArray>>> futures = new ArrayList<>();
+            for (int len : lengths) {
+                Map<String, INDArray> ph = new HashMap<>();
+                ph.put("in", Nd4j.rand(DataType.FLOAT, 1, len, 4));
+                ph.put("mask", Nd4j.ones(DataType.FLOAT, 1, len));
+                requests.add(ph);
+                futures.add(inf.outputAsync(ph));
+            }
+
+            for (int i = 0; i < lengths.length; i++) {
+                Map<String, INDArray> exp = sd.output(requests.get(i), "perStep", "total");
+                Map<String, INDArray> act = futures.get(i).get();
+                assertArrayEquals(new long[]{1, lengths[i], 4}, act.get("perStep").shape());
+                assertEquals(exp.get("perStep"), act.get("perStep"));
+                assertTrue(exp.get("total").equalsWithEps(act.get("total"), 1e-5));
+            }
+        } finally {
+            inf.shutdown();
+        }
+    }
+
+    @Test
+    public void testShutdownCompletesPendingRequests() throws Exception {
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, -1, 5);
+        sd.math.tanh("out", in);
+
+        //Long wait time: the dispatcher is still collecting the batch when shutdown is called
+        SameDiffBatchedInference inf = new SameDiffBatchedInference.Builder(sd, "out")
+                .workers(1)
+                .batchLimit(100)
+                .maxWaitTime(1, TimeUnit.MINUTES)
+                .build();
+        List<CompletableFuture<Map<String, INDArray>>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            futures.add(inf.outputAsync(Collections.singletonMap("in", Nd4j.rand(DataType.FLOAT, 1, 5))));
+        //Different shape: deferred to a later batch
+        futures.add(inf.outputAsync(Collections.singletonMap("in", Nd4j.rand(DataType.FLOAT, 1, 5).castTo(DataType.DOUBLE))));
+        Thread.sleep(200);
+        inf.shutdown();
+
+        for (CompletableFuture<Map<String, INDArray>> f : futures) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> f.get(10, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof IllegalStateException, e.getCause().toString());
+        }
+    }
+
+    @Test
+    public void testConcurrentSubmitAndShutdown() throws Exception {
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, -1, 5);
+        sd.math.tanh("out", in);
+
+        for (int rep = 0; rep < 10; rep++) {
+            //Small queue: some submitting threads are blocked on a full queue when shutdown is called
+            SameDiffBatchedInference inf = new SameDiffBatchedInference.Builder(sd, "out")
+                    .workers(1)
+                    .batchLimit(4)
+                    .queueLimit(4)
+                    .maxWaitTime(1, TimeUnit.MILLISECONDS)
+                    .build();
+            List<CompletableFuture<Map<String, INDArray>>> futures = Collections.synchronizedList(new ArrayList<>());
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        try {
+                            futures.add(inf.outputAsync(Collections.singletonMap("in", Nd4j.rand(DataType.FLOAT, 1, 5))));
+                        } catch (IllegalStateException e) {
+                            return;     //Shut down
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            Thread.sleep(rep);
+            inf.shutdown();
+            for (Thread t : threads) {
+                t.join(10000);
+                assertFalse(t.isAlive());
+            }
+
+            //Every future is completed: normally, or exceptionally due to the shutdown
+            for (CompletableFuture<Map<String, INDArray>> f : futures) {
+                try {
+                    assertNotNull(f.get(10, TimeUnit.SECONDS));
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IllegalStateException, e.getCause().toString());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidRequest() {
+        SameDiff sd = SameDiff.create();
+        SDVariable a = sd.placeHolder("a", DataType.FLOAT, -1, 2);
+        SDVariable b = sd.placeHolder("b", DataType.FLOAT, -1, 2);
+        a.add("out", b);
+
+        SameDiffBatchedInference inf = new SameDiffBatchedInference.Builder(sd, "out").build();
+        try {
+            Map<String, INDArray> ph = new HashMap<>();
+            ph.put("a", Nd4j.rand(DataType.FLOAT, 2, 2));
+            ph.put("b", Nd4j.rand(DataType.FLOAT, 3, 2));
+            assertThrows(IllegalStateException.class, () -> inf.output(ph));
+        } finally {
+            inf.shutdown();
+        }
+    }
+}
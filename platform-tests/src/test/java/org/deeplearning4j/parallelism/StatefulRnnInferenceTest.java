@@ -0,0 +1,242 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.deeplearning4j.parallelism;
+
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.BaseDL4JTest;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.LSTM;
+import org.deeplearning4j.nn.conf.layers.RnnOutputLayer;
+import org.deeplearning4j.nn.conf.layers.recurrent.SimpleRnn;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.nd4j.common.tests.tags.NativeTag;
+import org.nd4j.common.tests.tags.TagNames;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Slf4j
+@NativeTag
+@Tag(TagNames.DL4J_OLD_API)
+@Tag(TagNames.MULTI_THREADED)
+public class StatefulRnnInferenceTest extends BaseDL4JTest {
+
+    private static MultiLayerNetwork getNet() {
+        MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder()
+                .dataType(DataType.DOUBLE)
+                .seed(12345)
+                .list()
+                .layer(new LSTM.Builder().nIn(3).nOut(5).activation(Activation.TANH).build())
+                .layer(new SimpleRnn.Builder().nIn(5).nOut(4).activation(Activation.TANH).build())
+                .layer(new RnnOutputLayer.Builder().nIn(4).nOut(2).activation(Activation.SOFTMAX)
+                        .lossFunction(LossFunctions.LossFunction.MCXENT).build())
+                .build();
+        MultiLayerNetwork net = new MultiLayerNetwork(conf);
+        net.init();
+        return net;
+    }
+
+    @Test
+    public void testMatchesPerSessionTimeStep() throws Exception {
+        MultiLayerNetwork net = getNet();
+        MultiLayerNetwork ref = net.clone();
+
+        int nSessions = 6;
+        int nSteps = 5;
+        Nd4j.getRandom().setSeed(12345);
+        INDArray[][] inputs = new INDArray[nSessions][nSteps];
+        INDArray[][] expected = new INDArray[nSessions][nSteps];
+        for (int s = 0; s < nSessions; s++) {
+            ref.rnnClearPreviousState();
+            for (int t = 0; t < nSteps; t++) {
+                inputs[s][t] = Nd4j.rand(DataType.DOUBLE, 1, 3);
+                expected[s][t] = ref.rnnTimeStep(inputs[s][t]);
+            }
+        }
+
+        StatefulRnnInference inf = new StatefulRnnInference.Builder(net)
+                .maxSessions(16)
+                .batchLimit(4)
+                .maxWaitTime(20, TimeUnit.MILLISECONDS)
+                .build();
+        try {
+            //Interleave the steps of all sessions, including several queued steps for the same session
+            List<CompletableFuture<INDArray>> futures = new ArrayList<>();
+            for (int t = 0; t < nSteps; t++) {
+                for (int s = 0; s < nSessions; s++) {
+                    futures.add(inf.timeStepAsync("session" + s, inputs[s][t]));
+                }
+            }
+
+            int i = 0;
+            for (int t = 0; t < nSteps; t++) {
+                for (int s = 0; s < nSessions; s++) {
+                    INDArray out = futures.get(i++).get();
+                    assertTrue(expected[s][t].equalsWithEps(out, 1e-8), "Session " + s + ", step " + t);
+                }
+            }
+
+            assertEquals(nSessions, inf.getNumSessions());
+            assertEquals(nSessions * nSteps, inf.getRequestCount());
+            assertTrue(inf.getBatchCount() < nSessions * nSteps, "Expected batching: " + inf.getBatchCount() + " batches");
+
+            //Ending a session resets its state
+            assertTrue(inf.endSession("session0"));
+            assertFalse(inf.endSession("session0"));
+            assertTrue(expected[0][0].equalsWithEps(inf.timeStep("session0", inputs[0][0]), 1e-8));
+        } finally {
+            inf.shutdown();
+        }
+        assertThrows(IllegalStateException.class, () -> inf.timeStepAsync("session0", inputs[0][0]));
+    }
+
+    @Test
+    public void testSessionLimitAndEviction() throws Exception {
+        StatefulRnnInference inf = new StatefulRnnInference.Builder(getNet())
+                .maxSessions(2)
+                .sessionTimeout(200, TimeUnit.MILLISECONDS)
+                .build();
+        try {
+            INDArray in = Nd4j.rand(DataType.DOUBLE, 1, 3);
+            inf.timeStep("a", in);
+            inf.timeStep("b", in);
+            assertThrows(IllegalStateException.class, () -> inf.timeStep("c", in));
+            assertThrows(IllegalStateException.class, () -> inf.timeStep("d", Nd4j.rand(DataType.DOUBLE, 2, 3)));
+
+            inf.endSession("a");
+            inf.timeStep("c", in);
+            assertEquals(2, inf.getNumSessions());
+
+            //Idle sessions are evicted once the timeout has passed
+            Thread.sleep(500);
+            inf.timeStep("d", in);
+            assertEquals(1, inf.getNumSessions());
+            assertEquals(2, inf.getEvictedCount());
+        } finally {
+            inf.shutdown();
+        }
+    }
+
+    @Test
+    public void testIdleSessionInBatchKeepsState() throws Exception {
+        MultiLayerNetwork net = getNet();
+        MultiLayerNetwork ref = net.clone();
+        INDArray in0 = Nd4j.rand(DataType.DOUBLE, 1, 3);
+        INDArray in1 = Nd4j.rand(DataType.DOUBLE, 1, 3);
+        ref.rnnTimeStep(in0);
+        INDArray expected = ref.rnnTimeStep(in1);
+
+        StatefulRnnInference inf = new StatefulRnnInference.Builder(net)
+                .sessionTimeout(200, TimeUnit.MILLISECONDS)
+                .build();
+        try {
+            inf.timeStep("a", in0);
+            //Session is idle past the timeout, but the next request for it must continue from its state
+            Thread.sleep(500);
+            INDArray out = inf.timeStep("a", in1);
+            assertTrue(expected.equalsWithEps(out, 1e-8));
+            assertEquals(0, inf.getEvictedCount());
+            assertEquals(1, inf.getNumSessions());
+        } finally {
+            inf.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentSubmitAndShutdown() throws Exception {
+        for (int rep = 0; rep < 10; rep++) {
+            //Small queue: submitting threads are also blocked waiting for queue space when shutdown is called
+            StatefulRnnInference inf = new StatefulRnnInference.Builder(getNet())
+                    .batchLimit(4)
+                    .queueLimit(4)
+                    .maxWaitTime(1, TimeUnit.MILLISECONDS)
+                    .build();
+
+            int nThreads = 4;
+            List<CompletableFuture<INDArray>> futures = Collections.synchronizedList(new ArrayList<>());
+            Thread[] threads = new Thread[nThreads];
+            for (int i = 0; i < nThreads; i++) {
+                String session = "session" + i;
+                threads[i] = new Thread(() -> {
+                    for (int j = 0; j < 200; j++) {
+                        try {
+                            futures.add(inf.timeStepAsync(session, Nd4j.rand(DataType.DOUBLE, 1, 3)));
+                        } catch (IllegalStateException e) {
+                            return;
+                        }
+                    }
+                });
+                threads[i].start();
+            }
+
+            Thread.sleep(rep);
+            inf.shutdown();
+            for (Thread t : threads) {
+                t.join(10000);
+                assertFalse(t.isAlive());
+            }
+
+            //Every future must complete: either with a result, or exceptionally due to shutdown
+            for (CompletableFuture<INDArray> f : futures) {
+                try {
+                    assertNotNull(f.get(10, TimeUnit.SECONDS));
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IllegalStateException, e.getCause().toString());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testShutdownCompletesPendingRequests() throws Exception {
+        //Long wait time: the dispatcher is still collecting the batch when shutdown is called
+        StatefulRnnInference inf = new StatefulRnnInference.Builder(getNet())
+                .batchLimit(8)
+                .maxWaitTime(1, TimeUnit.MINUTES)
+                .build();
+        List<CompletableFuture<INDArray>> futures = new ArrayList<>();
+        for (String s : new String[]{"a", "b", "c", "a"}) {
+            //Second request for session "a" is deferred to a later batch
+            futures.add(inf.timeStepAsync(s, Nd4j.rand(DataType.DOUBLE, 1, 3)));
+        }
+        Thread.sleep(200);
+        inf.shutdown();
+
+        for (CompletableFuture<INDArray> f : futures) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> f.get(10, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof IllegalStateException, e.getCause().toString());
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.deeplearning4j.ui.stats;
+
+import org.deeplearning4j.BaseDL4JTest;
+import org.deeplearning4j.core.storage.Persistable;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.ui.model.profiler.LayerProfilePersistable;
+import org.deeplearning4j.ui.model.profiler.LayerProfilerListener;
+import org.deeplearning4j.ui.model.storage.InMemoryStatsStorage;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.nd4j.common.tests.tags.NativeTag;
+import org.nd4j.common.tests.tags.TagNames;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Tag(TagNames.UI)
+@NativeTag
+public class TestLayerProfilerListener extends BaseDL4JTest {
+
+    @Test
+    public void testReports() {
+        MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder().list()
+                .layer(new DenseLayer.Builder().nIn(10).nOut(10).build())
+                .layer(new OutputLayer.Builder().activation(Activation.SOFTMAX).nIn(10).nOut(10).build()).build();
+        MultiLayerNetwork net = new MultiLayerNetwork(conf);
+        net.init();
+
+        InMemoryStatsStorage ss = new InMemoryStatsStorage();
+        LayerProfilerListener l = new LayerProfilerListener(ss, 2);
+        net.setListeners(l);
+        DataSet ds = new DataSet(Nd4j.rand(8, 10), Nd4j.rand(8, 10));
+        for (int i = 0; i < 4; i++) {
+            net.fit(ds);
+        }
+        assertSame(l.getProfiler(), net.getLayerProfiler());
+
+        List<Persistable> updates = ss.getAllUpdatesAfter(l.getSessionID(), LayerProfilePersistable.TYPE_ID,
+                l.getWorkerID(), 0);
+        assertEquals(2, updates.size());
+        LayerProfilePersistable last = (LayerProfilePersistable) updates.get(1);
+        assertEquals(3, last.getIterationCount());
+        //fit(DataSet) doesn't call onEpochStart: the profiler is only set on the network after the first iteration
+        assertEquals(3, last.getProfiles().get("0").getForward().getCount());
+
+        //Round trip via encode/decode
+        LayerProfilePersistable decoded = new LayerProfilePersistable();
+        decoded.decode(last.encode());
+        assertEquals(last, decoded);
+    }
+}
@@ -45,6 +45,10 @@ import org.datavec.api.records.reader.impl.csv.CSVSequenceRecordReader;
 import org.datavec.api.split.FileSplit;
 import org.datavec.api.split.InputStreamInputSplit;
 import org.datavec.api.split.NumberedFileInputSplit;
+import org.datavec.api.records.reader.impl.transform.TransformProcessRecordReader;
+import org.datavec.api.transform.MathOp;
+import org.datavec.api.transform.TransformProcess;
+import org.datavec.api.transform.schema.Schema;
 import org.datavec.api.writable.DoubleWritable;
 import org.datavec.api.writable.IntWritable;
 import org.datavec.api.writable.NDArrayWritable;
@@ -63,6 +67,7 @@ import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
 import org.nd4j.linalg.dataset.api.preprocessor.DataNormalization;
 import org.nd4j.linalg.dataset.api.preprocessor.NormalizerMinMaxScaler;
 import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
 import org.nd4j.common.io.ClassPathResource;
 import org.nd4j.common.primitives.Pair;
 import org.nd4j.common.resources.Resources;
@@ -873,6 +878,47 @@ class RecordReaderDataSetiteratorTest extends BaseDL4JTest {
         assertEquals(expLabels, ds.getLabels());
     }
 
+    @ParameterizedTest
+    @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
+    @DisplayName("Test Columnar Record Batches")
+    void testColumnarRecordBatches(Nd4jBackend backend) throws Exception {
+        Schema schema = new Schema.Builder()
+                .addColumnsDouble("a", "b", "c", "d")
+                .addColumnInteger("label")
+                .build();
+        File f = new ClassPathResource("iris.dat").getFile();
+
+        RecordReader ref = new CSVRecordReader();
+        ref.initialize(new FileSplit(f));
+        RecordReader columnar = new CSVRecordReader(0, ',', '"', schema);
+        columnar.initialize(new FileSplit(f));
+        //Transform process output, with an additional (constant) feature column
+        TransformProcess tp = new TransformProcess.Builder(schema)
+                .doubleMathOp("a", MathOp.Multiply, 1.0)
+                .addConstantDoubleColumn("e", 1.0)
+                .build();
+        RecordReader transformed = new TransformProcessRecordReader(new CSVRecordReader(0, ',', '"', schema), tp, true);
+        transformed.initialize(new FileSplit(f));
+
+        DataSetIterator expIter = new RecordReaderDataSetIterator(ref, 32, 4, 3);
+        DataSetIterator iter = new RecordReaderDataSetIterator(columnar, 32, 4, 3);
+        DataSetIterator tpIter = new RecordReaderDataSetIterator.Builder(transformed, 32)
+                .classification(4, 3)
+                .build();
+        int count = 0;
+        while (expIter.hasNext()) {
+            DataSet exp = expIter.next();
+            assertEquals(exp, iter.next());
+            DataSet fromTp = tpIter.next();
+            assertEquals(exp.getFeatures(), fromTp.getFeatures().get(all(), NDArrayIndex.interval(0, 4)));
+            assertEquals(exp.getLabels(), fromTp.getLabels());
+            count += exp.numExamples();
+        }
+        assertEquals(150, count);
+        assertFalse(iter.hasNext());
+        assertFalse(tpIter.hasNext());
+    }
+
     @ParameterizedTest
     @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
     @DisplayName("Test Record Reader Meta Data")
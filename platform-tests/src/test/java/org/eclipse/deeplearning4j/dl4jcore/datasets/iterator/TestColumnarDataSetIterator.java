@@ -0,0 +1,181 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.eclipse.deeplearning4j.dl4jcore.datasets.iterator;
+
+import org.datavec.api.records.reader.RecordReader;
+import org.datavec.api.records.reader.impl.csv.CSVRecordReader;
+import org.datavec.api.split.FileSplit;
+import org.deeplearning4j.BaseDL4JTest;
+import org.deeplearning4j.datasets.datavec.RecordReaderDataSetIterator;
+import org.deeplearning4j.datasets.iterator.columnar.ColumnarDataSetFile;
+import org.deeplearning4j.datasets.iterator.columnar.ColumnarDataSetIterator;
+import org.deeplearning4j.datasets.iterator.columnar.ColumnarDataSetWriter;
+import org.deeplearning4j.datasets.iterator.columnar.ColumnarMultiDataSetIterator;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.nd4j.common.resources.Resources;
+import org.nd4j.common.tests.tags.NativeTag;
+import org.nd4j.common.tests.tags.TagNames;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@NativeTag
+@Tag(TagNames.FILE_IO)
+@Tag(TagNames.NDARRAY_ETL)
+public class TestColumnarDataSetIterator extends BaseDL4JTest {
+
+    @Test
+    public void testWriteFromRecordReader(@TempDir Path testDir) throws Exception {
+        RecordReader rr = new CSVRecordReader(0, ',');
+        rr.initialize(new FileSplit(Resources.asFile("iris.txt")));
+        DataSet all = new RecordReaderDataSetIterator(rr, 150, 4, 3).next();
+
+        rr.reset();
+        File f = new File(testDir.toFile(), "iris.bin");
+        //Small chunks: examples are split over many chunks
+        try (ColumnarDataSetWriter w = new ColumnarDataSetWriter(f, 1024)) {
+            RecordReaderDataSetIterator iter = new RecordReaderDataSetIterator(rr, 10, 4, 3);
+            while (iter.hasNext()) {
+                w.write(iter.next());
+            }
+            assertEquals(150, w.getNumExamples());
+        }
+
+        ColumnarDataSetIterator iter = new ColumnarDataSetIterator(f, 32);
+        assertEquals(4, iter.inputColumns());
+        assertEquals(3, iter.totalOutcomes());
+        for (int epoch = 0; epoch < 2; epoch++) {
+            List<DataSet> list = new ArrayList<>();
+            while (iter.hasNext()) {
+                DataSet ds = iter.next();
+                assertNull(ds.getFeaturesMaskArray());
+                assertNull(ds.getLabelsMaskArray());
+                list.add(ds);
+            }
+            assertEquals(5, list.size());
+            assertEquals(22, list.get(4).numExamples());
+            assertEquals(all, DataSet.merge(list));
+            iter.reset();
+        }
+    }
+
+    @Test
+    public void testShuffleAndMasks(@TempDir Path testDir) throws Exception {
+        //Time series data, with mask arrays present for only some minibatches
+        File f = new File(testDir.toFile(), "ts.bin");
+        int[] sizes = {7, 3, 20, 1, 9};
+        List<DataSet> examples = new ArrayList<>();
+        try (ColumnarDataSetWriter w = new ColumnarDataSetWriter(f, 2048)) {
+            int count = 0;
+            for (int i = 0; i < sizes.length; i++) {
+                INDArray features = Nd4j.rand(DataType.FLOAT, sizes[i], 3, 5);
+                INDArray labels = Nd4j.rand(DataType.DOUBLE, sizes[i], 2, 5);
+                for (int j = 0; j < sizes[i]; j++) {
+                    //Use the first value to identify the example
+                    features.putScalar(j, 0, 0, count++);
+                }
+                INDArray fMask = null;
+                if (i % 2 == 1) {
+                    fMask = Nd4j.ones(DataType.FLOAT, sizes[i], 5);
+                    fMask.get(NDArrayIndex.all(), NDArrayIndex.interval(3, 5)).assign(0);
+                }
+                DataSet ds = new DataSet(features, labels, fMask, null);
+                w.write(ds);
+                examples.addAll(ds.asList());
+            }
+        }
+
+        ColumnarDataSetFile file = new ColumnarDataSetFile(f);
+        assertEquals(40, file.getNumExamples());
+        assertArrayEquals(new long[]{3, 5}, file.getFeaturesShape(0));
+
+        ColumnarDataSetIterator iter = new ColumnarDataSetIterator(file, 6, new Random(12345));
+        List<Integer> firstEpochOrder = null;
+        for (int epoch = 0; epoch < 3; epoch++) {
+            List<Integer> order = new ArrayList<>();
+            while (iter.hasNext()) {
+                DataSet ds = iter.next();
+                for (int i = 0; i < ds.numExamples(); i++) {
+                    int idx = ds.getFeatures().getInt(i, 0, 0);
+                    order.add(idx);
+                    DataSet exp = examples.get(idx);
+                    assertEquals(exp.getFeatures(), ds.getFeatures().get(NDArrayIndex.point(i)).reshape(exp.getFeatures().shape()));
+                    assertEquals(exp.getLabels(), ds.getLabels().get(NDArrayIndex.point(i)).reshape(exp.getLabels().shape()));
+
+                    //Examples without a mask array: equivalent to a mask of all ones
+                    INDArray expMask = exp.getFeaturesMaskArray() == null ? Nd4j.ones(DataType.FLOAT, 1, 5) : exp.getFeaturesMaskArray();
+                    INDArray actMask = ds.getFeaturesMaskArray() == null ? Nd4j.ones(DataType.FLOAT, 1, 5) :
+                            ds.getFeaturesMaskArray().get(NDArrayIndex.interval(i, i, true), NDArrayIndex.all());
+                    assertEquals(expMask, actMask);
+                }
+            }
+            //Each example exactly once per epoch, in a different order each epoch
+            assertEquals(40, order.size());
+            assertEquals(40, new HashSet<>(order).size());
+            if (firstEpochOrder == null) {
+                firstEpochOrder = order;
+            } else {
+                assertNotEquals(firstEpochOrder, order);
+            }
+            iter.reset();
+        }
+    }
+
+    @Test
+    public void testMultiDataSet(@TempDir Path testDir) throws Exception {
+        File f = new File(testDir.toFile(), "mds.bin");
+        List<MultiDataSet> written = new ArrayList<>();
+        try (ColumnarDataSetWriter w = new ColumnarDataSetWriter(f)) {
+            for (int i = 0; i < 3; i++) {
+                MultiDataSet mds = new org.nd4j.linalg.dataset.MultiDataSet(
+                        new INDArray[]{Nd4j.rand(DataType.FLOAT, 4, 3), Nd4j.rand(DataType.DOUBLE, 4, 1, 2, 2)},
+                        new INDArray[]{Nd4j.rand(DataType.FLOAT, 4, 2)});
+                w.write(mds);
+                written.add(mds);
+            }
+
+            //Different per-example shape: not allowed
+            assertThrows(IllegalStateException.class, () -> w.write(new org.nd4j.linalg.dataset.MultiDataSet(
+                    new INDArray[]{Nd4j.rand(DataType.FLOAT, 4, 5), Nd4j.rand(DataType.DOUBLE, 4, 1, 2, 2)},
+                    new INDArray[]{Nd4j.rand(DataType.FLOAT, 4, 2)})));
+        }
+
+        ColumnarMultiDataSetIterator iter = new ColumnarMultiDataSetIterator(f, 12);
+        assertTrue(iter.hasNext());
+        MultiDataSet act = iter.next();
+        assertFalse(iter.hasNext());
+        assertEquals(org.nd4j.linalg.dataset.MultiDataSet.merge(written), act);
+
+        //Files with multiple inputs can't be used with DataSetIterator
+        assertThrows(IllegalStateException.class, () -> new ColumnarDataSetIterator(f, 12));
+    }
+}
@@ -53,6 +53,7 @@ import org.deeplearning4j.nn.conf.weightnoise.DropConnect;
 import org.deeplearning4j.nn.gradient.DefaultGradient;
 import org.deeplearning4j.nn.gradient.Gradient;
 import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.graph.InferenceGraph;
 import org.deeplearning4j.nn.graph.util.GraphIndices;
 import org.eclipse.deeplearning4j.dl4jcore.nn.multilayer.MultiLayerTest;
 import org.deeplearning4j.preprocessors.PermutePreprocessor;
@@ -2243,4 +2244,170 @@ public class TestComputationGraphNetwork extends BaseDL4JTest {
 
         assertEquals(out, out2);
     }
+
+    @Test
+    public void testActivationCheckpointing() {
+        for (WorkspaceMode wsm : new WorkspaceMode[]{WorkspaceMode.NONE, WorkspaceMode.ENABLED}) {
+            ComputationGraph[] nets = new ComputationGraph[2];
+            for (int i = 0; i < 2; i++) {
+                ComputationGraphConfiguration.GraphBuilder b = new NeuralNetConfiguration.Builder()
+                        .seed(12345)
+                        .dataType(DataType.DOUBLE)
+                        .trainingWorkspaceMode(wsm)
+                        .inferenceWorkspaceMode(wsm)
+                        .updater(new Sgd(0.1))
+                        .graphBuilder()
+                        .addInputs("in")
+                        .addLayer("0", new DenseLayer.Builder().nIn(4).nOut(8).activation(Activation.TANH).build(), "in")
+                        .addLayer("1", new DenseLayer.Builder().nIn(8).nOut(8).activation(Activation.TANH).build(), "0")
+                        .addLayer("2", new DenseLayer.Builder().nIn(8).nOut(8).activation(Activation.TANH).build(), "1")
+                        .addLayer("3", new DenseLayer.Builder().nIn(8).nOut(8).activation(Activation.TANH).build(), "2")
+                        //Skip connection from a recomputed segment into the last segment
+                        .addVertex("add", new ElementWiseVertex(ElementWiseVertex.Op.Add), "1", "3")
+                        .addLayer("4", new DenseLayer.Builder().nIn(8).nOut(8).activation(Activation.TANH).build(), "add")
+                        .addLayer("out", new OutputLayer.Builder().nIn(8).nOut(3).activation(Activation.SOFTMAX)
+                                .lossFunction(LossFunctions.LossFunction.MCXENT).build(), "4")
+                        .setOutputs("out");
+                if (i == 1) {
+                    b.activationCheckpoints("0", "2");
+                }
+                nets[i] = new ComputationGraph(b.build());
+                nets[i].init();
+            }
+            nets[1].setParams(nets[0].params());
+
+            ComputationGraphConfiguration conf = nets[1].getConfiguration();
+            assertEquals(Arrays.asList("0", "2"), conf.getActivationCheckpoints());
+            assertEquals(conf.getActivationCheckpoints(), ComputationGraphConfiguration.fromJson(conf.toJson()).getActivationCheckpoints());
+
+            INDArray f = Nd4j.rand(DataType.DOUBLE, 5, 4);
+            INDArray l = Nd4j.createFromArray(new double[][]{{1, 0, 0}, {0, 1, 0}, {0, 0, 1}, {1, 0, 0}, {0, 1, 0}});
+            for (ComputationGraph net : nets) {
+                net.setInputs(f);
+                net.setLabels(l);
+                net.computeGradientAndScore();
+            }
+            String msg = "Workspace mode: " + wsm;
+            assertEquals(nets[0].score(), nets[1].score(), 1e-10, msg);
+            assertEquals(nets[0].gradient().gradient(), nets[1].gradient().gradient(), msg);
+
+            //Fit: same parameters after each iteration
+            DataSet ds = new DataSet(f, l);
+            for (int i = 0; i < 3; i++) {
+                nets[0].fit(ds);
+                nets[1].fit(ds);
+                assertEquals(nets[0].params(), nets[1].params(), msg);
+            }
+        }
+    }
+
+    @Test
+    public void testActivationCheckpointingDropout() {
+        ComputationGraph[] nets = new ComputationGraph[2];
+        for (int i = 0; i < 2; i++) {
+            ComputationGraphConfiguration.GraphBuilder b = new NeuralNetConfiguration.Builder()
+                    .seed(12345)
+                    .dataType(DataType.DOUBLE)
+                    .updater(new Sgd(0.1))
+                    .dropOut(0.5)
+                    .graphBuilder()
+                    .addInputs("in")
+                    .addLayer("0", new DenseLayer.Builder().nIn(4).nOut(16).activation(Activation.TANH).build(), "in")
+                    .addLayer("1", new DenseLayer.Builder().nIn(16).nOut(16).activation(Activation.TANH).build(), "0")
+                    .addLayer("2", new DenseLayer.Builder().nIn(16).nOut(16).activation(Activation.TANH).build(), "1")
+                    .addLayer("out", new OutputLayer.Builder().nIn(16).nOut(3).activation(Activation.SOFTMAX)
+                            .lossFunction(LossFunctions.LossFunction.MCXENT).build(), "2")
+                    .setOutputs("out");
+            if (i == 1) {
+                b.activationCheckpoints("0", "1");
+            }
+            nets[i] = new ComputationGraph(b.build());
+            nets[i].init();
+        }
+        nets[1].setParams(nets[0].params());
+
+        //Same RNG state before the iteration: the recomputed forward pass must use the same dropout masks as the
+        // initial pass, so the gradients match those of the network without checkpointing. The RNG state after the
+        // iteration must also match, as if the recomputed segments had not been run again
+        INDArray f = Nd4j.rand(DataType.DOUBLE, 5, 4);
+        INDArray l = Nd4j.createFromArray(new double[][]{{1, 0, 0}, {0, 1, 0}, {0, 0, 1}, {1, 0, 0}, {0, 1, 0}});
+        for (int iter = 0; iter < 3; iter++) {
+            INDArray[] grads = new INDArray[2];
+            long[][] rngStates = new long[2][0];
+            for (int i = 0; i < 2; i++) {
+                Nd4j.getRandom().setSeed(12345 + iter);
+                nets[i].setInputs(f);
+                nets[i].setLabels(l);
+                nets[i].computeGradientAndScore();
+                grads[i] = nets[i].gradient().gradient().dup();
+                rngStates[i] = new long[]{Nd4j.getRandom().rootState(), Nd4j.getRandom().nodeState()};
+            }
+            assertEquals(nets[0].score(), nets[1].score(), 1e-10);
+            assertEquals(grads[0], grads[1]);
+            assertArrayEquals(rngStates[0], rngStates[1]);
+        }
+
+        //Fit: same parameters after each iteration, given the same RNG state
+        DataSet ds = new DataSet(f, l);
+        for (int iter = 0; iter < 3; iter++) {
+            for (ComputationGraph net : nets) {
+                Nd4j.getRandom().setSeed(123 + iter);
+                net.fit(ds);
+            }
+            assertEquals(nets[0].params(), nets[1].params());
+        }
+    }
+
+    @Test
+    public void testFreezeForInference() {
+        for (WorkspaceMode wsm : new WorkspaceMode[]{WorkspaceMode.NONE, WorkspaceMode.ENABLED}) {
+            ComputationGraphConfiguration conf = new NeuralNetConfiguration.Builder()
+                    .seed(12345)
+                    .dataType(DataType.DOUBLE)
+                    .trainingWorkspaceMode(wsm)
+                    .inferenceWorkspaceMode(wsm)
+                    .updater(new Adam(1e-2))
+                    .graphBuilder()
+                    .addInputs("in")
+                    .addLayer("c", new ConvolutionLayer.Builder().kernelSize(3, 3).nOut(4).activation(Activation.IDENTITY).build(), "in")
+                    .addLayer("bnc", new BatchNormalization.Builder().build(), "c")
+                    .addLayer("a", new ActivationLayer.Builder().activation(Activation.RELU).build(), "bnc")
+                    .addLayer("d", new DenseLayer.Builder().nOut(6).activation(Activation.IDENTITY).dropOut(0.5).build(), "a")
+                    .addLayer("bnd", new BatchNormalization.Builder().build(), "d")
+                    .addLayer("d2", new DenseLayer.Builder().nOut(6).activation(Activation.TANH).build(), "a")
+                    .addLayer("bn2", new BatchNormalization.Builder().lockGammaBeta(true).build(), "d2")
+                    .addVertex("merge", new MergeVertex(), "bnd", "bn2")
+                    .addLayer("out", new OutputLayer.Builder().nOut(3).activation(Activation.SOFTMAX)
+                            .lossFunction(LossFunctions.LossFunction.MCXENT).build(), "merge")
+                    .setOutputs("out")
+                    .setInputTypes(InputType.convolutional(8, 8, 1))
+                    .build();
+            ComputationGraph net = new ComputationGraph(conf);
+            net.init();
+
+            Nd4j.getRandom().setSeed(12345);
+            INDArray f = Nd4j.rand(DataType.DOUBLE, 10, 1, 8, 8);
+            INDArray l = TestUtils.randomOneHot(DataType.DOUBLE, 10, 3);
+            for (int i = 0; i < 5; i++) {
+                net.fit(new DataSet(f, l));
+            }
+
+            InferenceGraph frozen = net.freezeForInference();
+            //bn2 follows a layer with a non-identity activation, so can't be folded
+            assertEquals(Arrays.asList("bnc", "bnd"), frozen.getFoldedVertices());
+
+            INDArray exp = net.outputSingle(f);
+            for (int i = 0; i < 3; i++) {
+                INDArray out = frozen.outputSingle(f);
+                assertFalse(out.isAttached());
+                assertTrue(exp.equalsWithEps(out, 1e-8), wsm.toString());
+            }
+
+            //Executor uses its own copy of the parameters
+            INDArray params = net.params().dup();
+            net.fit(new DataSet(f, l));
+            assertTrue(exp.equalsWithEps(frozen.outputSingle(f), 1e-8));
+            assertNotEquals(params, net.params());
+        }
+    }
 }
@@ -0,0 +1,143 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.eclipse.deeplearning4j.dl4jcore.nn.profiler;
+
+import org.deeplearning4j.BaseDL4JTest;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.nn.profiler.LayerProfile;
+import org.deeplearning4j.nn.profiler.LayerProfiler;
+import org.deeplearning4j.nn.workspace.ArrayType;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.nd4j.common.tests.tags.NativeTag;
+import org.nd4j.common.tests.tags.TagNames;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.learning.config.Adam;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@NativeTag
+@Tag(TagNames.DL4J_OLD_API)
+public class TestLayerProfiler extends BaseDL4JTest {
+
+    private static DataSet getData() {
+        Nd4j.getRandom().setSeed(12345);
+        return new DataSet(Nd4j.rand(DataType.FLOAT, 8, 4), Nd4j.rand(DataType.FLOAT, 8, 3));
+    }
+
+    @Test
+    public void testMultiLayerNetwork() {
+        MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder()
+                .seed(12345)
+                .updater(new Adam(1e-3))
+                .list()
+                .layer(new DenseLayer.Builder().nIn(4).nOut(8).activation(Activation.TANH).build())
+                .layer(new OutputLayer.Builder().nIn(8).nOut(3).activation(Activation.SOFTMAX)
+                        .lossFunction(LossFunctions.LossFunction.MCXENT).build())
+                .build();
+        MultiLayerNetwork net = new MultiLayerNetwork(conf);
+        net.init();
+
+        LayerProfiler profiler = new LayerProfiler();
+        net.setLayerProfiler(profiler);
+        DataSet ds = getData();
+        for (int i = 0; i < 5; i++) {
+            net.fit(ds);
+        }
+
+        Map<String, LayerProfile> profiles = profiler.getProfiles();
+        assertEquals(2, profiles.size());
+        for (String layer : new String[]{"0", "1"}) {
+            LayerProfile p = profiles.get(layer);
+            assertNotNull(p, layer);
+            assertEquals(5, p.getForward().getCount(), layer);
+            assertEquals(5, p.getBackward().getCount(), layer);
+            assertEquals(5, p.getUpdater().getCount(), layer);
+            assertTrue(p.getForward().getTotalNanos() > 0);
+            assertTrue(p.getForward().getMinNanos() <= p.getForward().getPercentileNanos(50));
+            assertTrue(p.getForward().getPercentileNanos(50) <= p.getForward().getMaxNanos());
+        }
+        assertTrue(profiles.get("0").getAllocatedBytes(ArrayType.ACTIVATIONS) > 0);
+        assertTrue(profiles.get("1").getAllocatedBytes(ArrayType.ACTIVATION_GRAD) > 0);
+
+        //Snapshots are not modified by further profiling
+        net.output(ds.getFeatures());
+        assertEquals(5, profiles.get("0").getForward().getCount());
+        assertEquals(6, profiler.getProfiles().get("0").getForward().getCount());
+
+        String summary = profiler.summary();
+        assertTrue(summary.contains("Fwd mean ms"), summary);
+
+        profiler.reset();
+        assertTrue(profiler.getProfiles().isEmpty());
+
+        //Profiling is opt-in
+        net.setLayerProfiler(null);
+        net.fit(ds);
+        assertTrue(profiler.getProfiles().isEmpty());
+    }
+
+    @Test
+    public void testComputationGraph() {
+        ComputationGraphConfiguration conf = new NeuralNetConfiguration.Builder()
+                .seed(12345)
+                .updater(new Adam(1e-3))
+                .graphBuilder()
+                .addInputs("in")
+                .addLayer("dense", new DenseLayer.Builder().nIn(4).nOut(8).activation(Activation.TANH).build(), "in")
+                .addLayer("out", new OutputLayer.Builder().nIn(8).nOut(3).activation(Activation.SOFTMAX)
+                        .lossFunction(LossFunctions.LossFunction.MCXENT).build(), "dense")
+                .setOutputs("out")
+                .build();
+        ComputationGraph cg = new ComputationGraph(conf);
+        cg.init();
+
+        LayerProfiler profiler = new LayerProfiler(false);
+        cg.setLayerProfiler(profiler);
+        DataSet ds = getData();
+        for (int i = 0; i < 3; i++) {
+            cg.fit(ds);
+        }
+
+        Map<String, LayerProfile> profiles = profiler.getProfiles();
+        for (String layer : new String[]{"dense", "out"}) {
+            LayerProfile p = profiles.get(layer);
+            assertNotNull(p, layer);
+            assertEquals(3, p.getForward().getCount(), layer);
+            assertEquals(3, p.getBackward().getCount(), layer);
+            assertEquals(3, p.getUpdater().getCount(), layer);
+            assertTrue(p.getTotalNanos() > 0);
+        }
+        assertFalse(profiles.containsKey("in"));
+    }
+}
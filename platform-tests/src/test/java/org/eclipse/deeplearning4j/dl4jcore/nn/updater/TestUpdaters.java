@@ -26,6 +26,7 @@ import org.deeplearning4j.BaseDL4JTest;
 import org.deeplearning4j.nn.api.Layer;
 import org.deeplearning4j.nn.api.Updater;
 import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.GradientNormalization;
 import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
 import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
 import org.deeplearning4j.nn.conf.layers.*;
@@ -984,6 +985,63 @@ public class TestUpdaters extends BaseDL4JTest {
     }
 
 
+    @Test
+    public void testFusedRegularizationAndClipping() {
+        //Many small layers with the same updater, regularization and clipping configuration: regularization and
+        // clipping should each be applied over a single merged range of the gradient view
+        double lr = 0.1;
+        double l1 = 0.01;
+        double wd = 0.03;
+        double clip = 0.05;
+        int minibatch = 5;
+
+        NeuralNetConfiguration.ListBuilder lb = new NeuralNetConfiguration.Builder()
+                .dataType(DataType.DOUBLE)
+                .seed(12345)
+                .updater(new Sgd(lr))
+                .l1(l1).l1Bias(l1)
+                .weightDecay(wd).weightDecayBias(wd)
+                .gradientNormalization(GradientNormalization.ClipElementWiseAbsoluteValue)
+                .gradientNormalizationThreshold(clip)
+                .list();
+        for (int i = 0; i < 10; i++) {
+            lb.layer(new DenseLayer.Builder().nIn(4).nOut(4).activation(Activation.TANH).build());
+        }
+        lb.layer(new OutputLayer.Builder().nIn(4).nOut(3).activation(Activation.SOFTMAX)
+                .lossFunction(LossFunctions.LossFunction.MCXENT).build());
+
+        MultiLayerNetwork net = new MultiLayerNetwork(lb.build());
+        net.init();
+
+        INDArray labels = Nd4j.zeros(DataType.DOUBLE, minibatch, 3);
+        for (int i = 0; i < minibatch; i++) {
+            labels.putScalar(i, i % 3, 1.0);
+        }
+        net.setInput(Nd4j.rand(DataType.DOUBLE, minibatch, 4).muli(10));
+        net.setLabels(labels);
+        net.computeGradientAndScore();
+
+        INDArray params = net.params().dup();
+        INDArray grad = net.getGradientsViewArray().dup();
+
+        BaseMultiLayerUpdater u = (BaseMultiLayerUpdater) net.getUpdater();
+        u.update(net.gradient(), 0, 0, minibatch, LayerWorkspaceMgr.noWorkspaces());
+
+        assertEquals(1, u.getUpdaterBlocks().size());
+        assertEquals(1, u.getClipSegments().size());
+        UpdaterBlock ub = (UpdaterBlock) u.getUpdaterBlocks().get(0);
+        assertEquals(1, ub.getRegularizationSegments().size());
+
+        //update = lr * (clip(g / minibatch) + l1 * sign(p)) + lr * wd * p
+        INDArray g = grad.div(minibatch);
+        g = Transforms.max(Transforms.min(g, clip), -clip);
+        g.addi(Transforms.sign(params).muli(l1));
+        INDArray exp = g.muli(lr).addi(params.mul(lr * wd));
+
+        INDArray act = net.getGradientsViewArray();
+        assertTrue(exp.equalsWithEps(act, 1e-10), "Expected:\n" + exp + "\nActual:\n" + act);
+    }
+
     @Test
     public void testDivisionByMinibatch1() {
         //No batch norm - should be single INDArray equal to flattened gradient view
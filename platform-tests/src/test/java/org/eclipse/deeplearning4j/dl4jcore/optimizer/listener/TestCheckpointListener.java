@@ -313,4 +313,41 @@ public class TestCheckpointListener extends BaseDL4JTest {
         assertNotNull(fList);
         assertEquals(2, fList.length);
     }
+
+    @Test
+    public void testAsyncSave(@TempDir Path tempDir) throws Exception {
+        File f = tempDir.toFile();
+        Pair<MultiLayerNetwork, DataSetIterator> p = getNetAndData();
+        MultiLayerNetwork net = p.getFirst();
+        DataSetIterator iter = p.getSecond();
+
+        CheckpointListener l = new CheckpointListener.Builder(f)
+                .keepLast(3)
+                .saveEveryNEpochs(1)
+                .asyncSave(1)
+                .build();
+        net.setListeners(l);
+
+        for(int i=0; i<6; i++ ){
+            net.fit(iter);
+        }
+        l.awaitPendingSaves();
+        assertTrue(l.getLastStallTimeMs() >= 0);
+        assertTrue(l.getLastWriteTimeMs() >= 0);
+
+        //3 checkpoints + checkpoint meta file, and no temporary files left behind
+        File[] fList = f.listFiles();
+        assertNotNull(fList);
+        assertEquals(4, fList.length);
+        List<Checkpoint> available = l.availableCheckpoints();
+        assertEquals(3, available.size());
+        assertEquals(5, available.get(2).getCheckpointNum());
+
+        //Last checkpoint was saved at the end of the last epoch: should match the current network, including updater state
+        MultiLayerNetwork n = CheckpointListener.loadLastCheckpointMLN(f);
+        assertEquals(net.params(), n.params());
+        assertEquals(net.getUpdater().getStateViewArray(), n.getUpdater().getStateViewArray());
+        assertEquals(5, n.getEpochCount());
+        assertEquals(12, n.getIterationCount());
+    }
 }
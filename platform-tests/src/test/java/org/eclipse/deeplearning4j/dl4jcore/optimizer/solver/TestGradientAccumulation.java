@@ -0,0 +1,164 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.eclipse.deeplearning4j.dl4jcore.optimizer.solver;
+
+import org.deeplearning4j.BaseDL4JTest;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.BatchNormalization;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.nd4j.common.tests.tags.NativeTag;
+import org.nd4j.common.tests.tags.TagNames;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.nd4j.linalg.learning.config.Adam;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@NativeTag
+@Tag(TagNames.TRAINING)
+public class TestGradientAccumulation extends BaseDL4JTest {
+
+    private static MultiLayerNetwork getNet(int accumulationSteps, boolean batchNorm) {
+        NeuralNetConfiguration.ListBuilder b = new NeuralNetConfiguration.Builder()
+                .dataType(DataType.DOUBLE)
+                .seed(12345)
+                .updater(new Adam(1e-2))
+                .l2(1e-3)
+                .list();
+        if (batchNorm) {
+            b.layer(new BatchNormalization.Builder().nOut(4).build());
+        }
+        MultiLayerConfiguration conf = b
+                .layer(new DenseLayer.Builder().nIn(4).nOut(8).activation(Activation.TANH).build())
+                .layer(new OutputLayer.Builder().nIn(8).nOut(3).activation(Activation.SOFTMAX)
+                        .lossFunction(LossFunctions.LossFunction.MCXENT).build())
+                .gradientAccumulation(accumulationSteps)
+                .build();
+        MultiLayerNetwork net = new MultiLayerNetwork(conf);
+        net.init();
+        return net;
+    }
+
+    private static DataSet getData(int n) {
+        Nd4j.getRandom().setSeed(12345);
+        INDArray f = Nd4j.rand(DataType.DOUBLE, n, 4);
+        INDArray l = Nd4j.zeros(DataType.DOUBLE, n, 3);
+        for (int i = 0; i < n; i++) {
+            l.putScalar(i, i % 3, 1.0);
+        }
+        return new DataSet(f, l);
+    }
+
+    @Test
+    public void testMatchesFullBatch() {
+        MultiLayerNetwork full = getNet(1, false);
+        MultiLayerNetwork acc = getNet(4, false);
+        assertEquals(4, acc.getLayerWiseConfigurations().getGradientAccumulationSteps());
+        assertEquals(acc.getLayerWiseConfigurations(), MultiLayerConfiguration.fromJson(acc.getLayerWiseConfigurations().toJson()));
+
+        //Micro-batches of different sizes: 4 + 6 + 2 + 8 = 20 examples
+        DataSet ds = getData(20);
+        int[] sizes = {4, 6, 2, 8};
+        for (int epoch = 0; epoch < 3; epoch++) {
+            full.fit(ds);
+            int start = 0;
+            for (int i = 0; i < sizes.length; i++) {
+                int end = start + sizes[i];
+                acc.fit(new DataSet(ds.getFeatures().get(NDArrayIndex.interval(start, end)),
+                        ds.getLabels().get(NDArrayIndex.interval(start, end))));
+                start = end;
+                //Parameters are only updated once all micro-batches have been processed
+                assertEquals(epoch + (i == sizes.length - 1 ? 1 : 0), acc.getIterationCount());
+            }
+            assertTrue(full.params().equalsWithEps(acc.params(), 1e-8), "Epoch " + epoch);
+            assertEquals(full.score(), acc.score(), 1e-8);
+        }
+    }
+
+    @Test
+    public void testBatchNormEstimates() {
+        MultiLayerNetwork full = getNet(1, true);
+        MultiLayerNetwork acc = getNet(2, true);
+        DataSet ds = getData(16);
+        List<DataSet> micro = ds.batchBy(8);
+
+        full.fit(ds);
+        acc.fit(micro.get(0));
+        assertEquals(0, acc.getIterationCount());
+        assertEquals(getNet(2, true).getLayer(0).getParam("mean"), acc.getLayer(0).getParam("mean"));
+        acc.fit(micro.get(1));
+        assertEquals(1, acc.getIterationCount());
+
+        //BatchNorm is the first layer, and micro-batches are equal size: the weighted average of the micro-batch mean
+        // estimates equals the full batch estimate
+        INDArray expMean = full.getLayer(0).getParam("mean");
+        INDArray actMean = acc.getLayer(0).getParam("mean");
+        assertNotEquals(getNet(1, true).getLayer(0).getParam("mean"), expMean);
+        assertTrue(expMean.equalsWithEps(actMean, 1e-8));
+    }
+
+    @Test
+    public void testComputationGraph() {
+        ComputationGraph[] nets = new ComputationGraph[2];
+        for (int i = 0; i < 2; i++) {
+            ComputationGraphConfiguration conf = new NeuralNetConfiguration.Builder()
+                    .dataType(DataType.DOUBLE)
+                    .seed(12345)
+                    .updater(new Adam(1e-2))
+                    .graphBuilder()
+                    .addInputs("in")
+                    .addLayer("dense", new DenseLayer.Builder().nIn(4).nOut(8).activation(Activation.TANH).build(), "in")
+                    .addLayer("out", new OutputLayer.Builder().nIn(8).nOut(3).activation(Activation.SOFTMAX)
+                            .lossFunction(LossFunctions.LossFunction.MCXENT).build(), "dense")
+                    .setOutputs("out")
+                    .gradientAccumulation(i == 0 ? 1 : 3)
+                    .build();
+            nets[i] = new ComputationGraph(conf);
+            nets[i].init();
+        }
+        assertEquals(nets[1].getConfiguration(), ComputationGraphConfiguration.fromJson(nets[1].getConfiguration().toJson()));
+
+        DataSet ds = getData(12);
+        List<DataSet> micro = ds.batchBy(4);
+        for (int epoch = 0; epoch < 2; epoch++) {
+            nets[0].fit(ds);
+            for (DataSet d : micro) {
+                nets[1].fit(d);
+            }
+            assertEquals(epoch + 1, nets[1].getIterationCount());
+            assertTrue(nets[0].params().equalsWithEps(nets[1].params(), 1e-8), "Epoch " + epoch);
+        }
+    }
+}
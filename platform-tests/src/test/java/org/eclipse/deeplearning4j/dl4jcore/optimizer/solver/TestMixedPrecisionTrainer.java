@@ -0,0 +1,288 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.eclipse.deeplearning4j.dl4jcore.optimizer.solver;
+
+import org.deeplearning4j.BaseDL4JTest;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.BatchNormalization;
+import org.deeplearning4j.nn.conf.layers.ConvolutionLayer;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.conf.layers.objdetect.Yolo2OutputLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.optimize.solvers.MixedPrecisionTrainer;
+import org.deeplearning4j.util.ModelSerializer;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.nd4j.common.tests.tags.NativeTag;
+import org.nd4j.common.tests.tags.TagNames;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.learning.config.Adam;
+import org.nd4j.linalg.learning.config.Sgd;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@NativeTag
+@Tag(TagNames.TRAINING)
+public class TestMixedPrecisionTrainer extends BaseDL4JTest {
+
+    private static MultiLayerNetwork getNet() {
+        MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder()
+                .dataType(DataType.FLOAT)
+                .seed(12345)
+                .updater(new Adam(1e-2))
+                .list()
+                .layer(new DenseLayer.Builder().nIn(4).nOut(8).activation(Activation.TANH).build())
+                .layer(new OutputLayer.Builder().nIn(8).nOut(3).activation(Activation.SOFTMAX)
+                        .lossFunction(LossFunctions.LossFunction.MCXENT).build())
+                .build();
+        MultiLayerNetwork net = new MultiLayerNetwork(conf);
+        net.init();
+        return net;
+    }
+
+    private static DataSet getData() {
+        Nd4j.getRandom().setSeed(12345);
+        INDArray f = Nd4j.rand(DataType.FLOAT, 16, 4);
+        INDArray l = Nd4j.zeros(DataType.FLOAT, 16, 3);
+        for (int i = 0; i < 16; i++) {
+            l.putScalar(i, i % 3, 1.0);
+        }
+        return new DataSet(f, l);
+    }
+
+    @Test
+    public void testMatchesFullPrecision() {
+        MultiLayerNetwork net = getNet();
+        MultiLayerNetwork mixed = getNet();
+        DataSet ds = getData();
+
+        MixedPrecisionTrainer trainer = new MixedPrecisionTrainer.Builder(mixed)
+                .computeDataType(DataType.HALF)
+                .initialLossScale(1024)
+                .dynamicLossScaling(false)
+                .build();
+        assertEquals(DataType.HALF, trainer.getCompute().params().dataType());
+
+        for (int i = 0; i < 5; i++) {
+            net.fit(ds);
+            trainer.fit(ds);
+        }
+
+        //Master parameters and updater state are kept in full precision
+        assertEquals(DataType.FLOAT, mixed.params().dataType());
+        assertEquals(DataType.FLOAT, mixed.getUpdater().getStateViewArray().dataType());
+        assertEquals(5, mixed.getIterationCount());
+        assertEquals(0, trainer.getSkippedSteps());
+        assertEquals(1024, trainer.getLossScale(), 0.0);
+        assertEquals(net.score(), mixed.score(), 1e-2);
+        assertTrue(net.params().equalsWithEps(mixed.params(), 1e-2));
+        assertTrue(net.getUpdater().getStateViewArray().equalsWithEps(mixed.getUpdater().getStateViewArray(), 1e-2));
+    }
+
+    @Test
+    public void testPreviouslyFittedAndRestored() throws Exception {
+        DataSet ds = getData();
+        MultiLayerNetwork net = getNet();
+        MultiLayerNetwork fitted = getNet();
+        for (int i = 0; i < 3; i++) {
+            net.fit(ds);
+            fitted.fit(ds);
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ModelSerializer.writeModel(fitted, baos, true);
+        MultiLayerNetwork restored = ModelSerializer.restoreMultiLayerNetwork(new ByteArrayInputStream(baos.toByteArray()), true);
+
+        //Both the already fitted network and the restored network have an existing updater, which must be used
+        // with the current gradients, not stale ones
+        MixedPrecisionTrainer t1 = new MixedPrecisionTrainer.Builder(fitted)
+                .computeDataType(DataType.HALF)
+                .initialLossScale(1024)
+                .dynamicLossScaling(false)
+                .build();
+        MixedPrecisionTrainer t2 = new MixedPrecisionTrainer.Builder(restored)
+                .computeDataType(DataType.HALF)
+                .initialLossScale(1024)
+                .dynamicLossScaling(false)
+                .build();
+        for (int i = 0; i < 5; i++) {
+            net.fit(ds);
+            t1.fit(ds);
+            t2.fit(ds);
+        }
+
+        for (MultiLayerNetwork m : new MultiLayerNetwork[]{fitted, restored}) {
+            assertEquals(8, m.getIterationCount());
+            assertTrue(net.params().equalsWithEps(m.params(), 1e-2));
+            assertTrue(net.getUpdater().getStateViewArray().equalsWithEps(m.getUpdater().getStateViewArray(), 1e-2));
+        }
+    }
+
+    @Test
+    public void testDynamicLossScaling() {
+        MultiLayerNetwork net = getNet();
+        DataSet ds = getData();
+
+        //Scaled gradients exceed the range of HALF: step is skipped, loss scale is reduced
+        MixedPrecisionTrainer trainer = new MixedPrecisionTrainer.Builder(net)
+                .computeDataType(DataType.HALF)
+                .initialLossScale(1e10)
+                .dynamicLossScaling(1e4, 3)
+                .build();
+        INDArray before = net.params().dup();
+        trainer.fit(ds);
+        assertEquals(1, trainer.getSkippedSteps());
+        assertEquals(1e6, trainer.getLossScale(), 1e-6);
+        assertEquals(0, net.getIterationCount());
+        assertEquals(before, net.params());
+
+        //Scale 1e6 still overflows; 1e2 does not
+        trainer.fit(ds);
+        assertEquals(2, trainer.getSkippedSteps());
+        assertEquals(1e2, trainer.getLossScale(), 1e-6);
+        for (int i = 0; i < 3; i++) {
+            trainer.fit(ds);
+        }
+        assertEquals(2, trainer.getSkippedSteps());
+        assertEquals(3, net.getIterationCount());
+        assertNotEquals(before, net.params());
+        //Increased after 3 steps without overflow
+        assertEquals(1e6, trainer.getLossScale(), 1e-6);
+    }
+
+    @Test
+    public void testComputationGraphBFloat16() {
+        ComputationGraphConfiguration conf = new NeuralNetConfiguration.Builder()
+                .dataType(DataType.FLOAT)
+                .seed(12345)
+                .updater(new Adam(1e-2))
+                .graphBuilder()
+                .addInputs("in")
+                .addLayer("dense", new DenseLayer.Builder().nIn(4).nOut(8).activation(Activation.TANH).build(), "in")
+                .addLayer("bn", new BatchNormalization.Builder().nOut(8).build(), "dense")
+                .addLayer("out", new OutputLayer.Builder().nIn(8).nOut(3).activation(Activation.SOFTMAX)
+                        .lossFunction(LossFunctions.LossFunction.MCXENT).build(), "bn")
+                .setOutputs("out")
+                .build();
+        ComputationGraph net = new ComputationGraph(conf);
+        net.init();
+        DataSet ds = getData();
+
+        MixedPrecisionTrainer trainer = new MixedPrecisionTrainer.Builder(net)
+                .computeDataType(DataType.BFLOAT16)
+                .build();
+        //No loss scaling by default for BFLOAT16
+        assertEquals(1.0, trainer.getLossScale(), 0.0);
+        assertFalse(trainer.isDynamicLossScaling());
+
+        net.setInputs(ds.getFeatures());
+        net.setLabels(ds.getLabels());
+        net.computeGradientAndScore();
+        double scoreBefore = net.score();
+        INDArray meanBefore = net.getLayer("bn").getParam("mean").dup();
+
+        for (int i = 0; i < 20; i++) {
+            trainer.fit(ds);
+        }
+        assertEquals(0, trainer.getSkippedSteps());
+        assertEquals(20, net.getIterationCount());
+        assertEquals(DataType.FLOAT, net.params().dataType());
+        assertTrue(net.score() < scoreBefore, "Score did not decrease: " + scoreBefore + " -> " + net.score());
+        assertNotEquals(meanBefore, net.getLayer("bn").getParam("mean"));
+    }
+
+    @Test
+    public void testOutputLayerWithoutLossFunction() {
+        int mb = 4;
+        int nBoxes = 2;
+        int nClasses = 2;
+        int depth = nBoxes * (5 + nClasses);
+        int h = 4;
+        int w = 4;
+        MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder()
+                .dataType(DataType.FLOAT)
+                .seed(12345)
+                .updater(new Sgd(0.1))
+                .list()
+                .layer(new ConvolutionLayer.Builder().nIn(3).nOut(depth).kernelSize(1, 1)
+                        .activation(Activation.IDENTITY).build())
+                .layer(new Yolo2OutputLayer.Builder()
+                        .boundingBoxPriors(Nd4j.create(new double[][]{{1, 1}, {2, 2}}))
+                        .build())
+                .build();
+        MultiLayerNetwork net = new MultiLayerNetwork(conf);
+        net.init();
+        MultiLayerNetwork ref = net.clone();
+
+        Nd4j.getRandom().setSeed(12345);
+        INDArray f = Nd4j.rand(DataType.FLOAT, mb, 3, h, w);
+        INDArray l = Nd4j.zeros(DataType.FLOAT, mb, 4 + nClasses, h, w);
+        for (int i = 0; i < mb; i++) {
+            //One object per example: box (i,i) to (i+1,i+1) in grid units
+            l.putScalar(new int[]{i, 0, i, i}, i);
+            l.putScalar(new int[]{i, 1, i, i}, i);
+            l.putScalar(new int[]{i, 2, i, i}, i + 1);
+            l.putScalar(new int[]{i, 3, i, i}, i + 1);
+            l.putScalar(new int[]{i, 4 + i % nClasses, i, i}, 1.0);
+        }
+        DataSet ds = new DataSet(f, l);
+
+        //Yolo2OutputLayer has no loss function that can be wrapped: the loss can't be scaled
+        assertThrows(IllegalStateException.class, () -> new MixedPrecisionTrainer.Builder(net)
+                .computeDataType(DataType.HALF)
+                .initialLossScale(1024)
+                .build());
+        assertThrows(IllegalStateException.class, () -> new MixedPrecisionTrainer.Builder(net)
+                .computeDataType(DataType.HALF)
+                .dynamicLossScaling(2.0, 1)
+                .build());
+
+        MixedPrecisionTrainer trainer = new MixedPrecisionTrainer.Builder(net)
+                .computeDataType(DataType.HALF)
+                .build();
+        assertEquals(1.0, trainer.getLossScale(), 0.0);
+        assertFalse(trainer.isDynamicLossScaling());
+
+        INDArray before = net.params().dup();
+        trainer.fit(ds);
+        ref.fit(ds);
+        assertEquals(0, trainer.getSkippedSteps());
+        assertEquals(1.0, trainer.getLossScale(), 0.0);
+
+        //Gradients are not divided by a loss scale: same update as full precision, up to HALF precision
+        INDArray update = net.params().sub(before);
+        INDArray expUpdate = ref.params().sub(before);
+        double relError = update.sub(expUpdate).norm2Number().doubleValue() / expUpdate.norm2Number().doubleValue();
+        assertTrue(relError < 0.05, "Relative error: " + relError);
+    }
+}
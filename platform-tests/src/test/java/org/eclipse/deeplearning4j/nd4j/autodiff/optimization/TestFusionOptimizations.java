@@ -0,0 +1,168 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.eclipse.deeplearning4j.nd4j.autodiff.optimization;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.nd4j.autodiff.samediff.SDVariable;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.internal.SameDiffOp;
+import org.nd4j.autodiff.samediff.optimize.GraphOptimizer;
+import org.nd4j.autodiff.samediff.optimize.OptimizerSet;
+import org.nd4j.autodiff.samediff.optimize.optimizations.FusionOptimizations;
+import org.nd4j.autodiff.samediff.optimize.optimizations.UnusedFunctionOptimizations;
+import org.nd4j.common.tests.tags.NativeTag;
+import org.nd4j.common.tests.tags.TagNames;
+import org.nd4j.linalg.BaseNd4jTestWithBackends;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.impl.layers.convolution.config.Conv2DConfig;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.factory.Nd4jBackend;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@NativeTag
+@Tag(TagNames.SAMEDIFF)
+public class TestFusionOptimizations extends BaseNd4jTestWithBackends {
+
+    @Override
+    public char ordering() {
+        return 'c';
+    }
+
+    private static List<OptimizerSet> fusion() {
+        return Arrays.<OptimizerSet>asList(new FusionOptimizations(), new UnusedFunctionOptimizations());
+    }
+
+    private static Set<String> opNames(SameDiff sd) {
+        Set<String> s = new HashSet<>();
+        for (SameDiffOp op : sd.getOps().values())
+            s.add(op.getOp().opName());
+        return s;
+    }
+
+    private static void assertSameOutput(SameDiff orig, SameDiff optimized, Map<String, INDArray> ph, String out) {
+        INDArray exp = orig.outputSingle(ph, out);
+        INDArray act = optimized.outputSingle(ph, out);
+        assertArrayEquals(exp.shape(), act.shape());
+        assertTrue(exp.equalsWithEps(act, 1e-4), "Expected:\n" + exp + "\nActual:\n" + act);
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
+    public void testMatMulBiasRelu(Nd4jBackend backend) {
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, -1, 4);
+        SDVariable w1 = sd.var("w1", Nd4j.rand(DataType.FLOAT, 4, 5));
+        SDVariable b1 = sd.var("b1", Nd4j.rand(DataType.FLOAT, 5));
+        SDVariable w2 = sd.var("w2", Nd4j.rand(DataType.FLOAT, 5, 3));
+        SDVariable b2 = sd.var("b2", Nd4j.rand(DataType.FLOAT, 3));
+        SDVariable l1 = sd.nn.relu(in.mmul(w1).add(b1), 0);
+        SDVariable l2 = sd.nn.biasAdd(sd.nn.tanh(l1).mmul(w2), b2, false);
+        sd.nn.softmax("out", l2);
+
+        SameDiff optimized = GraphOptimizer.optimize(sd, Collections.singletonList("out"), fusion());
+        Set<String> ops = opNames(optimized);
+        assertTrue(ops.contains("relu_layer"), ops.toString());
+        assertTrue(ops.contains("xw_plus_b"), ops.toString());
+        assertFalse(ops.contains("matmul") || ops.contains("mmul"), ops.toString());
+        assertEquals(4, optimized.getOps().size());     //relu_layer, tanh, xw_plus_b, softmax
+
+        assertSameOutput(sd, optimized, Collections.singletonMap("in", Nd4j.rand(DataType.FLOAT, 3, 4)), "out");
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
+    public void testRequiredOutputNotFused(Nd4jBackend backend) {
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, -1, 4);
+        SDVariable w = sd.var("w", Nd4j.rand(DataType.FLOAT, 4, 5));
+        SDVariable b = sd.var("b", Nd4j.rand(DataType.FLOAT, 5));
+        in.mmul("mm", w).add("out", b);
+
+        SameDiff optimized = GraphOptimizer.optimize(sd, Arrays.asList("mm", "out"), fusion());
+        assertEquals(2, optimized.getOps().size());
+        assertTrue(optimized.hasVariable("mm"));
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
+    public void testConv2dBatchNormFolding(Nd4jBackend backend) {
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, -1, 3, 8, 8);
+        SDVariable w = sd.constant("w", Nd4j.rand(DataType.FLOAT, 2, 2, 3, 4));
+        SDVariable b = sd.constant("b", Nd4j.rand(DataType.FLOAT, 4));
+        SDVariable mean = sd.constant("mean", Nd4j.rand(DataType.FLOAT, 4));
+        SDVariable var = sd.constant("var", Nd4j.rand(DataType.FLOAT, 4).addi(0.5));
+        SDVariable gamma = sd.constant("gamma", Nd4j.rand(DataType.FLOAT, 4));
+        SDVariable beta = sd.constant("beta", Nd4j.rand(DataType.FLOAT, 4));
+
+        SDVariable conv = sd.cnn.conv2d(in, w, b, Conv2DConfig.builder().kH(2).kW(2).build());
+        sd.nn.batchNorm("out", conv, mean, var, gamma, beta, 1e-5, 1);
+
+        SameDiff optimized = GraphOptimizer.optimize(sd, Collections.singletonList("out"), fusion());
+        assertEquals(Collections.singleton("conv2d"), opNames(optimized));
+        //Original constants are not modified
+        assertEquals(sd.getVariable("w").getArr(), optimized.getVariable("w").getArr());
+
+        assertSameOutput(sd, optimized, Collections.singletonMap("in", Nd4j.rand(DataType.FLOAT, 2, 3, 8, 8)), "out");
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
+    public void testScalarChainFolding(Nd4jBackend backend) {
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, -1, 4);
+        in.add(1.0).sub(3.0).add(0.5).mul(2.0).div("out", 4.0);
+
+        SameDiff optimized = GraphOptimizer.optimize(sd, Collections.singletonList("out"), fusion());
+        assertEquals(2, optimized.getOps().size());
+
+        assertSameOutput(sd, optimized, Collections.singletonMap("in", Nd4j.rand(DataType.FLOAT, 3, 4)), "out");
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
+    public void testLayerNormFusion(Nd4jBackend backend) {
+        //Layer norm subgraph as produced by TensorFlow import (e.g. BERT)
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, -1, 8);
+        SDVariable gamma = sd.var("gamma", Nd4j.rand(DataType.FLOAT, 8));
+        SDVariable beta = sd.var("beta", Nd4j.rand(DataType.FLOAT, 8));
+        SDVariable x = sd.nn.tanh(in);
+
+        SDVariable mean = x.mean(true, -1);
+        SDVariable variance = sd.math.squaredDifference(x, mean).mean(true, -1);
+        SDVariable m = sd.math.rsqrt(variance.add(1e-12)).mul(gamma);
+        x.mul(m).add("out", beta.sub(mean.mul(m)));
+
+        SameDiff optimized = GraphOptimizer.optimize(sd, Collections.singletonList("out"), fusion());
+        Set<String> ops = opNames(optimized);
+        assertTrue(ops.contains("layer_norm"), ops.toString());
+        assertEquals(2, optimized.getOps().size());     //tanh, layer_norm
+
+        assertSameOutput(sd, optimized, Collections.singletonMap("in", Nd4j.rand(DataType.FLOAT, 5, 8)), "out");
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.eclipse.deeplearning4j.nd4j.autodiff.samediff;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.nd4j.autodiff.functions.DifferentialFunction;
+import org.nd4j.autodiff.samediff.SDVariable;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.internal.ExecutionPlan;
+import org.nd4j.autodiff.samediff.internal.ShapeCache;
+import org.nd4j.common.tests.tags.NativeTag;
+import org.nd4j.common.tests.tags.TagNames;
+import org.nd4j.linalg.BaseNd4jTestWithBackends;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.factory.Nd4jBackend;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Slf4j
+@NativeTag
+@Tag(TagNames.SAMEDIFF)
+public class ExecutionPlanTest extends BaseNd4jTestWithBackends {
+
+    @Override
+    public char ordering() {
+        return 'c';
+    }
+
+    private static SameDiff mlp(int nLayers) {
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, -1, 8);
+        SDVariable label = sd.placeHolder("label", DataType.FLOAT, -1, 8);
+        SDVariable x = in;
+        for (int i = 0; i < nLayers; i++) {
+            SDVariable w = sd.var("w" + i, Nd4j.rand(DataType.FLOAT, 8, 8));
+            SDVariable b = sd.var("b" + i, Nd4j.rand(DataType.FLOAT, 8));
+            x = sd.nn.tanh(x.mmul(w).add(b));
+        }
+        SDVariable out = sd.nn.softmax("out", x);
+        sd.loss.logLoss("loss", label, out);
+        return sd;
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
+    public void testPlanMatchesOutput(Nd4jBackend backend) {
+        SameDiff sd = mlp(3);
+        ExecutionPlan plan = sd.compile("out");
+
+        //Loss and label placeholder are not required to calculate "out"
+        assertEquals(Collections.singletonList("in"), plan.getRequiredPlaceholders());
+        assertFalse(plan.getSubgraphOps().contains(sd.getVariableOutputOp("loss").getOwnName()));
+        assertTrue(plan.isValid());
+
+        for (int minibatch : new int[]{1, 3, 5}) {
+            INDArray in = Nd4j.rand(DataType.FLOAT, minibatch, 8);
+            Map<String, INDArray> ph = Collections.singletonMap("in", in);
+            INDArray exp = sd.outputSingle(ph, "out");
+            Map<String, INDArray> out = sd.output(plan, ph);
+            assertEquals(1, out.size());
+            assertEquals(exp, out.get("out"));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
+    public void testPlanMultipleOutputs(Nd4jBackend backend) {
+        SameDiff sd = mlp(2);
+        ExecutionPlan plan = sd.compile("out", "loss", "w0");
+        assertEquals(2, plan.getRequiredPlaceholders().size());
+
+        INDArray in = Nd4j.rand(DataType.FLOAT, 4, 8);
+        INDArray label = Nd4j.rand(DataType.FLOAT, 4, 8);
+        Map<String, INDArray> ph = new HashMap<>();
+        ph.put("in", in);
+        ph.put("label", label);
+
+        Map<String, INDArray> exp = sd.output(ph, "out", "loss", "w0");
+        Map<String, INDArray> act = sd.output(plan, ph);
+        assertEquals(exp, act);
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
+    public void testPlanControlFlowRejected(Nd4jBackend backend) {
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, 3);
+        SDVariable pred = sd.placeHolder("pred", DataType.BOOL);
+        SDVariable[] sw = sd.switchOp(in, pred);
+        sd.identity("out", sw[0]);
+
+        assertThrows(IllegalStateException.class, () -> sd.compile("out"));
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
+    public void testPlanInvalidatedByGraphModification(Nd4jBackend backend) {
+        SameDiff sd = mlp(1);
+        ExecutionPlan plan = sd.compile("out");
+        sd.math().exp(sd.getVariable("out"));
+        assertFalse(plan.isValid());
+        assertThrows(IllegalStateException.class, () -> sd.output(plan, Collections.singletonMap("in", Nd4j.rand(DataType.FLOAT, 1, 8))));
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
+    public void testPlanInvalidatedByInputRewiring(Nd4jBackend backend) {
+        SameDiff sd = mlp(1);
+        SDVariable wAlt = sd.var("wAlt", Nd4j.rand(DataType.FLOAT, 8, 8));
+        ExecutionPlan plan = sd.compile("out");
+        int numOps = sd.getOps().size();
+        int numVars = sd.getVariables().size();
+
+        //Replace the weights of the matrix multiplication: same number of ops and variables, different graph
+        DifferentialFunction mmul = null;
+        for (DifferentialFunction df : sd.ops()) {
+            if (Arrays.asList(df.argNames()).contains("w0")) {
+                mmul = df;
+            }
+        }
+        assertNotNull(mmul);
+        sd.replaceArgFor(Arrays.asList(mmul.argNames()).indexOf("w0"), wAlt, mmul);
+        assertEquals(numOps, sd.getOps().size());
+        assertEquals(numVars, sd.getVariables().size());
+        assertFalse(plan.isValid());
+
+        Map<String, INDArray> ph = Collections.singletonMap("in", Nd4j.rand(DataType.FLOAT, 2, 8));
+        assertThrows(IllegalStateException.class, () -> sd.output(plan, ph));
+        ExecutionPlan recompiled = sd.compile("out");
+        assertTrue(recompiled.isValid());
+        assertEquals(sd.outputSingle(ph, "out"), sd.output(recompiled, ph).get("out"));
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
+    public void testShapeCache(Nd4jBackend backend) {
+        SameDiff sd = mlp(2);
+        ExecutionPlan plan = sd.compile("out");
+        assertEquals(plan.numSteps(), plan.getShapeCacheableOps().size());
+        ShapeCache cache = sd.enableShapeCache(2);
+
+        int[] minibatches = {3, 3, 5, 3, 5, 7, 3};
+        for (int mb : minibatches) {
+            Map<String, INDArray> ph = Collections.singletonMap("in", Nd4j.rand(DataType.FLOAT, mb, 8));
+            assertEquals(sd.outputSingle(ph, "out"), sd.output(plan, ph).get("out"));
+        }
+        //Misses: 3 (first), 5 (first), 7 (first, evicts 3), 3 (evicted)
+        assertEquals(4, cache.getMissCount());
+        assertEquals(3, cache.getHitCount());
+        assertEquals(2, cache.getEvictionCount());
+        assertEquals(2, cache.size());
+
+        sd.disableShapeCache();
+        assertNull(sd.getShapeCache());
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
+    public void testShapeCacheValueDependentShapes(Nd4jBackend backend) {
+        //Reshape target comes from a placeholder value: same placeholder shapes, different output shapes
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, -1);
+        SDVariable shape = sd.placeHolder("shape", DataType.INT64, 2);
+        sd.nn.tanh("out", in.reshape(shape).add(1.0));
+        ExecutionPlan plan = sd.compile("out");
+        assertTrue(plan.getShapeCacheableOps().isEmpty());
+        ShapeCache cache = sd.enableShapeCache(ShapeCache.DEFAULT_MAX_ENTRIES);
+
+        INDArray arr = Nd4j.rand(DataType.FLOAT, 12);
+        for (long[] s : new long[][]{{3, 4}, {2, 6}, {3, 4}}) {
+            Map<String, INDArray> ph = new HashMap<>();
+            ph.put("in", arr);
+            ph.put("shape", Nd4j.createFromArray(s));
+            assertArrayEquals(s, sd.output(plan, ph).get("out").shape());
+        }
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
+    public void testShapeCacheDynamicIntegerInputs(Nd4jBackend backend) {
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, -1, 4);
+        SDVariable perm = sd.placeHolder("perm", DataType.INT64, 2);
+        SDVariable idx = sd.placeHolder("idx", DataType.INT32, -1);
+        //Permutation from a placeholder value: output shape depends on the data
+        SDVariable permuted = sd.permute(in, perm);
+        sd.nn.tanh("permOut", permuted);
+        //Gather indices from a placeholder: output shape depends only on the shape of the indices
+        SDVariable gathered = sd.gather(in, idx, 0);
+        sd.nn.tanh("gatherOut", gathered);
+
+        ExecutionPlan plan = sd.compile("permOut", "gatherOut");
+        Set<String> cacheable = plan.getShapeCacheableOps();
+        assertFalse(cacheable.contains(sd.getVariableOutputOp(permuted.name()).getOwnName()));
+        assertFalse(cacheable.contains(sd.getVariableOutputOp("permOut").getOwnName()));
+        assertTrue(cacheable.contains(sd.getVariableOutputOp(gathered.name()).getOwnName()));
+        assertTrue(cacheable.contains(sd.getVariableOutputOp("gatherOut").getOwnName()));
+
+        sd.enableShapeCache(ShapeCache.DEFAULT_MAX_ENTRIES);
+        INDArray arr = Nd4j.rand(DataType.FLOAT, 3, 4);
+        for (long[] p : new long[][]{{0, 1}, {1, 0}}) {
+            Map<String, INDArray> ph = new HashMap<>();
+            ph.put("in", arr);
+            ph.put("perm", Nd4j.createFromArray(p));
+            ph.put("idx", Nd4j.createFromArray(0, 2));
+            Map<String, INDArray> out = sd.output(plan, ph);
+            assertArrayEquals(arr.permute(p).shape(), out.get("permOut").shape());
+            assertArrayEquals(new long[]{2, 4}, out.get("gatherOut").shape());
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
+    public void testParallelExecution(Nd4jBackend backend) {
+        //Wide graph: 8 independent branches, concatenated
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, -1, 16);
+        SDVariable[] branches = new SDVariable[8];
+        for (int i = 0; i < branches.length; i++) {
+            SDVariable w = sd.var("w" + i, Nd4j.rand(DataType.FLOAT, 16, 16));
+            SDVariable b = sd.var("b" + i, Nd4j.rand(DataType.FLOAT, 16));
+            branches[i] = sd.nn.tanh(sd.nn.sigmoid(in.mmul(w).add(b)).mul(2.0));
+        }
+        sd.concat("out", 1, branches).sum("sum", 1);
+        ExecutionPlan plan = sd.compile("out", "sum");
+
+        List<Map<String, INDArray>> expected = new ArrayList<>();
+        List<Map<String, INDArray>> inputs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Map<String, INDArray> ph = Collections.singletonMap("in", Nd4j.rand(DataType.FLOAT, 1 + i, 16));
+            inputs.add(ph);
+            expected.add(sd.output(plan, ph));
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            //Min cost 0: every op is dispatched to the pool
+            sd.enableInterOpParallelism(pool, 0);
+            for (int i = 0; i < inputs.size(); i++) {
+                assertEquals(expected.get(i), sd.output(plan, inputs.get(i)));
+            }
+            //Default cost threshold: these small ops are mostly executed inline
+            sd.enableInterOpParallelism(pool, SameDiff.DEFAULT_INTER_OP_MIN_COST);
+            assertEquals(expected.get(3), sd.output(plan, inputs.get(3)));
+            //Combined with the shape cache
+            sd.enableShapeCache(4);
+            sd.enableInterOpParallelism(pool, 0);
+            for (int i = 0; i < 3; i++) {
+                assertEquals(expected.get(2), sd.output(plan, inputs.get(2)));
+            }
+        } finally {
+            sd.disableInterOpParallelism();
+            pool.shutdown();
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
+    public void testParallelExecutionError(Nd4jBackend backend) {
+        SameDiff sd = SameDiff.create();
+        SDVariable a = sd.placeHolder("a", DataType.FLOAT, -1, 4);
+        SDVariable b = sd.placeHolder("b", DataType.FLOAT, -1, 5);
+        sd.math.exp(a).sum("s", 1);
+        sd.math.tanh(a).mmul("out", sd.math.exp(b));
+        ExecutionPlan plan = sd.compile("out", "s");
+
+        Map<String, INDArray> ph = new HashMap<>();
+        ph.put("a", Nd4j.rand(DataType.FLOAT, 3, 4));
+        ph.put("b", Nd4j.rand(DataType.FLOAT, 4, 5));
+        Map<String, INDArray> exp = sd.output(plan, ph);
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            sd.enableInterOpParallelism(pool, 0);
+            Map<String, INDArray> invalid = new HashMap<>(ph);
+            invalid.put("b", Nd4j.rand(DataType.FLOAT, 3, 5));     //Invalid shape for mmul
+            assertThrows(RuntimeException.class, () -> sd.output(plan, invalid));
+
+            //Session is still usable after a failed execution
+            assertEquals(exp, sd.output(plan, ph));
+        } finally {
+            sd.disableInterOpParallelism();
+            pool.shutdown();
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
+    @Tag(TagNames.LONG_TEST)
+    public void testPlanBenchmark(Nd4jBackend backend) {
+        //Not a strict performance test: compares per-call time of compiled vs. dynamic execution for batch size 1
+        SameDiff sd = mlp(20);
+        ExecutionPlan plan = sd.compile("out");
+        Map<String, INDArray> ph = Collections.singletonMap("in", Nd4j.rand(DataType.FLOAT, 1, 8));
+
+        int warmup = 50;
+        int iterations = 500;
+        for (int i = 0; i < warmup; i++) {
+            sd.outputSingle(ph, "out");
+            sd.output(plan, ph);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sd.outputSingle(ph, "out");
+        }
+        long dynamicNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sd.output(plan, ph);
+        }
+        long compiledNanos = System.nanoTime() - start;
+
+        log.info("Dynamic execution: {} us/call, compiled execution plan: {} us/call ({} ops)", dynamicNanos / iterations / 1000,
+                compiledNanos / iterations / 1000, plan.numSteps());
+        assertEquals(sd.outputSingle(ph, "out"), sd.output(plan, ph).get("out"));
+    }
+}
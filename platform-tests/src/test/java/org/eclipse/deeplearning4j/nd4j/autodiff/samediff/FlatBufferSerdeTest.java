@@ -33,6 +33,7 @@ import org.nd4j.autodiff.samediff.SDVariable;
 import org.nd4j.autodiff.samediff.SameDiff;
 import org.nd4j.autodiff.samediff.TrainingConfig;
 import org.nd4j.autodiff.samediff.VariableType;
+import org.nd4j.autodiff.samediff.serde.FlatBuffersMapper;
 import org.nd4j.common.resources.Resources;
 import org.nd4j.common.tests.tags.NativeTag;
 import org.nd4j.common.tests.tags.TagNames;
@@ -424,6 +425,68 @@ public class FlatBufferSerdeTest extends BaseNd4jTestWithBackends {
     }
 
 
+    @ParameterizedTest
+    @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
+    public void testMemoryMappedLoad(Nd4jBackend backend) throws Exception {
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, -1, 4);
+        SDVariable label = sd.placeHolder("label", DataType.FLOAT, -1, 3);
+        SDVariable w = sd.var("w", Nd4j.rand(DataType.FLOAT, 4, 3));
+        SDVariable b = sd.var("b", Nd4j.rand(DataType.FLOAT, 1, 3));
+        SDVariable c = sd.constant("c", Nd4j.createFromArray(new float[][]{{1, 2, 3}}));
+        SDVariable out = sd.nn().softmax("out", in.mmul(w).add(b).mul(c), 1);
+        sd.loss().logLoss("loss", label, out);
+        sd.setTrainingConfig(TrainingConfig.builder()
+                .updater(new Sgd(0.1))
+                .dataSetFeatureMapping("in")
+                .dataSetLabelMapping("label")
+                .build());
+
+        File f = new File(testDir.toFile(), "mapped.fb");
+        sd.save(f, false);
+        byte[] bytes = Files.readAllBytes(f.toPath());
+
+        SameDiff sd2 = SameDiff.load(f, false, true);
+        for (String s : new String[]{"w", "b", "c"}) {
+            INDArray arr = sd2.getVariable(s).getArr();
+            assertEquals(sd.getVariable(s).getArr(), arr);
+            //Array data is used in place: aligned within the (page aligned) mapping
+            assertEquals(0, arr.data().addressPointer().address() % FlatBuffersMapper.MAPPED_ARRAY_ALIGNMENT);
+        }
+
+        INDArray inArr = Nd4j.rand(DataType.FLOAT, 5, 4);
+        assertEquals(sd.outputSingle(Collections.singletonMap("in", inArr), "out"),
+                sd2.outputSingle(Collections.singletonMap("in", inArr), "out"));
+
+        //Training: parameters are copied before being updated, the file is not modified
+        DataSet ds = new DataSet(inArr, Nd4j.rand(DataType.FLOAT, 5, 3));
+        sd.fit(ds);
+        sd2.fit(ds);
+        assertEquals(sd.getVariable("w").getArr(), sd2.getVariable("w").getArr());
+        assertArrayEquals(bytes, Files.readAllBytes(f.toPath()));
+
+        //Read-only file: read-only mapping. Variables are copied, so they can be modified in place outside fit()
+        assertTrue(f.setWritable(false));
+        SameDiff sd3 = SameDiff.load(f, false, true);
+        SameDiff sd4 = SameDiff.load(f, false, false);
+        for (SameDiff s : new SameDiff[]{sd3, sd4}) {
+            s.getVariable("w").getArr().addi(1.0);
+        }
+        sd3.fit(ds);
+        sd4.fit(ds);
+        assertEquals(sd4.getVariable("w").getArr(), sd3.getVariable("w").getArr());
+
+        //Constants are used in place, and copied when converted to variables
+        INDArray cMapped = sd3.getVariable("c").getArr();
+        assertEquals(0, cMapped.data().addressPointer().address() % FlatBuffersMapper.MAPPED_ARRAY_ALIGNMENT);
+        sd3.convertToVariable(sd3.getVariable("c"));
+        INDArray cVar = sd3.getVariable("c").getArr();
+        assertNotSame(cMapped, cVar);
+        cVar.addi(1.0);
+        assertEquals(sd.getVariable("c").getArr().add(1.0), cVar);
+        assertArrayEquals(bytes, Files.readAllBytes(f.toPath()));
+    }
+
     @ParameterizedTest
     @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
     public void pooling3DSerialization(Nd4jBackend backend) {
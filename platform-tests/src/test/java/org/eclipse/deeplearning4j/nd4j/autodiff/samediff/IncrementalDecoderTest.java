@@ -0,0 +1,126 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.eclipse.deeplearning4j.nd4j.autodiff.samediff;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.nd4j.autodiff.samediff.IncrementalDecoder;
+import org.nd4j.autodiff.samediff.SDVariable;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.common.tests.tags.NativeTag;
+import org.nd4j.common.tests.tags.TagNames;
+import org.nd4j.linalg.BaseNd4jTestWithBackends;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.factory.Nd4jBackend;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@NativeTag
+@Tag(TagNames.SAMEDIFF)
+public class IncrementalDecoderTest extends BaseNd4jTestWithBackends {
+
+    private static final int D = 8;
+
+    @Override
+    public char ordering() {
+        return 'c';
+    }
+
+    /**
+     * Single head attention layer with a key/value cache, sequence along axis 0: for inputs x of shape [n, D],
+     * outputs the attention result for each of the n new positions, attending to all previous and new positions
+     */
+    private static SameDiff attention() {
+        SameDiff sd = SameDiff.create();
+        SDVariable x = sd.placeHolder("x", DataType.FLOAT, -1, D);
+        SDVariable pastK = sd.placeHolder("past_k", DataType.FLOAT, -1, D);
+        SDVariable pastV = sd.placeHolder("past_v", DataType.FLOAT, -1, D);
+        SDVariable wq = sd.constant("wq", Nd4j.randn(DataType.FLOAT, D, D));
+        SDVariable wk = sd.constant("wk", Nd4j.randn(DataType.FLOAT, D, D));
+        SDVariable wv = sd.constant("wv", Nd4j.randn(DataType.FLOAT, D, D));
+
+        SDVariable k = sd.concat("present_k", 0, pastK, x.mmul(wk));
+        SDVariable v = sd.concat("present_v", 0, pastV, x.mmul(wv));
+        SDVariable scores = x.mmul(wq).mmul(k.transpose()).div(Math.sqrt(D));
+        sd.nn.softmax(scores, 1).mmul("out", v);
+        return sd;
+    }
+
+    private static INDArray fullPrefix(SameDiff sd, INDArray x) {
+        //Recompute from scratch on the full prefix; the last row only attends to previous positions
+        Map<String, INDArray> ph = new HashMap<>();
+        ph.put("x", x);
+        ph.put("past_k", Nd4j.create(DataType.FLOAT, 0, D));
+        ph.put("past_v", Nd4j.create(DataType.FLOAT, 0, D));
+        INDArray out = sd.outputSingle(ph, "out");
+        return out.get(NDArrayIndex.interval(out.size(0) - 1, out.size(0)), NDArrayIndex.all());
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
+    public void testIncrementalDecoding(Nd4jBackend backend) {
+        SameDiff sd = attention();
+        IncrementalDecoder decoder = new IncrementalDecoder.Builder(sd)
+                .state("past_k", "present_k", 0)
+                .state("past_v", "present_v", 0)
+                .outputs("out")
+                .maxLength(8)
+                .build();
+
+        INDArray x = Nd4j.rand(DataType.FLOAT, 6, D);
+
+        //Prompt of 2 positions, then one position per step
+        INDArray out = decoder.stepSingle(Collections.singletonMap("x", x.get(NDArrayIndex.interval(0, 2), NDArrayIndex.all())), "out");
+        assertArrayEquals(new long[]{2, D}, out.shape());
+        assertEquals(2, decoder.getLength());
+        assertEquals(fullPrefix(sd, x.get(NDArrayIndex.interval(0, 2), NDArrayIndex.all())),
+                out.get(NDArrayIndex.interval(1, 2), NDArrayIndex.all()));
+
+        for (int i = 2; i < 6; i++) {
+            out = decoder.stepSingle(Collections.singletonMap("x", x.get(NDArrayIndex.interval(i, i + 1), NDArrayIndex.all())), "out");
+            assertArrayEquals(new long[]{1, D}, out.shape());
+            assertEquals(i + 1, decoder.getLength());
+            INDArray exp = fullPrefix(sd, x.get(NDArrayIndex.interval(0, i + 1), NDArrayIndex.all()));
+            assertTrue(exp.equalsWithEps(out, 1e-5), "Position " + i + "\nExpected: " + exp + "\nActual: " + out);
+        }
+
+        INDArray expK = x.get(NDArrayIndex.interval(0, 6), NDArrayIndex.all()).mmul(sd.getVariable("wk").getArr());
+        assertTrue(expK.equalsWithEps(decoder.getState("past_k"), 1e-5));
+
+        //Exceeding the maximum length: state is not modified
+        assertThrows(IllegalStateException.class, () -> decoder.step(Collections.singletonMap("x", Nd4j.rand(DataType.FLOAT, 3, D))));
+        assertEquals(6, decoder.getLength());
+
+        //New sequence
+        decoder.reset();
+        assertEquals(0, decoder.getLength());
+        out = decoder.stepSingle(Collections.singletonMap("x", x.get(NDArrayIndex.interval(3, 4), NDArrayIndex.all())), "out");
+        assertEquals(fullPrefix(sd, x.get(NDArrayIndex.interval(3, 4), NDArrayIndex.all())), out);
+    }
+}
@@ -26,7 +26,13 @@ import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.nd4j.autodiff.listeners.At;
+import org.nd4j.autodiff.listeners.Operation;
+import org.nd4j.autodiff.samediff.SDVariable;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.internal.InferenceSession;
 import org.nd4j.autodiff.samediff.internal.memory.ArrayCacheMemoryMgr;
+import org.nd4j.autodiff.samediff.internal.memory.PlannedMemoryMgr;
 import org.nd4j.common.tests.tags.NativeTag;
 import org.nd4j.common.tests.tags.TagNames;
 import org.nd4j.linalg.BaseNd4jTestWithBackends;
@@ -36,6 +42,8 @@ import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.factory.Nd4jBackend;
 
 import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -161,4 +169,65 @@ public class MemoryMgrTest extends BaseNd4jTestWithBackends {
         assertEquals(2000, mmgr.getLruCacheValues().size());
     }
 
+    @ParameterizedTest
+    @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
+    public void testPlannedMemoryReuse(Nd4jBackend backend) {
+        PlannedMemoryMgr mmgr = new PlannedMemoryMgr();
+        Map<String, INDArray> ph = Collections.singletonMap("in", Nd4j.create(DataType.FLOAT, 2, 3));
+
+        for (int iter = 0; iter < 2; iter++) {
+            mmgr.executionStart(ph);
+            INDArray a = mmgr.allocate(false, DataType.FLOAT, 10, 10);
+            INDArray b = mmgr.allocate(false, DataType.FLOAT, 10, 10);
+            mmgr.release(a);
+            INDArray c = mmgr.allocate(false, DataType.FLOAT, 10, 10);
+            mmgr.release(b);
+            mmgr.release(c);
+            mmgr.executionEnd();
+            if (iter > 0) {
+                //Planned: a and c have disjoint lifetimes, and should share the same arena region
+                assertEquals(a.data().address(), c.data().address());
+                assertEquals(a.offset(), c.offset());
+                assertNotEquals(a.offset(), b.offset());
+            }
+        }
+
+        assertEquals(1, mmgr.numPlans());
+        assertEquals(3, mmgr.getPlannedAllocations());
+        assertEquals(3 * 400, mmgr.getTotalBytes());
+        assertEquals(2 * 400, mmgr.getPeakBytes());
+        assertTrue(mmgr.getPlannedBytes() >= mmgr.getPeakBytes());
+        assertTrue(mmgr.getPlannedBytes() < mmgr.getTotalBytes());
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
+    public void testPlannedMemoryInference(Nd4jBackend backend) {
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, -1, 10);
+        SDVariable x = in;
+        for (int i = 0; i < 5; i++) {
+            SDVariable w = sd.var("w" + i, Nd4j.rand(DataType.FLOAT, 10, 10));
+            x = sd.nn.relu(x.mmul(w), 0.0);
+        }
+        sd.nn.softmax("out", x);
+
+        InferenceSession is = new InferenceSession(sd);
+        PlannedMemoryMgr mmgr = new PlannedMemoryMgr();
+        is.setMmgr(mmgr);
+
+        for (int mb : new int[]{3, 3, 3, 5, 5, 3}) {
+            Map<String, INDArray> ph = Collections.singletonMap("in", Nd4j.rand(DataType.FLOAT, mb, 10));
+            INDArray exp = sd.outputSingle(ph, "out");
+            Map<String, INDArray> out = is.output(Collections.singletonList("out"), ph, null,
+                    Collections.emptyList(), null, At.defaultAt(Operation.INFERENCE));
+            assertEquals(exp, out.get("out"));
+            assertTrue(mmgr.getPlannedBytes() <= mmgr.getTotalBytes());
+        }
+
+        //One plan per distinct placeholder shape
+        assertEquals(2, mmgr.numPlans());
+        assertTrue(mmgr.getPlannedAllocations() > 0);
+    }
+
 }
@@ -0,0 +1,156 @@
+/*
+ *  ******************************************************************************
+ *  *
+ *  *
+ *  * This program and the accompanying materials are made available under the
+ *  * terms of the Apache License, Version 2.0 which is available at
+ *  * https://www.apache.org/licenses/LICENSE-2.0.
+ *  *
+ *  *  See the NOTICE file distributed with this work for additional
+ *  *  information regarding copyright ownership.
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  * License for the specific language governing permissions and limitations
+ *  * under the License.
+ *  *
+ *  * SPDX-License-Identifier: Apache-2.0
+ *  *****************************************************************************
+ */
+
+package org.eclipse.deeplearning4j.nd4j.autodiff.samediff;
+
+import org.deeplearning4j.datasets.iterator.utilty.ListDataSetIterator;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.nd4j.autodiff.samediff.SDVariable;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.transform.PostTrainingQuantization;
+import org.nd4j.autodiff.samediff.transform.QuantizationEvaluation;
+import org.nd4j.common.tests.tags.NativeTag;
+import org.nd4j.common.tests.tags.TagNames;
+import org.nd4j.evaluation.classification.Evaluation;
+import org.nd4j.linalg.BaseNd4jTestWithBackends;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.impl.layers.convolution.config.Conv2DConfig;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.factory.Nd4jBackend;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@NativeTag
+@Tag(TagNames.SAMEDIFF)
+public class PostTrainingQuantizationTest extends BaseNd4jTestWithBackends {
+
+    @Override
+    public char ordering() {
+        return 'c';
+    }
+
+    private static SameDiff mlp() {
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, -1, 16);
+        SDVariable w0 = sd.var("w0", Nd4j.randn(DataType.FLOAT, 16, 32).muli(0.3));
+        SDVariable b0 = sd.var("b0", Nd4j.randn(DataType.FLOAT, 32).muli(0.1));
+        SDVariable w1 = sd.var("w1", Nd4j.randn(DataType.FLOAT, 32, 4).muli(0.3));
+        SDVariable h = sd.nn.relu(in.mmul(w0).add(b0), 0);
+        sd.nn.softmax("out", h.mmul(w1));
+        return sd;
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
+    public void testWeightQuantization(Nd4jBackend backend) {
+        SameDiff sd = mlp();
+        SameDiff q = new PostTrainingQuantization.Builder().build().quantize(sd);
+
+        //Original weights are replaced by INT8 constants plus per-channel scales; original graph is not modified
+        assertFalse(q.hasVariable("w0"));
+        assertFalse(q.hasVariable("w1"));
+        assertTrue(q.hasVariable("b0"));
+        assertTrue(sd.hasVariable("w0"));
+        INDArray w0 = sd.getVariable("w0").getArr();
+        INDArray w0q = q.getVariable("w0_int8").getArr();
+        INDArray w0s = q.getVariable("w0_scale").getArr();
+        assertTrue(q.getVariable("w0_int8").isConstant());
+        assertEquals(DataType.INT8, w0q.dataType());
+        assertArrayEquals(new long[]{16, 32}, w0q.shape());
+        assertEquals(DataType.FLOAT, w0s.dataType());
+        assertArrayEquals(new long[]{32}, w0s.shape());
+
+        //Stored weights are ~4x smaller: 1 byte per value, plus one FLOAT scale per channel
+        long origBytes = w0.length() * w0.dataType().width();
+        long quantBytes = w0q.length() * w0q.dataType().width() + w0s.length() * w0s.dataType().width();
+        assertEquals(origBytes, 4 * w0q.length() * w0q.dataType().width());
+        assertTrue(quantBytes < origBytes / 3, "Original: " + origBytes + " bytes, quantized: " + quantBytes + " bytes");
+        assertEquals(127.0, Transforms.abs(w0q.castTo(DataType.FLOAT)).max(0).minNumber().doubleValue(), 0.0);
+
+        //Dequantization (cast + multiply) happens in the graph, at the consuming op
+        assertEquals(sd.getOps().size() + 4, q.getOps().size());
+        assertEquals(2, q.getOps().values().stream().filter(o -> o.getOp().opName().equals("cast")).count());
+
+        INDArray input = Nd4j.rand(DataType.FLOAT, 10, 16);
+        INDArray exp = sd.outputSingle(Collections.singletonMap("in", input), "out");
+        INDArray act = q.outputSingle(Collections.singletonMap("in", input), "out");
+        assertArrayEquals(exp.shape(), act.shape());
+        assertTrue(exp.equalsWithEps(act, 1e-2), "Expected:\n" + exp + "\nActual:\n" + act);
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
+    public void testCalibrationAndEvaluation(Nd4jBackend backend) {
+        SameDiff sd = mlp();
+        //Use the original network's predictions as labels: original accuracy is 1.0
+        INDArray features = Nd4j.rand(DataType.FLOAT, 200, 16);
+        INDArray pred = sd.outputSingle(Collections.singletonMap("in", features), "out");
+        INDArray labels = Nd4j.zeros(DataType.FLOAT, 200, 4);
+        INDArray idx = pred.argMax(1);
+        for (int i = 0; i < 200; i++) {
+            labels.putScalar(i, idx.getInt(i), 1.0);
+        }
+        DataSetIterator iter = new ListDataSetIterator<>(new DataSet(features, labels).asList(), 20);
+
+        PostTrainingQuantization ptq = new PostTrainingQuantization.Builder()
+                .calibrationData(iter, 5)
+                .build();
+        SameDiff q = ptq.quantize(sd);
+        assertTrue(q.getOps().values().stream().anyMatch(o -> o.getOp().opName().equals("fake_quant_with_min_max_vars")));
+
+        QuantizationEvaluation e = ptq.evaluate(sd, q, iter, "out", new Evaluation());
+        assertEquals(1.0, e.originalValue(Evaluation.Metric.ACCURACY), 1e-6);
+        double delta = e.delta(Evaluation.Metric.ACCURACY);
+        assertTrue(delta <= 0 && delta > -0.1, "Accuracy delta: " + delta);
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
+    public void testConv2dPerChannel(Nd4jBackend backend) {
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, -1, 3, 8, 8);
+        SDVariable w = sd.constant("w", Nd4j.randn(DataType.FLOAT, 2, 2, 3, 4));
+        SDVariable b = sd.constant("b", Nd4j.rand(DataType.FLOAT, 4));
+        sd.cnn.conv2d("out", in, w, b, Conv2DConfig.builder().kH(2).kW(2).build());
+
+        SameDiff q = new PostTrainingQuantization.Builder().build().quantize(sd);
+        assertFalse(q.hasVariable("w"));
+        assertEquals(DataType.INT8, q.getVariable("w_int8").dataType());
+        assertArrayEquals(new long[]{4}, q.getVariable("w_scale").getArr().shape());
+
+        Map<String, INDArray> ph = Collections.singletonMap("in", Nd4j.rand(DataType.FLOAT, 2, 3, 8, 8));
+        INDArray exp = sd.outputSingle(ph, "out");
+        INDArray act = q.outputSingle(ph, "out");
+        assertTrue(exp.equalsWithEps(act, 5e-2), "Expected:\n" + exp + "\nActual:\n" + act);
+
+        //Per-tensor: single scale
+        SameDiff q2 = new PostTrainingQuantization.Builder().perChannel(false).build().quantize(sd);
+        assertEquals(1, q2.getVariable("w_scale").getArr().length());
+    }
+}
@@ -25,8 +25,10 @@ import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.nd4j.autodiff.samediff.InferencePool;
 import org.nd4j.autodiff.samediff.SDVariable;
 import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.internal.ExecutionPlan;
 import org.nd4j.common.primitives.AtomicBoolean;
 import org.nd4j.common.tests.BaseND4JTest;
 import org.nd4j.common.tests.tags.TagNames;
@@ -36,12 +38,15 @@ import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.factory.Nd4jBackend;
 
 import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @Slf4j
 @Tag(TagNames.SAMEDIFF)
@@ -109,6 +114,75 @@ public class SameDiffMultiThreadTests extends BaseND4JTest {
 
 
 
+    @ParameterizedTest
+    @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
+    public void testInferencePool(Nd4jBackend backend) throws Exception {
+        int nThreads = 8;
+        int nRuns = 200;
+        int poolSize = 2;
+
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, -1, 10);
+        SDVariable w1 = sd.var("w1", Nd4j.rand(DataType.FLOAT, 10, 10));
+        SDVariable b1 = sd.var("b1", Nd4j.rand(DataType.FLOAT, 10));
+        SDVariable w2 = sd.var("w2", Nd4j.rand(DataType.FLOAT, 10, 10));
+        SDVariable b2 = sd.var("b2", Nd4j.rand(DataType.FLOAT, 10));
+        SDVariable l1 = sd.nn.tanh(in.mmul(w1).add(b1));
+        sd.nn.softmax("out", l1.mmul(w2).add(b2));
+
+        INDArray[] inputArrs = new INDArray[nThreads];
+        INDArray[] expOut = new INDArray[nThreads];
+        for( int i = 0; i < nThreads; i++) {
+            inputArrs[i] = Nd4j.rand(DataType.FLOAT, i+1, 10);
+            expOut[i] = sd.outputSingle(Collections.singletonMap("in", inputArrs[i]), "out");
+            inputArrs[i].setCloseable(false);
+            expOut[i].setCloseable(false);
+        }
+
+        InferencePool pool = sd.createInferencePool(poolSize);
+        ExecutionPlan plan = sd.compile("out");
+        CountDownLatch latch = new CountDownLatch(nThreads);
+        AtomicBoolean[] failuresByThread = new AtomicBoolean[nThreads];
+        AtomicInteger[] counters = new AtomicInteger[nThreads];
+        for( int i = 0; i < nThreads; i++) {
+            failuresByThread[i] = new AtomicBoolean(false);
+            counters[i] = new AtomicInteger(0);
+            final int j = i;
+            Thread t = new Thread(() -> {
+                try {
+                    for (int i1 = 0; i1 < nRuns; i1++) {
+                        Map<String,INDArray> ph = Collections.singletonMap("in", inputArrs[j]);
+                        INDArray out = (i1 % 2 == 0) ? pool.outputSingle(ph, "out") : pool.output(plan, ph).get("out");
+                        if (!expOut[j].equals(out)) {
+                            failuresByThread[j].set(true);
+                            log.error("Failure in thread: {} - iteration {}\nExpected ={}\nActual={}", j, i1, expOut[j], out);
+                            break;
+                        }
+                        counters[j].addAndGet(1);
+                    }
+                } catch (Throwable t1) {
+                    failuresByThread[j].set(true);
+                    log.error("Error in thread: {}", Thread.currentThread().getId(), t1);
+                } finally {
+                    latch.countDown();
+                }
+            });
+            t.start();
+        }
+        latch.await();
+
+        for(int i = 0; i < nThreads; i++) {
+            assertFalse(failuresByThread[i].get(),"Thread " + i + " failed");
+            assertEquals( nRuns, counters[i].get(),"Thread " + i + " number of runs");
+        }
+
+        //Session count is bounded by the pool size, not the number of threads
+        assertTrue(pool.numSessions() <= poolSize);
+        assertEquals(pool.numSessions(), pool.numIdleSessions());
+        pool.close();
+        assertThrows(IllegalStateException.class, () -> pool.outputSingle(Collections.singletonMap("in", inputArrs[0]), "out"));
+    }
+
     public static void doTest(SameDiff sd, int nThreads, int nRuns, INDArray[] inputArrs, INDArray[] expOut,
                               String inName, String outName,
                               AtomicBoolean[] failuresByThread, AtomicInteger[] counters, Semaphore s, CountDownLatch latch){
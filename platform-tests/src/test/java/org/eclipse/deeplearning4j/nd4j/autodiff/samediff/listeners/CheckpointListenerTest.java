@@ -264,4 +264,33 @@ public class CheckpointListenerTest extends BaseNd4jTestWithBackends {
 
         assertEquals(5, l.availableCheckpoints().size());
     }
+
+    @ParameterizedTest
+    @MethodSource("org.nd4j.linalg.BaseNd4jTestWithBackends#configs")
+    public void testCheckpointAsync(Nd4jBackend backend) throws Exception {
+        File dir = testDir.toFile();
+
+        SameDiff sd = getModel();
+        CheckpointListener l = CheckpointListener.builder(dir)
+                .saveEveryNEpochs(1)
+                .asyncSave(1)
+                .build();
+
+        sd.setListeners(l);
+
+        DataSetIterator iter = getIter();
+        sd.fit(iter, 3);
+        l.awaitPendingSaves();
+        assertTrue(l.getLastStallTimeMs() >= 0);
+        assertTrue(l.getLastWriteTimeMs() >= 0);
+
+        File[] files = dir.listFiles();
+        assertEquals(4, files.length);  //3 checkpoints and 1 text file (metadata) - no temporary files
+        assertEquals(3, l.availableCheckpoints().size());
+
+        //Last checkpoint was saved at the end of the last epoch: should match the current parameters
+        SameDiff loaded = CheckpointListener.loadLastCheckpoint(dir, true);
+        assertEquals(sd.getArrForVarName("W"), loaded.getArrForVarName("W"));
+        assertEquals(sd.getArrForVarName("b"), loaded.getArrForVarName("b"));
+    }
 }